@@ -445,4 +445,16 @@ public interface AnnotationSchemaService
      */
     CAS prepareCasForExport(CAS aCas, SourceDocument aSourceDocument)
         throws ResourceInitializationException, UIMAException, IOException;
+
+    /**
+     * Performs the same upgrade as {@link #prepareCasForExport(CAS, SourceDocument)} but uses the
+     * given type system instead of looking up the type system of the project. This does not
+     * access the database.
+     * 
+     * @param aExportTypeSystem
+     *            the full type system of the project without internal types as returned by
+     *            {@link #getFullProjectTypeSystem(Project, boolean)}.
+     */
+    CAS prepareCasForExport(CAS aCas, TypeSystemDescription aExportTypeSystem)
+        throws ResourceInitializationException, UIMAException, IOException;
 }
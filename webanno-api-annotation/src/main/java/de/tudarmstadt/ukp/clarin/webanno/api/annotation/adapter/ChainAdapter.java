@@ -41,6 +41,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.MultipleSentenceCoveredException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.ChainLinkIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -109,6 +110,8 @@ public class ChainAdapter
         int begin = tokens.get(0).getBegin();
         int end = tokens.get(tokens.size() - 1).getEnd();
 
+        ChainLinkIndex.invalidate(aJCas.getCas());
+
         // Add the link annotation on the span
         AnnotationFS newLink = newLink(aJCas, begin, end);
 
@@ -138,6 +141,8 @@ public class ChainAdapter
     
     public int addArc(JCas aJCas, AnnotationFS aOriginFs, AnnotationFS aTargetFs)
     {
+        ChainLinkIndex.invalidate(aJCas.getCas());
+        
         // Determine if the links are adjacent. If so, just update the arc label
         AnnotationFS originNext = getNextLink(aOriginFs);
         AnnotationFS targetNext = getNextLink(aTargetFs);
@@ -236,6 +241,8 @@ public class ChainAdapter
     @Override
     public void delete(SourceDocument aDocument, String aUsername, JCas aJCas, VID aVid)
     {
+        ChainLinkIndex.invalidate(aJCas.getCas());
+        
         if (aVid.getSubId() == VID.NONE) {
             deleteSpan(aJCas, aVid.getId());
         }
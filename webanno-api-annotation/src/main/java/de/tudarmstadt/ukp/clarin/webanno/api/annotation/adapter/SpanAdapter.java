@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSameSentence;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectAt;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectOverlapping;
 import static org.apache.uima.fit.util.CasUtil.getType;
@@ -46,6 +47,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.MultipleSenten
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.cas.OffsetIndex;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -180,14 +182,14 @@ public class SpanAdapter
                     "Unsupported anchoring mode: [" + getLayer().getAnchoringMode() + "]");
         }
         
-        Type type = CasUtil.getType(aJCas.getCas(), getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aJCas.getCas(), type, begin, end)) {
-            if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
-                return getFeatureValue(aFeature, fs);
-            }
+        // Only annotations covered by the anchored offsets are considered
+        if (aBegin < begin || aEnd > end) {
+            return null;
         }
         
-        return null;
+        Type type = CasUtil.getType(aJCas.getCas(), getAnnotationTypeName());
+        List<AnnotationFS> existing = selectAt(aJCas.getCas(), type, aBegin, aEnd);
+        return existing.isEmpty() ? null : getFeatureValue(aFeature, existing.get(0));
     }
 
     /**
@@ -200,11 +202,10 @@ public class SpanAdapter
         // If stacking is not allowed and there already is an annotation, then return the address
         // of the existing annotation.
         Type type = CasUtil.getType(aCas, getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aCas, type, aBegin, aEnd)) {
-            if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
-                if (!getLayer().isAllowStacking()) {
-                    return getAddr(fs);
-                }
+        if (!getLayer().isAllowStacking()) {
+            List<AnnotationFS> existing = selectAt(aCas, type, aBegin, aEnd);
+            if (!existing.isEmpty()) {
+                return getAddr(existing.get(0));
             }
         }
         
@@ -224,6 +225,7 @@ public class SpanAdapter
         }
         
         aCas.addFsToIndexes(newAnnotation);
+        OffsetIndex.added(aCas, type, newAnnotation);
         
         publishEvent(new SpanCreatedEvent(this, aDocument, aUsername, newAnnotation));
         
@@ -235,6 +237,7 @@ public class SpanAdapter
     {
         AnnotationFS fs = selectByAddr(aJCas, AnnotationFS.class, aVid.getId());
         aJCas.removeFsFromIndexes(fs);
+        OffsetIndex.invalidate(aJCas.getCas(), getAnnotationType(aJCas.getCas()));
 
         // delete associated attachFeature
         if (getAttachTypeName() != null) {
@@ -254,11 +257,9 @@ public class SpanAdapter
             AnnotationFeature aFeature, int aBegin, int aEnd, Object aValue)
     {
         Type type = CasUtil.getType(aJCas.getCas(), getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
-            if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
-                if (ObjectUtils.equals(getFeatureValue(aFeature, fs), aValue)) {
-                    delete(aDocument, aUsername, aJCas, new VID(getAddr(fs)));
-                }
+        for (AnnotationFS fs : selectAt(aJCas.getCas(), type, aBegin, aEnd)) {
+            if (ObjectUtils.equals(getFeatureValue(aFeature, fs), aValue)) {
+                delete(aDocument, aUsername, aJCas, new VID(getAddr(fs)));
             }
         }
     }
@@ -19,7 +19,6 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.model;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getLastSentenceInDisplayWindow;
-import static org.apache.uima.fit.util.JCasUtil.select;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -33,6 +32,7 @@ import org.apache.commons.lang3.ObjectUtils;
 import org.apache.uima.cas.CASException;
 import org.apache.uima.jcas.JCas;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.SentenceIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -307,7 +307,7 @@ public class AnnotatorStateImpl
         firstVisibleUnitIndex = WebAnnoCasUtil.getSentenceNumber(jcas,
                 aFirstVisibleUnit.getBegin());
         lastVisibleUnitIndex = WebAnnoCasUtil.getSentenceNumber(jcas, lastVisibleUnit.getBegin());
-        unitCount = select(jcas, Sentence.class).size();
+        unitCount = SentenceIndex.get(jcas).size();
         
         windowBeginOffset = aFirstVisibleUnit.getBegin();
         windowEndOffset = lastVisibleUnit.getEnd();
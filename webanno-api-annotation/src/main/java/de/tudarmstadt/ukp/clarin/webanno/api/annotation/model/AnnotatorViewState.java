@@ -21,14 +21,12 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getFirstSentence;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getNextSentenceAddress;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
-import static org.apache.uima.fit.util.JCasUtil.select;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.uima.jcas.JCas;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.SentenceIndex;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.ScriptDirection;
@@ -183,22 +181,22 @@ public interface AnnotatorViewState
 
     default void moveToUnit(JCas aJCas, int aIndex)
     {
-        List<Sentence> units = new ArrayList<>(select(aJCas, Sentence.class));
+        SentenceIndex units = SentenceIndex.get(aJCas);
         
         // Index is 1-based!
         // The code below sets the focus unit index explicitly - see comment on getSentenceNumber
         // in moveToOffset for an explanation. We already know the index here, so no need to
         // calculate it (wrongly) using getSentenceNumber.
         if (aIndex <= 0) {
-            moveToOffset(aJCas, units.get(0).getBegin());
+            moveToOffset(aJCas, units.getBegin(0));
             setFocusUnitIndex(1);
         }
         else if (aIndex > units.size()) {
-            moveToOffset(aJCas, units.get(units.size() - 1).getBegin());
+            moveToOffset(aJCas, units.getBegin(units.size() - 1));
             setFocusUnitIndex(units.size());
         }
         else {
-            moveToOffset(aJCas, units.get(aIndex - 1).getBegin());
+            moveToOffset(aJCas, units.getBegin(aIndex - 1));
             setFocusUnitIndex(aIndex);
         }
     }
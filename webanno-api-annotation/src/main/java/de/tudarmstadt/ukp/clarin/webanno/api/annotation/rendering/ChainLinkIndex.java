@@ -0,0 +1,315 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static org.apache.uima.fit.util.CasUtil.selectFS;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ChainAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.cas.CasIndexCache;
+
+/**
+ * Index of the links of all chains on a chain layer by their offsets. It allows finding the links
+ * visible in a window without walking every chain in the document.
+ * <p>
+ * There is one index per chain layer, kept in a {@link CasIndexCache}. The {@link ChainAdapter}
+ * invalidates the indexes whenever it changes chains. Since links are reached through the chains
+ * and not through the annotation index, the index is also rebuilt if the number of links in the
+ * CAS changes or if a link no longer has the offsets it had when the index was built.
+ */
+public class ChainLinkIndex
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ChainLinkIndex.class);
+
+    private static final CasIndexCache<ChainLinkIndex> INDEXES = new CasIndexCache<>();
+
+    /**
+     * Size of the link annotation index when the index was built.
+     */
+    private final int linkCount;
+
+    // The links sorted by begin offset, then by chain and position within the chain
+    private final int[] addrs;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] chains;
+    private final int[] positions;
+
+    /**
+     * The maximum length of any link. Used to limit the search for links which start before the
+     * window and end after it.
+     */
+    private final int maxLength;
+
+    /**
+     * Links of chains that are not ordered by their begin offsets (which may happen when chains
+     * behave like linked lists) in chain order by chain index.
+     */
+    private final Map<Integer, int[]> unorderedChains;
+
+    private ChainLinkIndex(CAS aCas, ChainAdapter aAdapter, Type aLinkType)
+    {
+        linkCount = aCas.getAnnotationIndex(aLinkType).size();
+
+        Type chainType = aAdapter.getAnnotationType(aCas);
+        Feature chainFirst = chainType.getFeatureByBaseName(aAdapter.getChainFirstFeatureName());
+
+        List<int[]> entries = new ArrayList<>();
+        Map<Integer, int[]> unordered = new HashMap<>();
+        int longest = 0;
+        int chainIndex = 0;
+        for (FeatureStructure chainFs : selectFS(aCas, chainType)) {
+            AnnotationFS linkFs = (AnnotationFS) chainFs.getFeatureValue(chainFirst);
+            List<Integer> chainAddrs = new ArrayList<>();
+            boolean ordered = true;
+            int prevBegin = Integer.MIN_VALUE;
+
+            // Guard against loops in the chain - a chain cannot have more links than there are
+            // links in the CAS.
+            while (linkFs != null && chainAddrs.size() <= linkCount) {
+                int addr = getAddr(linkFs);
+                entries.add(new int[] { addr, linkFs.getBegin(), linkFs.getEnd(), chainIndex,
+                        chainAddrs.size() });
+                chainAddrs.add(addr);
+                ordered &= linkFs.getBegin() >= prevBegin;
+                prevBegin = linkFs.getBegin();
+                longest = Math.max(longest, linkFs.getEnd() - linkFs.getBegin());
+
+                Feature linkNext = linkFs.getType()
+                        .getFeatureByBaseName(aAdapter.getLinkNextFeatureName());
+                linkFs = (AnnotationFS) linkFs.getFeatureValue(linkNext);
+            }
+
+            if (!ordered) {
+                unordered.put(chainIndex, chainAddrs.stream().mapToInt(i -> i).toArray());
+            }
+
+            chainIndex++;
+        }
+
+        entries.sort(Comparator.<int[]>comparingInt(e -> e[1])
+                .thenComparingInt(e -> e[3])
+                .thenComparingInt(e -> e[4]));
+
+        addrs = new int[entries.size()];
+        begins = new int[entries.size()];
+        ends = new int[entries.size()];
+        chains = new int[entries.size()];
+        positions = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            int[] e = entries.get(i);
+            addrs[i] = e[0];
+            begins[i] = e[1];
+            ends[i] = e[2];
+            chains[i] = e[3];
+            positions[i] = e[4];
+        }
+        maxLength = longest;
+        unorderedChains = unordered;
+    }
+
+    /**
+     * Select the links visible in the given window. A link is visible if it begins within the
+     * window or if it begins before the window and ends after it. As when walking the chains, the
+     * links of a chain after the first link which begins after the window are not visible.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aAdapter
+     *            the adapter of the chain layer.
+     * @param aWindowBegin
+     *            the begin of the window.
+     * @param aWindowEnd
+     *            the end of the window.
+     * @return the visible links in chain order by the index of their chain among all chains on
+     *         the layer. Chains without visible links are not included.
+     */
+    public static Map<Integer, List<AnnotationFS>> selectVisibleLinks(CAS aCas,
+            ChainAdapter aAdapter, int aWindowBegin, int aWindowEnd)
+    {
+        Map<Integer, List<AnnotationFS>> result = get(aCas, aAdapter).select(aCas, aWindowBegin,
+                aWindowEnd);
+        if (result != null) {
+            return result;
+        }
+
+        // The index is stale
+        return build(aCas, aAdapter).select(aCas, aWindowBegin, aWindowEnd);
+    }
+
+    /**
+     * @return the index of the given chain layer, built if there is none yet or if it does not
+     *         match the CAS.
+     */
+    /* package private */ static ChainLinkIndex get(CAS aCas, ChainAdapter aAdapter)
+    {
+        ChainLinkIndex index = INDEXES.get(aCas, aAdapter.getAnnotationTypeName());
+        if (index != null && index.isCurrent(aCas, getLinkType(aCas, aAdapter))) {
+            return index;
+        }
+
+        return build(aCas, aAdapter);
+    }
+
+    private static ChainLinkIndex build(CAS aCas, ChainAdapter aAdapter)
+    {
+        long start = System.currentTimeMillis();
+        ChainLinkIndex index = new ChainLinkIndex(aCas, aAdapter, getLinkType(aCas, aAdapter));
+        INDEXES.put(aCas, aAdapter.getAnnotationTypeName(), index);
+        LOG.trace("Built index of [{}] links on [{}] in {} ms", index.addrs.length,
+                aAdapter.getAnnotationTypeName(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    private static Type getLinkType(CAS aCas, ChainAdapter aAdapter)
+    {
+        String linkTypeName = StringUtils.substringBeforeLast(aAdapter.getAnnotationTypeName(),
+                ChainAdapter.CHAIN) + ChainAdapter.LINK;
+        return aCas.getTypeSystem().getType(linkTypeName);
+    }
+
+    /**
+     * Drop the indexes of all chain layers for the given CAS. Call this whenever chains are
+     * changed.
+     */
+    public static void invalidate(CAS aCas)
+    {
+        INDEXES.invalidate(aCas);
+    }
+
+    private boolean isCurrent(CAS aCas, Type aLinkType)
+    {
+        return aCas.getAnnotationIndex(aLinkType).size() == linkCount;
+    }
+
+    /**
+     * @return the visible links or {@code null} if the index turns out to be stale.
+     */
+    private Map<Integer, List<AnnotationFS>> select(CAS aCas, int aWindowBegin, int aWindowEnd)
+    {
+        // Collect the visible links by chain - ordered by their position in the chain
+        Map<Integer, TreeMap<Integer, AnnotationFS>> candidates = new TreeMap<>();
+
+        // Links beginning before the window and ending after it - since no link is longer than
+        // maxLength, these must begin after (aWindowEnd - maxLength).
+        int from = lowerBound(aWindowEnd - maxLength + 1);
+        int to = lowerBound(aWindowBegin);
+        for (int i = from; i < to; i++) {
+            if (ends[i] > aWindowEnd && !addCandidate(aCas, candidates, i)) {
+                return null;
+            }
+        }
+
+        // Links beginning within the window
+        from = to;
+        to = lowerBound(aWindowEnd);
+        for (int i = from; i < to; i++) {
+            if (!addCandidate(aCas, candidates, i)) {
+                return null;
+            }
+        }
+
+        Map<Integer, List<AnnotationFS>> result = new TreeMap<>();
+        for (Map.Entry<Integer, TreeMap<Integer, AnnotationFS>> e : candidates.entrySet()) {
+            int[] chainAddrs = unorderedChains.get(e.getKey());
+            if (chainAddrs == null) {
+                result.put(e.getKey(), new ArrayList<>(e.getValue().values()));
+            }
+            else {
+                // In chains which are not ordered by offset, a link beginning after the window
+                // ends the visible part of the chain even if later links are within the window.
+                List<AnnotationFS> links = new ArrayList<>();
+                for (int addr : chainAddrs) {
+                    AnnotationFS linkFs = aCas.getLowLevelCAS().ll_getFSForRef(addr);
+                    if (linkFs.getBegin() >= aWindowEnd) {
+                        break;
+                    }
+                    if (linkFs.getBegin() < aWindowBegin && linkFs.getEnd() <= aWindowEnd) {
+                        continue;
+                    }
+                    links.add(linkFs);
+                }
+                if (!links.isEmpty()) {
+                    result.put(e.getKey(), links);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private boolean addCandidate(CAS aCas,
+            Map<Integer, TreeMap<Integer, AnnotationFS>> aCandidates, int aIndex)
+    {
+        FeatureStructure fs;
+        try {
+            fs = aCas.getLowLevelCAS().ll_getFSForRef(addrs[aIndex]);
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+
+        if (!(fs instanceof AnnotationFS)) {
+            return false;
+        }
+
+        AnnotationFS linkFs = (AnnotationFS) fs;
+        if (linkFs.getBegin() != begins[aIndex] || linkFs.getEnd() != ends[aIndex]) {
+            return false;
+        }
+
+        aCandidates.computeIfAbsent(chains[aIndex], k -> new TreeMap<>())
+                .put(positions[aIndex], linkFs);
+        return true;
+    }
+
+    /**
+     * @return the index of the first link which begins at or after the given offset.
+     */
+    private int lowerBound(int aOffset)
+    {
+        int low = 0;
+        int high = begins.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (begins[mid] < aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -20,14 +20,12 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonMap;
-import static org.apache.uima.fit.util.CasUtil.selectFS;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
-import org.apache.uima.cas.Feature;
-import org.apache.uima.cas.FeatureStructure;
-import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.jcas.JCas;
 
@@ -74,37 +72,22 @@ public class ChainRenderer
         // will crash.
 
         ChainAdapter typeAdapter = getTypeAdapter();
-        Type chainType = typeAdapter.getAnnotationType(aJcas.getCas());
-        Feature chainFirst = chainType.getFeatureByBaseName(typeAdapter.getChainFirstFeatureName());
-
-        int colorIndex = 0;
-        // Iterate over the chains
-        for (FeatureStructure chainFs : selectFS(aJcas.getCas(), chainType)) {
-            AnnotationFS linkFs = (AnnotationFS) chainFs.getFeatureValue(chainFirst);
+        String bratTypeName = TypeUtil.getUiTypeName(typeAdapter);
+
+        // Only look at the links which are visible in the window. The color index of a chain is
+        // its index among all chains on the layer - also counting chains that have no visible
+        // links in the current window - because we would like the chain color to be independent
+        // of visibility. In particular the color of a chain should not change when switching
+        // pages/scrolling.
+        Map<Integer, List<AnnotationFS>> visibleChains = ChainLinkIndex.selectVisibleLinks(
+                aJcas.getCas(), typeAdapter, aState.getWindowBeginOffset(),
+                aState.getWindowEndOffset());
+        for (Entry<Integer, List<AnnotationFS>> chain : visibleChains.entrySet()) {
+            int colorIndex = chain.getKey();
             AnnotationFS prevLinkFs = null;
 
-            // Iterate over the links of the chain
-            while (linkFs != null) {
-                Feature linkNext = linkFs.getType()
-                        .getFeatureByBaseName(typeAdapter.getLinkNextFeatureName());
-                AnnotationFS nextLinkFs = (AnnotationFS) linkFs.getFeatureValue(linkNext);
-
-                // Is link after window? If yes, we can skip the rest of the chain
-                if (linkFs.getBegin() >= aState.getWindowEndOffset()) {
-                    break; // Go to next chain
-                }
-
-                // Is link before window? We only need links that being within the window and that
-                // end within the window
-                if (!(linkFs.getBegin() >= aState.getWindowBeginOffset())
-                        && (linkFs.getEnd() <= aState.getWindowEndOffset())) {
-                    // prevLinkFs remains null until we enter the window
-                    linkFs = nextLinkFs;
-                    continue; // Go to next link
-                }
-
-                String bratTypeName = TypeUtil.getUiTypeName(typeAdapter);
-
+            // Iterate over the visible links of the chain
+            for (AnnotationFS linkFs : chain.getValue()) {
                 // Render span
                 {
                     String bratLabelText = TypeUtil.getUiLabelText(typeAdapter, linkFs,
@@ -143,19 +126,8 @@ public class ChainRenderer
                 // Render errors if required features are missing
                 renderRequiredFeatureErrors(visibleFeatures, linkFs, aResponse);
 
-                // if (BratAjaxCasUtil.isSame(linkFs, nextLinkFs)) {
-                // log.error("Loop in CAS detected, aborting rendering of chains");
-                // break;
-                // }
-
                 prevLinkFs = linkFs;
-                linkFs = nextLinkFs;
             }
-            
-            // The color index is updated even for chains that have no visible links in the current
-            // window because we would like the chain color to be independent of visibility. In
-            // particular the color of a chain should not change when switching pages/scrolling.
-            colorIndex++;
         }
     }
 }
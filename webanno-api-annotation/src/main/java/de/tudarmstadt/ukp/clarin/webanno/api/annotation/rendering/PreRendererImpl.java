@@ -26,6 +26,8 @@ import org.springframework.stereotype.Component;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics.RenderingMetrics;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics.RenderingMetrics.Phase;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -35,24 +37,32 @@ public class PreRendererImpl implements PreRenderer
 {
     private final AnnotationSchemaService annotationService;
     private final LayerSupportRegistry layerSupportRegistry;
+    private final RenderingMetrics metrics;
 
     @Autowired
     public PreRendererImpl(LayerSupportRegistry aLayerSupportRegistry,
-            AnnotationSchemaService aAnnotationService)
+            AnnotationSchemaService aAnnotationService, RenderingMetrics aMetrics)
     {
         layerSupportRegistry = aLayerSupportRegistry;
         annotationService = aAnnotationService;
+        metrics = aMetrics;
     }
     
     @Override
     public void render(VDocument aResponse, AnnotatorState aState, JCas aJCas,
             List<AnnotationLayer> aLayers)
     {
+        long start = System.nanoTime();
+        
         // Render (custom) layers
         for (AnnotationLayer layer : aLayers) {
+            long layerStart = System.nanoTime();
             List<AnnotationFeature> features = annotationService.listAnnotationFeature(layer);
             Renderer renderer = layerSupportRegistry.getLayerSupport(layer).getRenderer(layer);
             renderer.render(aJCas, features, aResponse, aState);
+            metrics.recordLayer(layer, System.nanoTime() - layerStart);
         }
+        
+        metrics.record(Phase.PRE_RENDER, System.nanoTime() - start);
     }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets in the spirit of HdrHistogram. Every
+ * power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so the reported
+ * percentiles are within about 6% of the recorded values. Values are recorded with microsecond
+ * resolution up to several hours; larger values end up in the last bucket.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param aNanos
+     *            the duration in nanoseconds.
+     */
+    public void record(long aNanos)
+    {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(aNanos));
+        counts.incrementAndGet(bucket(micros));
+        count.increment();
+        total.add(micros);
+        max.accumulate(micros);
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of all recorded durations in microseconds.
+     */
+    public long getTotal()
+    {
+        return total.sum();
+    }
+
+    /**
+     * @return the largest recorded duration in microseconds.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded durations in microseconds.
+     */
+    public double getMean()
+    {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getTotal() / n;
+    }
+
+    /**
+     * @param aQuantile
+     *            the quantile between {@code 0} and {@code 1}, e.g. {@code 0.99}.
+     * @return the duration in microseconds below or at which the given fraction of the recorded
+     *         durations lies.
+     */
+    public long getPercentile(double aQuantile)
+    {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+
+        if (n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(aQuantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    static int bucket(long aMicros)
+    {
+        if (aMicros < SUB_BUCKETS) {
+            return (int) aMicros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(aMicros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((aMicros >>> shift) - SUB_BUCKETS);
+    }
+
+    static long upperBound(int aBucket)
+    {
+        if (aBucket < SUB_BUCKETS) {
+            return aBucket;
+        }
+
+        int shift = aBucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + aBucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
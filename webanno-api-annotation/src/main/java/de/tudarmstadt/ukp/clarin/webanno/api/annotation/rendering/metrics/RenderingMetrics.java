@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics;
+
+import java.util.Map;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+/**
+ * Collects latency histograms for the phases of rendering a document in an annotation editor.
+ */
+public interface RenderingMetrics
+{
+    public static enum Phase {
+        /**
+         * Loading the CAS to be rendered.
+         */
+        CAS_LOAD("cas-load"),
+
+        /**
+         * Rendering all layers into the {@code VDocument}. The time for each individual layer is
+         * recorded separately via {@link RenderingMetrics#recordLayer}.
+         */
+        PRE_RENDER("pre-render"),
+
+        /**
+         * Converting the {@code VDocument} into the data model of the editor.
+         */
+        EDITOR_RENDER("editor-render"),
+
+        /**
+         * Serializing the data sent to the browser.
+         */
+        SERIALIZE("serialize"),
+
+        /**
+         * Computing and serializing the patch against the previously rendered data, including
+         * the fingerprint kept for the next patch. Only recorded if a patch was computed.
+         */
+        DIFF("diff"),
+
+        /**
+         * The complete rendering, not including loading the CAS.
+         */
+        TOTAL("total");
+
+        private final String id;
+
+        private Phase(String aId)
+        {
+            id = aId;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+    }
+
+    void record(Phase aPhase, long aNanos);
+
+    void recordLayer(AnnotationLayer aLayer, long aNanos);
+
+    /**
+     * @return the histograms of the phases by {@link Phase#getId() phase ID}.
+     */
+    Map<String, LatencyHistogram> getPhaseHistograms();
+
+    /**
+     * @return the histograms of the individual layers by layer name.
+     */
+    Map<String, LatencyHistogram> getLayerHistograms();
+}
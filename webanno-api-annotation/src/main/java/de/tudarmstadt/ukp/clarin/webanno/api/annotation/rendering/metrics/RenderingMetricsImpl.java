@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+@ManagedResource
+@Component
+public class RenderingMetricsImpl
+    implements RenderingMetrics
+{
+    private final Map<String, LatencyHistogram> phases;
+    private final Map<String, LatencyHistogram> layers = new ConcurrentHashMap<>();
+
+    public RenderingMetricsImpl()
+    {
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase.getId(), new LatencyHistogram());
+        }
+        phases = Collections.unmodifiableMap(histograms);
+    }
+
+    @Override
+    public void record(Phase aPhase, long aNanos)
+    {
+        phases.get(aPhase.getId()).record(aNanos);
+    }
+
+    @Override
+    public void recordLayer(AnnotationLayer aLayer, long aNanos)
+    {
+        layers.computeIfAbsent(aLayer.getName(), name -> new LatencyHistogram()).record(aNanos);
+    }
+
+    @Override
+    public Map<String, LatencyHistogram> getPhaseHistograms()
+    {
+        return phases;
+    }
+
+    @Override
+    public Map<String, LatencyHistogram> getLayerHistograms()
+    {
+        return Collections.unmodifiableMap(new TreeMap<>(layers));
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getRenderCount()
+    {
+        return phases.get(Phase.TOTAL.getId()).getCount();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "us")
+    public long getRenderTimeP50()
+    {
+        return phases.get(Phase.TOTAL.getId()).getPercentile(0.5);
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "us")
+    public long getRenderTimeP99()
+    {
+        return phases.get(Phase.TOTAL.getId()).getPercentile(0.99);
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "us")
+    public long getMaxRenderTime()
+    {
+        return phases.get(Phase.TOTAL.getId()).getMax();
+    }
+
+    @ManagedAttribute(description = "Latency percentiles per rendering phase")
+    public String[] getPhaseSummary()
+    {
+        return summarize(phases);
+    }
+
+    @ManagedAttribute(description = "Latency percentiles per layer")
+    public String[] getLayerSummary()
+    {
+        return summarize(getLayerHistograms());
+    }
+
+    private static String[] summarize(Map<String, LatencyHistogram> aHistograms)
+    {
+        List<String> lines = new ArrayList<>();
+        for (Entry<String, LatencyHistogram> e : aHistograms.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            lines.add(String.format(
+                    "%s: count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+                    e.getKey(), h.getCount(), h.getMean() / 1000.0,
+                    h.getPercentile(0.5) / 1000.0, h.getPercentile(0.9) / 1000.0,
+                    h.getPercentile(0.99) / 1000.0, h.getMax() / 1000.0));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.cas.text.AnnotationIndex;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.cas.CasIndexCache;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Index of the sentences in a CAS by their position in the annotation index (their ordinal). It
+ * allows navigating a document without walking all of its sentences.
+ * <p>
+ * Sentences can be looked up by offset using a binary search unless some sentences are nested in
+ * others. The index is kept in a {@link CasIndexCache} and rebuilt if the number of sentences
+ * changes or if the first or last sentence is a different one.
+ */
+public class SentenceIndex
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SentenceIndex.class);
+
+    private static final CasIndexCache<SentenceIndex> INDEXES = new CasIndexCache<>();
+
+    // The sentences in index order
+    private final int[] addrs;
+    private final int[] begins;
+    private final int[] ends;
+
+    private final Map<Integer, Integer> ordinals;
+
+    /**
+     * Whether the end offsets never decrease in index order, i.e. no sentence is nested in another
+     * one. Only then sentences can be looked up by offset using a binary search.
+     */
+    private final boolean endsSorted;
+
+    private SentenceIndex(CAS aCas, AnnotationIndex<AnnotationFS> aSentences)
+    {
+        int size = aSentences.size();
+        addrs = new int[size];
+        begins = new int[size];
+        ends = new int[size];
+        ordinals = new HashMap<>(size * 2);
+
+        boolean sorted = true;
+        int i = 0;
+        for (AnnotationFS sentence : aSentences) {
+            addrs[i] = getAddr(sentence);
+            begins[i] = sentence.getBegin();
+            ends[i] = sentence.getEnd();
+            ordinals.put(addrs[i], i);
+            sorted &= i == 0 || ends[i - 1] <= ends[i];
+            i++;
+        }
+        endsSorted = sorted;
+    }
+
+    public static SentenceIndex get(JCas aJCas)
+    {
+        return get(aJCas.getCas());
+    }
+
+    public static SentenceIndex get(CAS aCas)
+    {
+        Type sentenceType = CasUtil.getType(aCas, Sentence.class);
+        AnnotationIndex<AnnotationFS> sentences = aCas.getAnnotationIndex(sentenceType);
+
+        SentenceIndex index = INDEXES.get(aCas, sentenceType.getName());
+        if (index != null && index.isCurrent(sentences)) {
+            return index;
+        }
+
+        long start = System.currentTimeMillis();
+        index = new SentenceIndex(aCas, sentences);
+        INDEXES.put(aCas, sentenceType.getName(), index);
+        LOG.trace("Built index of [{}] sentences in {} ms", index.addrs.length,
+                System.currentTimeMillis() - start);
+
+        return index;
+    }
+
+    /**
+     * Drop the sentence index for the given CAS. Call this whenever sentences are changed.
+     */
+    public static void invalidate(CAS aCas)
+    {
+        INDEXES.invalidate(aCas);
+    }
+
+    private boolean isCurrent(AnnotationIndex<AnnotationFS> aSentences)
+    {
+        if (aSentences.size() != addrs.length) {
+            return false;
+        }
+
+        if (addrs.length == 0) {
+            return true;
+        }
+
+        FSIterator<AnnotationFS> i = aSentences.iterator();
+        i.moveToFirst();
+        if (getAddr(i.get()) != addrs[0]) {
+            return false;
+        }
+        i.moveToLast();
+        return getAddr(i.get()) == addrs[addrs.length - 1];
+    }
+
+    /**
+     * @return the number of sentences.
+     */
+    public int size()
+    {
+        return addrs.length;
+    }
+
+    /**
+     * @param aOrdinal
+     *            the 0-based position of the sentence.
+     * @return the address of the sentence.
+     */
+    public int getAddress(int aOrdinal)
+    {
+        return addrs[aOrdinal];
+    }
+
+    /**
+     * @param aOrdinal
+     *            the 0-based position of the sentence.
+     * @return the begin offset of the sentence.
+     */
+    public int getBegin(int aOrdinal)
+    {
+        return begins[aOrdinal];
+    }
+
+    /**
+     * @param aOrdinal
+     *            the 0-based position of the sentence.
+     * @return the end offset of the sentence.
+     */
+    public int getEnd(int aOrdinal)
+    {
+        return ends[aOrdinal];
+    }
+
+    /**
+     * @param aAddress
+     *            the address of a sentence.
+     * @return the 0-based position of the sentence or {@code -1} if there is no sentence with the
+     *         given address.
+     */
+    public int getOrdinal(int aAddress)
+    {
+        Integer ordinal = ordinals.get(aAddress);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * @param aOffset
+     *            a character offset.
+     * @return the 0-based position of the first sentence which begins at or before the given
+     *         offset and ends after it, or {@code -1} if there is no such sentence.
+     */
+    public int findContaining(int aOffset)
+    {
+        return find(aOffset, false);
+    }
+
+    /**
+     * @param aOffset
+     *            a character offset.
+     * @return the 0-based position of the first sentence which begins at or before the given
+     *         offset and ends at or after it, or {@code -1} if there is no such sentence.
+     */
+    public int findCovering(int aOffset)
+    {
+        return find(aOffset, true);
+    }
+
+    private int find(int aOffset, boolean aInclusiveEnd)
+    {
+        if (!endsSorted) {
+            for (int i = 0; i < addrs.length && begins[i] <= aOffset; i++) {
+                if (aInclusiveEnd ? aOffset <= ends[i] : aOffset < ends[i]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Find the first sentence ending at or after (or just after) the offset. All sentences
+        // before it end before the offset. If it does not contain the offset, then no sentence
+        // does because all later sentences begin even later.
+        int low = 0;
+        int high = addrs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (aInclusiveEnd ? ends[mid] < aOffset : ends[mid] <= aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        return low < addrs.length && begins[low] <= aOffset ? low : -1;
+    }
+}
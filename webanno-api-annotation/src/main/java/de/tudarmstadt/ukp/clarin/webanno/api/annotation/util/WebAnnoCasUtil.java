@@ -17,13 +17,10 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.select;
-import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.selectFollowing;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -40,7 +37,6 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.cas.text.AnnotationIndex;
-import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.FSUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
@@ -50,6 +46,7 @@ import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
+import de.tudarmstadt.ukp.clarin.webanno.api.cas.OffsetIndex;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -155,29 +152,27 @@ public class WebAnnoCasUtil
     private static <T extends Annotation> T selectSingleAt(JCas aJcas, final Class<T> type,
             int aBegin, int aEnd)
     {
-        List<T> covered = selectCovered(aJcas, type, aBegin, aEnd);
-        if (covered.isEmpty()) {
-            return null;
-        }
-        else {
-            T first = covered.get(0);
-            if (first.getBegin() == aBegin && first.getEnd() == aEnd) {
-                return first;
-            }
-            else {
-                return null;
-            }
-        }
+        List<AnnotationFS> at = selectAt(aJcas.getCas(), JCasUtil.getType(aJcas, type), aBegin,
+                aEnd);
+        return at.isEmpty() ? null : type.cast(at.get(0));
     }
 
+    /**
+     * Get all annotations of the given type which have exactly the given offsets.
+     *
+     * @param aJcas
+     *            the CAS.
+     * @param type
+     *            the type.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations in index order.
+     */
     public static List<AnnotationFS> selectAt(CAS aJcas, final Type type, int aBegin, int aEnd)
     {
-        List<AnnotationFS> covered = CasUtil.selectCovered(aJcas, type, aBegin, aEnd);
-
-        // Remove all that do not have the exact same offset
-        covered.removeIf(cur -> !(cur.getBegin() == aBegin && cur.getEnd() == aEnd));
-
-        return covered;
+        return OffsetIndex.selectAt(aJcas, type, aBegin, aEnd);
     }
 
     /**
@@ -196,12 +191,8 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS selectSingleFsAt(JCas aJcas, Type aType, int aBegin, int aEnd)
     {
-        for (AnnotationFS anFS : selectCovered(aJcas.getCas(), aType, aBegin, aEnd)) {
-            if (anFS.getBegin() == aBegin && anFS.getEnd() == aEnd) {
-                return anFS;
-            }
-        }
-        return null;
+        List<AnnotationFS> at = selectAt(aJcas.getCas(), aType, aBegin, aEnd);
+        return at.isEmpty() ? null : at.get(0);
     }
 
     /**
@@ -243,19 +234,11 @@ public class WebAnnoCasUtil
     public static <T extends Annotation> List<T> selectOverlapping(JCas aJCas,
             final Class<T> aType, int aBegin, int aEnd)
     {
-
         List<T> annotations = new ArrayList<>();
-        for (T t : select(aJCas, aType)) {
-            if (t.getBegin() >= aEnd) {
-                break;
-            }
-            // not yet there
-            if (t.getEnd() <= aBegin) {
-                continue;
-            }
-            annotations.add(t);
+        for (AnnotationFS fs : OffsetIndex.selectOverlapping(aJCas.getCas(),
+                JCasUtil.getType(aJCas, aType), aBegin, aEnd)) {
+            annotations.add(aType.cast(fs));
         }
-
         return annotations;
     }
 
@@ -269,13 +252,8 @@ public class WebAnnoCasUtil
      */
     public static int getFirstSentenceAddress(JCas aJcas)
     {
-        int firstSentenceAddress = -1;
-
-        for (Sentence selectedSentence : select(aJcas, Sentence.class)) {
-            firstSentenceAddress = getAddr(selectedSentence);
-            break;
-        }
-        return firstSentenceAddress;
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
+        return sentences.size() > 0 ? sentences.getAddress(0) : -1;
     }
 
     /**
@@ -288,12 +266,8 @@ public class WebAnnoCasUtil
      */
     public static Sentence getFirstSentence(JCas aJcas)
     {
-        Sentence firstSentence = null;
-        for (Sentence s : select(aJcas, Sentence.class)) {
-            firstSentence = s;
-            break;
-        }
-        return firstSentence;
+        int address = getFirstSentenceAddress(aJcas);
+        return address != -1 ? selectByAddr(aJcas, Sentence.class, address) : null;
     }
 
     /**
@@ -331,14 +305,12 @@ public class WebAnnoCasUtil
      */
     public static Sentence getSentence(JCas aJCas, int aBegin)
     {
-        Sentence currentSentence = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin) {
-                currentSentence = sentence;
-                break;
-            }
+        SentenceIndex sentences = SentenceIndex.get(aJCas);
+        int ordinal = sentences.findContaining(aBegin);
+        if (ordinal == -1) {
+            return null;
         }
-        return currentSentence;
+        return selectByAddr(aJCas, Sentence.class, sentences.getAddress(ordinal));
     }
 
     public static Token getNextToken(JCas aJCas, int aBegin, int aEnd)
@@ -583,7 +555,7 @@ public class WebAnnoCasUtil
      */
     public static int getNumberOfPages(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -598,16 +570,12 @@ public class WebAnnoCasUtil
     public static List<Integer> getDisplayWindowBeginningSentenceAddresses(JCas aJcas,
             int aWindowSize)
     {
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
         List<Integer> beginningAddresses = new ArrayList<>();
-        int j = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (j % aWindowSize == 0) {
-                beginningAddresses.add(getAddr(sentence));
-            }
-            j++;
+        for (int i = 0; i < sentences.size(); i += aWindowSize) {
+            beginningAddresses.add(sentences.getAddress(i));
         }
         return beginningAddresses;
-
     }
 
     /**
@@ -624,15 +592,9 @@ public class WebAnnoCasUtil
     @Deprecated
     public static int getFirstSentenceNumber(JCas aJcas, int aSentenceAddress)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (getAddr(sentence) == aSentenceAddress) {
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
-
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
+        int ordinal = sentences.getOrdinal(aSentenceAddress);
+        return ordinal != -1 ? ordinal : sentences.size();
     }
 
     /**
@@ -646,26 +608,19 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceNumber(JCas aJcas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-        
-        Collection<Sentence> sentences = select(aJcas, Sentence.class);
-        if (sentences.isEmpty()) {
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
+        if (sentences.size() == 0) {
             throw new IndexOutOfBoundsException("No sentences");
         }
-        
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+
+        // If no sentence covers the offset, the number of the last sentence is returned
+        int ordinal = sentences.findCovering(aBeginOffset);
+        return ordinal != -1 ? ordinal + 1 : sentences.size();
     }
 
     public static int getSentenceCount(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -679,23 +634,15 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceAddress(JCas aJcas, int aSentenceNumber)
     {
-        int i = 1;
-        int address = 0;
-        if (aSentenceNumber < 1) {
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
+        if (aSentenceNumber < 1 || aSentenceNumber > sentences.size() + 1) {
             return 0;
         }
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (i == aSentenceNumber) {
-                address = getAddr(sentence);
-                break;
-            }
-            address = getAddr(sentence);
-            i++;
-        }
-        if (aSentenceNumber > i) {
-            return 0;
+        if (aSentenceNumber <= sentences.size()) {
+            return sentences.getAddress(aSentenceNumber - 1);
         }
-        return address;
+        // One past the last sentence still yields the last sentence
+        return sentences.size() > 0 ? sentences.getAddress(sentences.size() - 1) : 0;
     }
 
     /**
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.fit.util.CasUtil.selectFS;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ChainAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+public class ChainLinkIndexTest
+{
+    private static final String CHAIN_TYPE = "webanno.custom.TestChain";
+    private static final String LINK_TYPE = "webanno.custom.TestLink";
+
+    // Indexes are shared between tests, so each test uses a different document
+    private static long nextDocumentId = 1;
+
+    private ChainAdapter adapter;
+    private JCas jcas;
+    private long documentId;
+
+    @Before
+    public void setup() throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        TypeDescription link = tsd.addType(LINK_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        link.addFeature("next", "", LINK_TYPE);
+        TypeDescription chain = tsd.addType(CHAIN_TYPE, "", CAS.TYPE_NAME_TOP);
+        chain.addFeature("first", "", LINK_TYPE);
+
+        jcas = JCasFactory.createJCas(mergeTypeSystems(asList(tsd,
+                createTypeSystemDescription(
+                        "de/tudarmstadt/ukp/clarin/webanno/api/type/webanno-internal"))));
+        jcas.setDocumentText(StringUtils.repeat("x", 100));
+        documentId = nextDocumentId++;
+
+        adapter = new ChainAdapter(null, null, new AnnotationLayer(), 1, CHAIN_TYPE, null,
+                "first", "next", emptyList());
+    }
+
+    @Test
+    public void thatVisibleLinksMatchWalkingAllChains()
+    {
+        // Ordered chain with a link spanning the window
+        addChain(new int[][] { { 0, 5 }, { 10, 60 }, { 20, 25 }, { 70, 75 } });
+        // Chain without links in most windows
+        addChain(new int[][] { { 90, 95 } });
+        // Chain not ordered by offsets - a link after the window hides the remaining links
+        addChain(new int[][] { { 30, 35 }, { 80, 85 }, { 40, 45 } });
+        // Chain with links at the same offsets
+        addChain(new int[][] { { 40, 45 }, { 40, 45 }, { 50, 52 } });
+
+        assertSameAsWalk();
+
+        // Change the chains and make sure that the index is rebuilt
+        ChainLinkIndex.invalidate(jcas.getCas());
+        addChain(new int[][] { { 15, 16 }, { 55, 99 } });
+
+        assertSameAsWalk();
+    }
+
+    @Test
+    public void thatIndexIsRebuiltWhenLinkCountChanges()
+    {
+        addChain(new int[][] { { 10, 15 } });
+
+        assertThat(ChainLinkIndex.selectVisibleLinks(jcas.getCas(), adapter, 0, 100))
+                .hasSize(1);
+
+        // Not invalidated explicitly
+        addChain(new int[][] { { 20, 25 } });
+
+        assertThat(ChainLinkIndex.selectVisibleLinks(jcas.getCas(), adapter, 0, 100))
+                .containsOnlyKeys(0, 1);
+    }
+
+    @Test
+    public void thatIndexIsReusedWhenTheSameCasIsLoadedAgain() throws Exception
+    {
+        addChain(new int[][] { { 10, 15 }, { 30, 35 } });
+        addChain(new int[][] { { 20, 25 } });
+        addCasMetadata(jcas, 1l);
+
+        ChainLinkIndex index = ChainLinkIndex.get(jcas.getCas(), adapter);
+
+        // The CAS storage hands out a new copy of the CAS on every load
+        JCas copy = copy(jcas);
+        assertThat(ChainLinkIndex.get(copy.getCas(), adapter)).isSameAs(index);
+        assertThat(ChainLinkIndex.selectVisibleLinks(copy.getCas(), adapter, 0, 100))
+                .containsOnlyKeys(0, 1);
+    }
+
+    @Test
+    public void thatIndexIsNotReusedForChangedCas() throws Exception
+    {
+        addChain(new int[][] { { 10, 15 }, { 30, 35 } });
+        addCasMetadata(jcas, 1l);
+
+        ChainLinkIndex index = ChainLinkIndex.get(jcas.getCas(), adapter);
+
+        // The chains of a copy are changed - the index must neither be reused for the changed
+        // copy nor must the index of the changed copy be reused for others
+        JCas changed = copy(jcas);
+        ChainLinkIndex.invalidate(changed.getCas());
+        assertThat(ChainLinkIndex.get(changed.getCas(), adapter)).isNotSameAs(index);
+        assertThat(ChainLinkIndex.get(copy(jcas).getCas(), adapter)).isSameAs(index);
+
+        // A copy of a later version of the CAS file
+        JCas saved = copy(jcas);
+        addCasMetadata(saved, 2l);
+        assertThat(ChainLinkIndex.get(saved.getCas(), adapter)).isNotSameAs(index);
+    }
+
+    private void addCasMetadata(JCas aJCas, long aTimestamp)
+    {
+        List<CASMetadata> cmds = new ArrayList<>(select(aJCas, CASMetadata.class));
+        CASMetadata cmd = cmds.isEmpty() ? new CASMetadata(aJCas, 0, 0) : cmds.get(0);
+        cmd.setSourceDocumentId(documentId);
+        cmd.setUsername("user");
+        cmd.setLastChangedOnDisk(aTimestamp);
+        if (cmds.isEmpty()) {
+            cmd.addToIndexes();
+        }
+    }
+
+    private static JCas copy(JCas aJCas) throws Exception
+    {
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        deserializeCASComplete(serializeCASComplete((CASImpl) aJCas.getCas()), (CASImpl) copy);
+        return copy.getJCas();
+    }
+
+    private void assertSameAsWalk()
+    {
+        for (int begin = 0; begin < 100; begin += 5) {
+            for (int end = begin + 5; end <= 100; end += 5) {
+                assertThat(ChainLinkIndex.selectVisibleLinks(jcas.getCas(), adapter, begin, end))
+                        .as("Window %d-%d", begin, end)
+                        .isEqualTo(walk(begin, end));
+            }
+        }
+    }
+
+    /**
+     * Select the visible links by walking all chains - the way the {@link ChainRenderer} used to
+     * do it.
+     */
+    private Map<Integer, List<AnnotationFS>> walk(int aWindowBegin, int aWindowEnd)
+    {
+        CAS cas = jcas.getCas();
+        Type chainType = cas.getTypeSystem().getType(CHAIN_TYPE);
+        Feature first = chainType.getFeatureByBaseName("first");
+
+        Map<Integer, List<AnnotationFS>> result = new TreeMap<>();
+        int chainIndex = 0;
+        for (FeatureStructure chainFs : selectFS(cas, chainType)) {
+            List<AnnotationFS> links = new ArrayList<>();
+            AnnotationFS linkFs = (AnnotationFS) chainFs.getFeatureValue(first);
+            while (linkFs != null) {
+                AnnotationFS nextLinkFs = (AnnotationFS) linkFs
+                        .getFeatureValue(linkFs.getType().getFeatureByBaseName("next"));
+                if (linkFs.getBegin() >= aWindowEnd) {
+                    break;
+                }
+                if (!(linkFs.getBegin() < aWindowBegin && linkFs.getEnd() <= aWindowEnd)) {
+                    links.add(linkFs);
+                }
+                linkFs = nextLinkFs;
+            }
+            if (!links.isEmpty()) {
+                result.put(chainIndex, links);
+            }
+            chainIndex++;
+        }
+        return result;
+    }
+
+    private void addChain(int[][] aOffsets)
+    {
+        CAS cas = jcas.getCas();
+        Type linkType = cas.getTypeSystem().getType(LINK_TYPE);
+        Type chainType = cas.getTypeSystem().getType(CHAIN_TYPE);
+
+        AnnotationFS prev = null;
+        AnnotationFS head = null;
+        for (int[] offsets : aOffsets) {
+            AnnotationFS link = cas.createAnnotation(linkType, offsets[0], offsets[1]);
+            cas.addFsToIndexes(link);
+            if (prev != null) {
+                prev.setFeatureValue(linkType.getFeatureByBaseName("next"), link);
+            }
+            else {
+                head = link;
+            }
+            prev = link;
+        }
+
+        FeatureStructure chain = cas.createFS(chainType);
+        chain.setFeatureValue(chainType.getFeatureByBaseName("first"), head);
+        cas.addFsToIndexes(chain);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void thatBucketsAreContiguous()
+    {
+        long previousUpperBound = -1;
+        for (long micros = 0; micros < 1_000_000; micros++) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertThat(LatencyHistogram.upperBound(bucket)).isGreaterThanOrEqualTo(micros);
+            if (bucket > 0) {
+                assertThat(LatencyHistogram.upperBound(bucket - 1)).isLessThan(micros);
+            }
+            assertThat(LatencyHistogram.upperBound(bucket))
+                    .isGreaterThanOrEqualTo(previousUpperBound);
+            previousUpperBound = LatencyHistogram.upperBound(bucket);
+        }
+    }
+
+    @Test
+    public void thatPercentilesAreWithinPrecision()
+    {
+        LatencyHistogram sut = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            sut.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertThat(sut.getCount()).isEqualTo(1000);
+        assertThat(sut.getMax()).isEqualTo(1_000_000);
+        assertThat(sut.getMean()).isCloseTo(500_500, within(1.0));
+        assertThat((double) sut.getPercentile(0.5)).isCloseTo(500_000, within(500_000 * 0.07));
+        assertThat((double) sut.getPercentile(0.99)).isCloseTo(990_000, within(990_000 * 0.07));
+        assertThat(sut.getPercentile(1.0)).isEqualTo(1_000_000);
+    }
+
+    @Test
+    public void thatEmptyHistogramReportsZero()
+    {
+        LatencyHistogram sut = new LatencyHistogram();
+
+        assertThat(sut.getCount()).isEqualTo(0);
+        assertThat(sut.getMean()).isEqualTo(0.0);
+        assertThat(sut.getPercentile(0.99)).isEqualTo(0);
+    }
+
+    @Test
+    public void thatConcurrentRecordingLosesNoValues() throws Exception
+    {
+        LatencyHistogram sut = new LatencyHistogram();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    sut.record(TimeUnit.MICROSECONDS.toNanos(i % 5000));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(sut.getCount()).isEqualTo(400_000);
+        assertThat(sut.getMax()).isEqualTo(4999);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static java.util.Arrays.asList;
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+public class SentenceIndexTest
+{
+    private JCas jcas;
+
+    @Before
+    public void setup() throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(StringUtils.repeat("x", 100));
+    }
+
+    @Test
+    public void thatNavigationMatchesWalkingAllSentences()
+    {
+        // Sentences with gaps in between and sentences directly following each other
+        addSentences(new int[][] { { 0, 10 }, { 10, 20 }, { 25, 40 }, { 41, 60 }, { 60, 61 },
+                { 70, 90 } });
+
+        assertSameAsWalk();
+    }
+
+    @Test
+    public void thatNavigationMatchesWalkingAllNestedSentences()
+    {
+        addSentences(new int[][] { { 0, 50 }, { 5, 10 }, { 20, 30 }, { 50, 80 }, { 55, 95 } });
+
+        assertSameAsWalk();
+    }
+
+    @Test
+    public void thatNavigationWorksWithoutSentences()
+    {
+        assertThat(WebAnnoCasUtil.getFirstSentenceAddress(jcas)).isEqualTo(-1);
+        assertThat(WebAnnoCasUtil.getFirstSentence(jcas)).isNull();
+        assertThat(WebAnnoCasUtil.getSentence(jcas, 0)).isNull();
+        assertThat(WebAnnoCasUtil.getSentenceCount(jcas)).isEqualTo(0);
+        assertThat(WebAnnoCasUtil.getSentenceAddress(jcas, 1)).isEqualTo(0);
+        assertThat(WebAnnoCasUtil.getDisplayWindowBeginningSentenceAddresses(jcas, 3)).isEmpty();
+    }
+
+    @Test
+    public void thatIndexIsRebuiltWhenSentencesChange()
+    {
+        addSentences(new int[][] { { 0, 10 }, { 20, 30 } });
+
+        assertSameAsWalk();
+
+        // Not invalidated explicitly
+        addSentences(new int[][] { { 40, 50 } });
+
+        assertSameAsWalk();
+
+        // Removing a sentence in the middle
+        select(jcas, Sentence.class).stream()
+                .filter(s -> s.getBegin() == 20)
+                .findFirst()
+                .get()
+                .removeFromIndexes();
+
+        assertSameAsWalk();
+
+        // Invalidated explicitly
+        addSentences(new int[][] { { 12, 18 } });
+        select(jcas, Sentence.class).stream()
+                .filter(s -> s.getBegin() == 0)
+                .findFirst()
+                .get()
+                .removeFromIndexes();
+        addSentences(new int[][] { { 0, 5 } });
+        SentenceIndex.invalidate(jcas.getCas());
+
+        assertSameAsWalk();
+    }
+
+    @Test
+    public void thatIndexIsReusedWhenTheSameCasIsLoadedAgain() throws Exception
+    {
+        jcas = JCasFactory.createJCas(mergeTypeSystems(asList(createTypeSystemDescription(),
+                createTypeSystemDescription(
+                        "de/tudarmstadt/ukp/clarin/webanno/api/type/webanno-internal"))));
+        jcas.setDocumentText(StringUtils.repeat("x", 100));
+        addSentences(new int[][] { { 0, 10 }, { 20, 30 }, { 40, 50 } });
+
+        CASMetadata cmd = new CASMetadata(jcas, 0, 0);
+        cmd.setSourceDocumentId(1l);
+        cmd.setUsername("user");
+        cmd.setLastChangedOnDisk(1000l);
+        cmd.addToIndexes();
+
+        SentenceIndex index = SentenceIndex.get(jcas);
+
+        // The CAS storage hands out a new copy of the CAS on every load, e.g. when paging
+        JCas original = jcas;
+        jcas = copy(original);
+        assertThat(SentenceIndex.get(jcas)).isSameAs(index);
+        assertSameAsWalk();
+
+        // Changing the sentences of one copy does not affect the other copies
+        addSentences(new int[][] { { 60, 70 } });
+        SentenceIndex.invalidate(jcas.getCas());
+        assertSameAsWalk();
+        assertThat(SentenceIndex.get(jcas)).isNotSameAs(index);
+        assertThat(SentenceIndex.get(copy(original))).isSameAs(index);
+    }
+
+    private static JCas copy(JCas aJCas) throws Exception
+    {
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        deserializeCASComplete(serializeCASComplete((CASImpl) aJCas.getCas()), (CASImpl) copy);
+        return copy.getJCas();
+    }
+
+    private void addSentences(int[][] aSpans)
+    {
+        for (int[] span : aSpans) {
+            new Sentence(jcas, span[0], span[1]).addToIndexes();
+        }
+    }
+
+    private void assertSameAsWalk()
+    {
+        List<Sentence> sentences = new ArrayList<>(select(jcas, Sentence.class));
+
+        assertThat(WebAnnoCasUtil.getSentenceCount(jcas)).isEqualTo(sentences.size());
+        assertThat(WebAnnoCasUtil.getFirstSentenceAddress(jcas))
+                .isEqualTo(getAddr(sentences.get(0)));
+        assertThat(WebAnnoCasUtil.getFirstSentence(jcas)).isSameAs(sentences.get(0));
+
+        for (int offset = -1; offset <= 101; offset++) {
+            Sentence containing = null;
+            int number = 0;
+            for (Sentence s : sentences) {
+                number++;
+                if (s.getBegin() <= offset && offset <= s.getEnd()) {
+                    break;
+                }
+            }
+            for (Sentence s : sentences) {
+                if (s.getBegin() <= offset && offset < s.getEnd()) {
+                    containing = s;
+                    break;
+                }
+            }
+
+            assertThat(WebAnnoCasUtil.getSentence(jcas, offset)).as("offset %d", offset)
+                    .isSameAs(containing);
+            assertThat(WebAnnoCasUtil.getSentenceNumber(jcas, offset)).as("offset %d", offset)
+                    .isEqualTo(number);
+        }
+
+        for (int i = 0; i < sentences.size(); i++) {
+            int addr = getAddr(sentences.get(i));
+            assertThat(WebAnnoCasUtil.getFirstSentenceNumber(jcas, addr)).isEqualTo(i);
+            assertThat(WebAnnoCasUtil.getSentenceAddress(jcas, i + 1)).isEqualTo(addr);
+        }
+        assertThat(WebAnnoCasUtil.getFirstSentenceNumber(jcas, -1)).isEqualTo(sentences.size());
+        assertThat(WebAnnoCasUtil.getSentenceAddress(jcas, 0)).isEqualTo(0);
+        assertThat(WebAnnoCasUtil.getSentenceAddress(jcas, sentences.size() + 1))
+                .isEqualTo(getAddr(sentences.get(sentences.size() - 1)));
+        assertThat(WebAnnoCasUtil.getSentenceAddress(jcas, sentences.size() + 2)).isEqualTo(0);
+
+        for (int windowSize = 1; windowSize <= sentences.size() + 1; windowSize++) {
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < sentences.size(); i += windowSize) {
+                expected.add(getAddr(sentences.get(i)));
+            }
+            assertThat(WebAnnoCasUtil.getDisplayWindowBeginningSentenceAddresses(jcas,
+                    windowSize)).isEqualTo(expected);
+        }
+    }
+}
@@ -23,10 +23,9 @@ import static java.util.Objects.isNull;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
@@ -34,14 +33,18 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 
 import org.apache.commons.collections4.SetUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.lang3.ClassUtils;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
@@ -72,6 +75,9 @@ import org.springframework.context.event.EventListener;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.xml.sax.SAXException;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
@@ -79,6 +85,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRe
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.initializers.ProjectInitializer;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -107,6 +114,18 @@ public class AnnotationSchemaServiceImpl
     private @Autowired LayerSupportRegistry layerSupportRegistry;
     private @Lazy @Autowired(required = false) List<ProjectInitializer> initializerProxy;
     private List<ProjectInitializer> initializers;
+    
+    /**
+     * Cache of the full project type systems. The key is the project ID, negated if the internal
+     * types are excluded.
+     */
+    private final Map<Long, ProjectTypeSystem> typeSystemCache = new ConcurrentHashMap<>();
+    
+    /**
+     * Incremented whenever any cached type system is invalidated. A type system is only added to
+     * the cache if no invalidation happened while it was being built.
+     */
+    private final AtomicLong typeSystemGeneration = new AtomicLong();
 
     public AnnotationSchemaServiceImpl()
     {
@@ -195,6 +214,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aLayer);
         }
         
+        invalidateTypeSystem(aLayer.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -213,6 +234,8 @@ public class AnnotationSchemaServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        
+        invalidateTypeSystem(aFeature.getProject());
     }
 
     @Override
@@ -631,6 +654,8 @@ public class AnnotationSchemaServiceImpl
     {
         entityManager.remove(
                 entityManager.contains(aFeature) ? aFeature : entityManager.merge(aFeature));
+        
+        invalidateTypeSystem(aFeature.getProject());
     }
 
     @Override
@@ -638,6 +663,8 @@ public class AnnotationSchemaServiceImpl
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
         entityManager.remove(aLayer);
+        
+        invalidateTypeSystem(aLayer.getProject());
     }
 
     @Override
@@ -677,6 +704,74 @@ public class AnnotationSchemaServiceImpl
     public TypeSystemDescription getFullProjectTypeSystem(Project aProject,
             boolean aIncludeInternalTypes)
         throws ResourceInitializationException
+    {
+        return getProjectTypeSystem(aProject, aIncludeInternalTypes).getDescription();
+    }
+    
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        invalidateTypeSystem(aEvent.getProject());
+    }
+    
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
+    {
+        Long id = aProject.getId();
+        Long key = id == null ? null : (aIncludeInternalTypes ? id : -id);
+        if (key != null) {
+            ProjectTypeSystem cached = typeSystemCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        long generation = typeSystemGeneration.get();
+        ProjectTypeSystem pts = new ProjectTypeSystem(
+                createFullProjectTypeSystem(aProject, aIncludeInternalTypes));
+        
+        if (key != null && generation == typeSystemGeneration.get()) {
+            typeSystemCache.put(key, pts);
+        }
+        
+        return pts;
+    }
+    
+    /**
+     * Drop the cached type system of the given project. If a transaction is active, the type
+     * system is dropped again after the commit so that a type system built by a concurrent request
+     * from the not-yet-committed state does not stick.
+     */
+    private void invalidateTypeSystem(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+        
+        long projectId = aProject.getId();
+        typeSystemGeneration.incrementAndGet();
+        typeSystemCache.remove(projectId);
+        typeSystemCache.remove(-projectId);
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            typeSystemGeneration.incrementAndGet();
+                            typeSystemCache.remove(projectId);
+                            typeSystemCache.remove(-projectId);
+                        }
+                    });
+        }
+    }
+
+    /* package private */ TypeSystemDescription createFullProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
     {
         List<TypeSystemDescription> typeSystems = new ArrayList<>();
         
@@ -723,8 +818,9 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aCas, Project aProject) throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
-        upgradeCas(aCas, ts);
+        ProjectTypeSystem pts = getProjectTypeSystem(aProject, true);
+        upgradeCas(aCas, pts);
+        CasMetadataUtils.setTypeSystemVersion(aCas, pts.getVersion());
     }
     
     @Override
@@ -739,10 +835,28 @@ public class AnnotationSchemaServiceImpl
     public void upgradeCasIfRequired(CAS aCas, SourceDocument aSourceDocument, String aUser)
         throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aSourceDocument.getProject());
+        ProjectTypeSystem pts = getProjectTypeSystem(aSourceDocument.getProject(), true);
+        
+        // If the CAS has been stamped with the current type system version, we know that it is
+        // up-to-date without having to compare all types and features
+        if (CasMetadataUtils.getTypeSystemVersion(aCas).filter(pts.getVersion()::equals)
+                .isPresent()) {
+            log.debug(
+                    "CAS of user [{}] for document [{}]({}) in project [{}]({}) is already "
+                            + "at type system version [{}] - skipping upgrade",
+                    aUser, aSourceDocument.getName(), aSourceDocument.getId(),
+                    aSourceDocument.getProject().getName(), aSourceDocument.getProject().getId(),
+                    pts.getVersion());
+            return;
+        }
+        
+        TypeSystemDescription ts = pts.getDescription();
         
         // Check if the current CAS already contains the required type system
         if (!isUpgradeRequired(aCas, ts)) {
+            // Remember the result of the comparison for the next time
+            CasMetadataUtils.setTypeSystemVersion(aCas, pts.getVersion());
+
             log.debug(
                     "CAS of user [{}] for document [{}]({}) in project [{}]({}) is already "
                             + "compatible with project type system - skipping upgrade",
@@ -751,7 +865,8 @@ public class AnnotationSchemaServiceImpl
             return;
         }
 
-        upgradeCas(aCas, ts);
+        upgradeCas(aCas, pts);
+        CasMetadataUtils.setTypeSystemVersion(aCas, pts.getVersion());
     }
     
     @Override
@@ -759,14 +874,39 @@ public class AnnotationSchemaServiceImpl
         throws ResourceInitializationException, UIMAException, IOException
     {
         CAS exportCas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        upgradeCas(aCas, exportCas, getFullProjectTypeSystem(aSourceDocument.getProject(), false));
+        upgradeCas(aCas, exportCas, getProjectTypeSystem(aSourceDocument.getProject(), false));
+        return exportCas;
+    }
+    
+    @Override
+    public CAS prepareCasForExport(CAS aCas, TypeSystemDescription aExportTypeSystem)
+        throws ResourceInitializationException, UIMAException, IOException
+    {
+        CAS exportCas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        upgradeCas(aCas, exportCas, getProjectTypeSystem(aExportTypeSystem));
         return exportCas;
     }
     
+    /**
+     * @return the cached project type system with the given description so that its CAS template
+     *         is re-used or a new one if the description is no longer cached.
+     */
+    private ProjectTypeSystem getProjectTypeSystem(TypeSystemDescription aDescription)
+        throws ResourceInitializationException
+    {
+        for (ProjectTypeSystem pts : typeSystemCache.values()) {
+            if (pts.getDescription() == aDescription) {
+                return pts;
+            }
+        }
+        
+        return new ProjectTypeSystem(aDescription);
+    }
+    
     /**
      * In-place upgrade of the given CAS to the target type system.
      */
-    private void upgradeCas(CAS aCas, TypeSystemDescription aTargetTypeSystem)
+    private void upgradeCas(CAS aCas, ProjectTypeSystem aTargetTypeSystem)
         throws UIMAException, IOException
     {
         upgradeCas(aCas, aCas, aTargetTypeSystem);
@@ -776,8 +916,13 @@ public class AnnotationSchemaServiceImpl
      * Load the contents from the source CAS, upgrade it to the target type system and write the
      * results to the target CAS. An in-place upgrade can be achieved by using the same CAS as
      * source and target.
+     * <p>
+     * The source contents are buffered in a chunked buffer which is read back directly instead of
+     * being copied into a single array first. The target CAS is re-initialized from an empty CAS
+     * template which is prepared once per type system version instead of creating and serializing
+     * a fresh temporary CAS on every upgrade.
      */
-    private void upgradeCas(CAS aSourceCas, CAS aTargetCas, TypeSystemDescription aTargetTypeSystem)
+    static void upgradeCas(CAS aSourceCas, CAS aTargetCas, ProjectTypeSystem aTargetTypeSystem)
         throws UIMAException, IOException
     {
         // Save source CAS type system (do this early since we might do an in-place upgrade)
@@ -788,13 +933,13 @@ public class AnnotationSchemaServiceImpl
         Serialization.serializeWithCompression(aSourceCas, serializedCasContents, sourceTypeSystem);
 
         // Re-initialize the target CAS with new type system
-        CAS tempCas = JCasFactory.createJCas(aTargetTypeSystem).getCas();
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) tempCas);
-        Serialization.deserializeCASComplete(serializer, (CASImpl) aTargetCas);
+        Serialization.deserializeCASComplete(aTargetTypeSystem.getTemplate(),
+                (CASImpl) aTargetCas);
 
         // Leniently load the source CAS contents into the target CAS
-        CasIOUtils.load(new ByteArrayInputStream(serializedCasContents.toByteArray()), aTargetCas,
-                sourceTypeSystem);
+        try (InputStream is = serializedCasContents.toInputStream()) {
+            CasIOUtils.load(is, aTargetCas, sourceTypeSystem);
+        }
 
         // Make sure JCas is properly initialized too
         aTargetCas.getJCas();
@@ -871,4 +1016,52 @@ public class AnnotationSchemaServiceImpl
     {
         return layerSupportRegistry.getLayerSupport(aLayer).createAdapter(aLayer);
     }
+    
+    /**
+     * A full project type system together with a version identifier derived from its contents.
+     */
+    static class ProjectTypeSystem
+    {
+        private final TypeSystemDescription description;
+        private final String version;
+        private CASCompleteSerializer template;
+        
+        public ProjectTypeSystem(TypeSystemDescription aDescription)
+            throws ResourceInitializationException
+        {
+            description = aDescription;
+            
+            try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+                description.toXML(bos);
+                version = CasPersistenceUtils.sha1(bos.toByteArray());
+            }
+            catch (IOException | SAXException e) {
+                throw new ResourceInitializationException(e);
+            }
+        }
+        
+        public TypeSystemDescription getDescription()
+        {
+            return description;
+        }
+        
+        public String getVersion()
+        {
+            return version;
+        }
+        
+        /**
+         * @return the serialized form of an empty CAS using this type system. It is only read
+         *         when re-initializing a CAS, so the same instance can be shared.
+         */
+        public synchronized CASCompleteSerializer getTemplate()
+            throws UIMAException
+        {
+            if (template == null) {
+                CAS tempCas = JCasFactory.createJCas(description).getCas();
+                template = Serialization.serializeCASComplete((CASImpl) tempCas);
+            }
+            return template;
+        }
+    }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.CASSerializer;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+
+/**
+ * Application-wide cache of deserialized CASes. The cache does not keep the CASes themselves but
+ * an in-memory snapshot of their heaps taken when they were loaded from or written to disk. Every
+ * lookup restores a new CAS from the snapshot, so callers never share a CAS instance and changes
+ * which were never written cannot leak into later lookups. Restoring a snapshot preserves the
+ * addresses of the feature structures, just like reading the CAS from disk does.
+ * <p>
+ * The cache is bounded by the total heap size of the snapshots. When the limit is exceeded, the
+ * least recently used entries are evicted. Each entry remembers the timestamp of the file it was
+ * loaded from or written to, so a CAS that has been changed on disk behind the back of the cache
+ * is never returned.
+ */
+public class CasCache
+{
+    private final Map<JCasCacheKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long maxSize;
+    private long size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param aMaxSize
+     *            the maximum heap size in bytes of all cached snapshots. If this is {@code 0} or
+     *            less, the cache does not retain anything.
+     */
+    public CasCache(long aMaxSize)
+    {
+        maxSize = aMaxSize;
+    }
+
+    public boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /**
+     * Fetch a CAS from the cache.
+     *
+     * @param aKey
+     *            the document/user key.
+     * @param aTimestamp
+     *            the current timestamp of the CAS file on disk. If the cached entry was recorded
+     *            for a different timestamp, it is dropped and {@code null} is returned.
+     * @return a new CAS restored from the cached snapshot or {@code null}.
+     * @throws IOException
+     *             if the CAS could not be restored.
+     */
+    public JCas get(JCasCacheKey aKey, long aTimestamp)
+        throws IOException
+    {
+        CASCompleteSerializer snapshot;
+        synchronized (this) {
+            Entry entry = entries.get(aKey);
+    
+            if (entry != null && entry.timestamp != aTimestamp) {
+                remove(aKey);
+                entry = null;
+            }
+    
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+    
+            hits++;
+            snapshot = entry.snapshot;
+        }
+        
+        // The snapshot is never modified, so the CAS can be restored outside the lock
+        try {
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            deserializeCASComplete(snapshot, (CASImpl) cas);
+            return cas.getJCas();
+        }
+        catch (ResourceInitializationException | CASException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Add or replace a CAS in the cache. The cache takes a snapshot of the CAS, so later changes
+     * to the given CAS do not affect the cached entry.
+     *
+     * @param aKey
+     *            the document/user key.
+     * @param aJCas
+     *            the CAS.
+     * @param aTimestamp
+     *            the timestamp of the CAS file on disk matching the state of the CAS.
+     */
+    public void put(JCasCacheKey aKey, JCas aJCas, long aTimestamp)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+        
+        CASCompleteSerializer snapshot = serializeCASComplete((CASImpl) aJCas.getCas());
+        long snapshotSize = getHeapSize(snapshot);
+        
+        synchronized (this) {
+            remove(aKey);
+    
+            // Do not bother caching CASes which would immediately push everything else out
+            if (snapshotSize > maxSize) {
+                return;
+            }
+    
+            Entry entry = new Entry();
+            entry.snapshot = snapshot;
+            entry.timestamp = aTimestamp;
+            entry.size = snapshotSize;
+            entries.put(aKey, entry);
+            size += snapshotSize;
+    
+            Iterator<Map.Entry<JCasCacheKey, Entry>> i = entries.entrySet().iterator();
+            while (size > maxSize && i.hasNext()) {
+                Map.Entry<JCasCacheKey, Entry> eldest = i.next();
+                if (eldest.getKey().equals(aKey)) {
+                    continue;
+                }
+                size -= eldest.getValue().size;
+                i.remove();
+                evictions++;
+            }
+        }
+    }
+
+    public synchronized void invalidate(JCasCacheKey aKey)
+    {
+        remove(aKey);
+    }
+
+    public synchronized void invalidateAll()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    private void remove(JCasCacheKey aKey)
+    {
+        Entry entry = entries.remove(aKey);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return the heap size in bytes of all cached snapshots.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Measures the heap occupied by the arrays of the snapshot which hold the feature structures
+     * and their values. The type system part of the snapshot is small compared to these and is
+     * not counted.
+     */
+    static long getHeapSize(CASCompleteSerializer aSnapshot)
+    {
+        CASSerializer heap = aSnapshot.getCASSerializer();
+        long bytes = 0;
+        bytes += arraySize(heap.heapMetaData, Integer.BYTES);
+        bytes += arraySize(heap.heapArray, Integer.BYTES);
+        bytes += arraySize(heap.fsIndex, Integer.BYTES);
+        bytes += arraySize(heap.byteHeapArray, Byte.BYTES);
+        bytes += arraySize(heap.shortHeapArray, Short.BYTES);
+        bytes += arraySize(heap.longHeapArray, Long.BYTES);
+        if (heap.stringTable != null) {
+            bytes += arraySize(heap.stringTable, 8);
+            for (String s : heap.stringTable) {
+                if (s != null) {
+                    // Object header, hash and array header plus the characters
+                    bytes += 40 + 2L * s.length();
+                }
+            }
+        }
+        return bytes;
+    }
+    
+    private static long arraySize(Object aArray, int aElementSize)
+    {
+        if (aArray == null) {
+            return 0;
+        }
+        
+        // Array header plus the elements
+        return 16 + (long) Array.getLength(aArray) * aElementSize;
+    }
+
+    private static class Entry
+    {
+        CASCompleteSerializer snapshot;
+        long timestamp;
+        long size;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped read/write locks for CAS storage. Each document/user combination maps to one of a fixed
+ * number of stripes, so operations on different CASes usually do not block each other. In
+ * addition, there is a global lock: every stripe lock is taken together with the global read lock,
+ * while {@link #lockExclusive()} takes the global write lock and thereby blocks all other CAS
+ * operations.
+ */
+public class CasLockTable
+{
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock[] stripes;
+
+    private final LongAdder contendedCount = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    public CasLockTable()
+    {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param aStripes
+     *            the number of stripes. Rounded up to the next power of two.
+     */
+    public CasLockTable(int aStripes)
+    {
+        int n = aStripes <= 1 ? 1 : Integer.highestOneBit(aStripes - 1) << 1;
+        stripes = new ReentrantReadWriteLock[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Lock the given CAS for reading. Other readers of the same CAS are not blocked.
+     */
+    public CasLock lockForRead(JCasCacheKey aKey)
+    {
+        return lock(globalLock.readLock(), stripe(aKey).readLock());
+    }
+
+    /**
+     * Lock the given CAS for reading and writing.
+     */
+    public CasLock lockForWrite(JCasCacheKey aKey)
+    {
+        return lock(globalLock.readLock(), stripe(aKey).writeLock());
+    }
+
+    /**
+     * Lock all CASes. The thread holding the exclusive lock may still acquire the per-CAS locks.
+     */
+    public CasLock lockExclusive()
+    {
+        return lock(globalLock.writeLock(), null);
+    }
+
+    private ReentrantReadWriteLock stripe(JCasCacheKey aKey)
+    {
+        int h = aKey.hashCode();
+        // Spread the higher bits so that keys differing only there do not collide
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    private CasLock lock(Lock aOuter, Lock aInner)
+    {
+        acquire(aOuter);
+        if (aInner != null) {
+            try {
+                acquire(aInner);
+            }
+            catch (RuntimeException e) {
+                aOuter.unlock();
+                throw e;
+            }
+        }
+        return new CasLock(aOuter, aInner);
+    }
+
+    private void acquire(Lock aLock)
+    {
+        if (aLock.tryLock()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        aLock.lock();
+        long wait = System.nanoTime() - start;
+
+        contendedCount.increment();
+        waitTime.add(wait);
+        maxWaitTime.accumulateAndGet(wait, Math::max);
+    }
+
+    /**
+     * @return number of lock acquisitions which had to wait for another thread.
+     */
+    public long getContendedCount()
+    {
+        return contendedCount.sum();
+    }
+
+    /**
+     * @return total time in milliseconds spent waiting for locks.
+     */
+    public long getWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.sum());
+    }
+
+    /**
+     * @return longest time in milliseconds spent waiting for a single lock.
+     */
+    public long getMaxWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+    }
+
+    /**
+     * A held lock. Release it by closing it, ideally using a try-with-resources block.
+     */
+    public static class CasLock
+        implements AutoCloseable
+    {
+        private final Lock outer;
+        private final Lock inner;
+
+        private CasLock(Lock aOuter, Lock aInner)
+        {
+            outer = aOuter;
+            inner = aInner;
+        }
+
+        @Override
+        public void close()
+        {
+            if (inner != null) {
+                inner.unlock();
+            }
+            outer.unlock();
+        }
+    }
+}
@@ -22,8 +22,15 @@ import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTyp
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
@@ -37,6 +44,8 @@ public class CasMetadataUtils
 {
     private static final Logger LOG = LoggerFactory.getLogger(CasMetadataUtils.class);
     
+    private static final String FEATURE_TYPE_SYSTEM_VERSION = "typeSystemVersion";
+    
     public static TypeSystemDescription getInternalTypeSystem()
     {
         return createTypeSystemDescription(
@@ -114,4 +123,49 @@ public class CasMetadataUtils
         cmd.setLastChangedOnDisk(aCasFile.lastModified());
         aJCas.addFsToIndexes(cmd);
     }
+    
+    /**
+     * Get the version of the project type system the CAS was last upgraded to. The feature is
+     * accessed via the CAS API because CASes stored by older versions may not define it yet.
+     */
+    public static Optional<String> getTypeSystemVersion(CAS aCas)
+    {
+        Type type = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (type == null) {
+            return Optional.empty();
+        }
+        
+        Feature feature = type.getFeatureByBaseName(FEATURE_TYPE_SYSTEM_VERSION);
+        if (feature == null) {
+            return Optional.empty();
+        }
+        
+        Iterator<FeatureStructure> i = CasUtil.selectFS(aCas, type).iterator();
+        if (!i.hasNext()) {
+            return Optional.empty();
+        }
+        
+        return Optional.ofNullable(i.next().getStringValue(feature));
+    }
+    
+    /**
+     * Record the version of the project type system the CAS was upgraded to. If the CAS does not
+     * support this yet or does not contain a {@link CASMetadata} annotation, nothing happens.
+     */
+    public static void setTypeSystemVersion(CAS aCas, String aVersion)
+    {
+        Type type = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (type == null) {
+            return;
+        }
+        
+        Feature feature = type.getFeatureByBaseName(FEATURE_TYPE_SYSTEM_VERSION);
+        if (feature == null) {
+            return;
+        }
+        
+        for (FeatureStructure cmd : CasUtil.selectFS(aCas, type)) {
+            cmd.setStringValue(feature, aVersion);
+        }
+    }
 }
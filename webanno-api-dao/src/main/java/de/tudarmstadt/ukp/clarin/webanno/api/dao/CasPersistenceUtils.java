@@ -19,23 +19,72 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeWithCompression;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.CasIOUtils;
 
 public final class CasPersistenceUtils
 {
+    /**
+     * Name of the folder holding the type systems referenced by CASes stored in the
+     * {@link CasStorageFormat#COMPRESSED compressed} format.
+     */
+    public static final String TYPE_SYSTEM_FOLDER = "typesystem";
+    
+    /**
+     * Magic bytes at the start of a CAS file stored in the {@link CasStorageFormat#COMPRESSED
+     * compressed} format. Java-serialized CAS files always start with {@code 0xACED}.
+     */
+    private static final byte[] COMPRESSED_MAGIC = { 'W', 'A', 'C', '4' };
+    
+    /**
+     * Magic bytes of compressed CAS files written in form 6. These files are still read, but
+     * since form 6 does not preserve the feature structure addresses, CASes are no longer written
+     * in it.
+     */
+    private static final byte[] COMPRESSED_FORM6_MAGIC = { 'W', 'A', 'C', '6' };
+    
+    /**
+     * When looking up the type system of a compressed CAS file, we check the
+     * {@link #TYPE_SYSTEM_FOLDER} in the ancestors of the file up to this depth. In the repository,
+     * annotation files are stored in {@code project/<id>/document/<id>/annotation} and the type
+     * systems in {@code project/<id>/typesystem}, so they are found four levels up.
+     */
+    private static final int TYPE_SYSTEM_SEARCH_DEPTH = 5;
+    
+    private static final Map<TypeSystem, String> TYPE_SYSTEM_HASHES = Collections
+            .synchronizedMap(new WeakHashMap<>());
+    
     private CasPersistenceUtils()
     {
         // No instances
@@ -57,18 +106,88 @@ public final class CasPersistenceUtils
         }
     }
 
+    /**
+     * Writes the CAS in the UIMA compressed binary format (form 4). The type system is not
+     * included in the file but stored separately in the given type system folder, named after a
+     * hash of its contents. Thus, all CASes using the same type system share a single copy of it.
+     * <p>
+     * Unlike form 6, form 4 keeps the addresses of all feature structures, including those no
+     * longer indexed. This is required because the editors, the curation and the CAS cache
+     * refer to annotations by their address across a save and reload.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aFile
+     *            the target file.
+     * @param aTypeSystemFolder
+     *            the folder where the type system is stored. This folder must be a
+     *            {@link #TYPE_SYSTEM_FOLDER} located in one of the ancestor folders of the target
+     *            file such that it can be found again when reading the file.
+     * @throws IOException
+     *             if the CAS could not be written.
+     */
+    public static void writeCompressedCas(CAS aCas, File aFile, File aTypeSystemFolder)
+        throws IOException
+    {
+        FileUtils.forceMkdir(aFile.getParentFile());
+        
+        String typeSystemHash = writeTypeSystem(aCas, aTypeSystemFolder);
+
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(aFile)))) {
+            os.write(COMPRESSED_MAGIC);
+            os.writeUTF(typeSystemHash);
+            serializeWithCompression(aCas, os);
+        }
+    }
+    
+    public static void writeCas(CAS aCas, File aFile, CasStorageFormat aFormat,
+            File aTypeSystemFolder)
+        throws IOException
+    {
+        switch (aFormat) {
+        case COMPRESSED:
+            writeCompressedCas(aCas, aFile, aTypeSystemFolder);
+            break;
+        case SERIALIZED:
+            writeSerializedCas(aCas, aFile);
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported CAS storage format: " + aFormat);
+        }
+    }
+
     public static void readSerializedCas(JCas aJCas, File aFile)
         throws IOException
     {
         readSerializedCas(aJCas.getCas(), aFile);
     }
     
+    /**
+     * Reads a CAS file. Both the {@link CasStorageFormat#SERIALIZED serialized} and the
+     * {@link CasStorageFormat#COMPRESSED compressed} formats are supported. The CAS is
+     * re-initialized with the type system stored in/with the file.
+     */
     public static void readSerializedCas(CAS aCas, File aFile)
         throws IOException
     {
-        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
-            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
-            deserializeCASComplete(serializer, (CASImpl) aCas);
+        try (InputStream is = new BufferedInputStream(new FileInputStream(aFile))) {
+            if (isCompressed(is)) {
+                DataInputStream dis = new DataInputStream(is);
+                dis.readFully(new byte[COMPRESSED_MAGIC.length]);
+                String typeSystemHash = dis.readUTF();
+                File typeSystemFile = findTypeSystemFile(aFile, typeSystemHash);
+                try (InputStream tsis = new BufferedInputStream(
+                        new FileInputStream(typeSystemFile))) {
+                    CasIOUtils.load(dis, tsis, aCas);
+                }
+            }
+            else {
+                ObjectInputStream ois = new ObjectInputStream(is);
+                CASCompleteSerializer serializer = (CASCompleteSerializer) ois.readObject();
+                deserializeCASComplete(serializer, (CASImpl) aCas);
+            }
+            
             // Initialize the JCas sub-system which is the most often used API in DKPro Core
             // components
             aCas.getJCas();
@@ -77,4 +196,150 @@ public final class CasPersistenceUtils
             throw new IOException(e);
         }
     }
+    
+    /**
+     * Determines the format of the given CAS file.
+     */
+    public static CasStorageFormat getFormat(File aFile)
+        throws IOException
+    {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(aFile))) {
+            return isCompressed(is) ? CasStorageFormat.COMPRESSED : CasStorageFormat.SERIALIZED;
+        }
+    }
+    
+    /**
+     * Copies a CAS file to the given folder. If the file is not in the self-contained
+     * {@link CasStorageFormat#SERIALIZED serialized} format, it is converted such that the copy
+     * can be read without the type system folder it depends on, e.g. in a project export.
+     */
+    public static void copySerializedCasToDirectory(File aFile, File aDirectory)
+        throws IOException
+    {
+        if (getFormat(aFile) == CasStorageFormat.SERIALIZED) {
+            FileUtils.copyFileToDirectory(aFile, aDirectory);
+            return;
+        }
+        
+        try {
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            readSerializedCas(cas, aFile);
+            File target = new File(aDirectory, aFile.getName());
+            writeSerializedCas(cas, target);
+            target.setLastModified(aFile.lastModified());
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    /**
+     * Provides a CAS file in the self-contained {@link CasStorageFormat#SERIALIZED serialized}
+     * format. If the file is already in this format, it is returned as it is. Otherwise, it is
+     * converted into the given folder and the converted copy is returned.
+     */
+    public static File toSerializedCasFile(File aFile, File aFolder)
+        throws IOException
+    {
+        if (getFormat(aFile) == CasStorageFormat.SERIALIZED) {
+            return aFile;
+        }
+        
+        copySerializedCasToDirectory(aFile, aFolder);
+        return new File(aFolder, aFile.getName());
+    }
+    
+    private static boolean isCompressed(InputStream aStream)
+        throws IOException
+    {
+        byte[] magic = new byte[COMPRESSED_MAGIC.length];
+        aStream.mark(magic.length);
+        int read = 0;
+        while (read < magic.length) {
+            int n = aStream.read(magic, read, magic.length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        aStream.reset();
+        return read == magic.length && (Arrays.equals(magic, COMPRESSED_MAGIC)
+                || Arrays.equals(magic, COMPRESSED_FORM6_MAGIC));
+    }
+    
+    /**
+     * Stores the type system of the given CAS in the type system folder unless it is already
+     * there.
+     * 
+     * @return the hash identifying the type system.
+     */
+    private static String writeTypeSystem(CAS aCas, File aTypeSystemFolder)
+        throws IOException
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        String hash = TYPE_SYSTEM_HASHES.get(ts);
+        byte[] tsi = null;
+        if (hash == null) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            CasIOUtils.writeTypeSystem(aCas, bos, true);
+            tsi = bos.toByteArray();
+            hash = sha1(tsi);
+            TYPE_SYSTEM_HASHES.put(ts, hash);
+        }
+        
+        File tsFile = new File(aTypeSystemFolder, hash + ".tsi");
+        if (!tsFile.exists()) {
+            if (tsi == null) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                CasIOUtils.writeTypeSystem(aCas, bos, true);
+                tsi = bos.toByteArray();
+            }
+            
+            // Write to a temporary file first so that a concurrent reader never sees a partially
+            // written type system
+            FileUtils.forceMkdir(aTypeSystemFolder);
+            File tmpFile = File.createTempFile(hash, ".tmp", aTypeSystemFolder);
+            FileUtils.writeByteArrayToFile(tmpFile, tsi);
+            if (!tmpFile.renameTo(tsFile) && !tsFile.exists()) {
+                FileUtils.deleteQuietly(tmpFile);
+                throw new IOException("Unable to store type system [" + tsFile + "]");
+            }
+            FileUtils.deleteQuietly(tmpFile);
+        }
+        
+        return hash;
+    }
+    
+    private static File findTypeSystemFile(File aCasFile, String aHash)
+        throws FileNotFoundException
+    {
+        String name = aHash + ".tsi";
+        File dir = aCasFile.getAbsoluteFile().getParentFile();
+        for (int i = 0; dir != null && i < TYPE_SYSTEM_SEARCH_DEPTH; i++) {
+            File candidate = new File(new File(dir, TYPE_SYSTEM_FOLDER), name);
+            if (candidate.exists()) {
+                return candidate;
+            }
+            dir = dir.getParentFile();
+        }
+        
+        throw new FileNotFoundException(
+                "Type system [" + aHash + "] required by [" + aCasFile + "] not found");
+    }
+    
+    /* package private */ static String sha1(byte[] aData)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(aData);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+/**
+ * Formats in which annotation CASes can be stored in the repository. Files in any of these
+ * formats can always be read, the format only controls how CASes are written.
+ */
+public enum CasStorageFormat
+{
+    /**
+     * Java-serialized {@code CASCompleteSerializer}. Self-contained but large since every file
+     * contains the full type system.
+     */
+    SERIALIZED,
+    
+    /**
+     * UIMA compressed binary format (form 4). The type system is stored once per project and
+     * shared by all CAS files using it. Feature structure addresses are preserved.
+     */
+    COMPRESSED;
+}
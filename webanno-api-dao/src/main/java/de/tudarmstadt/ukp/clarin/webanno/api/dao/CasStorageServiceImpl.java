@@ -49,10 +49,14 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.JCasProvider;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasLockTable.CasLock;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -60,13 +64,14 @@ import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
+@ManagedResource
 @Component(CasStorageService.SERVICE_NAME)
 public class CasStorageServiceImpl
     implements CasStorageService
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Object lock = new Object();
+    private final CasLockTable locks = new CasLockTable();
 
     public static final MetaDataKey<Map<JCasCacheKey, JCasCacheEntry>> CACHE = 
             new MetaDataKey<Map<JCasCacheKey, JCasCacheEntry>>()
@@ -82,6 +87,7 @@ public class CasStorageServiceImpl
     private final CasDoctor casDoctor;
     private final RepositoryProperties repositoryProperties;
     private final BackupProperties backupProperties;
+    private final CasCache sharedCache;
     
     public CasStorageServiceImpl(@Autowired(required = false) CasDoctor aCasDoctor,
             @Autowired RepositoryProperties aRepositoryProperties,
@@ -90,6 +96,7 @@ public class CasStorageServiceImpl
         casDoctor = aCasDoctor;
         repositoryProperties = aRepositoryProperties;
         backupProperties = aBackupProperties;
+        sharedCache = new CasCache(repositoryProperties.getCasCacheSize());
         
         if (casDoctor == null) {
             log.info("CAS doctor not available - unable to check/repair CASes");
@@ -103,6 +110,13 @@ public class CasStorageServiceImpl
         else {
             log.info("CAS backups disabled");
         }
+        
+        if (sharedCache.isEnabled()) {
+            log.info("Shared CAS cache enabled - max-size: {} bytes", sharedCache.getMaxSize());
+        }
+        else {
+            log.info("Shared CAS cache disabled");
+        }
     }
 
     /**
@@ -145,12 +159,12 @@ public class CasStorageServiceImpl
                     + aDocument.getProject().getId() + ")", e);
         }
         
-        synchronized (lock) {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUserName);
+        try (CasLock l = locks.lockForWrite(key)) {
             realWriteCas(aDocument, aUserName, aJcas);
     
             // Update the CAS in the cache
             if (isCacheEnabled()) {
-                JCasCacheKey key = JCasCacheKey.of(aDocument, aUserName);
                 JCasCacheEntry entry = getCache().get(key);
                 if (entry == null) {
                     entry = new JCasCacheEntry();
@@ -158,6 +172,12 @@ public class CasStorageServiceImpl
                 }
                 entry.writes++;
                 getCache().put(key, entry);
+                
+                File casFile = getCasFile(aDocument, aUserName);
+                sharedCache.put(key, aJcas, casFile.lastModified());
+            }
+            else {
+                sharedCache.invalidate(key);
             }
         }
     }
@@ -201,8 +221,10 @@ public class CasStorageServiceImpl
             }
             md.setDocumentId(aUserName);
 
-            CasPersistenceUtils.writeSerializedCas(aJcas,
-                    new File(annotationFolder, aUserName + ".ser"));
+            CasPersistenceUtils.writeCas(aJcas.getCas(),
+                    new File(annotationFolder, aUserName + ".ser"),
+                    repositoryProperties.getCasStorageFormat(),
+                    getTypeSystemFolder(aDocument.getProject()));
 
             try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                     String.valueOf(aDocument.getProject().getId()))) {
@@ -366,52 +388,96 @@ public class CasStorageServiceImpl
             boolean aAnalyzeAndRepair, JCasProvider aSupplier)
         throws IOException
     {
-        synchronized (lock) {
-            // Check if we have the CAS in the cache
-            if (isCacheEnabled()) {
-                JCasCacheEntry entry = getCache().get(JCasCacheKey.of(aDocument, aUsername));
-                if (entry != null) {
-                    log.debug("Fetched CAS [{},{}] from cache", aDocument.getId(), aUsername);
-                    entry.reads++;
-                    return entry.jcas;
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        JCas createdJCas = null;
+        while (true) {
+            // Reading may also create and write the CAS, so we need the write lock here
+            try (CasLock l = locks.lockForWrite(key)) {
+                File casFile = getCasFile(aDocument, aUsername);
+                
+                // Check if we have the CAS in the cache
+                if (isCacheEnabled()) {
+                    JCasCacheEntry entry = getCache().get(key);
+                    if (entry != null) {
+                        log.debug("Fetched CAS [{},{}] from cache", aDocument.getId(), aUsername);
+                        entry.reads++;
+                        return entry.jcas;
+                    }
+                    
+                    // If it is not in the request cache, check if another request left it in the
+                    // shared cache. The timestamp check ensures that we do not pick up a CAS that
+                    // has since been changed on disk. The shared cache hands out a fresh copy, so
+                    // the CAS is not shared with other requests.
+                    JCas sharedJCas = casFile.exists()
+                            ? sharedCache.get(key, casFile.lastModified()) : null;
+                    if (sharedJCas != null) {
+                        entry = new JCasCacheEntry();
+                        entry.jcas = sharedJCas;
+                        entry.reads++;
+                        getCache().put(key, entry);
+                        log.debug("Fetched CAS [{},{}] from shared cache", aDocument.getId(),
+                                aUsername);
+                        return sharedJCas;
+                    }
+                }
+                
+                // If the CAS is not in the cache, load it from disk
+                JCas jcas;
+                String source;
+                if (casFile.exists()) {
+                    jcas = realReadCas(aDocument, aUsername, aAnalyzeAndRepair);
+                    source = "disk";
+                }
+                else if (createdJCas != null) {
+                    jcas = createdJCas;
+                    source = "importer";
+                    realWriteCas(aDocument, aUsername, jcas);
+                }
+                else if (aSupplier == null) {
+                    throw new FileNotFoundException("CAS [" + aDocument.getId() + "," + aUsername
+                            + "] does not exist and no initializer is specified.");
+                }
+                else {
+                    jcas = null;
+                    source = null;
+                }
+                
+                if (jcas != null) {
+                    // Add/update the CAS metadata
+                    CasMetadataUtils.addOrUpdateCasMetadata(jcas, casFile, aDocument, aUsername);
+                    
+                    // Update the cache
+                    if (isCacheEnabled()) {
+                        JCasCacheEntry entry = new JCasCacheEntry();
+                        entry.jcas = jcas;
+                        entry.writes++;
+                        getCache().put(key, entry);
+                        
+                        // A CAS that has not been checked by the CAS doctor must not be handed
+                        // out to callers that expect a checked one, so we keep it only in the
+                        // request cache.
+                        if (aAnalyzeAndRepair || createdJCas != null) {
+                            sharedCache.put(key, jcas, casFile.lastModified());
+                        }
+                        
+                        log.debug("Loaded CAS [{},{}] from {} and stored in cache",
+                                aDocument.getId(), aUsername, source);
+                    }
+                    else {
+                        log.debug("Loaded CAS [{},{}] from {}", aDocument.getId(), aUsername,
+                                source);
+                    }
+                    
+                    return jcas;
                 }
             }
             
-            // If the CAS is not in the cache, load it from disk
-            JCas jcas;
-            String source;
-            File casFile = getCasFile(aDocument, aUsername);
-            if (casFile.exists()) {
-                jcas = realReadCas(aDocument, aUsername, aAnalyzeAndRepair);
-                source = "disk";
-            }
-            else if (aSupplier != null) {
-                jcas = aSupplier.get();
-                source = "importer";
-                realWriteCas(aDocument, aUsername, jcas);
-            }
-            else {
-                throw new FileNotFoundException("CAS [" + aDocument.getId() + "," + aUsername
-                        + "] does not exist and no initializer is specified.");
-            }
-            
-            // Add/update the CAS metadata
-            CasMetadataUtils.addOrUpdateCasMetadata(jcas, casFile, aDocument, aUsername);
-            
-            // Update the cache
-            if (isCacheEnabled()) {
-                JCasCacheEntry entry = new JCasCacheEntry();
-                entry.jcas = jcas;
-                entry.writes++;
-                getCache().put(JCasCacheKey.of(aDocument, aUsername), entry);
-                log.debug("Loaded CAS [{},{}] from {} and stored in cache", aDocument.getId(),
-                        aUsername, source);
-            }
-            else {
-                log.debug("Loaded CAS [{},{}] from {}", aDocument.getId(), aUsername, source);
-            }
-            
-            return jcas;
+            // Create the CAS outside the lock. The supplier usually reads other CASes (e.g. the
+            // initial CAS) and holding our lock while doing so could deadlock against another
+            // thread doing the same for a CAS that maps to the same lock stripe. If a concurrent
+            // request creates the CAS in the meantime, we pick up that one in the next iteration.
+            createdJCas = aSupplier.get();
+            Validate.notNull(createdJCas, "CAS supplier must not return null");
         }
     }
     
@@ -454,11 +520,13 @@ public class CasStorageServiceImpl
     @Override
     public boolean deleteCas(SourceDocument aDocument, String aUsername) throws IOException
     {
-        synchronized (lock) {
-
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        try (CasLock l = locks.lockForWrite(key)) {
             if (isCacheEnabled()) {
-                getCache().remove(JCasCacheKey.of(aDocument, aUsername));
+                getCache().remove(key);
             }
+            
+            sharedCache.invalidate(key);
 
             return new File(getAnnotationFolder(aDocument), aUsername + ".ser").delete();
         }
@@ -536,7 +604,7 @@ public class CasStorageServiceImpl
         
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
-        synchronized (lock) {
+        try (CasLock l = locks.lockForRead(JCasCacheKey.of(aDocument, aUser))) {
             return getCasFile(aDocument, aUser).exists();
         }
     }
@@ -549,7 +617,7 @@ public class CasStorageServiceImpl
         
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
-        synchronized (lock) {
+        try (CasLock l = locks.lockForRead(JCasCacheKey.of(aDocument, aUser))) {
             File casFile = getCasFile(aDocument, aUser);
             if (!casFile.exists()) {
                 return Optional.empty();
@@ -579,6 +647,112 @@ public class CasStorageServiceImpl
         return annotationFolder;
     }
     
+    /**
+     * Get the folder where the type systems of CASes stored in the
+     * {@link CasStorageFormat#COMPRESSED compressed} format are kept.
+     */
+    private File getTypeSystemFolder(Project aProject)
+    {
+        return new File(repositoryProperties.getPath(), "/" + PROJECT_FOLDER + "/"
+                + aProject.getId() + "/" + CasPersistenceUtils.TYPE_SYSTEM_FOLDER);
+    }
+    
+    /**
+     * Converts all CAS files in the repository which are not yet stored in the configured
+     * {@link RepositoryProperties#getCasStorageFormat() storage format}. Each file is converted
+     * while holding the lock for the respective CAS, so this can run in the background while
+     * users continue working. The file timestamps are retained such that CASes which are
+     * currently open do not trigger the concurrent modification detection when saved.
+     * 
+     * @return the number of converted files.
+     */
+    public int migrateStorageFormat()
+    {
+        CasStorageFormat targetFormat = repositoryProperties.getCasStorageFormat();
+        
+        File[] projectFolders = new File(repositoryProperties.getPath(), PROJECT_FOLDER)
+                .listFiles(File::isDirectory);
+        if (projectFolders == null) {
+            return 0;
+        }
+        
+        int converted = 0;
+        for (File projectFolder : projectFolders) {
+            File[] documentFolders = new File(projectFolder, DOCUMENT_FOLDER)
+                    .listFiles(File::isDirectory);
+            if (documentFolders == null) {
+                continue;
+            }
+            
+            File typeSystemFolder = new File(projectFolder,
+                    CasPersistenceUtils.TYPE_SYSTEM_FOLDER);
+            
+            for (File documentFolder : documentFolders) {
+                long documentId;
+                try {
+                    documentId = Long.parseLong(documentFolder.getName());
+                }
+                catch (NumberFormatException e) {
+                    continue;
+                }
+                
+                File[] casFiles = new File(documentFolder, ANNOTATION_FOLDER)
+                        .listFiles((dir, name) -> name.endsWith(".ser"));
+                if (casFiles == null) {
+                    continue;
+                }
+                
+                for (File casFile : casFiles) {
+                    String user = casFile.getName().substring(0,
+                            casFile.getName().length() - ".ser".length());
+                    JCasCacheKey key = new JCasCacheKey(documentId, user);
+                    try (CasLock l = locks.lockForWrite(key)) {
+                        if (convertCasFile(casFile, targetFormat, typeSystemFolder)) {
+                            converted++;
+                        }
+                    }
+                    catch (Exception e) {
+                        log.error("Unable to convert CAS file [{}] to {} format", casFile,
+                                targetFormat, e);
+                    }
+                }
+            }
+            
+            log.info("Converted CAS files in [{}] to {} format - {} converted so far",
+                    projectFolder, targetFormat, converted);
+        }
+        
+        return converted;
+    }
+    
+    private boolean convertCasFile(File aCasFile, CasStorageFormat aFormat,
+            File aTypeSystemFolder)
+        throws IOException, UIMAException
+    {
+        // The file might have been deleted while we were waiting for the lock
+        if (!aCasFile.exists() || CasPersistenceUtils.getFormat(aCasFile) == aFormat) {
+            return false;
+        }
+        
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        CasPersistenceUtils.readSerializedCas(cas, aCasFile);
+        
+        long timestamp = aCasFile.lastModified();
+        File tmpFile = new File(aCasFile.getPath() + ".migrate");
+        try {
+            CasPersistenceUtils.writeCas(cas, tmpFile, aFormat, aTypeSystemFolder);
+            tmpFile.setLastModified(timestamp);
+            renameFile(tmpFile, aCasFile);
+        }
+        finally {
+            FileUtils.deleteQuietly(tmpFile);
+        }
+        
+        log.debug("Converted CAS file [{}] to {} format", aCasFile, aFormat);
+        
+        return true;
+    }
+    
     /**
      * Renames a file.
      *
@@ -602,7 +776,7 @@ public class CasStorageServiceImpl
     public void performExclusiveBulkOperation(CasStorageOperation aOperation)
         throws UIMAException, IOException
     {
-        synchronized (lock) {
+        try (CasLock l = locks.lockExclusive()) {
             aOperation.execute();
         }
     }
@@ -639,6 +813,54 @@ public class CasStorageServiceImpl
         }
     }
      
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getLockContendedCount()
+    {
+        return locks.getContendedCount();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
+    public long getLockWaitTime()
+    {
+        return locks.getWaitTime();
+    }
+    
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "ms")
+    public long getMaxLockWaitTime()
+    {
+        return locks.getMaxWaitTime();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheHits()
+    {
+        return sharedCache.getHits();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheMisses()
+    {
+        return sharedCache.getMisses();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSharedCacheEvictions()
+    {
+        return sharedCache.getEvictions();
+    }
+    
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "bytes")
+    public long getSharedCacheSize()
+    {
+        return sharedCache.getSize();
+    }
+    
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getSharedCacheEntryCount()
+    {
+        return sharedCache.getEntryCount();
+    }
+    
     private Map<JCasCacheKey, JCasCacheEntry> getCache()
     {
         RequestCycle requestCycle = RequestCycle.get();
@@ -669,71 +891,4 @@ public class CasStorageServiceImpl
         int writes;
         JCas jcas;
     }
-    
-    private static class JCasCacheKey
-    {
-        long sourceDocumentId;
-        String userId;
-        
-        public JCasCacheKey(long aSourceDocumentId, String aUserId)
-        {
-            super();
-            sourceDocumentId = aSourceDocumentId;
-            userId = aUserId;
-        }
-        
-        public static JCasCacheKey of(SourceDocument aSourceDocument, String aUserId)
-        {
-            return new JCasCacheKey(aSourceDocument.getId(), aUserId);
-        }
-
-        @Override
-        public String toString()
-        {
-            StringBuilder builder = new StringBuilder();
-            builder.append("[");
-            builder.append(sourceDocumentId);
-            builder.append(",");
-            builder.append(userId);
-            builder.append("]");
-            return builder.toString();
-        }
-
-        @Override
-        public int hashCode()
-        {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + (int) (sourceDocumentId ^ (sourceDocumentId >>> 32));
-            result = prime * result + ((userId == null) ? 0 : userId.hashCode());
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj)
-        {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            JCasCacheKey other = (JCasCacheKey) obj;
-            if (sourceDocumentId != other.sourceDocumentId) {
-                return false;
-            }
-            if (userId == null) {
-                if (other.userId != null) {
-                    return false;
-                }
-            }
-            else if (!userId.equals(other.userId)) {
-                return false;
-            }
-            return true;
-        }
-    }
 }
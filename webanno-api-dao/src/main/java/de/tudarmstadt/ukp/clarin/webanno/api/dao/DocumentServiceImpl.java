@@ -34,7 +34,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +45,8 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -56,10 +61,11 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.event.TransactionPhase;
-import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
@@ -99,6 +105,13 @@ public class DocumentServiceImpl
     private final ProjectService projectService;
     private final ApplicationEventPublisher applicationEventPublisher;
     private final RepositoryProperties repositoryProperties;
+    
+    /**
+     * Annotation document state counts per user by project ID.
+     */
+    private final Map<Long, Map<String, Map<AnnotationDocumentState, Integer>>> stateCounts =
+            new ConcurrentHashMap<>();
+    private final AtomicLong stateCountsGeneration = new AtomicLong();
 
     @Autowired
     public DocumentServiceImpl(RepositoryProperties aRepositoryProperties, UserDao aUserRepository,
@@ -205,6 +218,8 @@ public class DocumentServiceImpl
         else {
             entityManager.merge(aAnnotationDocument);
         }
+        
+        invalidateStateCounts(aAnnotationDocument.getProject());
     }
 
     @Override
@@ -432,6 +447,91 @@ public class DocumentServiceImpl
                 .getResultList();
     }
 
+    @Override
+    public Map<String, Map<AnnotationDocumentState, Integer>> countAnnotationDocumentStatesPerUser(
+            Project aProject)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+        
+        Long id = aProject.getId();
+        if (id != null) {
+            Map<String, Map<AnnotationDocumentState, Integer>> cached = stateCounts.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        long generation = stateCountsGeneration.get();
+        Map<String, Map<AnnotationDocumentState, Integer>> counts =
+                queryAnnotationDocumentStatesPerUser(aProject);
+        
+        if (id != null && generation == stateCountsGeneration.get()) {
+            stateCounts.put(id, counts);
+        }
+        
+        return counts;
+    }
+    
+    /**
+     * Drop the cached state counts of the given project. If a transaction is active, the counts
+     * are dropped again after the commit so that counts obtained by a concurrent request from the
+     * not-yet-committed state do not stick.
+     */
+    private void invalidateStateCounts(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+        
+        long projectId = aProject.getId();
+        stateCountsGeneration.incrementAndGet();
+        stateCounts.remove(projectId);
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            stateCountsGeneration.incrementAndGet();
+                            stateCounts.remove(projectId);
+                        }
+                    });
+        }
+    }
+    
+    private Map<String, Map<AnnotationDocumentState, Integer>>
+            queryAnnotationDocumentStatesPerUser(Project aProject)
+    {
+        // Documents in the tab-separated format are not returned by listSourceDocuments, so we
+        // do not count them either.
+        List<Object[]> rows = entityManager
+                .createQuery(
+                        "SELECT user, state, COUNT(*) FROM AnnotationDocument " +
+                        "WHERE project = :project AND document.format <> :format " +
+                        "GROUP BY user, state",
+                        Object[].class)
+                .setParameter("project", aProject)
+                .setParameter("format", WebAnnoConst.TAB_SEP)
+                .getResultList();
+        
+        Map<String, Map<AnnotationDocumentState, Integer>> counts = new HashMap<>();
+        for (Object[] row : rows) {
+            String user = (String) row[0];
+            AnnotationDocumentState state = (AnnotationDocumentState) row[1];
+            int count = ((Number) row[2]).intValue();
+            counts.computeIfAbsent(user, key -> new EnumMap<>(AnnotationDocumentState.class))
+                    .put(state, count);
+        }
+        
+        for (Entry<String, Map<AnnotationDocumentState, Integer>> e : counts.entrySet()) {
+            e.setValue(Collections.unmodifiableMap(e.getValue()));
+        }
+        
+        return Collections.unmodifiableMap(counts);
+    }
+
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public List<SourceDocument> listSourceDocuments(Project aProject)
@@ -452,6 +552,18 @@ public class DocumentServiceImpl
         return sourceDocuments;
     }
 
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public List<SourceDocument> listAllSourceDocuments(Project aProject)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+        
+        return entityManager
+                .createQuery("FROM SourceDocument where project =:project ORDER BY name ASC",
+                        SourceDocument.class)
+                .setParameter("project", aProject).getResultList();
+    }
+
     @Override
     @Transactional
     public void removeSourceDocument(SourceDocument aDocument)
@@ -493,6 +605,8 @@ public class DocumentServiceImpl
         Validate.notNull(aAnnotationDocument, "Annotation document must be specified");
         
         entityManager.remove(aAnnotationDocument);
+        
+        invalidateStateCounts(aAnnotationDocument.getProject());
     }
 
     @Override
@@ -733,6 +847,32 @@ public class DocumentServiceImpl
                 .getResultList();
     }
 
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public List<AnnotationDocument> listAnnotationDocuments(Project aProject)
+    {
+        Validate.notNull(aProject, "Project must be specified");
+        
+        // Get all annotators in the project
+        List<String> users = getAllAnnotators(aProject);
+        // Bail out already. HQL doesn't seem to like queries with an empty
+        // parameter right of "in"
+        if (users.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Fetch the source documents along with the annotation documents - otherwise, each
+        // source document would be loaded by a separate query
+        return entityManager
+                .createQuery(
+                        "SELECT a FROM AnnotationDocument a JOIN FETCH a.document "
+                                + "WHERE a.project = :project AND a.user in (:users)",
+                        AnnotationDocument.class)
+                .setParameter("project", aProject)
+                .setParameter("users", users)
+                .getResultList();
+    }
+
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public List<AnnotationDocument> listAllAnnotationDocuments(SourceDocument aDocument)
@@ -900,21 +1040,39 @@ public class DocumentServiceImpl
                 AnnotationDocumentStateTransition.transition(aTransition));
     }
     
-    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    @EventListener
+    public void onDocumentStateChangedInvalidateStateCounts(DocumentStateChangedEvent aEvent)
+    {
+        invalidateStateCounts(aEvent.getDocument().getProject());
+    }
+    
+    @EventListener
+    public void onAnnotationStateChangeInvalidateStateCounts(AnnotationStateChangeEvent aEvent)
+    {
+        invalidateStateCounts(aEvent.getDocument().getProject());
+    }
+    
+    @EventListener
+    public void onBeforeDocumentRemovedInvalidateStateCounts(BeforeDocumentRemovedEvent aEvent)
+    {
+        invalidateStateCounts(aEvent.getDocument().getProject());
+    }
+    
+    @EventListener
     public void onDocumentStateChangeEvent(DocumentStateChangedEvent aEvent)
     {
-        projectService.recalculateProjectState(aEvent.getDocument().getProject());
+        projectService.scheduleProjectStateRecalculation(aEvent.getDocument().getProject());
     }
 
-    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    @EventListener
     public void onAfterDocumentCreatedEvent(AfterDocumentCreatedEvent aEvent)
     {
-        projectService.recalculateProjectState(aEvent.getDocument().getProject());
+        projectService.scheduleProjectStateRecalculation(aEvent.getDocument().getProject());
     }
 
-    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    @EventListener
     public void onBeforeDocumentRemovedEvent(BeforeDocumentRemovedEvent aEvent)
     {
-        projectService.recalculateProjectState(aEvent.getDocument().getProject());
+        projectService.scheduleProjectStateRecalculation(aEvent.getDocument().getProject());
     }
 }
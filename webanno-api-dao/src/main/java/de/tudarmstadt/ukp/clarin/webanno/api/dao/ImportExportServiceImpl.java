@@ -35,6 +35,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.ClassUtils;
@@ -68,6 +69,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.AnnotationExportContext;
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
@@ -199,6 +201,41 @@ public class ImportExportServiceImpl
     public File exportAnnotationDocument(SourceDocument aDocument, String aUser,
             FormatSupport aFormat, String aFileName, Mode aMode, boolean aStripExtension)
         throws UIMAException, IOException, ClassNotFoundException
+    {
+        return exportAnnotationDocument(prepareAnnotationExport(aDocument.getProject()),
+                aDocument, aUser, aFormat, aFileName, aMode, aStripExtension, null);
+    }
+
+    @Override
+    @Transactional
+    public AnnotationExportContext prepareAnnotationExport(Project aProject)
+        throws UIMAException
+    {
+        // Tagset names to be recorded in the exported CASes
+        Map<String, String> tagSetNames = new LinkedHashMap<>();
+        for (AnnotationFeature feature : annotationService.listAnnotationFeature(aProject)) {
+            TagSet tagSet = feature.getTagset();
+            if (tagSet == null) {
+                continue;
+            }
+            else if (!feature.getLayer().getType().equals(WebAnnoConst.CHAIN_TYPE)) {
+                tagSetNames.put(feature.getLayer().getName(), tagSet.getName());
+            }
+        }
+        
+        return new AnnotationExportContext(aProject,
+                annotationService.getFullProjectTypeSystem(aProject, false), tagSetNames);
+    }
+
+    /**
+     * This method does not access the database - it must not be transactional because it is
+     * called from the worker threads of the project export.
+     */
+    @Override
+    public File exportAnnotationDocument(AnnotationExportContext aContext,
+            SourceDocument aDocument, String aUser, FormatSupport aFormat, String aFileName,
+            Mode aMode, boolean aStripExtension, File aTargetFolder)
+        throws UIMAException, IOException, ClassNotFoundException
     {
         File annotationFolder = casStorageService.getAnnotationFolder(aDocument);
         String serializedCasFileName;
@@ -225,7 +262,8 @@ public class ImportExportServiceImpl
         CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
         CasPersistenceUtils.readSerializedCas(cas, serializedCasFile);
 
-        File exportFile = exportCasToFile(cas, aDocument, aFileName, aFormat, aStripExtension);
+        File exportFile = exportCasToFile(aContext, cas, aDocument, aFileName, aFormat,
+                aStripExtension, aTargetFolder);
 
         Project project = aDocument.getProject();
         
@@ -383,13 +421,28 @@ public class ImportExportServiceImpl
     }    
     
     @Override
+    @Transactional
     public File exportCasToFile(CAS aCas, SourceDocument aDocument, String aFileName,
             FormatSupport aFormat, boolean aStripExtension)
         throws IOException, UIMAException
+    {
+        return exportCasToFile(prepareAnnotationExport(aDocument.getProject()), aCas, aDocument,
+                aFileName, aFormat, aStripExtension, null);
+    }
+    
+    /**
+     * @param aTargetFolder
+     *            the folder in which the exported file is created. If this is {@code null}, the
+     *            file is created in the temporary folder.
+     */
+    private File exportCasToFile(AnnotationExportContext aContext, CAS aCas,
+            SourceDocument aDocument, String aFileName, FormatSupport aFormat,
+            boolean aStripExtension, File aTargetFolder)
+        throws IOException, UIMAException
     {
         // Update type system the CAS, compact it (remove all non-reachable feature strucutres)
         // and remove all internal feature structures in the process
-        CAS cas = annotationService.prepareCasForExport(aCas, aDocument);
+        CAS cas = annotationService.prepareCasForExport(aCas, aContext.getExportTypeSystem());
         
         // Update the source file name in case it is changed for some reason. This is necessary
         // for the writers to create the files under the correct names.
@@ -405,16 +458,8 @@ public class ImportExportServiceImpl
         documentMetadata.setDocumentId(aFileName);
 
         // update with the correct tagset name
-        List<AnnotationFeature> features = annotationService.listAnnotationFeature(project);
-        for (AnnotationFeature feature : features) {
-
-            TagSet tagSet = feature.getTagset();
-            if (tagSet == null) {
-                continue;
-            }
-            else if (!feature.getLayer().getType().equals(WebAnnoConst.CHAIN_TYPE)) {
-                updateCasWithTagSet(cas, feature.getLayer().getName(), tagSet.getName());
-            }
+        for (Entry<String, String> tagSetName : aContext.getTagSetNames().entrySet()) {
+            updateCasWithTagSet(cas, tagSetName.getKey(), tagSetName.getValue());
         }
 
         File exportTempDir = File.createTempFile("webanno", "export");
@@ -433,9 +478,11 @@ public class ImportExportServiceImpl
             runPipeline(cas, writer);
     
             // If the writer produced more than one file, we package it up as a ZIP file
+            File targetFolder = aTargetFolder != null ? aTargetFolder
+                    : exportTempDir.getParentFile();
             File exportFile;
             if (exportTempDir.listFiles().length > 1) {
-                exportFile = new File(exportTempDir.getAbsolutePath() + ".zip");
+                exportFile = new File(targetFolder, exportTempDir.getName() + ".zip");
                 try {
                     ZipUtils.zipFolder(exportTempDir, exportFile);
                 }
@@ -447,8 +494,7 @@ public class ImportExportServiceImpl
                 }
             }
             else {
-                exportFile = new File(exportTempDir.getParent(),
-                        exportTempDir.listFiles()[0].getName());
+                exportFile = new File(targetFolder, exportTempDir.listFiles()[0].getName());
                 FileUtils.copyFile(exportTempDir.listFiles()[0], exportFile);
             }
             
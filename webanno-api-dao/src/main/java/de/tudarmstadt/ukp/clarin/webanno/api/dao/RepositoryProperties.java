@@ -28,8 +28,19 @@ import de.tudarmstadt.ukp.clarin.webanno.support.SettingsUtil;
 @ConfigurationProperties("repository")
 public class RepositoryProperties
 {
+    /**
+     * Default maximum heap size of the application-wide CAS cache (256 MB).
+     */
+    public static final long DEFAULT_CAS_CACHE_SIZE = 256 * 1024 * 1024;
+    
     private File path;
     
+    private long casCacheSize = DEFAULT_CAS_CACHE_SIZE;
+    
+    private CasStorageFormat casStorageFormat = CasStorageFormat.SERIALIZED;
+    
+    private boolean casStorageMigration = false;
+    
     public File getPath()
     {
         if (path != null) {
@@ -46,4 +57,46 @@ public class RepositoryProperties
     {
         path = aPath;
     }
+
+    /**
+     * @return the maximum heap size in bytes of all CASes kept in the application-wide CAS
+     *         cache. A value of {@code 0} disables the cache.
+     */
+    public long getCasCacheSize()
+    {
+        return casCacheSize;
+    }
+
+    public void setCasCacheSize(long aCasCacheSize)
+    {
+        casCacheSize = aCasCacheSize;
+    }
+
+    /**
+     * @return the format in which CASes are written. CASes can always be read regardless of the
+     *         format they are stored in.
+     */
+    public CasStorageFormat getCasStorageFormat()
+    {
+        return casStorageFormat;
+    }
+
+    public void setCasStorageFormat(CasStorageFormat aCasStorageFormat)
+    {
+        casStorageFormat = aCasStorageFormat;
+    }
+
+    /**
+     * @return whether CASes not stored in the {@link #getCasStorageFormat() configured format}
+     *         should be converted in the background on startup.
+     */
+    public boolean isCasStorageMigration()
+    {
+        return casStorageMigration;
+    }
+
+    public void setCasStorageMigration(boolean aCasStorageMigration)
+    {
+        casStorageMigration = aCasStorageMigration;
+    }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Converts the documents of a project export on a bounded pool of worker threads while the
+ * calling thread writes the results into the project ZIP file.
+ * <p>
+ * The results are written in the order in which the tasks were submitted, so the ZIP file does
+ * not depend on the timing of the workers. Each task gets its own temporary folder for its
+ * results which is removed as soon as the results have been written. Since at most twice as many
+ * tasks as there are workers are pending at any time, the temporary disk space is bounded by a
+ * few documents.
+ */
+public class ProjectExportPipeline
+    implements AutoCloseable
+{
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final ZipOutputStream zip;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Deque<PendingTask> pending = new ArrayDeque<>();
+
+    /**
+     * @param aZip
+     *            the ZIP file to which the results are written.
+     * @param aThreads
+     *            the number of worker threads.
+     */
+    public ProjectExportPipeline(ZipOutputStream aZip, int aThreads)
+    {
+        zip = aZip;
+        maxPending = Math.max(1, aThreads) * 2;
+
+        int pool = POOL_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, aThreads), aRunnable -> {
+            Thread thread = new Thread(aRunnable,
+                    "project-export-" + pool + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits a task to the workers. If too many tasks are pending, this method blocks until the
+     * results of the oldest tasks have been written.
+     *
+     * @param aTask
+     *            the task producing the ZIP entries.
+     * @param aOnWritten
+     *            called on the calling thread after the entries of the task have been written,
+     *            e.g. to report the progress.
+     * @throws IOException
+     *             if a previous task failed or its results could not be written.
+     */
+    public void submit(ExportTask aTask, Runnable aOnWritten)
+        throws IOException
+    {
+        while (pending.size() >= maxPending) {
+            writeNext();
+        }
+
+        File tempFolder = Files.createTempDirectory("webanno-project-export").toFile();
+        Future<List<Entry>> future = executor.submit(() -> aTask.run(tempFolder));
+        pending.add(new PendingTask(future, tempFolder, aOnWritten));
+    }
+
+    /**
+     * Waits for all pending tasks and writes their results.
+     *
+     * @throws IOException
+     *             if a task failed or its results could not be written.
+     */
+    public void finish()
+        throws IOException
+    {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    private void writeNext()
+        throws IOException
+    {
+        PendingTask task = pending.peek();
+        try {
+            for (Entry entry : task.future.get()) {
+                zip.putNextEntry(new ZipEntry(entry.name));
+                Files.copy(entry.file.toPath(), zip);
+                zip.closeEntry();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for export task");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Export task failed", e.getCause());
+        }
+
+        // Only remove the task here - if it failed, close() still needs to clean it up
+        pending.remove();
+        FileUtils.deleteQuietly(task.tempFolder);
+
+        if (task.onWritten != null) {
+            task.onWritten.run();
+        }
+    }
+
+    /**
+     * Stops all workers and removes the temporary folders of the tasks which have not been
+     * written.
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+
+        try {
+            // Wait until the workers are gone so they do not write into the folders removed below
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for (PendingTask task : pending) {
+                FileUtils.deleteQuietly(task.tempFolder);
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * A task run on a worker thread. It should only convert data, not access the ZIP file.
+     */
+    @FunctionalInterface
+    public interface ExportTask
+    {
+        /**
+         * @param aTempFolder
+         *            a folder exclusive to this task where it can create its result files. The
+         *            folder is removed after the results have been written.
+         * @return the entries to add to the ZIP file in the given order.
+         */
+        List<Entry> run(File aTempFolder) throws Exception;
+    }
+
+    /**
+     * A file to be added to the ZIP file under the given name.
+     */
+    public static class Entry
+    {
+        private final String name;
+        private final File file;
+
+        public Entry(String aName, File aFile)
+        {
+            name = aName;
+            file = aFile;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+    }
+
+    private static class PendingTask
+    {
+        private final Future<List<Entry>> future;
+        private final File tempFolder;
+        private final Runnable onWritten;
+
+        public PendingTask(Future<List<Entry>> aFuture, File aTempFolder, Runnable aOnWritten)
+        {
+            future = aFuture;
+            tempFolder = aTempFolder;
+            onWritten = aOnWritten;
+        }
+    }
+}
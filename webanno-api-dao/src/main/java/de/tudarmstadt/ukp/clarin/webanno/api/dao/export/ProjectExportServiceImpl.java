@@ -17,9 +17,13 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
@@ -31,6 +35,7 @@ import java.util.Locale;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.collections4.SetUtils;
 import org.apache.commons.io.FileUtils;
@@ -56,7 +61,6 @@ import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
-import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 
 @Component
 public class ProjectExportServiceImpl
@@ -117,34 +121,15 @@ public class ProjectExportServiceImpl
         throws ProjectExportException
     {
         boolean success = false;
-        File exportTempDir = null;
+        File projectZipFile = null;
         try {
-            // Directory to store source documents and annotation documents
-            exportTempDir = File.createTempFile("webanno-project", "export");
-            exportTempDir.delete();
-            exportTempDir.mkdirs();
+            projectZipFile = File.createTempFile("webanno-project", "export.zip");
             
-            // Target file
-            File projectZipFile = new File(exportTempDir.getAbsolutePath() + ".zip");
-    
-            ExportedProject exProjekt = exportProject(aRequest, exportTempDir);
-                    
-            // all metadata and project settings data from the database as JSON file
-            File projectSettings = File.createTempFile(EXPORTED_PROJECT, ".json");
-            JSONUtil.generatePrettyJson(exProjekt, projectSettings);
-            FileUtils.copyFileToDirectory(projectSettings, exportTempDir);
-    
-            try {
-                ZipUtils.zipFolder(exportTempDir, projectZipFile);
-            }
-            finally {
-                FileUtils.forceDelete(projectSettings);
-                System.gc();
-                FileUtils.forceDelete(exportTempDir);
+            try (OutputStream os = new BufferedOutputStream(
+                    new FileOutputStream(projectZipFile))) {
+                exportProject(aRequest, os);
             }
             
-            aRequest.progress = 100;
-            
             success = true;
     
             return projectZipFile;
@@ -153,18 +138,44 @@ public class ProjectExportServiceImpl
             throw new ProjectExportException("Unable to export project", e);
         }
         finally {
-            if (!success && exportTempDir != null) {
-                try {
-                    FileUtils.forceDelete(exportTempDir);
-                } catch (IOException e) {
-                    log.error(
-                            "Unable to delete temporary export directory [" + exportTempDir + "]");
-                }
+            if (!success && projectZipFile != null) {
+                FileUtils.deleteQuietly(projectZipFile);
             }
         }
     }
     
-    private ExportedProject exportProject(ProjectExportRequest aRequest, File aStage)
+    /**
+     * This method is not transactional because the stream may be written at the pace of a remote
+     * client. The services used by the exporters each use their own transactions.
+     */
+    @Override
+    public void exportProject(ProjectExportRequest aRequest, OutputStream aOut)
+        throws ProjectExportException
+    {
+        try {
+            // The exporters write their files directly into the ZIP file - there is no staging
+            // folder which would have to be compressed afterwards
+            ZipOutputStream zip = new ZipOutputStream(aOut);
+            
+            ExportedProject exProjekt = exportProject(aRequest, zip);
+            
+            // all metadata and project settings data from the database as JSON file
+            zip.putNextEntry(new ZipEntry(EXPORTED_PROJECT + ".json"));
+            zip.write(JSONUtil.toPrettyJsonString(exProjekt).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            
+            // Write the ZIP directory but leave closing the target stream to the caller
+            zip.finish();
+            zip.flush();
+            
+            aRequest.progress = 100;
+        }
+        catch (IOException e) {
+            throw new ProjectExportException("Unable to export project", e);
+        }
+    }
+    
+    private ExportedProject exportProject(ProjectExportRequest aRequest, ZipOutputStream aZip)
         throws ProjectExportException
     {
         Deque<ProjectExporter> deque = new LinkedList<>(exporters);
@@ -185,7 +196,7 @@ public class ProjectExportServiceImpl
                 
                 if (initsSeen.containsAll(initializer.getExportDependencies())) {
                     log.debug("Applying project exporter: {}", initializer);
-                    initializer.exportData(aRequest, exProject, aStage);
+                    initializer.exportData(aRequest, exProject, aZip);
                     initsSeen.add(initializer.getClass());
                     initsDeferred.clear();
                 }
@@ -20,14 +20,19 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao.export.exporters;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest.FORMAT_AUTO;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.groupingBy;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -35,11 +40,16 @@ import org.apache.uima.UIMAException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportPipeline;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportPipeline.Entry;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.AnnotationExportContext;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExporter;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
@@ -51,7 +61,6 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
-import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3FormatSupport;
 
@@ -70,9 +79,14 @@ public class AnnotationDocumentExporter
     private final Logger log = LoggerFactory.getLogger(getClass());
     
     private @Autowired DocumentService documentService;
-    private @Autowired UserDao userRepository;
     private @Autowired ImportExportService importExportService;
     
+    /**
+     * Number of threads converting annotation documents during a project export.
+     */
+    @Value(value = "${project.export.threads:4}")
+    private int exportThreads = 4;
+    
     @Override
     public List<Class<? extends ProjectExporter>> getExportDependencies()
     {
@@ -87,22 +101,38 @@ public class AnnotationDocumentExporter
     
     @Override
     public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+        throws Exception
+    {
+        ProjectExporter.exportDataToStage(this, aRequest, aExProject, aStage);
+    }
+    
+    @Override
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aZip)
         throws UIMAException, ClassNotFoundException, IOException
     {
-        exportAnnotationDocuments(aRequest.getProject(), aExProject);
-        exportAnnotationDocumentContents(aRequest, aExProject, aStage);
+        Project project = aRequest.getProject();
+        
+        // Fetch all the documents at once instead of once per source document
+        List<SourceDocument> documents = documentService.listSourceDocuments(project);
+        Map<Long, List<AnnotationDocument>> annotationDocuments = documentService
+                .listAnnotationDocuments(project).stream()
+                .collect(groupingBy(annDoc -> annDoc.getDocument().getId()));
+        
+        exportAnnotationDocuments(documents, annotationDocuments, aExProject);
+        exportAnnotationDocumentContents(aRequest, documents, annotationDocuments, aZip);
     }
     
-    private void exportAnnotationDocuments(Project aProject, ExportedProject aExProject)
+    private void exportAnnotationDocuments(List<SourceDocument> aDocuments,
+            Map<Long, List<AnnotationDocument>> aAnnotationDocuments, ExportedProject aExProject)
     {
         List<ExportedAnnotationDocument> annotationDocuments = new ArrayList<>();
 
         // add source documents to a project
-        List<SourceDocument> documents = documentService.listSourceDocuments(aProject);
-        for (SourceDocument sourceDocument : documents) {
+        for (SourceDocument sourceDocument : aDocuments) {
             // add annotation document to Project
-            for (AnnotationDocument annotationDocument : documentService
-                    .listAnnotationDocuments(sourceDocument)) {
+            for (AnnotationDocument annotationDocument : aAnnotationDocuments
+                    .getOrDefault(sourceDocument.getId(), emptyList())) {
                 ExportedAnnotationDocument exAnnotationDocument = new ExportedAnnotationDocument();
                 exAnnotationDocument.setName(annotationDocument.getName());
                 exAnnotationDocument.setState(annotationDocument.getState());
@@ -119,136 +149,168 @@ public class AnnotationDocumentExporter
     }
 
     private void exportAnnotationDocumentContents(ProjectExportRequest aRequest,
-            ExportedProject aExProject, File aStage)
+            List<SourceDocument> aDocuments,
+            Map<Long, List<AnnotationDocument>> aAnnotationDocuments, ZipOutputStream aZip)
         throws UIMAException, ClassNotFoundException, IOException
     {
         Project project = aRequest.getProject();
         
-        List<SourceDocument> documents = documentService.listSourceDocuments(project);
-        int i = 1;
         int initProgress = aRequest.progress;
-        for (SourceDocument sourceDocument : documents) {
-            //
-            // Export initial CASes
-            //
-            
-            // The initial CAS must always be exported to ensure that the converted source document
-            // will *always* have the state it had at the time of the initial import. We we do have
-            // a reliably initial CAS and instead lazily convert whenever an annotator starts
-            // annotating, then we could end up with two annotators having two different versions of
-            // their CAS e.g. if there was a code change in the reader component that affects its
-            // output.
-
-            // If the initial CAS does not exist yet, it must be created before export.
-            documentService.createOrReadInitialCas(sourceDocument);
-            
-            File targetDir = new File(aStage, ANNOTATION_CAS_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(targetDir);
-            
-            File initialCasFile = documentService.getCasFile(sourceDocument,
-                    INITIAL_CAS_PSEUDO_USER);
-            
-            FileUtils.copyFileToDirectory(initialCasFile, targetDir);
-            
-            log.info("Exported annotation document content for user [" + INITIAL_CAS_PSEUDO_USER
-                    + "] for source document [" + sourceDocument.getId() + "] in project ["
-                    + project.getName() + "] with id [" + project.getId() + "]");
-
-            //
-            // Export per-user annotation document
-            // 
-            
-            // Determine which format to use for export
-            FormatSupport format;
-            if (FORMAT_AUTO.equals(aRequest.getFormat())) {
-                format = new WebAnnoTsv3FormatSupport();
-            }
-            else {
-                format = importExportService.getWritableFormatByName(aRequest.getFormat())
-                        .orElseGet(() -> {
-                            aRequest.addMessage(LogMessage.error(this,"[%s] No writer found for "
-                                    + "format [%s] - exporting as WebAnno TSV instead.",
-                                    sourceDocument.getName(), aRequest.getFormat()));
-                            return new WebAnnoTsv3FormatSupport();
-                        });
-            }
-
-            // Export annotations from regular users
-            for (de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument annotationDocument : 
-                    documentService.listAnnotationDocuments(sourceDocument)) {
-                // copy annotation document only for ACTIVE users and the state of the 
-                // annotation document is not NEW/IGNORE
-                if (
-                        userRepository.get(annotationDocument.getUser()) != null && 
-                        !annotationDocument.getState().equals(AnnotationDocumentState.NEW) && 
-                        !annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)
-                ) {
-                    File annotationDocumentAsSerialisedCasDir = new File(
-                            aStage.getAbsolutePath() + ANNOTATION_CAS_FOLDER
-                                    + sourceDocument.getName());
-                    File annotationDocumentDir = new File(aStage.getAbsolutePath()
-                            + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName());
-
-                    FileUtils.forceMkdir(annotationDocumentAsSerialisedCasDir);
-                    FileUtils.forceMkdir(annotationDocumentDir);
-
-                    File annotationFileAsSerialisedCas = documentService.getCasFile(
-                            sourceDocument, annotationDocument.getUser());
-
-                    File annotationFile = null;
-                    if (annotationFileAsSerialisedCas.exists()) {
-                        annotationFile = importExportService.exportAnnotationDocument(
-                                sourceDocument, annotationDocument.getUser(), format,
-                                annotationDocument.getUser(), Mode.ANNOTATION, false);
-                    }
-                    
-                    if (annotationFileAsSerialisedCas.exists()) {
-                        FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
-                                annotationDocumentAsSerialisedCasDir);
-                        FileUtils.copyFileToDirectory(annotationFile, annotationDocumentDir);
-                        FileUtils.forceDelete(annotationFile);
+        
+        // The documents are converted on worker threads while this thread writes the results
+        // to the ZIP file. Everything which requires the database is resolved here before a
+        // document is handed over to the workers - this includes the export type system and the
+        // tagset names which are the same for all documents of the project.
+        AnnotationExportContext exportContext = importExportService
+                .prepareAnnotationExport(project);
+        
+        try (ProjectExportPipeline pipeline = new ProjectExportPipeline(aZip, exportThreads)) {
+            int i = 1;
+            for (SourceDocument sourceDocument : aDocuments) {
+                //
+                // Export initial CASes
+                //
+                
+                // The initial CAS must always be exported to ensure that the converted source
+                // document will *always* have the state it had at the time of the initial import.
+                // We we do have a reliably initial CAS and instead lazily convert whenever an
+                // annotator starts annotating, then we could end up with two annotators having two
+                // different versions of their CAS e.g. if there was a code change in the reader
+                // component that affects its output.
+    
+                // If the initial CAS does not exist yet, it must be created before export. Only
+                // check for the file here - reading the CAS would deserialize every document on
+                // this thread although the workers only need the file.
+                if (!documentService.existsCas(sourceDocument, INITIAL_CAS_PSEUDO_USER)) {
+                    documentService.createOrReadInitialCas(sourceDocument);
+                }
+                
+                File initialCasFile = documentService.getCasFile(sourceDocument,
+                        INITIAL_CAS_PSEUDO_USER);
+                
+                //
+                // Export per-user annotation document
+                // 
+                
+                // Determine which format to use for export
+                FormatSupport format;
+                if (FORMAT_AUTO.equals(aRequest.getFormat())) {
+                    format = new WebAnnoTsv3FormatSupport();
+                }
+                else {
+                    format = importExportService.getWritableFormatByName(aRequest.getFormat())
+                            .orElseGet(() -> {
+                                aRequest.addMessage(LogMessage.error(this,"[%s] No writer found "
+                                        + "for format [%s] - exporting as WebAnno TSV instead.",
+                                        sourceDocument.getName(), aRequest.getFormat()));
+                                return new WebAnnoTsv3FormatSupport();
+                            });
+                }
+    
+                // Export annotations from regular users
+                List<String> users = new ArrayList<>();
+                for (AnnotationDocument annotationDocument : aAnnotationDocuments
+                        .getOrDefault(sourceDocument.getId(), emptyList())) {
+                    // copy annotation document only for ACTIVE users and the state of the 
+                    // annotation document is not NEW/IGNORE. The annotation documents of users
+                    // which do not exist anymore have already been excluded by the
+                    // DocumentService.
+                    if (
+                            !annotationDocument.getState().equals(AnnotationDocumentState.NEW) && 
+                            !annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)
+                    ) {
+                        users.add(annotationDocument.getUser());
                     }
-                    
-                    log.info("Exported annotation document content for user ["
-                            + annotationDocument.getUser() + "] for source document ["
-                            + sourceDocument.getId() + "] in project [" + project.getName()
-                            + "] with id [" + project.getId() + "]");
                 }
+                
+                // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
+                // annotation_ser
+                // If this project is a correction project, add the auto-annotated CAS to same
+                // folder as CURATION_FOLDER
+                boolean exportCorrection = WebAnnoConst.PROJECT_TYPE_AUTOMATION
+                        .equals(project.getMode())
+                        || WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(project.getMode());
+                // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
+                // annotation_ser
+                
+                int progress = initProgress
+                        + (int) Math.ceil(((double) i) / aDocuments.size() * 80.0);
+                i++;
+                
+                pipeline.submit(aTempFolder -> exportAnnotationDocumentContent(exportContext,
+                        sourceDocument, initialCasFile, users, exportCorrection, format,
+                        aTempFolder), () -> aRequest.progress = progress);
             }
             
-            // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
-            // annotation_ser
-            // If this project is a correction project, add the auto-annotated CAS to same
-            // folder as CURATION_FOLDER
-            if (WebAnnoConst.PROJECT_TYPE_AUTOMATION.equals(project.getMode())
-                    || WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(project.getMode())) {
-                File correctionCasFile = documentService.getCasFile(sourceDocument,
-                        CORRECTION_USER);
-                if (correctionCasFile.exists()) {
-                    // Copy CAS - this is used when importing the project again
-                    File curationCasDir = new File(aStage + CURATION_AS_SERIALISED_CAS
-                            + sourceDocument.getName());
-                    FileUtils.forceMkdir(curationCasDir);
-                    FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
-                    
-                    // Copy secondary export format for convenience - not used during import
-                    File curationDir = new File(
-                            aStage + CURATION_FOLDER + sourceDocument.getName());
-                    FileUtils.forceMkdir(curationDir);
-                    File correctionFile = importExportService.exportAnnotationDocument(
-                            sourceDocument, CORRECTION_USER, format, CORRECTION_USER,
-                            Mode.CORRECTION);
-                    FileUtils.copyFileToDirectory(correctionFile, curationDir);
-                    FileUtils.forceDelete(correctionFile);
-                }
+            pipeline.finish();
+        }
+    }
+    
+    private List<Entry> exportAnnotationDocumentContent(AnnotationExportContext aContext,
+            SourceDocument aSourceDocument, File aInitialCasFile, List<String> aUsers,
+            boolean aExportCorrection, FormatSupport aFormat, File aTempFolder)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        Project project = aContext.getProject();
+        List<Entry> entries = new ArrayList<>();
+        
+        // Entry names are relative to the root of the ZIP file
+        String casFolder = ANNOTATION_CAS_FOLDER.substring(1) + aSourceDocument.getName() + "/";
+        String annotationFolder = ANNOTATION_ORIGINAL_FOLDER.substring(1)
+                + aSourceDocument.getName() + "/";
+        
+        entries.add(new Entry(casFolder + aInitialCasFile.getName(),
+                CasPersistenceUtils.toSerializedCasFile(aInitialCasFile, aTempFolder)));
+        
+        log.info("Exported annotation document content for user [" + INITIAL_CAS_PSEUDO_USER
+                + "] for source document [" + aSourceDocument.getId() + "] in project ["
+                + project.getName() + "] with id [" + project.getId() + "]");
+        
+        for (String user : aUsers) {
+            File annotationFileAsSerialisedCas = documentService.getCasFile(aSourceDocument,
+                    user);
+
+            if (annotationFileAsSerialisedCas.exists()) {
+                File annotationFile = importExportService.exportAnnotationDocument(aContext,
+                        aSourceDocument, user, aFormat, user, Mode.ANNOTATION, false,
+                        aTempFolder);
+                
+                entries.add(new Entry(casFolder + annotationFileAsSerialisedCas.getName(),
+                        CasPersistenceUtils.toSerializedCasFile(annotationFileAsSerialisedCas,
+                                aTempFolder)));
+                entries.add(new Entry(annotationFolder + annotationFile.getName(),
+                        annotationFile));
             }
-            // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
-            // annotation_ser
             
-            aRequest.progress = initProgress
-                    + (int) Math.ceil(((double) i) / documents.size() * 80.0);
-            i++;
+            log.info("Exported annotation document content for user [" + user
+                    + "] for source document [" + aSourceDocument.getId() + "] in project ["
+                    + project.getName() + "] with id [" + project.getId() + "]");
+        }
+        
+        // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
+        // annotation_ser
+        if (aExportCorrection) {
+            File correctionCasFile = documentService.getCasFile(aSourceDocument,
+                    CORRECTION_USER);
+            if (correctionCasFile.exists()) {
+                // Copy CAS - this is used when importing the project again
+                entries.add(new Entry(CURATION_AS_SERIALISED_CAS.substring(1)
+                        + aSourceDocument.getName() + "/" + correctionCasFile.getName(),
+                        CasPersistenceUtils.toSerializedCasFile(correctionCasFile,
+                                aTempFolder)));
+                
+                // Copy secondary export format for convenience - not used during import
+                File correctionFile = importExportService.exportAnnotationDocument(aContext,
+                        aSourceDocument, CORRECTION_USER, aFormat, CORRECTION_USER,
+                        Mode.CORRECTION, true, aTempFolder);
+                entries.add(new Entry(CURATION_FOLDER.substring(1) + aSourceDocument.getName()
+                        + "/" + correctionFile.getName(), correctionFile));
+            }
         }
+        // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in
+        // annotation_ser
+        
+        return entries;
     }
     
     @Override
@@ -256,8 +318,15 @@ public class AnnotationDocumentExporter
             ExportedProject aExProject, ZipFile aZip)
         throws Exception
     {
-        importAnnotationDocuments(aExProject, aProject);
-        importAnnotationDocumentContents(aZip, aProject);
+        // Look up the source documents imported by the SourceDocumentExporter once instead of
+        // once per annotation document
+        Map<String, SourceDocument> documents = new HashMap<>();
+        for (SourceDocument document : documentService.listAllSourceDocuments(aProject)) {
+            documents.put(document.getName(), document);
+        }
+        
+        importAnnotationDocuments(aExProject, aProject, documents);
+        importAnnotationDocumentContents(aZip, aProject, documents);
     }
     
     /**
@@ -268,10 +337,13 @@ public class AnnotationDocumentExporter
      *            the imported project.
      * @param aProject
      *            the project.
+     * @param aDocuments
+     *            the source documents of the project by name.
      * @throws IOException
      *             if an I/O error occurs.
      */
-    private void importAnnotationDocuments(ExportedProject aExProject, Project aProject)
+    private void importAnnotationDocuments(ExportedProject aExProject, Project aProject,
+            Map<String, SourceDocument> aDocuments)
         throws IOException
     {
         for (ExportedAnnotationDocument exAnnotationDocument : aExProject
@@ -282,7 +354,7 @@ public class AnnotationDocumentExporter
             annotationDocument.setProject(aProject);
             annotationDocument.setUser(exAnnotationDocument.getUser());
             annotationDocument.setTimestamp(exAnnotationDocument.getTimestamp());
-            annotationDocument.setDocument(documentService.getSourceDocument(aProject,
+            annotationDocument.setDocument(getSourceDocument(aProject, aDocuments,
                     exAnnotationDocument.getName()));
             annotationDocument.setSentenceAccessed(exAnnotationDocument.getSentenceAccessed());
             annotationDocument.setCreated(exAnnotationDocument.getCreated());
@@ -298,11 +370,15 @@ public class AnnotationDocumentExporter
      *            the ZIP file.
      * @param aProject
      *            the project.
+     * @param aDocuments
+     *            the source documents of the project by name.
      * @throws IOException
      *             if an I/O error occurs.
      */
     @SuppressWarnings("rawtypes")
-    private void importAnnotationDocumentContents(ZipFile zip, Project aProject) throws IOException
+    private void importAnnotationDocumentContents(ZipFile zip, Project aProject,
+            Map<String, SourceDocument> aDocuments)
+        throws IOException
     {
         for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
             ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
@@ -322,7 +398,7 @@ public class AnnotationDocumentExporter
 
                 // name of the annotation document
                 fileName = fileName.replace(FilenameUtils.getName(fileName), "").replace("/", "");
-                SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
+                SourceDocument sourceDocument = getSourceDocument(aProject, aDocuments,
                         fileName);
                 File annotationFilePath = documentService.getCasFile(sourceDocument, username);
 
@@ -334,4 +410,13 @@ public class AnnotationDocumentExporter
             }
         }
     }
+    
+    private SourceDocument getSourceDocument(Project aProject,
+            Map<String, SourceDocument> aDocuments, String aName)
+    {
+        // Documents missing from the map are looked up individually, so that a missing document
+        // is reported just as before
+        return aDocuments.computeIfAbsent(aName,
+                name -> documentService.getSourceDocument(aProject, name));
+    }
 }
@@ -22,21 +22,31 @@ import static java.util.Arrays.asList;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportPipeline;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportPipeline.Entry;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.AnnotationExportContext;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportException;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExporter;
@@ -62,6 +72,12 @@ public class CuratedDocumentsExporter
     private @Autowired DocumentService documentService;
     private @Autowired ImportExportService importExportService;
     
+    /**
+     * Number of threads converting curated documents during a project export.
+     */
+    @Value(value = "${project.export.threads:4}")
+    private int exportThreads = 4;
+    
     @Override
     public List<Class<? extends ProjectExporter>> getImportDependencies()
     {
@@ -69,14 +85,22 @@ public class CuratedDocumentsExporter
     }
     
     
+    @Override
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+        throws Exception
+    {
+        ProjectExporter.exportDataToStage(this, aRequest, aExProject, aStage);
+    }
+    
     /**
-     * Copy, if exists, curation documents to a folder that will be exported as Zip file
+     * Add, if exists, curation documents to the exported ZIP file
      * 
-     * @param aStage
-     *            The folder where curated documents are copied to be exported as Zip File
+     * @param aZip
+     *            The ZIP file to which the curated documents are added
      */
     @Override
-    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aZip)
         throws Exception
     {
         Project project = aRequest.getProject();
@@ -99,50 +123,74 @@ public class CuratedDocumentsExporter
                     });
         }
         
+        // The metadata required to convert the documents is resolved here such that the worker
+        // threads do not need to access the database
+        AnnotationExportContext exportContext = importExportService
+                .prepareAnnotationExport(project);
+        
         int initProgress = aRequest.progress - 1;
-        int i = 1;
-        for (SourceDocument sourceDocument : documents) {
-            File curationCasDir = new File(aStage,
-                    CURATION_AS_SERIALISED_CAS + sourceDocument.getName());
-            FileUtils.forceMkdir(curationCasDir);
-
-            File curationDir = new File(aStage, CURATION_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(curationDir);
-
-            // If depending on aInProgress, include only the the curation documents that are
-            // finished or also the ones that are in progress
-            if (
-                (aRequest.isIncludeInProgress() && 
-                    SourceDocumentState.CURATION_IN_PROGRESS.equals(sourceDocument.getState())) ||
-                SourceDocumentState.CURATION_FINISHED.equals(sourceDocument.getState())
-            ) {
+        try (ProjectExportPipeline pipeline = new ProjectExportPipeline(aZip, exportThreads)) {
+            int i = 1;
+            for (SourceDocument sourceDocument : documents) {
+                int progress = initProgress
+                        + (int) Math.ceil(((double) i) / documents.size() * 10.0);
+                i++;
+                
+                // If depending on aInProgress, include only the the curation documents that are
+                // finished or also the ones that are in progress
+                boolean include = 
+                    (aRequest.isIncludeInProgress() && 
+                        SourceDocumentState.CURATION_IN_PROGRESS
+                                .equals(sourceDocument.getState())) ||
+                    SourceDocumentState.CURATION_FINISHED.equals(sourceDocument.getState());
+                
                 File curationCasFile = documentService.getCasFile(sourceDocument,
                         WebAnnoConst.CURATION_USER);
-                if (curationCasFile.exists()) {
-                    // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
-
-                    // Copy secondary export format for convenience - not used during import
-                    try {
-                        File curationFile = importExportService.exportAnnotationDocument(
-                                sourceDocument, WebAnnoConst.CURATION_USER, format,
-                                WebAnnoConst.CURATION_USER, Mode.CURATION);
-                        FileUtils.copyFileToDirectory(curationFile, curationDir);
-                        FileUtils.forceDelete(curationFile);
-                    }
-                    catch (Exception e) {
-                        // error("Unexpected error while exporting project: " +
-                        // ExceptionUtils.getRootCauseMessage(e) );
-                        throw new ProjectExportException(
-                                "Aborting due to unrecoverable error while exporting!");
-                    }
-                }
+                
+                // Documents which are not included still pass through the pipeline such that the
+                // progress is reported in order
+                pipeline.submit(aTempFolder -> include
+                        ? exportCuratedDocument(exportContext, sourceDocument, curationCasFile,
+                                format, aTempFolder)
+                        : Collections.emptyList(), () -> aRequest.progress = progress);
             }
+            
+            pipeline.finish();
+        }
+    }
+    
+    private List<Entry> exportCuratedDocument(AnnotationExportContext aContext,
+            SourceDocument aSourceDocument, File aCurationCasFile, FormatSupport aFormat,
+            File aTempFolder)
+        throws Exception
+    {
+        List<Entry> entries = new ArrayList<>();
+        
+        if (!aCurationCasFile.exists()) {
+            return entries;
+        }
+        
+        // Copy CAS - this is used when importing the project again
+        entries.add(new Entry(CURATION_AS_SERIALISED_CAS.substring(1)
+                + aSourceDocument.getName() + "/" + aCurationCasFile.getName(),
+                CasPersistenceUtils.toSerializedCasFile(aCurationCasFile, aTempFolder)));
 
-            aRequest.progress = initProgress
-                    + (int) Math.ceil(((double) i) / documents.size() * 10.0);
-            i++;
+        // Copy secondary export format for convenience - not used during import
+        try {
+            File curationFile = importExportService.exportAnnotationDocument(aContext,
+                    aSourceDocument, WebAnnoConst.CURATION_USER, aFormat,
+                    WebAnnoConst.CURATION_USER, Mode.CURATION, true, aTempFolder);
+            entries.add(new Entry(CURATION_FOLDER.substring(1) + aSourceDocument.getName()
+                    + "/" + curationFile.getName(), curationFile));
         }
+        catch (Exception e) {
+            // error("Unexpected error while exporting project: " +
+            // ExceptionUtils.getRootCauseMessage(e) );
+            throw new ProjectExportException(
+                    "Aborting due to unrecoverable error while exporting!");
+        }
+        
+        return entries;
     }
     
     /**
@@ -160,6 +208,13 @@ public class CuratedDocumentsExporter
             ExportedProject aExProject, ZipFile aZip)
         throws Exception
     {
+        // Look up the source documents imported by the SourceDocumentExporter once instead of
+        // once per curated document
+        Map<String, SourceDocument> documents = new HashMap<>();
+        for (SourceDocument document : documentService.listAllSourceDocuments(aProject)) {
+            documents.put(document.getName(), document);
+        }
+        
         for (Enumeration<? extends ZipEntry> zipEnumerate = aZip.entries(); zipEnumerate
                 .hasMoreElements();) {
             ZipEntry entry = zipEnumerate.nextElement();
@@ -178,8 +233,8 @@ public class CuratedDocumentsExporter
                 if (fileName.trim().isEmpty()) {
                     continue;
                 }
-                SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
-                        fileName);
+                SourceDocument sourceDocument = documents.computeIfAbsent(fileName,
+                        name -> documentService.getSourceDocument(aProject, name));
                 File annotationFilePath = documentService.getCasFile(sourceDocument, username);
 
                 FileUtils.copyInputStreamToFile(aZip.getInputStream(entry), annotationFilePath);
@@ -18,16 +18,22 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao.export.exporters;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,7 +56,6 @@ public class SourceDocumentExporter
     implements ProjectExporter
 {
     private static final String SOURCE = "source";
-    private static final String SOURCE_FOLDER = "/" + SOURCE;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -58,19 +63,31 @@ public class SourceDocumentExporter
 
     @Override
     public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
+        throws Exception
+    {
+        ProjectExporter.exportDataToStage(this, aRequest, aExProject, aStage);
+    }
+    
+    @Override
+    public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aZip)
         throws IOException, ProjectExportException
     {
-        exportSourceDocuments(aRequest.getProject(), aExProject);
-        exportSourceDocumentContents(aRequest, aExProject, aStage);
+        // Get all the source documents from the project
+        List<SourceDocument> documents = documentService
+                .listSourceDocuments(aRequest.getProject());
+        
+        exportSourceDocuments(documents, aExProject);
+        exportSourceDocumentContents(aRequest, documents, aZip);
     }
     
-    private void exportSourceDocuments(Project aProject, ExportedProject exProject)
+    private void exportSourceDocuments(List<SourceDocument> aDocuments,
+            ExportedProject exProject)
     {
         List<ExportedSourceDocument> sourceDocuments = new ArrayList<>();
 
         // add source documents to a project
-        List<SourceDocument> documents = documentService.listSourceDocuments(aProject);
-        for (SourceDocument sourceDocument : documents) {
+        for (SourceDocument sourceDocument : aDocuments) {
             ExportedSourceDocument exDocument = new ExportedSourceDocument();
             exDocument.setFormat(sourceDocument.getFormat());
             exDocument.setName(sourceDocument.getName());
@@ -87,20 +104,18 @@ public class SourceDocumentExporter
     }
 
     private void exportSourceDocumentContents(ProjectExportRequest aRequest,
-            ExportedProject aExProject, File aStage)
+            List<SourceDocument> aDocuments, ZipOutputStream aZip)
         throws IOException, ProjectExportException
     {
         Project project = aRequest.getProject();
-        File sourceDocumentDir = new File(aStage + SOURCE_FOLDER);
-        FileUtils.forceMkdir(sourceDocumentDir);
-        // Get all the source documents from the project
-        List<SourceDocument> documents = documentService.listSourceDocuments(project);
         int i = 1;
-        for (SourceDocument sourceDocument : documents) {
-            try {
-                FileUtils.copyFileToDirectory(documentService.getSourceDocumentFile(sourceDocument),
-                        sourceDocumentDir);
-                aRequest.progress = (int) Math.ceil(((double) i) / documents.size() * 10.0);
+        for (SourceDocument sourceDocument : aDocuments) {
+            File sourceFile = documentService.getSourceDocumentFile(sourceDocument);
+            try (InputStream is = new FileInputStream(sourceFile)) {
+                aZip.putNextEntry(new ZipEntry(SOURCE + "/" + sourceFile.getName()));
+                IOUtils.copy(is, aZip);
+                aZip.closeEntry();
+                aRequest.progress = (int) Math.ceil(((double) i) / aDocuments.size() * 10.0);
                 i++;
                 log.info("Exported content for source document [" + sourceDocument.getId()
                         + "] in project [" + project.getName() + "] with id [" + project.getId()
@@ -123,8 +138,8 @@ public class SourceDocumentExporter
             ExportedProject aExProject, ZipFile aZip)
         throws Exception
     {
-        importSourceDocuments(aExProject, aProject);
-        importSourceDocumentContents(aZip, aProject);
+        List<SourceDocument> documents = importSourceDocuments(aExProject, aProject);
+        importSourceDocumentContents(aZip, aProject, documents);
     }
     
     /**
@@ -134,13 +149,15 @@ public class SourceDocumentExporter
      *            the exported project.
      * @param aImportedProject
      *            the project.
+     * @return the created source documents.
      * @throws IOException
      *             if an I/O error occurs.
      */
-    private void importSourceDocuments(ExportedProject aImportedProjectSetting,
+    private List<SourceDocument> importSourceDocuments(ExportedProject aImportedProjectSetting,
             Project aImportedProject)
         throws IOException
     {
+        List<SourceDocument> documents = new ArrayList<>();
         for (ExportedSourceDocument importedSourceDocument : aImportedProjectSetting
                 .getSourceDocuments()) {
             SourceDocument sourceDocument = new SourceDocument();
@@ -154,7 +171,9 @@ public class SourceDocumentExporter
             sourceDocument.setUpdated(importedSourceDocument.getUpdated());
 
             documentService.createSourceDocument(sourceDocument);
+            documents.add(sourceDocument);
         }
+        return documents;
     }
     
     /**
@@ -164,12 +183,22 @@ public class SourceDocumentExporter
      *            the ZIP file.
      * @param aProject
      *            the project.
+     * @param aDocuments
+     *            the source documents created from the exported project.
      * @throws IOException
      *             if an I/O error occurs.
      */
     @SuppressWarnings("rawtypes")
-    private void importSourceDocumentContents(ZipFile zip, Project aProject) throws IOException
+    private void importSourceDocumentContents(ZipFile zip, Project aProject,
+            List<SourceDocument> aDocuments)
+        throws IOException
     {
+        // Look up the documents in memory instead of querying the database for every file
+        Map<String, SourceDocument> documents = new HashMap<>();
+        for (SourceDocument document : aDocuments) {
+            documents.put(document.getName(), document);
+        }
+        
         for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
             ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
 
@@ -181,8 +210,8 @@ public class SourceDocumentExporter
                 if (fileName.trim().isEmpty()) {
                     continue;
                 }
-                SourceDocument sourceDocument = documentService.getSourceDocument(aProject,
-                        fileName);
+                SourceDocument sourceDocument = documents.computeIfAbsent(fileName,
+                        name -> documentService.getSourceDocument(aProject, name));
                 File sourceFilePath = documentService.getSourceDocumentFile(sourceDocument);
                 FileUtils.copyInputStreamToFile(zip.getInputStream(entry), sourceFilePath);
 
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.migration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.RepositoryProperties;
+
+/**
+ * Converts the CAS files in the repository to the configured storage format in a background
+ * thread. The conversion is only performed if {@code repository.cas-storage-migration} is
+ * enabled. Since files in any format can be read, the application remains fully usable while the
+ * conversion is in progress.
+ */
+public class MigrateCasStorageFormat
+    implements SmartLifecycle
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private boolean running = false;
+
+    private @Autowired RepositoryProperties repositoryProperties;
+    private @Autowired CasStorageServiceImpl casStorageService;
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+        
+        if (!repositoryProperties.isCasStorageMigration()) {
+            return;
+        }
+        
+        Thread thread = new Thread(this::doMigration, "cas-storage-migration");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+    }
+
+    @Override
+    public int getPhase()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+
+    private void doMigration()
+    {
+        log.info("Converting CAS files to {} format in the background...",
+                repositoryProperties.getCasStorageFormat());
+        
+        long start = System.currentTimeMillis();
+        int converted = casStorageService.migrateStorageFormat();
+        
+        log.info("Converted {} CAS files to {} format in {}ms", converted,
+                repositoryProperties.getCasStorageFormat(), System.currentTimeMillis() - start);
+    }
+}
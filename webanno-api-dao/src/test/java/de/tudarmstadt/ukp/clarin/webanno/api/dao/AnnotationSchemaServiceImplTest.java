@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasIOUtils;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.AnnotationSchemaServiceImpl.ProjectTypeSystem;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class AnnotationSchemaServiceImplTest
+{
+    private static final String CUSTOM_TYPE = "webanno.custom.Span";
+    private static final String OTHER_CUSTOM_TYPE = "webanno.custom.Other";
+
+    @Test
+    public void thatUpgradeAddsTypesAndKeepsContents() throws Exception
+    {
+        JCas jcas = generateDocument(100);
+        ProjectTypeSystem pts = new ProjectTypeSystem(createTargetTypeSystem());
+
+        AnnotationSchemaServiceImpl.upgradeCas(jcas.getCas(), jcas.getCas(), pts);
+
+        assertThat(jcas.getTypeSystem().getType(CUSTOM_TYPE)).isNotNull();
+        assertThat(jcas.getDocumentText()).isEqualTo(generateDocument(100).getDocumentText());
+        assertThat(select(jcas, Annotation.class)).hasSize(1_001);
+    }
+
+    @Test
+    public void thatTemplateIsReusedAcrossUpgrades() throws Exception
+    {
+        ProjectTypeSystem pts = new ProjectTypeSystem(createTargetTypeSystem());
+
+        CASCompleteSerializer template = pts.getTemplate();
+        AnnotationSchemaServiceImpl.upgradeCas(generateDocument(10).getCas(),
+                JCasFactory.createJCas().getCas(), pts);
+
+        assertThat(pts.getTemplate()).isSameAs(template);
+    }
+
+    @Test
+    public void thatUpgradeMatchesLegacyUpgrade() throws Exception
+    {
+        TypeSystemDescription tsd = createTargetTypeSystem();
+        CAS expected = generateDocument(100).getCas();
+        legacyUpgradeCas(expected, tsd);
+        
+        CAS actual = generateDocument(100).getCas();
+        AnnotationSchemaServiceImpl.upgradeCas(actual, actual, new ProjectTypeSystem(tsd));
+        
+        assertThat(typeNames(actual.getTypeSystem()))
+                .containsExactlyElementsOf(typeNames(expected.getTypeSystem()));
+        assertThat(actual.getDocumentText()).isEqualTo(expected.getDocumentText());
+        assertThat(offsets(actual)).containsExactlyElementsOf(offsets(expected));
+    }
+
+    @Test
+    public void thatUpgradeIntoOtherCasKeepsSource() throws Exception
+    {
+        ProjectTypeSystem pts = new ProjectTypeSystem(createTargetTypeSystem());
+        CAS source = generateDocument(10).getCas();
+        CAS target = JCasFactory.createJCas().getCas();
+        
+        AnnotationSchemaServiceImpl.upgradeCas(source, target, pts);
+        
+        assertThat(source.getTypeSystem().getType(CUSTOM_TYPE)).isNull();
+        assertThat(target.getTypeSystem().getType(CUSTOM_TYPE)).isNotNull();
+        assertThat(target.getDocumentText()).isEqualTo(source.getDocumentText());
+        assertThat(offsets(target)).containsExactlyElementsOf(offsets(source));
+    }
+
+    @Test
+    public void thatTypeSystemIsRebuiltWhenLayerConfigurationChanges() throws Exception
+    {
+        List<String> layers = new ArrayList<>(Collections.singletonList(CUSTOM_TYPE));
+        AnnotationSchemaServiceImpl sut = makeService(layers);
+        Project project = makeProject();
+
+        TypeSystemDescription first = sut.getFullProjectTypeSystem(project);
+        assertThat(sut.getFullProjectTypeSystem(project)).isSameAs(first);
+        verify(sut, times(1)).createFullProjectTypeSystem(project, true);
+
+        layers.add(OTHER_CUSTOM_TYPE);
+        sut.onLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+
+        TypeSystemDescription second = sut.getFullProjectTypeSystem(project);
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getType(OTHER_CUSTOM_TYPE)).isNotNull();
+        verify(sut, times(2)).createFullProjectTypeSystem(project, true);
+    }
+
+    @Test
+    public void thatCasIsOnlyUpgradedIfTypeSystemVersionChanges() throws Exception
+    {
+        List<String> layers = new ArrayList<>(Collections.singletonList(CUSTOM_TYPE));
+        AnnotationSchemaServiceImpl sut = makeService(layers);
+        SourceDocument document = new SourceDocument();
+        document.setName("doc");
+        document.setProject(makeProject());
+
+        JCas jcas = JCasFactory.createJCas(mergeTypeSystems(asList(createTypeSystemDescription(),
+                CasMetadataUtils.getInternalTypeSystem())));
+        jcas.setDocumentText("text");
+        new CASMetadata(jcas, 0, 0).addToIndexes();
+        CAS cas = jcas.getCas();
+
+        sut.upgradeCas(cas, document.getProject());
+        String version = new ProjectTypeSystem(
+                sut.getFullProjectTypeSystem(document.getProject())).getVersion();
+        assertThat(CasMetadataUtils.getTypeSystemVersion(cas)).isEqualTo(Optional.of(version));
+
+        // The version stamp matches, so the CAS is not upgraded again
+        TypeSystem upgraded = cas.getTypeSystem();
+        sut.upgradeCasIfRequired(cas, document, "user");
+        assertThat(cas.getTypeSystem()).isSameAs(upgraded);
+
+        // After a layer has been added, the CAS is upgraded and stamped with the new version
+        layers.add(OTHER_CUSTOM_TYPE);
+        sut.onLayerConfigurationChanged(
+                new LayerConfigurationChangedEvent(this, document.getProject()));
+        sut.upgradeCasIfRequired(cas, document, "user");
+
+        assertThat(cas.getTypeSystem().getType(OTHER_CUSTOM_TYPE)).isNotNull();
+        assertThat(CasMetadataUtils.getTypeSystemVersion(cas)).isPresent()
+                .isNotEqualTo(Optional.of(version));
+        assertThat(cas.getDocumentText()).isEqualTo("text");
+    }
+
+    /**
+     * @return a service whose project type system consists of the uimaFIT types, the internal
+     *         types and one layer per type name in the given list. The list is read whenever the
+     *         type system is built.
+     */
+    private static AnnotationSchemaServiceImpl makeService(List<String> aLayers)
+        throws Exception
+    {
+        AnnotationSchemaServiceImpl sut = spy(new AnnotationSchemaServiceImpl());
+        doAnswer(invocation -> {
+            TypeSystemDescription tsd = mergeTypeSystems(asList(createTypeSystemDescription(),
+                    CasMetadataUtils.getInternalTypeSystem()));
+            for (String layer : aLayers) {
+                tsd.addType(layer, "", CAS.TYPE_NAME_ANNOTATION);
+            }
+            return tsd;
+        }).when(sut).createFullProjectTypeSystem(any(Project.class), anyBoolean());
+        return sut;
+    }
+
+    private static Project makeProject()
+    {
+        Project project = new Project();
+        project.setId(1l);
+        project.setName("test");
+        return project;
+    }
+
+    /**
+     * The upgrade as it was done before the CAS templates were introduced: a temporary CAS is
+     * created and serialized for every upgrade and the contents are buffered in a single array
+     * which is copied once more before being loaded back.
+     */
+    private static void legacyUpgradeCas(CAS aCas, TypeSystemDescription aTargetTypeSystem)
+        throws Exception
+    {
+        TypeSystem sourceTypeSystem = aCas.getTypeSystem();
+
+        ByteArrayOutputStream serializedCasContents = new ByteArrayOutputStream();
+        Serialization.serializeWithCompression(aCas, serializedCasContents, sourceTypeSystem);
+
+        CAS tempCas = JCasFactory.createJCas(aTargetTypeSystem).getCas();
+        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) tempCas);
+        Serialization.deserializeCASComplete(serializer, (CASImpl) aCas);
+
+        CasIOUtils.load(new ByteArrayInputStream(serializedCasContents.toByteArray()), aCas,
+                sourceTypeSystem);
+
+        aCas.getJCas();
+    }
+
+    private static TypeSystemDescription createTargetTypeSystem() throws Exception
+    {
+        TypeSystemDescription tsd = createTypeSystemDescription();
+        tsd.addType(CUSTOM_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        return tsd;
+    }
+
+    private static JCas generateDocument(int aSentences) throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int s = 0; s < aSentences; s++) {
+            for (int t = 0; t < 10; t++) {
+                text.append("token").append(s * 10 + t).append(' ');
+            }
+        }
+
+        JCas jcas = JCasFactory.createText(text.toString());
+        int begin = 0;
+        for (int i = 0; i < aSentences * 10; i++) {
+            int end = text.indexOf(" ", begin);
+            new Annotation(jcas, begin, end).addToIndexes();
+            begin = end + 1;
+        }
+        return jcas;
+    }
+
+    private static List<String> typeNames(TypeSystem aTypeSystem)
+    {
+        List<String> names = new ArrayList<>();
+        aTypeSystem.getTypeIterator().forEachRemaining(type -> names.add(type.getName()));
+        Collections.sort(names);
+        return names;
+    }
+
+    private static List<String> offsets(CAS aCas) throws Exception
+    {
+        List<String> offsets = new ArrayList<>();
+        for (Annotation ann : select(aCas.getJCas(), Annotation.class)) {
+            offsets.add(ann.getType().getName() + "@" + ann.getBegin() + "-" + ann.getEnd());
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.junit.Test;
+
+public class CasCacheTest
+{
+    @Test
+    public void testHitAndMiss() throws Exception
+    {
+        CasCache sut = new CasCache(1_000_000);
+        JCasCacheKey key = new JCasCacheKey(1, "user");
+        JCas jcas = JCasFactory.createText("This is a test");
+        
+        assertThat(sut.get(key, 1)).isNull();
+        
+        sut.put(key, jcas, 1);
+        assertThat(sut.get(key, 1).getDocumentText()).isEqualTo("This is a test");
+        
+        assertThat(sut.getHits()).isEqualTo(1);
+        assertThat(sut.getMisses()).isEqualTo(1);
+    }
+    
+    @Test
+    public void testEveryLookupReturnsIndependentCopy() throws Exception
+    {
+        CasCache sut = new CasCache(1_000_000);
+        JCasCacheKey key = new JCasCacheKey(1, "user");
+        JCas jcas = JCasFactory.createText("This is a test");
+        Annotation annotation = new Annotation(jcas, 0, 4);
+        annotation.addToIndexes();
+        int addr = jcas.getLowLevelCas().ll_getFSRef(annotation);
+        
+        sut.put(key, jcas, 1);
+        
+        // Changes to the original after it has been cached are not visible
+        new Annotation(jcas, 5, 7).addToIndexes();
+        
+        JCas copy1 = sut.get(key, 1);
+        JCas copy2 = sut.get(key, 1);
+        assertThat(copy1).isNotSameAs(jcas).isNotSameAs(copy2);
+        assertThat(copy1.getAnnotationIndex(Annotation.type)).hasSize(2);
+        
+        // Feature structure addresses are preserved
+        Annotation copied = copy1.getLowLevelCas().ll_getFSForRef(addr);
+        assertThat(copied.getCoveredText()).isEqualTo("This");
+        
+        // Changes to one copy are not visible in other copies
+        new Annotation(copy1, 10, 14).addToIndexes();
+        assertThat(copy2.getAnnotationIndex(Annotation.type)).hasSize(2);
+        assertThat(sut.get(key, 1).getAnnotationIndex(Annotation.type)).hasSize(2);
+    }
+    
+    @Test
+    public void testStaleTimestampIsDropped() throws Exception
+    {
+        CasCache sut = new CasCache(1_000_000);
+        JCasCacheKey key = new JCasCacheKey(1, "user");
+        
+        sut.put(key, JCasFactory.createText("This is a test"), 1);
+        
+        assertThat(sut.get(key, 2)).isNull();
+        assertThat(sut.getEntryCount()).isEqualTo(0);
+        assertThat(sut.getSize()).isEqualTo(0);
+    }
+    
+    @Test
+    public void testSizeIsMeasuredFromHeap() throws Exception
+    {
+        CasCache sut = new CasCache(Long.MAX_VALUE);
+        JCas small = JCasFactory.createText("small");
+        JCas large = JCasFactory.createText("large");
+        for (int i = 0; i < 10_000; i++) {
+            new Annotation(large, 0, 5).addToIndexes();
+        }
+        
+        sut.put(new JCasCacheKey(1, "user"), small, 1);
+        long smallSize = sut.getSize();
+        sut.put(new JCasCacheKey(2, "user"), large, 1);
+        long largeSize = sut.getSize() - smallSize;
+        
+        assertThat(smallSize).isGreaterThan(0);
+        // Each annotation occupies at least its type, begin, end and sofa on the heap
+        assertThat(largeSize - smallSize).isGreaterThanOrEqualTo(10_000L * 4 * Integer.BYTES);
+    }
+    
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception
+    {
+        JCas jcas = JCasFactory.createText("one");
+        long entrySize = measure(jcas);
+        
+        CasCache sut = new CasCache(entrySize * 2 + entrySize / 2);
+        JCasCacheKey key1 = new JCasCacheKey(1, "user");
+        JCasCacheKey key2 = new JCasCacheKey(2, "user");
+        JCasCacheKey key3 = new JCasCacheKey(3, "user");
+        
+        sut.put(key1, jcas, 1);
+        sut.put(key2, jcas, 1);
+        
+        // Touch the first entry so the second one becomes the least recently used
+        assertThat(sut.get(key1, 1)).isNotNull();
+        
+        sut.put(key3, jcas, 1);
+        
+        assertThat(sut.get(key1, 1)).isNotNull();
+        assertThat(sut.get(key2, 1)).isNull();
+        assertThat(sut.get(key3, 1)).isNotNull();
+        assertThat(sut.getEvictions()).isEqualTo(1);
+        assertThat(sut.getSize()).isEqualTo(entrySize * 2);
+    }
+    
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        CasCache sut = new CasCache(1_000_000);
+        JCasCacheKey key = new JCasCacheKey(1, "user");
+        
+        sut.put(key, JCasFactory.createText("This is a test"), 1);
+        sut.invalidate(key);
+        
+        assertThat(sut.get(key, 1)).isNull();
+        assertThat(sut.getSize()).isEqualTo(0);
+    }
+    
+    private static long measure(JCas aJCas)
+    {
+        CasCache cache = new CasCache(Long.MAX_VALUE);
+        cache.put(new JCasCacheKey(0, "user"), aJCas, 1);
+        return cache.getSize();
+    }
+}
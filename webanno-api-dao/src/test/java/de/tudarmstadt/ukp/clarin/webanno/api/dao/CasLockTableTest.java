@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasLockTable.CasLock;
+
+public class CasLockTableTest
+{
+    @Test
+    public void testDifferentStripesDoNotBlock() throws Exception
+    {
+        CasLockTable sut = new CasLockTable(2);
+        
+        // With two stripes, these keys map to different stripes
+        JCasCacheKey key1 = findKeyForStripe(sut, 0);
+        JCasCacheKey key2 = findKeyForStripe(sut, 1);
+        
+        CountDownLatch acquired = new CountDownLatch(1);
+        try (CasLock l = sut.lockForWrite(key1)) {
+            Thread t = new Thread(() -> {
+                try (CasLock l2 = sut.lockForWrite(key2)) {
+                    acquired.countDown();
+                }
+            });
+            t.start();
+            assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+            t.join();
+        }
+        
+        assertThat(sut.getContendedCount()).isEqualTo(0);
+    }
+    
+    @Test
+    public void testExclusiveLockBlocksOthers() throws Exception
+    {
+        CasLockTable sut = new CasLockTable();
+        JCasCacheKey key = new JCasCacheKey(1, "user");
+        
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread t;
+        try (CasLock l = sut.lockExclusive()) {
+            // The holder of the exclusive lock can still lock individual CASes
+            try (CasLock l2 = sut.lockForWrite(key)) {
+                // Nothing to do
+            }
+            
+            t = new Thread(() -> {
+                try (CasLock l2 = sut.lockForRead(key)) {
+                    acquired.countDown();
+                }
+            });
+            t.start();
+            assertThat(acquired.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        }
+        
+        assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+        t.join();
+        assertThat(sut.getContendedCount()).isEqualTo(1);
+    }
+    
+    private JCasCacheKey findKeyForStripe(CasLockTable aTable, int aStripe)
+    {
+        for (long id = 0;; id++) {
+            JCasCacheKey key = new JCasCacheKey(id, "user");
+            int h = key.hashCode();
+            h ^= (h >>> 16);
+            if ((h & 1) == aStripe) {
+                return key;
+            }
+        }
+    }
+}
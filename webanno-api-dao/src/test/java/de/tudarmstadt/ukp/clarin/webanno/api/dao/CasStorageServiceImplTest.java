@@ -29,6 +29,7 @@ import java.util.List;
 import org.apache.uima.UIMAException;
 import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.junit.Before;
 import org.junit.Rule;
@@ -128,7 +129,97 @@ public class CasStorageServiceImplTest
         assertThat(sut.getCasFile(doc, user)).doesNotExist();
         assertThat(sut.existsCas(doc, user)).isFalse();
     }
+    
+    @Test
+    public void testCompressedStorageFormat() throws Exception
+    {
+        repositoryProperties.setCasStorageFormat(CasStorageFormat.COMPRESSED);
+        sut = new CasStorageServiceImpl(null, repositoryProperties, backupProperties);
+        
+        SourceDocument doc = makeSourceDocument(3l, 3l);
+        JCas cas = JCasFactory.createText("This is a test");
+        String user = "test";
+        
+        sut.writeCas(doc, cas, user);
+        assertThat(CasPersistenceUtils.getFormat(sut.getCasFile(doc, user)))
+                .isEqualTo(CasStorageFormat.COMPRESSED);
+        
+        JCas cas2 = sut.readCas(doc, user);
+        assertThat(cas2.getDocumentText()).isEqualTo(cas.getDocumentText());
+    }
+    
+    @Test
+    public void testCompressedStorageFormatPreservesAddresses() throws Exception
+    {
+        repositoryProperties.setCasStorageFormat(CasStorageFormat.COMPRESSED);
+        sut = new CasStorageServiceImpl(null, repositoryProperties, backupProperties);
+        
+        SourceDocument doc = makeSourceDocument(5l, 5l);
+        JCas cas = JCasFactory.createText("This is a test");
+        String user = "test";
+        
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Annotation ann = new Annotation(cas, i * 5, i * 5 + 4);
+            ann.addToIndexes();
+            annotations.add(ann);
+        }
+        
+        // The deleted annotation is no longer reachable, but the addresses of the following
+        // annotations must not change
+        annotations.remove(1).removeFromIndexes();
+        List<Integer> addresses = getAddresses(cas, annotations);
         
+        sut.writeCas(doc, cas, user);
+        
+        // Read through a new instance to bypass the CAS cache
+        CasStorageService readingSut = new CasStorageServiceImpl(null, repositoryProperties,
+                backupProperties);
+        JCas cas2 = readingSut.readCas(doc, user);
+        
+        List<Annotation> annotations2 = new ArrayList<>(select(cas2, Annotation.class));
+        // Skip the document annotation and the CAS metadata
+        annotations2.removeIf(ann -> ann.getClass() != Annotation.class);
+        assertThat(getAddresses(cas2, annotations2)).isEqualTo(addresses);
+    }
+    
+    @Test
+    public void testMigrateStorageFormat() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(4l, 4l);
+        JCas cas = JCasFactory.createText("This is a test");
+        String user = "test";
+        
+        sut.writeCas(doc, cas, user);
+        long timestamp = sut.getCasTimestamp(doc, user).get();
+        assertThat(CasPersistenceUtils.getFormat(sut.getCasFile(doc, user)))
+                .isEqualTo(CasStorageFormat.SERIALIZED);
+        
+        repositoryProperties.setCasStorageFormat(CasStorageFormat.COMPRESSED);
+        CasStorageServiceImpl migratingSut = new CasStorageServiceImpl(null,
+                repositoryProperties, backupProperties);
+        
+        assertThat(migratingSut.migrateStorageFormat()).isEqualTo(1);
+        assertThat(CasPersistenceUtils.getFormat(sut.getCasFile(doc, user)))
+                .isEqualTo(CasStorageFormat.COMPRESSED);
+        assertThat(sut.getCasTimestamp(doc, user).get()).isEqualTo(timestamp);
+        
+        JCas cas2 = migratingSut.readCas(doc, user);
+        assertThat(cas2.getDocumentText()).isEqualTo(cas.getDocumentText());
+        
+        // Running the migration again does nothing
+        assertThat(migratingSut.migrateStorageFormat()).isEqualTo(0);
+    }
+        
+    private static List<Integer> getAddresses(JCas aJCas, List<Annotation> aAnnotations)
+    {
+        List<Integer> addresses = new ArrayList<>();
+        for (Annotation ann : aAnnotations) {
+            addresses.add(aJCas.getLowLevelCas().ll_getFSRef(ann));
+        }
+        return addresses;
+    }
+    
     private SourceDocument makeSourceDocument(long aProjectId, long aDocumentId)
     {
         Project project = new Project();
@@ -20,13 +20,22 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.TypedQuery;
 
 import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.jcas.JCas;
@@ -38,18 +47,24 @@ import org.mockito.Mock;
 import org.springframework.context.ApplicationEventPublisher;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
-import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.DocumentStateChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 
 public class DocumentServiceImplTest
 {
-    private DocumentService sut;
+    private DocumentServiceImpl sut;
 
     private @Mock UserDao userRepository;
     private @Mock ImportExportService importExportService;
@@ -112,6 +127,64 @@ public class DocumentServiceImplTest
         assertThat(storageService.getCasFile(sourceDocument, user.getUsername())).exists();
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void thatStateCountsAreCachedUntilStateChanges() throws Exception
+    {
+        SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+        
+        TypedQuery<Object[]> query = mock(TypedQuery.class);
+        when(entityManager.createQuery(anyString(), eq(Object[].class))).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        List<Object[]> rows = Arrays.asList(
+                new Object[] { "user1", AnnotationDocumentState.FINISHED, 2l },
+                new Object[] { "user1", AnnotationDocumentState.IGNORE, 1l },
+                new Object[] { "user2", AnnotationDocumentState.IN_PROGRESS, 3l });
+        when(query.getResultList()).thenReturn(rows);
+        
+        Map<String, Map<AnnotationDocumentState, Integer>> counts = sut
+                .countAnnotationDocumentStatesPerUser(doc.getProject());
+        
+        assertThat(counts).containsOnlyKeys("user1", "user2");
+        assertThat(counts.get("user1"))
+                .containsEntry(AnnotationDocumentState.FINISHED, 2)
+                .containsEntry(AnnotationDocumentState.IGNORE, 1)
+                .hasSize(2);
+        assertThat(counts.get("user2"))
+                .containsEntry(AnnotationDocumentState.IN_PROGRESS, 3)
+                .hasSize(1);
+        
+        // Second call is served from the cache
+        assertThat(sut.countAnnotationDocumentStatesPerUser(doc.getProject())).isSameAs(counts);
+        verify(query, times(1)).getResultList();
+        
+        // A state change invalidates the cache
+        AnnotationDocument annDoc = new AnnotationDocument();
+        annDoc.setProject(doc.getProject());
+        annDoc.setDocument(doc);
+        annDoc.setState(AnnotationDocumentState.FINISHED);
+        sut.onAnnotationStateChangeInvalidateStateCounts(
+                new AnnotationStateChangeEvent(this, annDoc, AnnotationDocumentState.IN_PROGRESS));
+        
+        sut.countAnnotationDocumentStatesPerUser(doc.getProject());
+        verify(query, times(2)).getResultList();
+    }
+
+    @Test
+    public void thatDocumentEventsScheduleProjectStateRecalculation()
+    {
+        SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+
+        sut.onDocumentStateChangeEvent(
+                new DocumentStateChangedEvent(this, doc, SourceDocumentState.NEW));
+        sut.onAfterDocumentCreatedEvent(new AfterDocumentCreatedEvent(this, doc, null));
+        sut.onBeforeDocumentRemovedEvent(new BeforeDocumentRemovedEvent(this, doc));
+
+        // The recalculation is left to the project service which runs it after the commit
+        verify(projectService, times(3)).scheduleProjectStateRecalculation(doc.getProject());
+        verify(projectService, never()).recalculateProjectState(any());
+    }
+
     private SourceDocument makeSourceDocument(long aProjectId, long aDocumentId, String aDocName)
     {
         Project project = new Project();
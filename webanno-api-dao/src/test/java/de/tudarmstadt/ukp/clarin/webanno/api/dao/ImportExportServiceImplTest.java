@@ -25,9 +25,11 @@ import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
-import static org.mockito.MockitoAnnotations.initMocks;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -44,10 +46,10 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
-import org.mockito.Mock;
 
-import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.AnnotationExportContext;
 import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.xmi.XmiFormatSupport;
@@ -58,7 +60,7 @@ public class ImportExportServiceImplTest
     private BackupProperties backupProperties;
     private RepositoryProperties repositoryProperties;
     private CasStorageServiceImpl storageService;
-    private @Mock AnnotationSchemaService schemaService;
+    private AnnotationSchemaServiceImpl schemaService;
     
     public @Rule TemporaryFolder testFolder = new TemporaryFolder();
     
@@ -67,9 +69,11 @@ public class ImportExportServiceImplTest
     @Before
     public void setup() throws Exception
     {
-        initMocks(this);
-        
-        schemaService = mock(AnnotationSchemaServiceImpl.class);
+        // Use the real type system handling of the schema service, but there is no database
+        // backing the layers and features
+        schemaService = spy(new AnnotationSchemaServiceImpl());
+        doReturn(emptyList()).when(schemaService).listAnnotationLayer(any(Project.class));
+        doReturn(emptyList()).when(schemaService).listAnnotationFeature(any(Project.class));
         
         backupProperties = new BackupProperties();
 
@@ -81,14 +85,6 @@ public class ImportExportServiceImplTest
         sut = new ImportExportServiceImpl(repositoryProperties, asList(new XmiFormatSupport()),
                 storageService, schemaService);
         sut.onContextRefreshedEvent();
-        
-        when(schemaService.listAnnotationLayer(any(Project.class))).thenReturn(emptyList());
-        // We don't want to re-write the prepareCasForExport method - call the original
-        when(schemaService.prepareCasForExport(any(), any())).thenCallRealMethod();
-        // The prepareCasForExport method internally calls getFullProjectTypeSystem, so we need to
-        // ensure this is actually callable and doesn't run into a mocked version which simply 
-        // returns null.
-        when(schemaService.getFullProjectTypeSystem(any(), anyBoolean())).thenCallRealMethod();
     }
 
     @Test
@@ -138,6 +134,33 @@ public class ImportExportServiceImplTest
         assertThat(result).hasSize(0);
     }
     
+    @Test
+    public void thatDocumentExportWithContextDoesNotAccessSchema() throws Exception
+    {
+        SourceDocument sd = makeSourceDocument(1l, 1l);
+        
+        JCas jcas = JCasFactory.createJCas(
+                schemaService.getFullProjectTypeSystem(sd.getProject()));
+        jcas.setDocumentText("This is a test .");
+        DocumentMetaData.create(jcas);
+        CasPersistenceUtils.writeSerializedCas(jcas,
+                new File(storageService.getAnnotationFolder(sd), "user.ser"));
+        
+        AnnotationExportContext context = sut.prepareAnnotationExport(sd.getProject());
+        clearInvocations(schemaService);
+        
+        // This is what the worker threads of the project export do
+        File exportFolder = testFolder.newFolder();
+        File exportedXmi = sut.exportAnnotationDocument(context, sd, "user",
+                sut.getFormatById(XmiFormatSupport.ID).get(), "user", Mode.ANNOTATION, true,
+                exportFolder);
+
+        assertThat(exportedXmi).exists().hasParent(exportFolder);
+        verify(schemaService, never()).listAnnotationLayer(any(Project.class));
+        verify(schemaService, never()).listAnnotationFeature(any(Project.class));
+        verify(schemaService, never()).getFullProjectTypeSystem(any(), anyBoolean());
+    }
+    
     private SourceDocument makeSourceDocument(long aProjectId, long aDocumentId)
     {
         Project project = new Project();
@@ -146,6 +169,7 @@ public class ImportExportServiceImplTest
         SourceDocument doc = new SourceDocument();
         doc.setProject(project);
         doc.setId(aDocumentId);
+        doc.setName("test.txt");
         
         return doc;
     }
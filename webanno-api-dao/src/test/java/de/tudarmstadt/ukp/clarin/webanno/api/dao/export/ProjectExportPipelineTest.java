@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.export.ProjectExportPipeline.Entry;
+
+public class ProjectExportPipelineTest
+{
+    @Test
+    public void thatEntriesAreWrittenInSubmissionOrder() throws Exception
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        List<Integer> progress = new ArrayList<>();
+        List<File> tempFolders = new ArrayList<>();
+
+        try (ZipOutputStream zip = new ZipOutputStream(buf);
+                ProjectExportPipeline sut = new ProjectExportPipeline(zip, 3)) {
+            for (int i = 0; i < 10; i++) {
+                int n = i;
+                sut.submit(aTempFolder -> {
+                    synchronized (tempFolders) {
+                        tempFolders.add(aTempFolder);
+                    }
+                    // Let the earlier tasks finish last
+                    Thread.sleep((10 - n) * 5);
+                    File file = new File(aTempFolder, "doc" + n + ".txt");
+                    FileUtils.writeStringToFile(file, "content " + n, UTF_8);
+                    return asList(new Entry("folder/doc" + n + ".txt", file));
+                }, () -> progress.add(n));
+            }
+            sut.finish();
+        }
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(
+                new ByteArrayInputStream(buf.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                assertThat(IOUtils.toString(zip, UTF_8))
+                        .isEqualTo("content " + entry.getName().replaceAll("\\D", ""));
+                names.add(entry.getName());
+            }
+        }
+
+        assertThat(names).containsExactly("folder/doc0.txt", "folder/doc1.txt",
+                "folder/doc2.txt", "folder/doc3.txt", "folder/doc4.txt", "folder/doc5.txt",
+                "folder/doc6.txt", "folder/doc7.txt", "folder/doc8.txt", "folder/doc9.txt");
+        assertThat(progress).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        assertThat(tempFolders).hasSize(10).noneMatch(File::exists);
+    }
+
+    @Test
+    public void thatFailuresArePropagatedAndCleanedUp() throws Exception
+    {
+        List<File> tempFolders = new ArrayList<>();
+
+        try (ZipOutputStream zip = new ZipOutputStream(new ByteArrayOutputStream());
+                ProjectExportPipeline sut = new ProjectExportPipeline(zip, 2)) {
+            sut.submit(aTempFolder -> {
+                synchronized (tempFolders) {
+                    tempFolders.add(aTempFolder);
+                }
+                throw new IOException("Conversion failed");
+            }, null);
+
+            assertThatThrownBy(sut::finish)
+                    .isInstanceOf(IOException.class)
+                    .hasMessage("Conversion failed");
+        }
+
+        assertThat(tempFolders).hasSize(1).noneMatch(File::exists);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.export.exporters;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest.FORMAT_AUTO;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.Invocation;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.AnnotationExportContext;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedAnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class AnnotationDocumentExporterTest
+{
+    /**
+     * The {@link DocumentService} methods which query the database. The SQL statements actually
+     * issued are counted by the {@code AnnotationDocumentExporterDatabaseTest} in the remote API
+     * module which runs against the test database.
+     */
+    private static final Set<String> QUERIES = new HashSet<>(asList("listSourceDocuments",
+            "listAllSourceDocuments", "listAnnotationDocuments", "listAllAnnotationDocuments",
+            "getSourceDocument", "getAnnotationDocument", "existsAnnotationDocument"));
+
+    private @Mock DocumentService documentService;
+    private @Mock ImportExportService importExportService;
+
+    private @InjectMocks AnnotationDocumentExporter sut;
+
+    private Project project;
+    private File initialCasFile;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("test");
+        project.setMode(WebAnnoConst.PROJECT_TYPE_ANNOTATION);
+
+        initialCasFile = testFolder.newFile("INITIAL_CAS.ser");
+        CasPersistenceUtils.writeSerializedCas(JCasFactory.createText("Test"), initialCasFile);
+    }
+
+    @Test
+    public void thatExportQueryCountIsIndependentOfDocumentCount() throws Exception
+    {
+        int queries = export(1, true);
+
+        assertThat(export(10, true)).isEqualTo(queries);
+        assertThat(export(100, true)).isEqualTo(queries);
+        verify(documentService, never()).listAnnotationDocuments(any(SourceDocument.class));
+    }
+
+    @Test
+    public void thatExistingInitialCasIsNotReadDuringExport() throws Exception
+    {
+        export(10, true);
+
+        verify(documentService, never()).createOrReadInitialCas(any(SourceDocument.class));
+    }
+
+    @Test
+    public void thatMissingInitialCasIsCreatedDuringExport() throws Exception
+    {
+        export(10, false);
+
+        verify(documentService, times(10)).createOrReadInitialCas(any(SourceDocument.class));
+    }
+
+    @Test
+    public void thatImportQueryCountIsIndependentOfDocumentCount() throws Exception
+    {
+        int queries = importAnnotationDocuments(1);
+
+        assertThat(importAnnotationDocuments(10)).isEqualTo(queries);
+        assertThat(importAnnotationDocuments(100)).isEqualTo(queries);
+        verify(documentService, never()).getSourceDocument(any(Project.class), anyString());
+    }
+
+    private int export(int aDocumentCount, boolean aInitialCasExists) throws Exception
+    {
+        reset(documentService, importExportService);
+
+        List<SourceDocument> documents = makeSourceDocuments(aDocumentCount);
+        List<AnnotationDocument> annotationDocuments = new ArrayList<>();
+        for (SourceDocument document : documents) {
+            annotationDocuments.add(makeAnnotationDocument(document, "user1"));
+            annotationDocuments.add(makeAnnotationDocument(document, "user2"));
+        }
+
+        when(documentService.listSourceDocuments(project)).thenReturn(documents);
+        when(documentService.listAnnotationDocuments(project)).thenReturn(annotationDocuments);
+        when(documentService.existsCas(any(SourceDocument.class), eq(INITIAL_CAS_PSEUDO_USER)))
+                .thenReturn(aInitialCasExists);
+        when(documentService.getCasFile(any(SourceDocument.class), eq(INITIAL_CAS_PSEUDO_USER)))
+                .thenReturn(initialCasFile);
+        // No user CASes exist, so no documents need to be converted
+        when(documentService.getCasFile(any(SourceDocument.class), startsWith("user")))
+                .thenReturn(new File(testFolder.getRoot(), "missing.ser"));
+        when(importExportService.prepareAnnotationExport(project))
+                .thenReturn(new AnnotationExportContext(project, null, emptyMap()));
+
+        ExportedProject exProject = new ExportedProject();
+        try (ZipOutputStream zip = new ZipOutputStream(new ByteArrayOutputStream())) {
+            sut.exportData(new ProjectExportRequest(project, FORMAT_AUTO, true), exProject, zip);
+        }
+
+        assertThat(exProject.getAnnotationDocuments()).hasSize(aDocumentCount * 2);
+        // The export metadata is resolved once for all documents
+        verify(importExportService, times(1)).prepareAnnotationExport(project);
+
+        return countQueries();
+    }
+
+    private int importAnnotationDocuments(int aDocumentCount) throws Exception
+    {
+        reset(documentService, importExportService);
+
+        List<SourceDocument> documents = makeSourceDocuments(aDocumentCount);
+        List<ExportedAnnotationDocument> exAnnotationDocuments = new ArrayList<>();
+        for (SourceDocument document : documents) {
+            ExportedAnnotationDocument exAnnotationDocument = new ExportedAnnotationDocument();
+            exAnnotationDocument.setName(document.getName());
+            exAnnotationDocument.setUser("user1");
+            exAnnotationDocument.setState(AnnotationDocumentState.IN_PROGRESS);
+            exAnnotationDocuments.add(exAnnotationDocument);
+        }
+
+        when(documentService.listAllSourceDocuments(project)).thenReturn(documents);
+
+        ExportedProject exProject = new ExportedProject();
+        exProject.setAnnotationDocuments(exAnnotationDocuments);
+
+        File zipFile = testFolder.newFile();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            // Only the annotation document metadata is imported here
+        }
+
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            sut.importData(new ProjectImportRequest(false), project, exProject, zip);
+        }
+
+        verify(documentService, times(aDocumentCount))
+                .createAnnotationDocument(any(AnnotationDocument.class));
+
+        return countQueries();
+    }
+
+    private int countQueries()
+    {
+        int count = 0;
+        for (Invocation invocation : mockingDetails(documentService).getInvocations()) {
+            if (QUERIES.contains(invocation.getMethod().getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private List<SourceDocument> makeSourceDocuments(int aCount)
+    {
+        List<SourceDocument> documents = new ArrayList<>();
+        for (int i = 0; i < aCount; i++) {
+            SourceDocument document = new SourceDocument();
+            document.setId((long) i);
+            document.setName("doc" + i + ".txt");
+            document.setProject(project);
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    private AnnotationDocument makeAnnotationDocument(SourceDocument aDocument, String aUser)
+    {
+        AnnotationDocument annotationDocument = new AnnotationDocument();
+        annotationDocument.setName(aDocument.getName());
+        annotationDocument.setDocument(aDocument);
+        annotationDocument.setProject(project);
+        annotationDocument.setUser(aUser);
+        annotationDocument.setState(AnnotationDocumentState.IN_PROGRESS);
+        return annotationDocument;
+    }
+}
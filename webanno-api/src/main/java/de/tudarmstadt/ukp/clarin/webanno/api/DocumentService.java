@@ -124,6 +124,17 @@ public interface DocumentService
      */
     List<SourceDocument> listSourceDocuments(Project aProject);
 
+    /**
+     * List all source documents in a project, including the TAB-SEP training documents which are
+     * not returned by {@link #listSourceDocuments(Project)}. This is meant for looking up many
+     * documents by name at once, e.g. while importing a project.
+     *
+     * @param aProject
+     *            the project.
+     * @return list of source documents
+     */
+    List<SourceDocument> listAllSourceDocuments(Project aProject);
+
     /**
      * ROLE_ADMINs or project admins can remove source documents from a project. removing a a source
      * document also removes an annotation document related to that document
@@ -407,6 +418,19 @@ public interface DocumentService
      */
     List<AnnotationDocument> listAnnotationDocuments(Project project, User user);
 
+    /**
+     * List the {@link AnnotationDocument annotation documents} of all annotators in a project,
+     * i.e. what {@link #listAnnotationDocuments(SourceDocument)} returns for each of the source
+     * documents in the project. The source documents are fetched by the same query, so this
+     * should be preferred over calling {@link #listAnnotationDocuments(SourceDocument)} in a loop,
+     * e.g. when exporting a project.
+     * 
+     * @param aProject
+     *            the project.
+     * @return the annotation documents.
+     */
+    List<AnnotationDocument> listAnnotationDocuments(Project aProject);
+
     /**
      * Number of expected annotation documents in this project (numUser X document - Ignored)
      *
@@ -426,6 +450,21 @@ public interface DocumentService
      */
     List<AnnotationDocument> listFinishedAnnotationDocuments(Project project);
 
+    /**
+     * Count the annotation documents of each user in the project by their state. Only annotation
+     * documents belonging to the source documents returned by {@link #listSourceDocuments} are
+     * counted. The counts are obtained in a single query and cached until the state of an
+     * annotation document or source document in the project changes.
+     *
+     * @param project
+     *            the project.
+     * @return the number of annotation documents per state for each user. Users without any
+     *         annotation documents are not included. States without annotation documents are not
+     *         included.
+     */
+    Map<String, Map<AnnotationDocumentState, Integer>> countAnnotationDocumentStatesPerUser(
+            Project project);
+
     /**
      * List all annotation documents for this source document (including in active and delted user
      * annotation and those created by project admins or super admins for Test purpose. This method
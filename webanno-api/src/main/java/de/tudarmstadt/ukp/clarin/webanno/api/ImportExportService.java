@@ -27,6 +27,7 @@ import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.JCas;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.export.AnnotationExportContext;
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
@@ -144,4 +145,37 @@ public interface ImportExportService
     File exportAnnotationDocument(SourceDocument document, String user, FormatSupport aFormat,
             String fileName, Mode mode, boolean stripExtension)
         throws UIMAException, IOException, ClassNotFoundException;
+
+    /**
+     * Resolve the type system and the layer, feature and tagset information which are required
+     * to export the annotation documents of the given project.
+     *
+     * @param aProject
+     *            the project.
+     * @return the context to be passed to
+     *         {@link #exportAnnotationDocument(AnnotationExportContext, SourceDocument, String,
+     *         FormatSupport, String, Mode, boolean, File)}.
+     * @throws UIMAException
+     *             if the type system of the project cannot be created.
+     */
+    AnnotationExportContext prepareAnnotationExport(Project aProject)
+        throws UIMAException;
+
+    /**
+     * Exports an annotation document like the methods above but takes the project information
+     * from the given context instead of the database. Thus, documents can be exported on worker
+     * threads. The exported file is created in the given folder instead of the temporary folder,
+     * so documents can be exported concurrently without files of the same name overwriting each
+     * other.
+     *
+     * @param aContext
+     *            the export context obtained from {@link #prepareAnnotationExport(Project)}.
+     * @param targetFolder
+     *            the folder in which the exported file is created.
+     * @return the exported file.
+     */
+    File exportAnnotationDocument(AnnotationExportContext aContext, SourceDocument document,
+            String user, FormatSupport aFormat, String fileName, Mode mode,
+            boolean stripExtension, File targetFolder)
+        throws UIMAException, IOException, ClassNotFoundException;
 }
@@ -182,6 +182,19 @@ public interface ProjectService
      */
     void recalculateProjectState(Project aProject);
 
+    /**
+     * Recalculate the project state in the background once the current transaction (if any) has
+     * been committed. Further requests for the same project which arrive before the
+     * recalculation has started are coalesced into it and restart the delay before the
+     * recalculation. The delay can be configured using the
+     * {@code project.stateRecalculationDelay} property (in milliseconds). Pending recalculations
+     * are run when the service is stopped.
+     * 
+     * @param aProject
+     *            The {@link Project} to be updated.
+     */
+    void scheduleProjectStateRecalculation(Project aProject);
+
     /**
      * A method that check is a project exists with the same name already. getSingleResult() fails
      * if the project is not created, hence existProject returns false.
@@ -319,13 +332,14 @@ public interface ProjectService
     // --------------------------------------------------------------------------------------------
 
     /**
-     * Load annotation preferences such as {@code BratAnnotator#windowSize} from a property file
+     * Load annotation preferences such as {@code BratAnnotator#windowSize}. Preferences stored
+     * in a properties file by previous versions are imported on first access.
      *
      * @param username
      *            the username.
      * @param project
      *            the project where the user is working on.
-     * @return the properties.
+     * @return the properties. Empty if the user has not saved any preferences yet.
      * @throws IOException
      *             if an I/O error occurs.
      */
@@ -333,8 +347,9 @@ public interface ProjectService
         throws IOException;
 
     /**
-     * Save annotation references, such as {@code BratAnnotator#windowSize}..., in a properties file
-     * so that they are not required to configure every time they open the document.
+     * Save annotation references, such as {@code BratAnnotator#windowSize}..., so that they are not
+     * required to configure every time they open the document. The preferences are available to
+     * {@link #loadUserSettings} immediately but are written to the database in the background.
      *
      * @param <T>
      *            object type to save
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.cas;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.UnaryOperator;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+
+/**
+ * Cache for indexes built over the feature structures of a CAS.
+ * <p>
+ * Every request works on its own copy of a CAS, so an index kept only for the CAS instance it was
+ * built for would be built again on every request. Indexes are therefore also shared between
+ * copies of the same CAS. Copies are recognized by their {@link CASMetadata}, i.e. by source
+ * document, user and the timestamp of the CAS file they were loaded from. Since the CAS storage
+ * preserves the addresses of feature structures, an index built for one copy is also valid for
+ * the others. CASes without metadata, e.g. CASes which have never been stored, are only cached
+ * per instance.
+ * <p>
+ * Once an index has been {@link #invalidate(CAS) invalidated} or {@link #update updated} for a CAS
+ * instance, the instance has been changed and no longer matches its CAS file. No index of the
+ * instance is shared any more from then on. The next copy loaded after the changes have been
+ * saved has a new timestamp and starts sharing again. The cache refers to neither CASes nor
+ * feature structures, so it does not keep them alive.
+ *
+ * @param <T>
+ *            the type of index. Index instances are shared between threads, so they must not be
+ *            modified after they have been added to the cache.
+ */
+public class CasIndexCache<T>
+{
+    /**
+     * Maximum number of CAS files for which indexes are shared.
+     */
+    private static final int SHARED_CACHE_SIZE = 32;
+
+    private static final String FEATURE_SOURCE_DOCUMENT_ID = "sourceDocumentId";
+    private static final String FEATURE_USERNAME = "username";
+    private static final String FEATURE_LAST_CHANGED_ON_DISK = "lastChangedOnDisk";
+
+    /**
+     * CAS instances which have been changed since they have been loaded - shared by all caches
+     * since a change that invalidates one kind of index may also affect others.
+     */
+    private static final Set<CAS> CHANGED_CASES = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final Map<CAS, Map<String, Entry<T>>> instanceIndexes = new WeakHashMap<>();
+
+    private final Map<Key, Map<String, Entry<T>>> sharedIndexes = new LinkedHashMap<Key,
+            Map<String, Entry<T>>>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Map<String, Entry<T>>> aEldest)
+        {
+            return size() > SHARED_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * @param aCas
+     *            the CAS.
+     * @param aName
+     *            the name of the index, e.g. the name of the indexed type.
+     * @return the index for the given CAS or {@code null} if there is none. The caller still needs
+     *         to check whether the index matches the CAS in case the CAS has been changed without
+     *         invalidating the index.
+     */
+    public T get(CAS aCas, String aName)
+    {
+        String text = aCas.getDocumentText();
+
+        synchronized (this) {
+            Map<String, Entry<T>> casIndexes = instanceIndexes.get(aCas);
+            Entry<T> entry = casIndexes != null ? casIndexes.get(aName) : null;
+            if (entry != null) {
+                // The document text is compared by identity to notice if the CAS has been reset
+                // and loaded again
+                return entry.text == text ? entry.index : null;
+            }
+
+            Key key = getSharedKey(aCas);
+            if (key == null) {
+                return null;
+            }
+
+            Map<String, Entry<T>> shared = sharedIndexes.get(key);
+            entry = shared != null ? shared.get(aName) : null;
+            if (entry == null || !Objects.equals(entry.text, text)) {
+                return null;
+            }
+
+            instanceIndexes.computeIfAbsent(aCas, cas -> new HashMap<>()).put(aName,
+                    new Entry<>(text, entry.index));
+            return entry.index;
+        }
+    }
+
+    /**
+     * Add an index which has just been built for the given CAS. It is shared with other copies of
+     * the CAS unless the CAS has been changed.
+     */
+    public void put(CAS aCas, String aName, T aIndex)
+    {
+        Entry<T> entry = new Entry<>(aCas.getDocumentText(), aIndex);
+
+        synchronized (this) {
+            instanceIndexes.computeIfAbsent(aCas, cas -> new HashMap<>()).put(aName, entry);
+
+            Key key = getSharedKey(aCas);
+            if (key == null) {
+                return;
+            }
+
+            // Indexes for older versions of the CAS file are no longer needed
+            Iterator<Key> i = sharedIndexes.keySet().iterator();
+            while (i.hasNext()) {
+                Key k = i.next();
+                if (k.isOtherVersionOf(key)) {
+                    i.remove();
+                }
+            }
+
+            sharedIndexes.computeIfAbsent(key, k -> new HashMap<>()).put(aName, entry);
+        }
+    }
+
+    /**
+     * Replace the index of the given CAS instance with an updated one after a change to the CAS.
+     * If the update function returns {@code null}, the index is dropped.
+     */
+    public void update(CAS aCas, String aName, UnaryOperator<T> aUpdate)
+    {
+        synchronized (this) {
+            markChanged(aCas);
+
+            Map<String, Entry<T>> casIndexes = instanceIndexes.get(aCas);
+            Entry<T> entry = casIndexes != null ? casIndexes.get(aName) : null;
+            if (entry == null) {
+                return;
+            }
+
+            T updated = entry.text == aCas.getDocumentText() ? aUpdate.apply(entry.index) : null;
+            if (updated != null) {
+                casIndexes.put(aName, new Entry<>(entry.text, updated));
+            }
+            else {
+                casIndexes.remove(aName);
+            }
+        }
+    }
+
+    /**
+     * Drop the index of the given name for the given CAS instance after a change to the CAS.
+     */
+    public void invalidate(CAS aCas, String aName)
+    {
+        synchronized (this) {
+            markChanged(aCas);
+
+            Map<String, Entry<T>> casIndexes = instanceIndexes.get(aCas);
+            if (casIndexes != null) {
+                casIndexes.remove(aName);
+            }
+        }
+    }
+
+    /**
+     * Drop all indexes for the given CAS instance after a change to the CAS.
+     */
+    public void invalidate(CAS aCas)
+    {
+        synchronized (this) {
+            markChanged(aCas);
+            instanceIndexes.remove(aCas);
+        }
+    }
+
+    private static void markChanged(CAS aCas)
+    {
+        synchronized (CHANGED_CASES) {
+            CHANGED_CASES.add(aCas);
+        }
+    }
+
+    /**
+     * @return the key under which the indexes of the given CAS are shared or {@code null} if they
+     *         must not be shared.
+     */
+    private static Key getSharedKey(CAS aCas)
+    {
+        synchronized (CHANGED_CASES) {
+            if (CHANGED_CASES.contains(aCas)) {
+                return null;
+            }
+        }
+
+        Type type = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (type == null) {
+            return null;
+        }
+
+        FSIterator<FeatureStructure> i = aCas.getIndexRepository().getAllIndexedFS(type);
+        if (!i.hasNext()) {
+            return null;
+        }
+
+        FeatureStructure cmd = i.next();
+        if (i.hasNext()) {
+            return null;
+        }
+
+        Feature timestamp = type.getFeatureByBaseName(FEATURE_LAST_CHANGED_ON_DISK);
+        Feature documentId = type.getFeatureByBaseName(FEATURE_SOURCE_DOCUMENT_ID);
+        Feature username = type.getFeatureByBaseName(FEATURE_USERNAME);
+        String user = cmd.getStringValue(username);
+
+        // A CAS that has never been stored cannot be told apart from other such CASes
+        if (cmd.getLongValue(timestamp) <= 0 || user == null) {
+            return null;
+        }
+
+        return new Key(cmd.getLongValue(documentId), user, cmd.getLongValue(timestamp));
+    }
+
+    private static final class Entry<T>
+    {
+        private final String text;
+        private final T index;
+
+        private Entry(String aText, T aIndex)
+        {
+            text = aText;
+            index = aIndex;
+        }
+    }
+
+    private static final class Key
+    {
+        private final long sourceDocumentId;
+        private final String username;
+        private final long timestamp;
+
+        private Key(long aSourceDocumentId, String aUsername, long aTimestamp)
+        {
+            sourceDocumentId = aSourceDocumentId;
+            username = aUsername;
+            timestamp = aTimestamp;
+        }
+
+        private boolean isOtherVersionOf(Key aOther)
+        {
+            return sourceDocumentId == aOther.sourceDocumentId
+                    && username.equals(aOther.username) && timestamp != aOther.timestamp;
+        }
+
+        @Override
+        public boolean equals(Object aObj)
+        {
+            if (this == aObj) {
+                return true;
+            }
+            if (!(aObj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aObj;
+            return sourceDocumentId == other.sourceDocumentId && timestamp == other.timestamp
+                    && username.equals(other.username);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(sourceDocumentId, username, timestamp);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.cas;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.cas.text.AnnotationIndex;
+
+/**
+ * Index of the annotations of a type by their offsets. It allows finding the annotations
+ * overlapping a given range or located at given offsets without walking all annotations from the
+ * start of the document and without creating probe annotations in the CAS. The annotations are
+ * kept in the order of the annotation index together with the largest end offset of all
+ * annotations up to each position, so annotations which begin before the range but end within or
+ * after it are found as well.
+ * <p>
+ * There is one index per type, kept in a {@link CasIndexCache}. Code creating annotations of a
+ * type reports them via {@link #added} so that the index is updated instead of being rebuilt,
+ * e.g. when many annotations are created one after another. Code deleting annotations
+ * {@link #invalidate(CAS, Type) invalidates} the index. Since annotations may also be changed
+ * elsewhere, the index is rebuilt if the number of annotations of the type changes, if the first
+ * or last annotation is a different one or if a selected annotation no longer has the offsets it
+ * had when the index was built.
+ */
+public class OffsetIndex
+{
+    private static final CasIndexCache<OffsetIndex> INDEXES = new CasIndexCache<>();
+
+    // The annotations in index order
+    private final int[] addrs;
+    private final int[] begins;
+    private final int[] ends;
+
+    /**
+     * The largest end offset of the annotations up to and including each position.
+     */
+    private final int[] maxEnds;
+
+    private OffsetIndex(CAS aCas, AnnotationIndex<AnnotationFS> aAnnotations)
+    {
+        int size = aAnnotations.size();
+        addrs = new int[size];
+        begins = new int[size];
+        ends = new int[size];
+        maxEnds = new int[size];
+
+        int i = 0;
+        for (AnnotationFS fs : aAnnotations) {
+            addrs[i] = getAddr(aCas, fs);
+            begins[i] = fs.getBegin();
+            ends[i] = fs.getEnd();
+            maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+            i++;
+        }
+    }
+
+    /**
+     * Copy of the given index with the given annotation inserted at the given position.
+     */
+    private OffsetIndex(OffsetIndex aIndex, int aPos, CAS aCas, AnnotationFS aAnnotation)
+    {
+        int size = aIndex.addrs.length + 1;
+        addrs = insert(aIndex.addrs, aPos, getAddr(aCas, aAnnotation));
+        begins = insert(aIndex.begins, aPos, aAnnotation.getBegin());
+        ends = insert(aIndex.ends, aPos, aAnnotation.getEnd());
+        maxEnds = new int[size];
+        System.arraycopy(aIndex.maxEnds, 0, maxEnds, 0, aPos);
+        for (int i = aPos; i < size; i++) {
+            maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+        }
+    }
+
+    /**
+     * Select the annotations of the given type which overlap the given range, i.e. which begin
+     * before the end of the range and end after its begin.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the annotation type.
+     * @param aBegin
+     *            the begin of the range.
+     * @param aEnd
+     *            the end of the range.
+     * @return the overlapping annotations in index order.
+     */
+    public static List<AnnotationFS> selectOverlapping(CAS aCas, Type aType, int aBegin,
+            int aEnd)
+    {
+        return select(aCas, aType, index -> index.selectOverlapping(aCas, aBegin, aEnd));
+    }
+
+    /**
+     * Select the annotations of the given type which have exactly the given offsets.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the annotation type.
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations in index order.
+     */
+    public static List<AnnotationFS> selectAt(CAS aCas, Type aType, int aBegin, int aEnd)
+    {
+        return select(aCas, aType, index -> index.selectAt(aCas, aBegin, aEnd));
+    }
+
+    /**
+     * Apply the given selection to the index of the given type, rebuilding the index if it turns
+     * out to be stale.
+     */
+    private static List<AnnotationFS> select(CAS aCas, Type aType,
+            Function<OffsetIndex, List<AnnotationFS>> aSelection)
+    {
+        List<AnnotationFS> result = aSelection.apply(get(aCas, aType));
+        if (result != null) {
+            return result;
+        }
+
+        // The index is stale
+        return aSelection.apply(build(aCas, aType));
+    }
+
+    /**
+     * @return the index of the given type, built if there is none yet or if it does not match the
+     *         CAS.
+     */
+    /* package private */ static OffsetIndex get(CAS aCas, Type aType)
+    {
+        OffsetIndex index = INDEXES.get(aCas, aType.getName());
+        if (index != null && index.isCurrent(aCas, aCas.getAnnotationIndex(aType))) {
+            return index;
+        }
+
+        return build(aCas, aType);
+    }
+
+    private static OffsetIndex build(CAS aCas, Type aType)
+    {
+        OffsetIndex index = new OffsetIndex(aCas, aCas.getAnnotationIndex(aType));
+        INDEXES.put(aCas, aType.getName(), index);
+        return index;
+    }
+
+    /**
+     * Add an annotation which has just been added to the indexes of the CAS to the index of the
+     * given type - if there is one. This is cheaper than rebuilding the index, e.g. when many
+     * annotations are created one after another. If the index does not match the CAS apart from
+     * the new annotation, it is dropped.
+     */
+    public static void added(CAS aCas, Type aType, AnnotationFS aAnnotation)
+    {
+        INDEXES.update(aCas, aType.getName(), index -> {
+            if (aCas.getAnnotationIndex(aType).size() != index.addrs.length + 1) {
+                return null;
+            }
+
+            int pos = index.insertionPoint(aAnnotation.getBegin(), aAnnotation.getEnd());
+            if (pos < 0) {
+                return null;
+            }
+
+            return new OffsetIndex(index, pos, aCas, aAnnotation);
+        });
+    }
+
+    /**
+     * Drop the index of the given type for the given CAS. Call this whenever annotations of the
+     * type are changed.
+     */
+    public static void invalidate(CAS aCas, Type aType)
+    {
+        INDEXES.invalidate(aCas, aType.getName());
+    }
+
+    /**
+     * Drop all indexes for the given CAS.
+     */
+    public static void invalidate(CAS aCas)
+    {
+        INDEXES.invalidate(aCas);
+    }
+
+    private boolean isCurrent(CAS aCas, AnnotationIndex<AnnotationFS> aAnnotations)
+    {
+        if (aAnnotations.size() != addrs.length) {
+            return false;
+        }
+
+        if (addrs.length == 0) {
+            return true;
+        }
+
+        FSIterator<AnnotationFS> i = aAnnotations.iterator();
+        i.moveToFirst();
+        if (getAddr(aCas, i.get()) != addrs[0]) {
+            return false;
+        }
+        i.moveToLast();
+        return getAddr(aCas, i.get()) == addrs[addrs.length - 1];
+    }
+
+    /**
+     * @return the overlapping annotations or {@code null} if an annotation no longer has the
+     *         offsets it had when the index was built.
+     */
+    private List<AnnotationFS> selectOverlapping(CAS aCas, int aBegin, int aEnd)
+    {
+        // All annotations before the first position at which the largest end offset is after the
+        // begin of the range end at or before the begin of the range.
+        int first = search(i -> maxEnds[i] <= aBegin);
+
+        List<AnnotationFS> result = new ArrayList<>();
+        for (int i = first; i < addrs.length && begins[i] < aEnd; i++) {
+            if (ends[i] <= aBegin) {
+                continue;
+            }
+
+            AnnotationFS fs = get(aCas, i);
+            if (fs == null) {
+                return null;
+            }
+            result.add(fs);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the annotations at the offsets or {@code null} if an annotation no longer has the
+     *         offsets it had when the index was built.
+     */
+    private List<AnnotationFS> selectAt(CAS aCas, int aBegin, int aEnd)
+    {
+        // The annotation index is sorted by ascending begin and then by descending end offset
+        int first = search(i -> begins[i] < aBegin || (begins[i] == aBegin && ends[i] > aEnd));
+
+        List<AnnotationFS> result = new ArrayList<>();
+        for (int i = first; i < addrs.length && begins[i] == aBegin && ends[i] == aEnd; i++) {
+            AnnotationFS fs = get(aCas, i);
+            if (fs == null) {
+                return null;
+            }
+            result.add(fs);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the position at which an annotation with the given offsets is located in the
+     *         annotation index or {@code -1} if there already are annotations with the same
+     *         offsets, since their order in the annotation index is not known.
+     */
+    private int insertionPoint(int aBegin, int aEnd)
+    {
+        int pos = search(i -> begins[i] < aBegin || (begins[i] == aBegin && ends[i] > aEnd));
+        if (pos < addrs.length && begins[pos] == aBegin && ends[pos] == aEnd) {
+            return -1;
+        }
+        return pos;
+    }
+
+    /**
+     * @return the first position for which the given predicate does not hold. The predicate must
+     *         hold for all positions before it and for none after it.
+     */
+    private int search(IntPredicate aBefore)
+    {
+        int low = 0;
+        int high = addrs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (aBefore.test(mid)) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the annotation at the given position or {@code null} if it no longer has the
+     *         offsets it had when the index was built.
+     */
+    private AnnotationFS get(CAS aCas, int aPosition)
+    {
+        FeatureStructure fs;
+        try {
+            fs = aCas.getLowLevelCAS().ll_getFSForRef(addrs[aPosition]);
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+
+        if (!(fs instanceof AnnotationFS)) {
+            return null;
+        }
+
+        AnnotationFS annotation = (AnnotationFS) fs;
+        if (annotation.getBegin() != begins[aPosition] || annotation.getEnd() != ends[aPosition]) {
+            return null;
+        }
+        return annotation;
+    }
+
+    private static int getAddr(CAS aCas, FeatureStructure aFS)
+    {
+        return aCas.getLowLevelCAS().ll_getFSRef(aFS);
+    }
+
+    private static int[] insert(int[] aArray, int aPosition, int aValue)
+    {
+        int[] result = new int[aArray.length + 1];
+        System.arraycopy(aArray, 0, result, 0, aPosition);
+        result[aPosition] = aValue;
+        System.arraycopy(aArray, aPosition, result, aPosition + 1, aArray.length - aPosition);
+        return result;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.export;
+
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Project information required to convert the annotation documents of a project into an export
+ * format. It is resolved once via {@link ImportExportService#prepareAnnotationExport(Project)}.
+ * Afterwards, documents can be converted using it on any thread without accessing the database.
+ */
+public class AnnotationExportContext
+{
+    private final Project project;
+    private final TypeSystemDescription exportTypeSystem;
+    private final Map<String, String> tagSetNames;
+
+    /**
+     * @param aProject
+     *            the project.
+     * @param aExportTypeSystem
+     *            the type system to which the CASes are upgraded for export.
+     * @param aTagSetNames
+     *            the tagset names to be recorded in the exported CASes by layer name.
+     */
+    public AnnotationExportContext(Project aProject, TypeSystemDescription aExportTypeSystem,
+            Map<String, String> aTagSetNames)
+    {
+        project = aProject;
+        exportTypeSystem = aExportTypeSystem;
+        tagSetNames = unmodifiableMap(new LinkedHashMap<>(aTagSetNames));
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    public TypeSystemDescription getExportTypeSystem()
+    {
+        return exportTypeSystem;
+    }
+
+    public Map<String, String> getTagSetNames()
+    {
+        return tagSetNames;
+    }
+}
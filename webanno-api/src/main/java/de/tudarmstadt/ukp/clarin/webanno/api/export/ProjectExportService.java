@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.export;
 
 import java.io.File;
+import java.io.OutputStream;
 import java.util.zip.ZipFile;
 
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -27,5 +28,15 @@ public interface ProjectExportService
     Project importProject(ProjectImportRequest aRequest, ZipFile aZip)
         throws ProjectExportException;
 
+    /**
+     * Exports the project into a temporary ZIP file. The caller is responsible for deleting the
+     * file.
+     */
     File exportProject(ProjectExportRequest aRequest) throws ProjectExportException;
+
+    /**
+     * Exports the project as a ZIP file written to the given stream. The stream is not closed.
+     */
+    void exportProject(ProjectExportRequest aRequest, OutputStream aOut)
+        throws ProjectExportException;
 }
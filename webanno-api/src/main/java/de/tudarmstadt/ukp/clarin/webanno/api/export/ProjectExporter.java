@@ -18,13 +18,24 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.export;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.util.FileSystemUtils;
 
 import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
 
 public interface ProjectExporter
 {
@@ -36,13 +47,87 @@ public interface ProjectExporter
         return Collections.emptyList();
     }
     
+    /**
+     * Exports the data of the project into a staging folder. All files in the folder are added
+     * to the project ZIP file afterwards.
+     * <p>
+     * Exporters which write a lot of data should rather override
+     * {@link #exportData(ProjectExportRequest, ExportedProject, ZipOutputStream)} to avoid the
+     * staging folder and implement this method using
+     * {@link #exportDataToStage(ProjectExporter, ProjectExportRequest, ExportedProject, File)}.
+     */
     void exportData(ProjectExportRequest aRequest, ExportedProject aExProject, File aStage)
         throws Exception;
 
+    /**
+     * Exports the data of the project directly into the project ZIP file. The stream must not be
+     * closed by the exporter.
+     * <p>
+     * By default, the data is exported into a temporary staging folder using
+     * {@link #exportData(ProjectExportRequest, ExportedProject, File)} which is then added to the
+     * ZIP file.
+     */
+    default void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+            ZipOutputStream aZip)
+        throws Exception
+    {
+        File stage = Files.createTempDirectory("webanno-project-export").toFile();
+        try {
+            exportData(aRequest, aExProject, stage);
+            ZipUtils.zipFolder(stage, aZip);
+        }
+        finally {
+            FileSystemUtils.deleteRecursively(stage);
+        }
+    }
+
     void importData(ProjectImportRequest aRequest, Project aProject, ExportedProject aExProject,
             ZipFile aZip)
         throws Exception;
     
+    /**
+     * Exports the data of the given exporter into a staging folder by unpacking the entries the
+     * exporter writes via {@link #exportData(ProjectExportRequest, ExportedProject,
+     * ZipOutputStream)}. This allows exporters which write directly into the project ZIP file to
+     * still support exporting to a staging folder.
+     */
+    static void exportDataToStage(ProjectExporter aExporter, ProjectExportRequest aRequest,
+            ExportedProject aExProject, File aStage)
+        throws Exception
+    {
+        File zipFile = Files.createTempFile("webanno-project-export", ".zip").toFile();
+        try {
+            try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile))) {
+                aExporter.exportData(aRequest, aExProject, zos);
+            }
+            
+            Path stage = aStage.toPath().toAbsolutePath().normalize();
+            try (ZipFile zip = new ZipFile(zipFile)) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                    ZipEntry entry = e.nextElement();
+                    Path target = stage.resolve(normalizeEntryName(entry)).normalize();
+                    if (!target.startsWith(stage)) {
+                        throw new IOException("ZIP entry [" + entry.getName()
+                                + "] is outside of the staging folder");
+                    }
+                    
+                    if (entry.isDirectory()) {
+                        Files.createDirectories(target);
+                        continue;
+                    }
+                    
+                    Files.createDirectories(target.getParent());
+                    try (InputStream is = zip.getInputStream(entry)) {
+                        Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+        }
+        finally {
+            Files.deleteIfExists(zipFile.toPath());
+        }
+    }
+    
     static String normalizeEntryName(ZipEntry aEntry)
     {
         // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
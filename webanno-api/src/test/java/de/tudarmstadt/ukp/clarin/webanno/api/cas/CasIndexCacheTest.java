@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.cas;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+
+public class CasIndexCacheTest
+{
+    private CasIndexCache<String> sut;
+    private JCas jcas;
+    private CASMetadata cmd;
+
+    @Before
+    public void setup() throws Exception
+    {
+        sut = new CasIndexCache<>();
+
+        jcas = JCasFactory.createJCas(createTypeSystemDescription(
+                "de/tudarmstadt/ukp/clarin/webanno/api/type/webanno-internal"));
+        jcas.setDocumentText("This is a test.");
+
+        cmd = new CASMetadata(jcas, 0, 0);
+        cmd.setSourceDocumentId(1l);
+        cmd.setUsername("user");
+        cmd.setLastChangedOnDisk(1000l);
+        cmd.addToIndexes();
+    }
+
+    @Test
+    public void thatIndexIsSharedWithCopiesOfTheCas() throws Exception
+    {
+        sut.put(jcas.getCas(), "index", "value");
+
+        assertThat(sut.get(jcas.getCas(), "index")).isEqualTo("value");
+        assertThat(sut.get(copy(jcas.getCas()), "index")).isEqualTo("value");
+        assertThat(sut.get(copy(jcas.getCas()), "other")).isNull();
+    }
+
+    @Test
+    public void thatIndexIsNotSharedWithOtherVersionsOfTheCas() throws Exception
+    {
+        sut.put(jcas.getCas(), "index", "value");
+
+        cmd.setLastChangedOnDisk(2000l);
+        assertThat(sut.get(copy(jcas.getCas()), "index")).isNull();
+
+        cmd.setUsername("other");
+        cmd.setLastChangedOnDisk(1000l);
+        assertThat(sut.get(copy(jcas.getCas()), "index")).isNull();
+    }
+
+    @Test
+    public void thatIndexIsNotSharedWithoutCasMetadata() throws Exception
+    {
+        cmd.removeFromIndexes();
+
+        sut.put(jcas.getCas(), "index", "value");
+
+        assertThat(sut.get(jcas.getCas(), "index")).isEqualTo("value");
+        assertThat(sut.get(copy(jcas.getCas()), "index")).isNull();
+    }
+
+    @Test
+    public void thatIndexOfChangedCasIsNotShared() throws Exception
+    {
+        CAS changed = copy(jcas.getCas());
+        sut.invalidate(changed, "index");
+        sut.put(changed, "index", "changed");
+
+        assertThat(sut.get(changed, "index")).isEqualTo("changed");
+        assertThat(sut.get(copy(jcas.getCas()), "index")).isNull();
+    }
+
+    @Test
+    public void thatChangedCasDoesNotUseSharedIndex() throws Exception
+    {
+        sut.put(jcas.getCas(), "index", "value");
+
+        CAS changed = copy(jcas.getCas());
+        sut.invalidate(changed);
+
+        assertThat(sut.get(changed, "index")).isNull();
+        assertThat(sut.get(copy(jcas.getCas()), "index")).isEqualTo("value");
+    }
+
+    @Test
+    public void thatUpdateOnlyAffectsTheChangedCas() throws Exception
+    {
+        sut.put(jcas.getCas(), "index", "value");
+
+        CAS changed = copy(jcas.getCas());
+        assertThat(sut.get(changed, "index")).isEqualTo("value");
+        sut.update(changed, "index", index -> index + "-updated");
+
+        assertThat(sut.get(changed, "index")).isEqualTo("value-updated");
+        assertThat(sut.get(copy(jcas.getCas()), "index")).isEqualTo("value");
+
+        sut.update(changed, "index", index -> null);
+        assertThat(sut.get(changed, "index")).isNull();
+    }
+
+    @Test
+    public void thatIndexIsDroppedWhenTheDocumentTextIsReplaced() throws Exception
+    {
+        CAS cas = copy(jcas.getCas());
+        sut.put(cas, "index", "value");
+
+        cas.reset();
+        cas.setDocumentText("This is a test.");
+
+        assertThat(sut.get(cas, "index")).isNull();
+    }
+
+    private static CAS copy(CAS aCas) throws Exception
+    {
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        deserializeCASComplete(serializeCASComplete((CASImpl) aCas), (CASImpl) copy);
+        return copy;
+    }
+}
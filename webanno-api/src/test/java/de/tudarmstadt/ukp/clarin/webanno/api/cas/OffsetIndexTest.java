@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.cas;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.nCopies;
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.fit.util.CasUtil.select;
+import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffsetIndexTest
+{
+    private static final String SPAN_TYPE = "webanno.custom.Span";
+
+    // Indexes are shared between tests, so each test uses a different document
+    private static long nextDocumentId = 1;
+
+    private CAS cas;
+    private Type spanType;
+    private long documentId;
+
+    @Before
+    public void setup() throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        tsd.addType(SPAN_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+
+        cas = CasCreationUtils.createCas(mergeTypeSystems(asList(tsd,
+                createTypeSystemDescription(
+                        "de/tudarmstadt/ukp/clarin/webanno/api/type/webanno-internal"))),
+                null, null);
+        cas.setDocumentText(String.join("", nCopies(100, "x")));
+        spanType = cas.getTypeSystem().getType(SPAN_TYPE);
+        documentId = nextDocumentId++;
+    }
+
+    @Test
+    public void thatSelectionMatchesWalkingAllAnnotations()
+    {
+        // Adjacent, nested, zero-width and stacked annotations
+        addSpans(new int[][] { { 0, 5 }, { 5, 10 }, { 12, 12 }, { 12, 20 }, { 12, 20 },
+                { 14, 16 }, { 15, 60 }, { 30, 35 }, { 70, 70 }, { 90, 100 } });
+
+        assertSameAsWalk();
+    }
+
+    @Test
+    public void thatSelectionMatchesWalkingRandomAnnotations()
+    {
+        Random rnd = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            int begin = rnd.nextInt(100);
+            int end = Math.min(100, begin + rnd.nextInt(rnd.nextBoolean() ? 5 : 40));
+            addSpan(begin, end);
+        }
+
+        assertSameAsWalk();
+    }
+
+    @Test
+    public void thatIndexIsRebuiltWhenAnnotationsChange()
+    {
+        addSpans(new int[][] { { 0, 5 }, { 10, 15 } });
+
+        assertSameAsWalk();
+
+        // Not invalidated explicitly
+        addSpans(new int[][] { { 20, 25 } });
+
+        assertSameAsWalk();
+
+        // The offsets of an annotation are changed
+        AnnotationFS span = select(cas, spanType).stream()
+                .filter(s -> s.getBegin() == 10)
+                .findFirst()
+                .get();
+        cas.removeFsFromIndexes(span);
+        span.setIntValue(spanType.getFeatureByBaseName(CAS.FEATURE_BASE_NAME_END), 12);
+        cas.addFsToIndexes(span);
+
+        assertSameAsWalk();
+    }
+
+    @Test
+    public void thatIndexIsUpdatedWhenAnnotationsAreAdded()
+    {
+        addSpans(new int[][] { { 10, 20 }, { 30, 40 } });
+
+        OffsetIndex index = OffsetIndex.get(cas, spanType);
+
+        // Before all, in between, nested and after all other annotations
+        for (int[] span : new int[][] { { 0, 5 }, { 20, 30 }, { 10, 15 }, { 90, 100 } }) {
+            OffsetIndex.added(cas, spanType, addSpan(span[0], span[1]));
+
+            OffsetIndex updated = OffsetIndex.get(cas, spanType);
+            assertThat(updated).isNotSameAs(index);
+            index = updated;
+
+            assertSameAsWalk();
+            assertThat(OffsetIndex.get(cas, spanType)).isSameAs(index);
+        }
+
+        // Stacked on an existing annotation - the order of the two is not known, so the index is
+        // dropped and rebuilt
+        OffsetIndex.added(cas, spanType, addSpan(30, 40));
+
+        assertSameAsWalk();
+    }
+
+    @Test
+    public void thatSelectAtDoesNotCreateFeatureStructures()
+    {
+        addSpans(new int[][] { { 0, 5 }, { 5, 10 }, { 12, 20 } });
+
+        // Build the index
+        OffsetIndex.selectAt(cas, spanType, 0, 5);
+
+        int before = getAddr(cas.createAnnotation(spanType, 0, 0));
+        int expectedGap = getAddr(cas.createAnnotation(spanType, 0, 0)) - before;
+
+        for (int begin = 0; begin <= 20; begin++) {
+            OffsetIndex.selectAt(cas, spanType, begin, begin + 5);
+        }
+
+        int after = getAddr(cas.createAnnotation(spanType, 0, 0));
+        assertThat(after - before).isEqualTo(2 * expectedGap);
+    }
+
+    @Test
+    public void thatIndexIsReusedWhenTheSameCasIsLoadedAgain() throws Exception
+    {
+        addSpans(new int[][] { { 0, 5 }, { 10, 15 }, { 20, 25 } });
+        addCasMetadata(cas, 1000l);
+
+        OffsetIndex index = OffsetIndex.get(cas, spanType);
+
+        // The CAS storage hands out a new copy of the CAS on every load
+        CAS copy = copy(cas);
+        assertThat(OffsetIndex.get(copy, spanType)).isSameAs(index);
+        assertThat(OffsetIndex.selectOverlapping(copy, spanType, 0, 100)).hasSize(3);
+
+        // Adding an annotation to one copy does not affect the other copies
+        AnnotationFS span = copy.createAnnotation(spanType, 30, 35);
+        copy.addFsToIndexes(span);
+        OffsetIndex.added(copy, spanType, span);
+        assertThat(OffsetIndex.selectOverlapping(copy, spanType, 0, 100)).hasSize(4);
+        assertThat(OffsetIndex.get(copy(cas), spanType)).isSameAs(index);
+
+        // A copy of a later version of the CAS file
+        CAS saved = copy(copy);
+        addCasMetadata(saved, 2000l);
+        assertThat(OffsetIndex.get(saved, spanType)).isNotSameAs(index);
+        assertThat(OffsetIndex.selectOverlapping(saved, spanType, 0, 100)).hasSize(4);
+    }
+
+    private void addCasMetadata(CAS aCas, long aTimestamp)
+    {
+        Type type = aCas.getTypeSystem()
+                .getType("de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata");
+        List<AnnotationFS> cmds = new ArrayList<>(select(aCas, type));
+        AnnotationFS cmd = cmds.isEmpty() ? aCas.createAnnotation(type, 0, 0) : cmds.get(0);
+        cmd.setLongValue(type.getFeatureByBaseName("sourceDocumentId"), documentId);
+        cmd.setStringValue(type.getFeatureByBaseName("username"), "user");
+        cmd.setLongValue(type.getFeatureByBaseName("lastChangedOnDisk"), aTimestamp);
+        if (cmds.isEmpty()) {
+            aCas.addFsToIndexes(cmd);
+        }
+    }
+
+    private AnnotationFS addSpan(int aBegin, int aEnd)
+    {
+        AnnotationFS span = cas.createAnnotation(spanType, aBegin, aEnd);
+        cas.addFsToIndexes(span);
+        return span;
+    }
+
+    private void addSpans(int[][] aSpans)
+    {
+        for (int[] span : aSpans) {
+            addSpan(span[0], span[1]);
+        }
+    }
+
+    private void assertSameAsWalk()
+    {
+        for (int begin = -1; begin <= 101; begin++) {
+            for (int end = begin; end <= 101; end++) {
+                assertThat(OffsetIndex.selectOverlapping(cas, spanType, begin, end))
+                        .as("overlapping %d-%d", begin, end)
+                        .containsExactlyElementsOf(walkOverlapping(begin, end));
+
+                List<AnnotationFS> at = new ArrayList<>();
+                for (AnnotationFS fs : select(cas, spanType)) {
+                    if (fs.getBegin() == begin && fs.getEnd() == end) {
+                        at.add(fs);
+                    }
+                }
+                assertThat(OffsetIndex.selectAt(cas, spanType, begin, end))
+                        .as("at %d-%d", begin, end)
+                        .containsExactlyElementsOf(at);
+            }
+        }
+    }
+
+    private List<AnnotationFS> walkOverlapping(int aBegin, int aEnd)
+    {
+        List<AnnotationFS> annotations = new ArrayList<>();
+        for (AnnotationFS fs : select(cas, spanType)) {
+            if (fs.getBegin() >= aEnd) {
+                break;
+            }
+            if (fs.getEnd() > aBegin) {
+                annotations.add(fs);
+            }
+        }
+        return annotations;
+    }
+
+    private int getAddr(FeatureStructure aFS)
+    {
+        return cas.getLowLevelCAS().ll_getFSRef(aFS);
+    }
+
+    private static CAS copy(CAS aCas) throws Exception
+    {
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        deserializeCASComplete(serializeCASComplete((CASImpl) aCas), (CASImpl) copy);
+        return copy;
+    }
+}
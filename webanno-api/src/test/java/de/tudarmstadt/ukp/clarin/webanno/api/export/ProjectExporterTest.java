@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.export;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+public class ProjectExporterTest
+{
+    public @Rule TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void thatZipExportCanBeStaged() throws Exception
+    {
+        File stage = temp.newFolder("stage");
+        
+        ProjectExporter.exportDataToStage(new ZipExporter("source/a.txt", "/source/b.txt"),
+                new ProjectExportRequest(), new ExportedProject(), stage);
+        
+        assertThat(new String(Files.readAllBytes(new File(stage, "source/a.txt").toPath()),
+                UTF_8)).isEqualTo("source/a.txt");
+        assertThat(new String(Files.readAllBytes(new File(stage, "source/b.txt").toPath()),
+                UTF_8)).isEqualTo("/source/b.txt");
+    }
+
+    @Test
+    public void thatEntriesOutsideOfTheStageAreRejected() throws Exception
+    {
+        File stage = temp.newFolder("stage");
+        
+        assertThatThrownBy(() -> ProjectExporter.exportDataToStage(
+                new ZipExporter("../escaped.txt"), new ProjectExportRequest(),
+                new ExportedProject(), stage))
+                .isInstanceOf(IOException.class);
+        assertThat(new File(temp.getRoot(), "escaped.txt")).doesNotExist();
+    }
+    
+    private static class ZipExporter
+        implements ProjectExporter
+    {
+        private final String[] entries;
+        
+        public ZipExporter(String... aEntries)
+        {
+            entries = aEntries;
+        }
+        
+        @Override
+        public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+                ZipOutputStream aZip)
+            throws IOException
+        {
+            for (String entry : entries) {
+                aZip.putNextEntry(new ZipEntry(entry));
+                aZip.write(entry.getBytes(UTF_8));
+                aZip.closeEntry();
+            }
+        }
+        
+        @Override
+        public void exportData(ProjectExportRequest aRequest, ExportedProject aExProject,
+                File aStage)
+            throws Exception
+        {
+            ProjectExporter.exportDataToStage(this, aRequest, aExProject, aStage);
+        }
+        
+        @Override
+        public void importData(ProjectImportRequest aRequest, Project aProject,
+                ExportedProject aExProject, ZipFile aZip)
+        {
+            // Not used
+        }
+    }
+}
@@ -21,6 +21,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static org.apache.wicket.markup.head.JavaScriptHeaderItem.forReference;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -46,9 +47,6 @@ import org.apache.wicket.util.string.StringValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.flipkart.zjsonpatch.JsonDiff;
 import com.googlecode.wicket.jquery.ui.settings.JQueryUILibrarySettings;
 
 import de.agilecoders.wicket.webjars.request.resource.WebjarsCssResourceReference;
@@ -62,9 +60,10 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.Selection;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics.RenderingMetrics;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics.RenderingMetrics.Phase;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
-import de.tudarmstadt.ukp.clarin.webanno.brat.config.BratProperties;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.ArcAnnotationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.DoActionResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
@@ -73,7 +72,10 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.message.LoadConfResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.SpanAnnotationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics;
 import de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics.RenderType;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDiffRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDiffRenderer.Fingerprint;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratResponseCache;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Offsets;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.OffsetsList;
 import de.tudarmstadt.ukp.clarin.webanno.brat.resource.BratAjaxResourceReference;
@@ -115,12 +117,13 @@ public class BratAnnotationEditor
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean AnnotationEditorExtensionRegistry extensionRegistry;
     private @SpringBean BratMetrics metrics;
-    private @SpringBean BratProperties bratProperties;
+    private @SpringBean RenderingMetrics renderingMetrics;
+    private @SpringBean BratResponseCache responseCache;
     
     private WebMarkupContainer vis;
     private AbstractAjaxBehavior requestHandler;
     
-    private String lastRenderedJson;
+    private Fingerprint lastRendered;
 
     public BratAnnotationEditor(String id, IModel<AnnotatorState> aModel,
             final AnnotationActionHandler aActionHandler, final JCasProvider aJCasProvider)
@@ -176,7 +179,9 @@ public class BratAnnotationEditor
                 JCas jCas = null;
                 if (requiresCasLoading) {
                     try {
+                        long casLoadStart = System.nanoTime();
                         jCas = getJCasProvider().get();
+                        renderingMetrics.record(Phase.CAS_LOAD, System.nanoTime() - casLoadStart);
                     }
                     catch (Exception e) {
                         LOG.error("Unable to load data", e);
@@ -229,7 +234,7 @@ public class BratAnnotationEditor
                                 result = actionArc(aTarget, request, jCas, paramId);
                             }
                             else if (LoadConfResponse.is(action)) {
-                                result = new LoadConfResponse(bratProperties);
+                                result = responseCache.getLoadConf();
                             }
                             else if (GetCollectionInformationResponse.is(action)) {
                                 result = actionGetCollectionInformation();
@@ -250,19 +255,19 @@ public class BratAnnotationEditor
                     LOG.debug("AJAX-RPC: Action [{}] produced no result!", action);
                 }
                 else {
-                    String json;
+                    // Since we cannot pass the JSON directly to Brat, we attach it to the HTML
+                    // element into which BRAT renders the SVG. In our modified ajax.js, we pick it
+                    // up from there and then pass it on to BRAT to do the rendering.
+                    StringWriter script = new StringWriter();
+                    script.write("Wicket.$('" + vis.getMarkupId() + "').temp = ");
                     if (result instanceof String) {
-                        json = (String) result;
+                        script.write((String) result);
                     }
                     else {
-                        json = toJson(result);
+                        writeJson(result, script);
                     }
-                    
-                    // Since we cannot pass the JSON directly to Brat, we attach it to the HTML
-                    // element into which BRAT renders the SVG. In our modified ajax.js, we pick it
-                    // up from there and then pass it on to BRAT to do the rendering.
-                    aTarget.prependJavaScript("Wicket.$('" + vis.getMarkupId() + "').temp = "
-                            + json + ";");
+                    script.write(";");
+                    aTarget.prependJavaScript(script.toString());
                 }
                 
                 LOG.debug("AJAX-RPC DONE: [{}] completed in {}ms", action,
@@ -354,34 +359,42 @@ public class BratAnnotationEditor
         return new ArcAnnotationResponse();
     }
     
-    private GetCollectionInformationResponse actionGetCollectionInformation()
+    private String actionGetCollectionInformation()
+        throws IOException
     {
-        GetCollectionInformationResponse info = new GetCollectionInformationResponse();
         if (getModelObject().getProject() != null) {
-            info.setEntityTypes(BratRenderer
-                    .buildEntityTypes(getModelObject().getAnnotationLayers(), annotationService));
+            return responseCache.getCollectionInformation(getModelObject().getProject(),
+                    getModelObject().getAnnotationLayers());
+        }
+        else {
+            return toJson(new GetCollectionInformationResponse());
         }
-        return info;
     }
     
     private String actionGetDocument(JCas jCas)
     {
         StopWatch timer = new StopWatch();
         timer.start();
+        long start = System.nanoTime();
         
         GetDocumentResponse response = new GetDocumentResponse();
         String json;
         if (getModelObject().getProject() != null) {
             render(response, jCas);
-            json = toJson(response);
-            lastRenderedJson = json;
+            long serializeStart = System.nanoTime();
+            BratDiffRenderer renderer = new BratDiffRenderer(response);
+            json = toJson(renderer.getDocument());
+            renderingMetrics.record(Phase.SERIALIZE, System.nanoTime() - serializeStart);
+            // No patch is computed here, so only the total time includes the fingerprint
+            lastRendered = renderer.getFingerprint();
         }
         else {
             json = toJson(response);
         }
         
         timer.stop();
-        metrics.renderComplete(RenderType.FULL, timer.getTime(), json, null);
+        renderingMetrics.record(Phase.TOTAL, System.nanoTime() - start);
+        metrics.renderComplete(RenderType.FULL, timer.getTime(), json.length(), -1);
         
         return json;
     }
@@ -508,64 +521,71 @@ public class BratAnnotationEditor
         });
     }
 
-    private String bratRenderCommand(JCas aJCas)
+    /**
+     * Writes the script which renders the document to the given writer. The document data is
+     * serialized directly into the script. If a patch against the previous rendering is smaller,
+     * the data is replaced by the patch.
+     */
+    private void bratRenderCommand(JCas aJCas, StringWriter aOut)
     {
         StopWatch timer = new StopWatch();
         timer.start();
+        long start = System.nanoTime();
         
         GetDocumentResponse response = new GetDocumentResponse();
         render(response, aJCas);
-        String json = toJson(response);
         
         // By default, we do a full rendering...
+        String post = "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post(";
+        int scriptStart = aOut.getBuffer().length();
+        aOut.write(post + "'renderData', [");
+
+        long serializeStart = System.nanoTime();
+        BratDiffRenderer renderer = new BratDiffRenderer(response);
+        int dataStart = aOut.getBuffer().length();
+        writeJson(renderer.getDocument(), aOut);
+        int fullSize = aOut.getBuffer().length() - dataStart;
+        renderingMetrics.record(Phase.SERIALIZE, System.nanoTime() - serializeStart);
+        
         RenderType renderType = RenderType.FULL;
-        String cmd = "renderData";
-        String data = json;
 
         // ... try to render diff
-        String diff = null;
-        JsonNode current = null;
-        JsonNode previous = null;
-        try {
-            ObjectMapper mapper = JSONUtil.getObjectMapper();
-            current = mapper.readTree(json);
-            previous = lastRenderedJson != null ? mapper.readTree(lastRenderedJson) : null;
-        }
-        catch (IOException e) {
-            LOG.error("Unable to generate diff, falling back to full render.", e);
-            // Fall-through
-        }
-        
-        if (previous != null && current != null) {
-            diff = JsonDiff.asJson(previous, current).toString();
+        long diffStart = System.nanoTime();
+        int diffSize = -1;
+        boolean diffed = lastRendered != null;
+        if (diffed) {
+            String diff = toJson(renderer.diff(lastRendered));
+            diffSize = diff.length();
  
             // Only sent a patch if it is smaller than sending the full data. E.g. when switching
             // pages, the patch usually ends up being twice as large as the full data.
-            if (diff.length() < json.length()) {
-                cmd = "renderDataPatch";
-                data = diff;
+            if (diffSize < fullSize) {
+                aOut.getBuffer().setLength(scriptStart);
+                aOut.write(post + "'renderDataPatch', [");
+                aOut.write(diff);
                 renderType = RenderType.DIFFERENTIAL;
             }
-            
-//            LOG.info("Diff:  " + diff);
-//            LOG.info("Full: {}   Patch: {}   Diff time: {}", json.length(), diff.length(), timer);
         }
+        aOut.write("]);");
         
-        // Storing the last rendered JSON as string because JsonNodes are not serializable.
-        lastRenderedJson = json;
+        // Keep a fingerprint of the rendered document to compute the next patch
+        lastRendered = renderer.getFingerprint();
+        if (diffed) {
+            renderingMetrics.record(Phase.DIFF, System.nanoTime() - diffStart);
+        }
         
         timer.stop();
+        renderingMetrics.record(Phase.TOTAL, System.nanoTime() - start);
 
-        metrics.renderComplete(renderType, timer.getTime(), json, diff);
-        
-        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('" + cmd + "', [" + data
-                + "]);";
+        metrics.renderComplete(renderType, timer.getTime(), fullSize, diffSize);
     }
 
     private void render(GetDocumentResponse response, JCas aJCas)
     {
         VDocument vdoc = render(aJCas);
+        long start = System.nanoTime();
         BratRenderer.render(response, getModelObject(), vdoc, aJCas, annotationService);
+        renderingMetrics.record(Phase.EDITOR_RENDER, System.nanoTime() - start);
     }
     
     private String bratInitCommand()
@@ -595,10 +615,14 @@ public class BratAnnotationEditor
     
     private String bratLoadCollectionCommand()
     {
-        GetCollectionInformationResponse response = new GetCollectionInformationResponse();
-        response.setEntityTypes(BratRenderer
-                .buildEntityTypes(getModelObject().getAnnotationLayers(), annotationService));
-        String json = toJson(response);
+        String json = "[]";
+        try {
+            json = responseCache.getCollectionInformation(getModelObject().getProject(),
+                    getModelObject().getAnnotationLayers());
+        }
+        catch (IOException e) {
+            error("Unable to produce JSON response " + ":" + ExceptionUtils.getRootCauseMessage(e));
+        }
         return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('collectionLoaded', [" + json
                 + "]);";
     }
@@ -653,8 +677,15 @@ public class BratAnnotationEditor
     protected void render(AjaxRequestTarget aTarget)
     {
         try {
-            aTarget.appendJavaScript("setTimeout(function() { "
-                    + bratRenderCommand(getJCasProvider().get()) + " }, 0);");
+            long casLoadStart = System.nanoTime();
+            JCas jCas = getJCasProvider().get();
+            renderingMetrics.record(Phase.CAS_LOAD, System.nanoTime() - casLoadStart);
+            
+            StringWriter script = new StringWriter();
+            script.write("setTimeout(function() { ");
+            bratRenderCommand(jCas, script);
+            script.write(" }, 0);");
+            aTarget.appendJavaScript(script.toString());
         }
         catch (IOException e) {
             LOG.error("Unable to load data", e);
@@ -683,5 +714,18 @@ public class BratAnnotationEditor
             error("Unable to produce JSON response " + ":" + ExceptionUtils.getRootCauseMessage(e));
         }
         return json;
-    }    
+    }
+
+    private void writeJson(Object aObject, StringWriter aOut)
+    {
+        int start = aOut.getBuffer().length();
+        try {
+            JSONUtil.writeInterpretableJson(aObject, aOut);
+        }
+        catch (IOException e) {
+            aOut.getBuffer().setLength(start);
+            aOut.write("[]");
+            error("Unable to produce JSON response " + ":" + ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
 }
@@ -24,5 +24,11 @@ public interface BratMetrics
         DIFFERENTIAL;
     }
 
-    void renderComplete(RenderType aType, long aTime, String aFull, String aDiff);
+    /**
+     * @param aFullSize
+     *            the size of the full document data in characters.
+     * @param aDiffSize
+     *            the size of the patch in characters or {@code -1} if no patch was computed.
+     */
+    void renderComplete(RenderType aType, long aTime, int aFullSize, int aDiffSize);
 }
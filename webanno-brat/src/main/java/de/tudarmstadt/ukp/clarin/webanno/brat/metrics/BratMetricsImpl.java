@@ -17,6 +17,9 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.metrics;
 
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.springframework.jmx.export.annotation.ManagedMetric;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.jmx.support.MetricType;
@@ -26,90 +29,89 @@ import org.springframework.stereotype.Component;
 @Component
 public class BratMetricsImpl implements BratMetrics
 {
-    private long fullRenderCount = 0;
-    private long fullRenderedSize = 0;
+    private final LongAdder fullRenderCount = new LongAdder();
+    private final LongAdder fullRenderedSize = new LongAdder();
     
-    private long diffRenderCount = 0;
-    private long diffRenderedSize = 0;
+    private final LongAdder diffRenderCount = new LongAdder();
+    private final LongAdder diffRenderedSize = new LongAdder();
     
-    private long savedRenderedSize = 0;
+    private final LongAdder savedRenderedSize = new LongAdder();
    
-    private long sentRenderedSize = 0;
+    private final LongAdder sentRenderedSize = new LongAdder();
     
-    private long renderTime = 0;
-    private long maxRenderTime = 0;
+    private final LongAdder renderTime = new LongAdder();
+    private final LongAccumulator maxRenderTime = new LongAccumulator(Math::max, 0);
     
     @ManagedMetric(metricType = MetricType.COUNTER)
     public long getFullRenderCount()
     {
-        return fullRenderCount;
+        return fullRenderCount.sum();
     }
 
     @ManagedMetric(metricType = MetricType.COUNTER, unit = "chars")
     public long getFullRenderedSize()
     {
-        return fullRenderedSize;
+        return fullRenderedSize.sum();
     }
 
     @ManagedMetric(metricType = MetricType.COUNTER)
     public long getDiffRenderCount()
     {
-        return diffRenderCount;
+        return diffRenderCount.sum();
     }
 
     @ManagedMetric(metricType = MetricType.COUNTER, unit = "chars")
     public long getDiffRenderedSize()
     {
-        return diffRenderedSize;
+        return diffRenderedSize.sum();
     }
 
     @ManagedMetric(metricType = MetricType.COUNTER, unit = "chars")
     public long getSavedRenderedSize()
     {
-        return savedRenderedSize;
+        return savedRenderedSize.sum();
     }
 
     @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
     public long getRenderTime()
     {
-        return renderTime;
+        return renderTime.sum();
     }
 
-    @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "ms")
     public long getMaxRenderTime()
     {
-        return maxRenderTime;
+        return maxRenderTime.get();
     }
 
     @ManagedMetric(metricType = MetricType.COUNTER, unit = "chars")
     public long getSentRenderedSize()
     {
-        return sentRenderedSize;
+        return sentRenderedSize.sum();
     }
     
     @Override
-    public synchronized void renderComplete(RenderType aType, long aTime, String aFull,
-            String aDiff)
+    public void renderComplete(RenderType aType, long aTime, int aFullSize, int aDiffSize)
     {
         switch (aType) {
         case DIFFERENTIAL:
-            diffRenderCount++;
-            sentRenderedSize += aDiff.length();
-            savedRenderedSize += aFull.length() - aDiff.length();
+            diffRenderCount.increment();
+            sentRenderedSize.add(aDiffSize);
+            savedRenderedSize.add(aFullSize - aDiffSize);
             break;
         case FULL:
-            fullRenderCount++;
-            sentRenderedSize += aFull.length();
+            fullRenderCount.increment();
+            sentRenderedSize.add(aFullSize);
             break;
         }
         
-        renderTime += aTime;
-        maxRenderTime = Math.max(maxRenderTime, renderTime);
+        renderTime.add(aTime);
+        maxRenderTime.accumulate(aTime);
         
-        fullRenderedSize += aFull.length();
+        fullRenderedSize.add(aFullSize);
 
-        if (aDiff != null) {
-            diffRenderedSize += aDiff.length();
+        if (aDiffSize >= 0) {
+            diffRenderedSize.add(aDiffSize);
         }
     }
 }
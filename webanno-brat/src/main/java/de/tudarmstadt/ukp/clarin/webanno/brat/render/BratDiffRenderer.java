@@ -0,0 +1,343 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+/**
+ * Computes the JSON patch which turns the previously rendered brat document into the current one.
+ * <p>
+ * Instead of parsing the JSON of the previous rendering and diffing it against the current JSON,
+ * a {@link Fingerprint} of the previous rendering is kept. It contains the JSON and a hash of
+ * every top-level field of the document and, for the entities, relations and comments, a key, the
+ * JSON and a hash of every element. The key is derived from the VID of the annotation (or the
+ * anchor of the comment), so patch operations are only generated for annotations which were
+ * actually added, removed or changed. The hashes only speed up the comparison - two parts are only
+ * considered equal if their JSON is equal, so a hash collision cannot hide a change.
+ */
+public class BratDiffRenderer
+{
+    /**
+     * The keyed sections of the document and the number of leading array items of each element
+     * that make up its key.
+     */
+    private static final Map<String, Integer> SECTIONS = new LinkedHashMap<>();
+    static {
+        SECTIONS.put("entities", 1);
+        SECTIONS.put("relations", 1);
+        // An annotation may have several comments of different types
+        SECTIONS.put("comments", 2);
+    }
+
+    private static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private final ObjectNode document;
+    private Fingerprint fingerprint;
+
+    public BratDiffRenderer(GetDocumentResponse aResponse)
+    {
+        document = JSONUtil.getObjectMapper().valueToTree(aResponse);
+    }
+
+    /**
+     * @return the current document as a JSON tree.
+     */
+    public ObjectNode getDocument()
+    {
+        return document;
+    }
+
+    /**
+     * @return the fingerprint of the current document which should be kept to compute the patch
+     *         for the next rendering.
+     */
+    public Fingerprint getFingerprint()
+    {
+        if (fingerprint == null) {
+            fingerprint = new Fingerprint(document);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Computes the JSON patch operations which turn the document from which the given fingerprint
+     * was taken into the current document.
+     *
+     * @param aPrevious
+     *            the fingerprint of the previous rendering.
+     * @return the patch operations.
+     */
+    public ArrayNode diff(Fingerprint aPrevious)
+    {
+        Fingerprint current = getFingerprint();
+        ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+
+        for (String field : aPrevious.fields.keySet()) {
+            if (!current.fields.containsKey(field)) {
+                patch.add(op("remove", "/" + field, null));
+            }
+        }
+
+        for (Entry<String, Long> e : current.fields.entrySet()) {
+            String field = e.getKey();
+            Long previousHash = aPrevious.fields.get(field);
+            Section previousSection = aPrevious.sections.get(field);
+            Section currentSection = current.sections.get(field);
+            if (previousHash == null) {
+                patch.add(op("add", "/" + field, document.get(field)));
+            }
+            else if (previousHash.longValue() != e.getValue().longValue()
+                    || !Objects.equals(aPrevious.contents.get(field), current.contents.get(field))
+                    || (previousSection != null && currentSection != null
+                            && !Arrays.equals(previousSection.contents,
+                                    currentSection.contents))) {
+                if (previousSection != null && currentSection != null) {
+                    diffSection("/" + field + "/", previousSection, currentSection,
+                            document.get(field), patch);
+                }
+                else {
+                    patch.add(op("replace", "/" + field, document.get(field)));
+                }
+            }
+        }
+
+        return patch;
+    }
+
+    private static void diffSection(String aPath, Section aPrevious, Section aCurrent,
+            JsonNode aElements, ArrayNode aPatch)
+    {
+        Set<Long> currentKeys = new HashSet<>();
+        for (long key : aCurrent.keys) {
+            currentKeys.add(key);
+        }
+
+        // Remove the elements which no longer exist. This is done back to front such that the
+        // indexes of the remaining elements to be removed do not change.
+        List<Long> keys = new ArrayList<>();
+        List<Long> hashes = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < aPrevious.keys.length; i++) {
+            if (currentKeys.contains(aPrevious.keys[i])) {
+                keys.add(aPrevious.keys[i]);
+                hashes.add(aPrevious.hashes[i]);
+                contents.add(aPrevious.contents[i]);
+            }
+        }
+        for (int i = aPrevious.keys.length - 1; i >= 0; i--) {
+            if (!currentKeys.contains(aPrevious.keys[i])) {
+                aPatch.add(op("remove", aPath + i, null));
+            }
+        }
+
+        // Walk the current elements and bring the remaining previous elements into the same order,
+        // adding new elements and replacing changed ones along the way.
+        Set<Long> pending = new HashSet<>(keys);
+        for (int i = 0; i < aCurrent.keys.length; i++) {
+            long key = aCurrent.keys[i];
+            long hash = aCurrent.hashes[i];
+            String content = aCurrent.contents[i];
+
+            if (i < keys.size() && keys.get(i) == key) {
+                // Same position - nothing to do
+            }
+            else if (pending.contains(key)) {
+                int from = keys.indexOf(key);
+                keys.add(i, keys.remove(from));
+                hashes.add(i, hashes.remove(from));
+                contents.add(i, contents.remove(from));
+                aPatch.add(op("move", aPath + i, null).put("from", aPath + from));
+            }
+            else {
+                keys.add(i, key);
+                hashes.add(i, hash);
+                contents.add(i, content);
+                aPatch.add(op("add", aPath + i, aElements.get(i)));
+            }
+
+            if (hashes.get(i) != hash || !contents.get(i).equals(content)) {
+                aPatch.add(op("replace", aPath + i, aElements.get(i)));
+            }
+
+            pending.remove(key);
+        }
+
+        // If keys collided, previous elements may be left over behind the current ones
+        for (int i = keys.size() - 1; i >= aCurrent.keys.length; i--) {
+            aPatch.add(op("remove", aPath + i, null));
+        }
+    }
+
+    private static ObjectNode op(String aOp, String aPath, JsonNode aValue)
+    {
+        ObjectNode op = JsonNodeFactory.instance.objectNode();
+        op.put("op", aOp);
+        op.put("path", aPath);
+        if (aValue != null) {
+            op.set("value", aValue);
+        }
+        return op;
+    }
+
+    private static long mix(long aHash, long aValue)
+    {
+        long h = (aHash ^ aValue) * PRIME;
+        return h ^ (h >>> 32);
+    }
+
+    private static long hash(long aHash, String aValue)
+    {
+        long h = mix(aHash, aValue.length());
+        for (int i = 0; i < aValue.length(); i++) {
+            h = (h ^ aValue.charAt(i)) * PRIME;
+        }
+        return h;
+    }
+
+    private static long hash(long aHash, JsonNode aNode)
+    {
+        long h = mix(aHash, aNode.getNodeType().ordinal());
+        switch (aNode.getNodeType()) {
+        case ARRAY:
+            h = mix(h, aNode.size());
+            for (JsonNode child : aNode) {
+                h = hash(h, child);
+            }
+            return h;
+        case OBJECT:
+            h = mix(h, aNode.size());
+            Iterator<Entry<String, JsonNode>> i = aNode.fields();
+            while (i.hasNext()) {
+                Entry<String, JsonNode> e = i.next();
+                h = hash(h, e.getKey());
+                h = hash(h, e.getValue());
+            }
+            return h;
+        case NUMBER:
+            if (aNode.isIntegralNumber()) {
+                return mix(mix(h, 1), aNode.longValue());
+            }
+            else {
+                return mix(mix(h, 2), Double.doubleToLongBits(aNode.doubleValue()));
+            }
+        case BOOLEAN:
+            return mix(h, aNode.booleanValue() ? 1 : 0);
+        case NULL:
+        case MISSING:
+            return h;
+        default:
+            return hash(h, aNode.asText());
+        }
+    }
+
+    /**
+     * A compact representation of a rendered document which is sufficient to compute a patch
+     * against the next rendering.
+     */
+    public static class Fingerprint
+        implements Serializable
+    {
+        private static final long serialVersionUID = 3592049567302781520L;
+
+        private final Map<String, Long> fields = new LinkedHashMap<>();
+        // The JSON of the fields which are not split into sections
+        private final Map<String, String> contents = new HashMap<>();
+        private final Map<String, Section> sections = new HashMap<>();
+
+        private Fingerprint(ObjectNode aDocument)
+        {
+            Iterator<Entry<String, JsonNode>> i = aDocument.fields();
+            while (i.hasNext()) {
+                Entry<String, JsonNode> e = i.next();
+                Integer keyWidth = SECTIONS.get(e.getKey());
+                if (keyWidth != null && e.getValue().isArray()) {
+                    Section section = new Section(e.getValue(), keyWidth);
+                    sections.put(e.getKey(), section);
+                    long h = SEED;
+                    for (long elementHash : section.hashes) {
+                        h = mix(h, elementHash);
+                    }
+                    fields.put(e.getKey(), h);
+                }
+                else {
+                    fields.put(e.getKey(), hash(SEED, e.getValue()));
+                    contents.put(e.getKey(), e.getValue().toString());
+                }
+            }
+        }
+    }
+
+    private static class Section
+        implements Serializable
+    {
+        private static final long serialVersionUID = -3869516005823839544L;
+
+        private final long[] keys;
+        private final long[] hashes;
+        private final String[] contents;
+
+        private Section(JsonNode aElements, int aKeyWidth)
+        {
+            keys = new long[aElements.size()];
+            hashes = new long[aElements.size()];
+            contents = new String[aElements.size()];
+
+            Map<Long, Integer> occurrences = new HashMap<>();
+            for (int i = 0; i < aElements.size(); i++) {
+                JsonNode element = aElements.get(i);
+                hashes[i] = hash(SEED, element);
+                contents[i] = element.toString();
+
+                long key = SEED;
+                if (element.isArray()) {
+                    for (int n = 0; n < aKeyWidth && n < element.size(); n++) {
+                        key = hash(key, element.get(n));
+                    }
+                }
+                else {
+                    key = hashes[i];
+                }
+
+                // The same key may occur more than once, e.g. if there are multiple identical
+                // comments. These are told apart by the order in which they occur.
+                Integer occurrence = occurrences.merge(key, 1, Integer::sum);
+                keys[i] = occurrence > 1 ? mix(key, occurrence) : key;
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.brat.config.BratProperties;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.LoadConfResponse;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+/**
+ * Cache of the JSON payloads which brat requests when it is initialized. These only depend on the
+ * brat configuration and on the layer configuration of the project, so they are serialized only
+ * once instead of on every request. The collection information of a project is dropped when its
+ * layer configuration changes.
+ */
+@Component
+public class BratResponseCache
+{
+    private @Autowired AnnotationSchemaService annotationService;
+    private @Autowired BratProperties bratProperties;
+
+    /**
+     * Cache of the collection information by project ID and by the IDs of the layers it was built
+     * for.
+     */
+    private final Map<Long, Map<String, String>> collectionInformationCache =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Incremented whenever cached collection information is invalidated. Collection information
+     * is only added to the cache if no invalidation happened while it was being built.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile String loadConf;
+
+    /**
+     * @return the JSON of the {@link LoadConfResponse}.
+     */
+    public String getLoadConf()
+        throws IOException
+    {
+        String json = loadConf;
+        if (json == null) {
+            json = JSONUtil.toInterpretableJsonString(new LoadConfResponse(bratProperties));
+            loadConf = json;
+        }
+        return json;
+    }
+
+    /**
+     * @param aProject
+     *            the project. If it is {@code null}, the result is not cached.
+     * @param aLayers
+     *            the layers for which to define brat types.
+     * @return the JSON of the {@link GetCollectionInformationResponse} for the given layers.
+     */
+    public String getCollectionInformation(Project aProject, List<AnnotationLayer> aLayers)
+        throws IOException
+    {
+        Long projectId = aProject != null ? aProject.getId() : null;
+        boolean cacheable = projectId != null
+                && aLayers.stream().allMatch(layer -> layer.getId() != null);
+        String layersKey = null;
+
+        if (cacheable) {
+            layersKey = aLayers.stream()
+                    .map(AnnotationLayer::getId)
+                    .sorted()
+                    .map(String::valueOf)
+                    .collect(Collectors.joining(","));
+            Map<String, String> projectCache = collectionInformationCache.get(projectId);
+            String cached = projectCache != null ? projectCache.get(layersKey) : null;
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long currentGeneration = generation.get();
+        GetCollectionInformationResponse info = new GetCollectionInformationResponse();
+        info.setEntityTypes(BratRenderer.buildEntityTypes(aLayers, annotationService));
+        String json = JSONUtil.toInterpretableJsonString(info);
+
+        if (cacheable && currentGeneration == generation.get()) {
+            collectionInformationCache.computeIfAbsent(projectId, id -> new ConcurrentHashMap<>())
+                    .put(layersKey, json);
+        }
+
+        return json;
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        invalidate(aEvent.getProject());
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        invalidate(aEvent.getProject());
+    }
+
+    private void invalidate(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+
+        generation.incrementAndGet();
+        collectionInformationCache.remove(aProject.getId());
+    }
+}
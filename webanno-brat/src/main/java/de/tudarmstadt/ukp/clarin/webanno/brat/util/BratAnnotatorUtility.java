@@ -33,6 +33,8 @@ import org.apache.uima.jcas.JCas;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.SentenceIndex;
+import de.tudarmstadt.ukp.clarin.webanno.api.cas.OffsetIndex;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
@@ -117,6 +119,8 @@ public class BratAnnotatorUtility
         for (Sentence s : select(aJCas, Sentence.class)) {
             new Sentence(target, s.getBegin(), s.getEnd()).addToIndexes();
         }
+        SentenceIndex.invalidate(target.getCas());
+        OffsetIndex.invalidate(target.getCas());
 
         return target;
     }
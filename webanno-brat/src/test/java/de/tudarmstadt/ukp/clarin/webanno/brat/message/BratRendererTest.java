@@ -48,6 +48,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRendererImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics.RenderingMetricsImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
@@ -129,7 +130,8 @@ public class BratRendererTest
             return layerRegistry.getLayerSupport(layer).createAdapter(layer);
         });
         
-        preRenderer = new PreRendererImpl(layerRegistry, schemaService);
+        preRenderer = new PreRendererImpl(layerRegistry, schemaService,
+                new RenderingMetricsImpl());
     }
     
     /**
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.flipkart.zjsonpatch.JsonPatch;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDiffRenderer.Fingerprint;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.AnnotationComment;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Argument;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Comment;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Offsets;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Relation;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.SentenceComment;
+
+public class BratDiffRendererTest
+{
+    @Test
+    public void thatUnchangedDocumentProducesEmptyPatch()
+    {
+        ArrayNode patch = assertPatch(generateDocument(10, 0), generateDocument(10, 0));
+
+        assertThat(patch).isEmpty();
+    }
+
+    @Test
+    public void thatChangedLabelProducesSingleReplace()
+    {
+        ArrayNode patch = assertPatch(generateDocument(10, 0), generateDocument(10, 0),
+                aResponse -> aResponse.getEntities().get(42).setLabelText("changed"));
+
+        assertThat(patch).hasSize(1);
+        assertThat(patch.get(0).get("op").asText()).isEqualTo("replace");
+        assertThat(patch.get(0).get("path").asText()).isEqualTo("/entities/42");
+    }
+
+    @Test
+    public void thatAddedAndRemovedAnnotationsArePatched()
+    {
+        assertPatch(generateDocument(10, 0), generateDocument(10, 0), aResponse -> {
+            aResponse.getEntities().add(17, new Entity(new VID(100_000), "NE",
+                    new Offsets(0, 4), "PER", "blue", null));
+            aResponse.getEntities().remove(60);
+            aResponse.getEntities().remove(3);
+            aResponse.getRelations().remove(aResponse.getRelations().size() - 1);
+            aResponse.getRelations().add(new Relation(new VID(100_001), "Dep",
+                    asList(new Argument("Arg1", new VID(1)), new Argument("Arg2", new VID(2))),
+                    "nsubj", "green"));
+        });
+    }
+
+    @Test
+    public void thatReorderedAnnotationsArePatched()
+    {
+        assertPatch(generateDocument(10, 0), generateDocument(10, 0), aResponse -> {
+            Collections.swap(aResponse.getEntities(), 5, 50);
+            Collections.reverse(aResponse.getRelations().subList(10, 20));
+        });
+    }
+
+    @Test
+    public void thatCommentsArePatched()
+    {
+        GetDocumentResponse previous = generateDocument(10, 0);
+        previous.addComment(new AnnotationComment(new VID(5), Comment.ANNOTATOR_NOTES, "a"));
+        previous.addComment(new SentenceComment(2, Comment.ANNOTATION_ERROR, "b"));
+        previous.addComment(new SentenceComment(2, Comment.ANNOTATION_ERROR, "b"));
+
+        assertPatch(previous, generateDocument(10, 0), aResponse -> {
+            aResponse.addComment(new AnnotationComment(new VID(5), Comment.ANNOTATOR_NOTES, "a"));
+            aResponse.addComment(new AnnotationComment(new VID(5), Comment.ANNOTATION_ERROR, "c"));
+            aResponse.addComment(new SentenceComment(2, Comment.ANNOTATION_ERROR, "b"));
+        });
+    }
+
+    @Test
+    public void thatPageChangeIsPatched()
+    {
+        assertPatch(generateDocument(10, 0), generateDocument(10, 10));
+    }
+
+    @Test
+    public void thatFingerprintSurvivesSerialization()
+    {
+        GetDocumentResponse current = generateDocument(10, 0);
+        current.getEntities().get(7).setColor("red");
+
+        BratDiffRenderer previous = new BratDiffRenderer(generateDocument(10, 0));
+        Fingerprint fingerprint = SerializationUtils.roundtrip(previous.getFingerprint());
+
+        ArrayNode patch = new BratDiffRenderer(current).diff(fingerprint);
+
+        assertThat(patch).hasSize(1);
+        assertThat(patch.get(0).get("path").asText()).isEqualTo("/entities/7");
+    }
+
+    @Test
+    public void thatLargeDocumentWithSingleChangeProducesSingleReplace()
+    {
+        ArrayNode patch = assertPatch(generateDocument(100, 0), generateDocument(100, 0),
+                aResponse -> aResponse.getEntities().get(500).setLabelText("changed"));
+
+        assertThat(patch).hasSize(1);
+        assertThat(patch.get(0).get("path").asText()).isEqualTo("/entities/500");
+    }
+
+    @Test
+    public void thatElementHashCollisionIsPatched() throws Exception
+    {
+        GetDocumentResponse current = generateDocument(10, 0);
+        current.getEntities().get(42).setLabelText("changed");
+
+        BratDiffRenderer previous = new BratDiffRenderer(generateDocument(10, 0));
+        BratDiffRenderer next = new BratDiffRenderer(current);
+
+        // Pretend that the changed entity has the same hash as before
+        long[] hashes = getField(getSection(previous.getFingerprint(), "entities"), "hashes");
+        long[] currentHashes = getField(getSection(next.getFingerprint(), "entities"), "hashes");
+        hashes[42] = currentHashes[42];
+        Map<String, Long> fields = getField(previous.getFingerprint(), "fields");
+        Map<String, Long> currentFields = getField(next.getFingerprint(), "fields");
+        fields.put("entities", currentFields.get("entities"));
+
+        ArrayNode patch = assertPatch(previous, next);
+
+        assertThat(patch).hasSize(1);
+        assertThat(patch.get(0).get("path").asText()).isEqualTo("/entities/42");
+    }
+
+    @Test
+    public void thatFieldHashCollisionIsPatched() throws Exception
+    {
+        GetDocumentResponse current = generateDocument(10, 0);
+        current.setText(current.getText().replace("token1 ", "tokenX "));
+
+        BratDiffRenderer previous = new BratDiffRenderer(generateDocument(10, 0));
+        BratDiffRenderer next = new BratDiffRenderer(current);
+
+        // Pretend that the changed text has the same hash as before
+        Map<String, Long> fields = getField(previous.getFingerprint(), "fields");
+        Map<String, Long> currentFields = getField(next.getFingerprint(), "fields");
+        fields.put("text", currentFields.get("text"));
+
+        ArrayNode patch = assertPatch(previous, next);
+
+        assertThat(patch).hasSize(1);
+        assertThat(patch.get(0).get("path").asText()).isEqualTo("/text");
+    }
+
+    @Test
+    public void thatKeyCollisionIsPatched() throws Exception
+    {
+        GetDocumentResponse current = generateDocument(10, 0);
+        current.getEntities().remove(4);
+
+        BratDiffRenderer previous = new BratDiffRenderer(generateDocument(10, 0));
+        BratDiffRenderer next = new BratDiffRenderer(current);
+
+        // Pretend that the removed entity has the same key as its predecessor
+        long[] keys = getField(getSection(previous.getFingerprint(), "entities"), "keys");
+        keys[4] = keys[3];
+
+        assertPatch(previous, next);
+    }
+
+    @SafeVarargs
+    private static ArrayNode assertPatch(GetDocumentResponse aPrevious,
+            GetDocumentResponse aCurrent, Consumer<GetDocumentResponse>... aChanges)
+    {
+        for (Consumer<GetDocumentResponse> change : aChanges) {
+            change.accept(aCurrent);
+        }
+
+        return assertPatch(new BratDiffRenderer(aPrevious), new BratDiffRenderer(aCurrent));
+    }
+
+    private static ArrayNode assertPatch(BratDiffRenderer aPrevious, BratDiffRenderer aCurrent)
+    {
+        ArrayNode patch = aCurrent.diff(aPrevious.getFingerprint());
+
+        JsonNode patched = JsonPatch.apply(patch, aPrevious.getDocument());
+        assertThat(patched).isEqualTo(aCurrent.getDocument());
+
+        return patch;
+    }
+
+    private static Object getSection(Fingerprint aFingerprint, String aName) throws Exception
+    {
+        Map<String, Object> sections = getField(aFingerprint, "sections");
+        return sections.get(aName);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T getField(Object aTarget, String aName) throws Exception
+    {
+        Field field = aTarget.getClass().getDeclaredField(aName);
+        field.setAccessible(true);
+        return (T) field.get(aTarget);
+    }
+
+    private static GetDocumentResponse generateDocument(int aSentences, int aFirstSentence)
+    {
+        GetDocumentResponse response = new GetDocumentResponse();
+        response.setSentenceNumberOffset(aFirstSentence + 1);
+
+        StringBuilder text = new StringBuilder();
+        for (int s = aFirstSentence; s < aFirstSentence + aSentences; s++) {
+            int sentenceBegin = text.length();
+            for (int t = 0; t < 10; t++) {
+                int id = s * 10 + t;
+                int begin = text.length();
+                text.append("token").append(id).append(' ');
+                response.addToken(begin, begin + 5);
+                response.addEntity(new Entity(new VID(id), "POS", new Offsets(begin, begin + 5),
+                        "NN" + (id % 7), "yellow", null));
+                if (t > 0) {
+                    response.addRelation(new Relation(new VID(1_000_000 + id), "Dependency",
+                            asList(new Argument("Governor", new VID(id - 1)),
+                                    new Argument("Dependent", new VID(id))),
+                            "dep", "black"));
+                }
+            }
+            response.addSentence(sentenceBegin, text.length());
+        }
+        response.setText(text.toString());
+
+        return response;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.brat.config.BratProperties;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnchoringMode;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+public class BratResponseCacheTest
+{
+    private @Mock AnnotationSchemaService schemaService;
+
+    private Project project;
+    private AnnotationLayer layer;
+    private List<AnnotationLayer> layers;
+
+    private BratResponseCache sut;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        project = new Project();
+        project.setId(1l);
+
+        layer = new AnnotationLayer("custom.Span", "Span", SPAN_TYPE, project, false,
+                AnchoringMode.TOKENS);
+        layer.setId(1l);
+        layers = asList(layer);
+
+        when(schemaService.listAnnotationFeature(any(AnnotationLayer.class)))
+                .thenReturn(emptyList());
+
+        sut = new BratResponseCache();
+        setField(sut, "annotationService", schemaService);
+        setField(sut, "bratProperties", new BratProperties());
+    }
+
+    @Test
+    public void thatLoadConfIsCached() throws Exception
+    {
+        assertThat(sut.getLoadConf()).isSameAs(sut.getLoadConf());
+    }
+
+    @Test
+    public void thatCollectionInformationIsCached() throws Exception
+    {
+        String json = sut.getCollectionInformation(project, layers);
+
+        assertThat(sut.getCollectionInformation(project, layers)).isSameAs(json);
+        verify(schemaService, times(1)).listAnnotationFeature(layer);
+    }
+
+    @Test
+    public void thatCollectionInformationIsCachedPerLayerSelection() throws Exception
+    {
+        AnnotationLayer otherLayer = new AnnotationLayer("custom.Other", "Other", SPAN_TYPE,
+                project, false, AnchoringMode.TOKENS);
+        otherLayer.setId(2l);
+
+        String json = sut.getCollectionInformation(project, layers);
+
+        assertThat(sut.getCollectionInformation(project, asList(layer, otherLayer)))
+                .isNotEqualTo(json);
+        assertThat(sut.getCollectionInformation(project, layers)).isSameAs(json);
+    }
+
+    @Test
+    public void thatLayerConfigurationChangeInvalidatesCollectionInformation() throws Exception
+    {
+        String json = sut.getCollectionInformation(project, layers);
+
+        // A link feature is added to the layer
+        AnnotationFeature linkFeature = new AnnotationFeature();
+        linkFeature.setId(1l);
+        linkFeature.setName("links");
+        linkFeature.setLinkMode(LinkMode.WITH_ROLE);
+        linkFeature.setLayer(layer);
+        linkFeature.setProject(project);
+        when(schemaService.listAnnotationFeature(any(AnnotationLayer.class)))
+                .thenReturn(asList(linkFeature));
+
+        // Still cached as long as the change has not been announced
+        assertThat(sut.getCollectionInformation(project, layers)).isSameAs(json);
+
+        sut.onLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+
+        String changedJson = sut.getCollectionInformation(project, layers);
+        assertThat(changedJson).isNotEqualTo(json);
+        assertThat(sut.getCollectionInformation(project, layers)).isSameAs(changedJson);
+        verify(schemaService, times(2)).listAnnotationFeature(layer);
+    }
+
+    @Test
+    public void thatChangeInOtherProjectDoesNotInvalidateCollectionInformation()
+        throws Exception
+    {
+        Project otherProject = new Project();
+        otherProject.setId(2l);
+
+        String json = sut.getCollectionInformation(project, layers);
+
+        sut.onLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, otherProject));
+
+        assertThat(sut.getCollectionInformation(project, layers)).isSameAs(json);
+    }
+
+    @Test
+    public void thatProjectRemovalInvalidatesCollectionInformation() throws Exception
+    {
+        String json = sut.getCollectionInformation(project, layers);
+
+        sut.onBeforeProjectRemoved(new BeforeProjectRemovedEvent(this, project));
+
+        assertThat(sut.getCollectionInformation(project, layers)).isNotSameAs(json);
+        verify(schemaService, times(2)).listAnnotationFeature(layer);
+    }
+
+    @Test
+    public void thatCollectionInformationForUnsavedLayersIsNotCached() throws Exception
+    {
+        AnnotationLayer unsavedLayer = new AnnotationLayer("custom.Unsaved", "Unsaved",
+                SPAN_TYPE, project, false, AnchoringMode.TOKENS);
+        List<AnnotationLayer> unsavedLayers = asList(layer, unsavedLayer);
+
+        String json = sut.getCollectionInformation(project, unsavedLayers);
+
+        assertThat(sut.getCollectionInformation(project, unsavedLayers))
+                .isEqualTo(json)
+                .isNotSameAs(json);
+        verify(schemaService, times(2)).listAnnotationFeature(unsavedLayer);
+    }
+
+    @Test
+    public void thatCollectionInformationForUnsavedProjectIsNotCached() throws Exception
+    {
+        String json = sut.getCollectionInformation(null, layers);
+
+        assertThat(sut.getCollectionInformation(null, layers))
+                .isEqualTo(json)
+                .isNotSameAs(json);
+        verify(schemaService, times(2)).listAnnotationFeature(layer);
+    }
+
+    private static void setField(Object aTarget, String aName, Object aValue) throws Exception
+    {
+        Field field = BratResponseCache.class.getDeclaredField(aName);
+        field.setAccessible(true);
+        field.set(aTarget, aValue);
+    }
+}
@@ -23,15 +23,14 @@ import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.UIMAException;
-import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.fit.util.CasUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.cas.OffsetIndex;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Condition;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Restriction;
@@ -145,8 +144,8 @@ public class ValuesGenerator
             Type type = aContext.getCAS().getTypeSystem().getType(typename);
             AnnotationFS ctxAnnFs = (AnnotationFS) aContext;
             // List<String> values = new ArrayList<>();
-            for (AnnotationFS fs : selectAt(aContext.getCAS(), type, ctxAnnFs.getBegin(),
-                    ctxAnnFs.getEnd())) {
+            for (AnnotationFS fs : OffsetIndex.selectAt(aContext.getCAS(), type,
+                    ctxAnnFs.getBegin(), ctxAnnFs.getEnd())) {
                 values.addAll(getValue(fs, tail));
 
             }
@@ -199,15 +198,6 @@ public class ValuesGenerator
 
     }
 
-    public static List<AnnotationFS> selectAt(CAS aJcas, final Type type, int aBegin, int aEnd)
-    {
-        List<AnnotationFS> covered = CasUtil.selectCovered(aJcas, type, aBegin, aEnd);
-
-        // Remove all that do not have the exact same offset
-        covered.removeIf(cur -> !(cur.getBegin() == aBegin && cur.getEnd() == aEnd));
-        return covered;
-    }
-
 //    @Override
 //    public boolean areThereRulesFor(FeatureStructure aContext, 
 //            ParsedConstraints parsedConstraints)
@@ -159,21 +159,91 @@ public class AgreementUtils
         
         AgreementResult agreementResult = AgreementUtils.makeStudy(aDiff, aType, aFeature,
                 aExcludeIncomplete, aCasMap);
+        return calculateAgreement(aMeasure, agreementResult);
+    }
+    
+    /**
+     * Combine agreement results calculated on the diffs of individual documents into the result
+     * for all documents and calculate the agreement on the combined study. The result is the same
+     * as if the agreement had been calculated on the merged diff directly.
+     * 
+     * @param aMeasure
+     *            the agreement measure.
+     * @param aExcludeIncomplete
+     *            whether incomplete positions were excluded from the partial results.
+     * @param aDiff
+     *            the merged diff over all documents (cf. {@link DiffResult#merge(Collection)}).
+     * @param aType
+     *            the type on which agreement was calculated.
+     * @param aFeature
+     *            the feature on which agreement was calculated.
+     * @param aCasGroupIds
+     *            the CAS group IDs (users) for which agreement was calculated.
+     * @param aPartialResults
+     *            the results for the individual documents, in document order.
+     * @return the combined result.
+     */
+    public static AgreementResult combine(ConcreteAgreementMeasure aMeasure,
+            boolean aExcludeIncomplete, DiffResult aDiff, String aType, String aFeature,
+            Collection<String> aCasGroupIds, List<AgreementResult> aPartialResults)
+    {
+        List<String> users = new ArrayList<>(aCasGroupIds);
+        Collections.sort(users);
+        
+        List<ConfigurationSet> completeSets = new ArrayList<>();
+        List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
+        List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
+        List<ConfigurationSet> incompleteSetsByLabel = new ArrayList<>();
+        List<ConfigurationSet> pluralitySets = new ArrayList<>();
+        List<ConfigurationSet> irrelevantSets = new ArrayList<>();
+        CodingAnnotationStudy study = new CodingAnnotationStudy(users.size());
+        
+        for (AgreementResult partial : aPartialResults) {
+            if (!users.equals(partial.casGroupIds)) {
+                throw new IllegalArgumentException("Partial result is for users "
+                        + partial.casGroupIds + " but expected " + users);
+            }
+            
+            completeSets.addAll(partial.completeSets);
+            setsWithDifferences.addAll(partial.setsWithDifferences);
+            incompleteSetsByPosition.addAll(partial.incompleteSetsByPosition);
+            incompleteSetsByLabel.addAll(partial.incompleteSetsByLabel);
+            pluralitySets.addAll(partial.pluralitySets);
+            irrelevantSets.addAll(partial.irrelevantSets);
+            
+            for (ICodingAnnotationItem item : partial.study.getItems()) {
+                Object[] values = new Object[users.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = item.getUnit(i).getCategory();
+                }
+                study.addItemAsArray(values);
+            }
+        }
+        
+        return calculateAgreement(aMeasure, new AgreementResult(aType, aFeature, aDiff, study,
+                users, completeSets, irrelevantSets, setsWithDifferences,
+                incompleteSetsByPosition, incompleteSetsByLabel, pluralitySets,
+                aExcludeIncomplete));
+    }
+    
+    private static AgreementResult calculateAgreement(ConcreteAgreementMeasure aMeasure,
+            AgreementResult aAgreementResult)
+    {
         try {
-            IAgreementMeasure agreement = aMeasure.make(agreementResult.study);
+            IAgreementMeasure agreement = aMeasure.make(aAgreementResult.study);
             
-            if (agreementResult.study.getItemCount() > 0) {
-                agreementResult.setAgreement(agreement.calculateAgreement());
+            if (aAgreementResult.study.getItemCount() > 0) {
+                aAgreementResult.setAgreement(agreement.calculateAgreement());
             }
             else {
-                agreementResult.setAgreement(Double.NaN);
+                aAgreementResult.setAgreement(Double.NaN);
             }
-            return agreementResult;
+            return aAgreementResult;
             
         }
         catch (RuntimeException e) {
             // FIXME
-            AgreementUtils.dumpAgreementStudy(System.out, agreementResult);
+            AgreementUtils.dumpAgreementStudy(System.out, aAgreementResult);
             throw e;
         }
     }
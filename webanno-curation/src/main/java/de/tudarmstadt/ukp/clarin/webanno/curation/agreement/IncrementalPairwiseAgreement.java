@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+
+/**
+ * Calculates pairwise agreement on a layer incrementally. The diff and the pairwise studies are
+ * calculated and remembered per document. Each document is associated with a version key supplied
+ * by the caller (e.g. the timestamps of the annotators' CASes). When agreement is requested again,
+ * only documents whose version has changed are diffed again and the pairwise results are then
+ * re-aggregated from the per-document results.
+ * <p>
+ * The remembered results refer to the CASes they were calculated on, so the CASes for a document
+ * must not be changed without also changing the version of the document.
+ */
+public class IncrementalPairwiseAgreement
+{
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalPairwiseAgreement.class);
+
+    private final String type;
+    private final List<DiffAdapter> adapters;
+    private final LinkCompareBehavior linkCompareBehavior;
+
+    private final Map<Integer, DocumentAgreement> documents = new HashMap<>();
+    private DiffResult mergedDiff;
+
+    public IncrementalPairwiseAgreement(String aType, Collection<? extends DiffAdapter> aAdapters,
+            LinkCompareBehavior aLinkCompareBehavior)
+    {
+        type = aType;
+        adapters = new ArrayList<>(aAdapters);
+        linkCompareBehavior = aLinkCompareBehavior;
+    }
+
+    /**
+     * Get the diff over all documents.
+     *
+     * @param aCasMap
+     *            the CASes of each user in document order.
+     * @param aDocumentVersions
+     *            a version key for each document. If the key of a document changes, its diff is
+     *            re-calculated.
+     * @return the diff result.
+     */
+    public synchronized DiffResult getDiff(Map<String, List<JCas>> aCasMap,
+            List<?> aDocumentVersions)
+    {
+        update(aCasMap, aDocumentVersions);
+        return mergedDiff;
+    }
+
+    /**
+     * Calculate the agreement between all pairs of users.
+     *
+     * @param aMeasure
+     *            the agreement measure.
+     * @param aExcludeIncomplete
+     *            whether to exclude incomplete positions.
+     * @param aFeature
+     *            the feature on which to calculate agreement.
+     * @param aCasMap
+     *            the CASes of each user in document order.
+     * @param aDocumentVersions
+     *            a version key for each document. If the key of a document changes, its diff is
+     *            re-calculated.
+     * @return the pairwise results.
+     * @see AgreementUtils#getPairwiseAgreement
+     */
+    public synchronized PairwiseAnnotationResult getPairwiseAgreement(
+            ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete, String aFeature,
+            Map<String, List<JCas>> aCasMap, List<?> aDocumentVersions)
+    {
+        update(aCasMap, aDocumentVersions);
+
+        PairwiseAnnotationResult result = new PairwiseAnnotationResult();
+        List<Entry<String, List<JCas>>> entryList = new ArrayList<>(aCasMap.entrySet());
+        for (int m = 0; m < entryList.size(); m++) {
+            for (int n = 0; n < m; n++) {
+                Map<String, List<JCas>> pairwiseCasMap = new LinkedHashMap<>();
+                pairwiseCasMap.put(entryList.get(m).getKey(), entryList.get(m).getValue());
+                pairwiseCasMap.put(entryList.get(n).getKey(), entryList.get(n).getValue());
+
+                // Re-aggregate the pairwise study from the per-document studies
+                List<AgreementResult> partials = new ArrayList<>();
+                for (int d = 0; d < aDocumentVersions.size(); d++) {
+                    partials.add(documents.get(d).getStudy(aFeature, aExcludeIncomplete,
+                            pairwiseCasMap));
+                }
+
+                AgreementResult res = AgreementUtils.combine(aMeasure, aExcludeIncomplete,
+                        mergedDiff, type, aFeature, pairwiseCasMap.keySet(), partials);
+                result.add(entryList.get(m).getKey(), entryList.get(n).getKey(), res);
+            }
+        }
+        return result;
+    }
+
+    private void update(Map<String, List<JCas>> aCasMap, List<?> aDocumentVersions)
+    {
+        for (List<JCas> casses : aCasMap.values()) {
+            if (casses.size() != aDocumentVersions.size()) {
+                throw new IllegalArgumentException("Expected [" + aDocumentVersions.size()
+                        + "] CASes per user but got [" + casses.size() + "]");
+            }
+        }
+
+        boolean changed = false;
+
+        // Forget about documents which no longer exist
+        changed |= documents.keySet().removeIf(d -> d >= aDocumentVersions.size());
+
+        int recalculated = 0;
+        for (int d = 0; d < aDocumentVersions.size(); d++) {
+            Object version = aDocumentVersions.get(d);
+            DocumentAgreement doc = documents.get(d);
+            if (doc != null && Objects.equals(doc.version, version)) {
+                continue;
+            }
+
+            Map<String, JCas> documentCasMap = new LinkedHashMap<>();
+            for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
+                documentCasMap.put(e.getKey(), e.getValue().get(d));
+            }
+
+            DiffResult diff = CasDiff2.doDiffDocument(asList(type), adapters, linkCompareBehavior,
+                    documentCasMap, d);
+            documents.put(d, new DocumentAgreement(version, diff));
+            changed = true;
+            recalculated++;
+        }
+
+        if (changed || mergedDiff == null) {
+            List<DiffResult> diffs = new ArrayList<>();
+            for (int d = 0; d < aDocumentVersions.size(); d++) {
+                diffs.add(documents.get(d).diff);
+            }
+            mergedDiff = DiffResult.merge(diffs);
+        }
+
+        LOG.debug("Re-calculated diff for [{}] of [{}] documents", recalculated,
+                aDocumentVersions.size());
+    }
+
+    private class DocumentAgreement
+    {
+        private final Object version;
+        private final DiffResult diff;
+        private final Map<List<Object>, AgreementResult> studies = new HashMap<>();
+
+        public DocumentAgreement(Object aVersion, DiffResult aDiff)
+        {
+            version = aVersion;
+            diff = aDiff;
+        }
+
+        public AgreementResult getStudy(String aFeature, boolean aExcludeIncomplete,
+                Map<String, List<JCas>> aPairwiseCasMap)
+        {
+            List<Object> key = new ArrayList<>();
+            key.add(aFeature);
+            key.add(aExcludeIncomplete);
+            key.addAll(aPairwiseCasMap.keySet());
+
+            return studies.computeIfAbsent(key, k -> AgreementUtils.makeStudy(diff, type,
+                    aFeature, aExcludeIncomplete, aPairwiseCasMap));
+        }
+    }
+}
@@ -73,12 +73,14 @@ public class CasDiff2
 {
     private final static Logger LOG = LoggerFactory.getLogger(CasDiff2.class);
     
-    private Map<String, List<CAS>> cases = new LinkedHashMap<>();
+    private Map<String, Map<Integer, CAS>> cases = new LinkedHashMap<>();
     
     private final Map<Position, ConfigurationSet> configSets = new TreeMap<>();
 
     private final Map<String, String[]> sortedFeaturesCache = new HashMap<>();
 
+    private final Map<String, List<String>> comparedFeaturesCache = new HashMap<>();
+
     private int begin;
     
     private int end;
@@ -253,6 +255,20 @@ public class CasDiff2
     public static DiffResult doDiff(List<String> aEntryTypes,
             Collection<? extends DiffAdapter> aAdapters, Map<String, List<JCas>> aCasMap,
             int aBegin, int aEnd, LinkCompareBehavior aLinkCompareBehavior)
+    {
+        return doDiff(aEntryTypes, aAdapters, aCasMap, aBegin, aEnd, aLinkCompareBehavior, true);
+    }
+    
+    /**
+     * Calculate the differences between CASes.
+     * 
+     * @param aSweep
+     *            whether to use the sweep mode (cf. {@link #addCasesSweep}) or to add the
+     *            annotations of one CAS after the other. Both modes produce the same result.
+     */
+    static DiffResult doDiff(List<String> aEntryTypes,
+            Collection<? extends DiffAdapter> aAdapters, Map<String, List<JCas>> aCasMap,
+            int aBegin, int aEnd, LinkCompareBehavior aLinkCompareBehavior, boolean aSweep)
     {
         long startTime = System.currentTimeMillis();
         
@@ -260,14 +276,39 @@ public class CasDiff2
         
         CasDiff2 diff = new CasDiff2(aBegin, aEnd, aAdapters, aLinkCompareBehavior);
         
-        for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
-            int casId = 0;
-            for (JCas jcas : e.getValue()) {
+        if (aSweep) {
+            int casCount = 0;
+            for (List<JCas> casList : aCasMap.values()) {
+                casCount = Math.max(casCount, casList.size());
+            }
+            
+            for (int casId = 0; casId < casCount; casId++) {
+                // All CASes of the different CAS groups at the current CAS ID. CAS groups with
+                // fewer CASes do not take part at all.
+                Map<String, CAS> casesAtId = new LinkedHashMap<>();
+                for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
+                    if (casId < e.getValue().size()) {
+                        // null elements in the list can occur if a user has never worked on a CAS
+                        JCas jcas = e.getValue().get(casId);
+                        casesAtId.put(e.getKey(), jcas != null ? jcas.getCas() : null);
+                    }
+                }
+                
                 for (String type : aEntryTypes) {
-                    // null elements in the list can occur if a user has never worked on a CAS
-                    diff.addCas(e.getKey(), casId, jcas != null ? jcas.getCas() : null, type);
+                    diff.addCasesSweep(casesAtId, casId, type);
+                }
+            }
+        }
+        else {
+            for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
+                int casId = 0;
+                for (JCas jcas : e.getValue()) {
+                    for (String type : aEntryTypes) {
+                        // null elements in the list can occur if a user has never worked on a CAS
+                        diff.addCas(e.getKey(), casId, jcas != null ? jcas.getCas() : null, type);
+                    }
+                    casId++;
                 }
-                casId++;
             }
         }
         
@@ -276,6 +317,51 @@ public class CasDiff2
         return new DiffResult(diff);
     }
     
+    /**
+     * Calculate the differences between the CASes of a single document. The positions in the
+     * result carry the given CAS ID, i.e. the index of the document in the CAS lists otherwise
+     * passed to {@link #doDiff(List, Collection, LinkCompareBehavior, Map)}. Thus, the results
+     * for the individual documents can be combined using {@link DiffResult#merge(Collection)}
+     * into the same result as a diff over all documents at once. This allows re-calculating the
+     * diff only for documents that have actually changed.
+     * 
+     * @param aEntryTypes
+     *            the types for which differences are to be calculated.
+     * @param aAdapters
+     *            a set of diff adapters how the diff algorithm should handle different features
+     * @param aLinkCompareBehavior
+     *            the link comparison mode.
+     * @param aCasMap
+     *            the CAS of each CAS group for the document. The CAS may be {@code null} if the
+     *            document does not exist in a group.
+     * @param aCasId
+     *            the index of the document.
+     * @return a diff result.
+     */
+    public static DiffResult doDiffDocument(List<String> aEntryTypes,
+            Collection<? extends DiffAdapter> aAdapters, LinkCompareBehavior aLinkCompareBehavior,
+            Map<String, JCas> aCasMap, int aCasId)
+    {
+        long startTime = System.currentTimeMillis();
+        
+        CasDiff2 diff = new CasDiff2(-1, -1, aAdapters, aLinkCompareBehavior);
+        
+        Map<String, CAS> cases = new LinkedHashMap<>();
+        for (Entry<String, JCas> e : aCasMap.entrySet()) {
+            // null elements can occur if a user has never worked on the document
+            cases.put(e.getKey(), e.getValue() != null ? e.getValue().getCas() : null);
+        }
+        
+        for (String type : aEntryTypes) {
+            diff.addCasesSweep(cases, aCasId, type);
+        }
+        
+        LOG.trace("CASDiff2 of document [{}] completed in {} ms", aCasId,
+                System.currentTimeMillis() - startTime);
+        
+        return new DiffResult(diff);
+    }
+    
     /**
      * Sanity check - all CASes should have the same text.
      */
@@ -333,22 +419,7 @@ public class CasDiff2
      */
     private void addCas(String aCasGroupId, int aCasId, CAS aCas, String aType)
     {
-        // Remember that we have already seen this CAS.
-        List<CAS> casList = cases.get(aCasGroupId);
-        if (casList == null) {
-            casList = new ArrayList<>();
-            cases.put(aCasGroupId, casList);
-        }
-        
-        // Avoid adding same CAS twice in cases where we add multiple types from a CAS. If the
-        // current CAS ID is greater than the size of the current CAS list, then we did not add
-        // it yet. Before, we checked whether the casList already contained the current CAS, but
-        // that failed when we had multiple "null" CASes.
-        if ((casList.size() - 1) < aCasId) {
-            casList.add(aCas);
-        }
-        assert (casList.size() - 1) == aCasId : "Expected CAS ID [" + (casList.size() - 1)
-                + "] but was [" + aCasId + "]";
+        rememberCas(aCasGroupId, aCasId, aCas);
         
         // null elements in the list can occur if a user has never worked on a CAS
         // We add these to the internal list above, but then we bail out here.
@@ -377,13 +448,7 @@ public class CasDiff2
             }
         }
         
-        Collection<AnnotationFS> annotations;
-        if (begin == -1 && end == -1) {
-            annotations = select(aCas, getType(aCas, aType));
-        }
-        else {
-            annotations = selectCovered(aCas, getType(aCas, aType), begin, end);
-        }
+        Collection<AnnotationFS> annotations = selectAnnotations(aCas, aType);
         
         if (annotations.isEmpty()) {
             LOG.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId
@@ -436,6 +501,262 @@ public class CasDiff2
 //        entryTypes.add(aType);
     }
     
+    private void rememberCas(String aCasGroupId, int aCasId, CAS aCas)
+    {
+        // Remember that we have already seen this CAS. The CASes are recorded by their CAS ID
+        // instead of in a list because a diff may only cover a single document (CAS ID) out of a
+        // larger set (cf. doDiffDocument).
+        Map<Integer, CAS> casById = cases.get(aCasGroupId);
+        if (casById == null) {
+            casById = new HashMap<>();
+            cases.put(aCasGroupId, casById);
+        }
+        
+        // Avoid adding same CAS twice in cases where we add multiple types from a CAS.
+        Object previous = casById.putIfAbsent(aCasId, aCas);
+        assert previous == null || previous == aCas : "CAS ID [" + aCasId
+                + "] already used by a different CAS";
+    }
+    
+    private Collection<AnnotationFS> selectAnnotations(CAS aCas, String aType)
+    {
+        if (begin == -1 && end == -1) {
+            return select(aCas, getType(aCas, aType));
+        }
+        else {
+            return selectCovered(aCas, getType(aCas, aType), begin, end);
+        }
+    }
+    
+    /**
+     * Adds the annotations of the given type from the CASes of all CAS groups at the given CAS ID
+     * at once. The result is the same as when calling {@link #addCas} for each of the CASes in
+     * turn, but instead of creating a {@link Position} for every annotation and looking it up in
+     * the position map, the annotations are indexed by their offsets in primitive arrays. A
+     * single sweep over these indexes then finds the annotations which share a position across
+     * all CAS groups. So only a single position object is created and looked up per distinct
+     * position.
+     * <p>
+     * This works for the span and arc diff adapters whose positions are determined only by the
+     * offsets. For other adapters, the annotations are added CAS by CAS.
+     * 
+     * @param aCases
+     *            the CASes by CAS group. A CAS may be {@code null}.
+     * @param aCasId
+     *            the CAS ID.
+     * @param aType
+     *            the type on which to calculate the diff.
+     */
+    private void addCasesSweep(Map<String, CAS> aCases, int aCasId, String aType)
+    {
+        DiffAdapter adapter = getAdapter(aType);
+        
+        if (!(adapter.getClass() == SpanDiffAdapter.class
+                || adapter.getClass() == ArcDiffAdapter.class)) {
+            for (Entry<String, CAS> e : aCases.entrySet()) {
+                addCas(e.getKey(), aCasId, e.getValue(), aType);
+            }
+            return;
+        }
+        
+        List<String> casGroupIds = new ArrayList<>();
+        List<OffsetIndex> indexes = new ArrayList<>();
+        for (Entry<String, CAS> e : aCases.entrySet()) {
+            rememberCas(e.getKey(), aCasId, e.getValue());
+            
+            // null elements in the list can occur if a user has never worked on a CAS
+            if (e.getValue() == null) {
+                continue;
+            }
+            
+            Collection<AnnotationFS> annotations = selectAnnotations(e.getValue(), aType);
+            if (!annotations.isEmpty()) {
+                casGroupIds.add(e.getKey());
+                indexes.add(new OffsetIndex(adapter, annotations));
+            }
+        }
+        
+        while (true) {
+            // Find the next position in any of the CASes
+            OffsetIndex next = null;
+            for (OffsetIndex index : indexes) {
+                if (index.hasNext() && (next == null || index.compareNext(next) < 0)) {
+                    next = index;
+                }
+            }
+            
+            if (next == null) {
+                break;
+            }
+            
+            long key1 = next.nextKey1();
+            long key2 = next.nextKey2();
+            
+            // Merge the annotations at this position from all CASes - in the same order as if
+            // the CASes had been added one after the other.
+            ConfigurationSet configSet = null;
+            for (int i = 0; i < indexes.size(); i++) {
+                OffsetIndex index = indexes.get(i);
+                while (index.hasNext() && index.isNextAt(key1, key2)) {
+                    AnnotationFS fs = index.next();
+                    
+                    if (configSet == null) {
+                        Position pos = adapter.getPosition(aCasId, fs);
+                        configSet = configSets.get(pos);
+                        if (configSet == null) {
+                            configSet = new ConfigurationSet(pos);
+                            configSets.put(pos, configSet);
+                        }
+                    }
+                    
+                    configSet.addConfiguration(casGroupIds.get(i), fs);
+                    
+                    // Generate secondary positions for multi-link features
+                    for (Position pos : adapter.generateSubPositions(aCasId, fs,
+                            linkCompareBehavior)) {
+                        ConfigurationSet subConfigSet = configSets.get(pos);
+                        if (subConfigSet == null) {
+                            subConfigSet = new ConfigurationSet(pos);
+                            configSets.put(pos, subConfigSet);
+                        }
+                        
+                        assert pos.getClass() == subConfigSet.position.getClass() : 
+                                "Position type mismatch [" + pos.getClass() + "] vs ["
+                                + subConfigSet.position.getClass() + "]";
+                        
+                        subConfigSet.addConfiguration(casGroupIds.get(i), fs);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * The annotations of a type in a single CAS sorted by the offsets which determine their
+     * position. For spans, these are the begin and end offsets; for arcs, the offsets of the
+     * source and target. Annotations at the same position remain in index order.
+     */
+    private static class OffsetIndex
+    {
+        private final AnnotationFS[] annotations;
+        private final long[] keys1;
+        private final long[] keys2;
+        private final int[] order;
+        private int next;
+        
+        public OffsetIndex(DiffAdapter aAdapter, Collection<AnnotationFS> aAnnotations)
+        {
+            annotations = aAnnotations.toArray(new AnnotationFS[aAnnotations.size()]);
+            keys1 = new long[annotations.length];
+            keys2 = new long[annotations.length];
+            
+            if (aAdapter instanceof ArcDiffAdapter) {
+                ArcDiffAdapter adapter = (ArcDiffAdapter) aAdapter;
+                for (int i = 0; i < annotations.length; i++) {
+                    Type type = annotations[i].getType();
+                    AnnotationFS source = (AnnotationFS) annotations[i]
+                            .getFeatureValue(type.getFeatureByBaseName(adapter.getSourceFeature()));
+                    AnnotationFS target = (AnnotationFS) annotations[i]
+                            .getFeatureValue(type.getFeatureByBaseName(adapter.getTargetFeature()));
+                    keys1[i] = source != null ? pack(source.getBegin(), source.getEnd())
+                            : pack(-1, -1);
+                    keys2[i] = target != null ? pack(target.getBegin(), target.getEnd())
+                            : pack(-1, -1);
+                }
+            }
+            else {
+                for (int i = 0; i < annotations.length; i++) {
+                    keys1[i] = pack(annotations[i].getBegin(), annotations[i].getEnd());
+                }
+            }
+            
+            order = new int[annotations.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            sort(order, new int[order.length], 0, order.length);
+        }
+        
+        private static long pack(int aHigh, int aLow)
+        {
+            return ((long) aHigh << 32) | (aLow & 0xFFFFFFFFL);
+        }
+        
+        private int compare(int aIndex1, int aIndex2)
+        {
+            int cmp = Long.compare(keys1[aIndex1], keys1[aIndex2]);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Long.compare(keys2[aIndex1], keys2[aIndex2]);
+        }
+        
+        /**
+         * Stable merge sort of the annotation indexes by their keys.
+         */
+        private void sort(int[] aOrder, int[] aBuffer, int aFrom, int aTo)
+        {
+            if (aTo - aFrom < 2) {
+                return;
+            }
+            
+            int mid = (aFrom + aTo) >>> 1;
+            sort(aOrder, aBuffer, aFrom, mid);
+            sort(aOrder, aBuffer, mid, aTo);
+            
+            // Already in order - common for spans which the CAS index sorts by offsets anyway
+            if (compare(aOrder[mid - 1], aOrder[mid]) <= 0) {
+                return;
+            }
+            
+            System.arraycopy(aOrder, aFrom, aBuffer, aFrom, aTo - aFrom);
+            int i = aFrom;
+            int j = mid;
+            for (int k = aFrom; k < aTo; k++) {
+                if (j >= aTo || (i < mid && compare(aBuffer[i], aBuffer[j]) <= 0)) {
+                    aOrder[k] = aBuffer[i++];
+                }
+                else {
+                    aOrder[k] = aBuffer[j++];
+                }
+            }
+        }
+        
+        public boolean hasNext()
+        {
+            return next < order.length;
+        }
+        
+        public long nextKey1()
+        {
+            return keys1[order[next]];
+        }
+        
+        public long nextKey2()
+        {
+            return keys2[order[next]];
+        }
+        
+        public boolean isNextAt(long aKey1, long aKey2)
+        {
+            return nextKey1() == aKey1 && nextKey2() == aKey2;
+        }
+        
+        public int compareNext(OffsetIndex aOther)
+        {
+            int cmp = Long.compare(nextKey1(), aOther.nextKey1());
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Long.compare(nextKey2(), aOther.nextKey2());
+        }
+        
+        public AnnotationFS next()
+        {
+            return annotations[order[next++]];
+        }
+    }
+    
     public enum LinkCompareBehavior
     {
         /**
@@ -1126,18 +1447,23 @@ public class CasDiff2
             return true;
         }
 
-        // Only consider label features. In particular these must not include position features
-        // such as begin, end, etc.
-        List<String> sortedFeatures = new ArrayList<>(asList(cachedSortedFeatures));
-        Set<String> labelFeatures = adapter.getLabelFeatures();
-        sortedFeatures.removeIf(f -> !labelFeatures.contains(f));
-
-        if (!recurseIntoLinkFeatures ) {
-            // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse into
-            // link features (or rather into any features that are covered by their own
-            // sub-positions). So when when comparing two spans that differ only in their slots
-            // (sub-positions) the main position could still exhibit agreement.
-            sortedFeatures.removeIf(f -> adapter.getLinkFeature(f) != null);
+        List<String> sortedFeatures = comparedFeaturesCache.get(type1.getName());
+        if (sortedFeatures == null) {
+            // Only consider label features. In particular these must not include position
+            // features such as begin, end, etc.
+            sortedFeatures = new ArrayList<>(asList(cachedSortedFeatures));
+            Set<String> labelFeatures = adapter.getLabelFeatures();
+            sortedFeatures.removeIf(f -> !labelFeatures.contains(f));
+    
+            if (!recurseIntoLinkFeatures ) {
+                // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse
+                // into link features (or rather into any features that are covered by their own
+                // sub-positions). So when when comparing two spans that differ only in their slots
+                // (sub-positions) the main position could still exhibit agreement.
+                sortedFeatures.removeIf(f -> adapter.getLinkFeature(f) != null);
+            }
+            
+            comparedFeaturesCache.put(type1.getName(), sortedFeatures);
         }
         
         for (String feature : sortedFeatures) {
@@ -1233,6 +1559,15 @@ public class CasDiff2
 
         // Position check
         DiffAdapter adapter = getAdapter(aFS1.getType().getName());
+        
+        // Both positions below are built by the adapter of the first FS, so they share the CAS ID,
+        // the type and the (absent) link feature, role and link compare behavior - even if the
+        // second FS is of a different type, e.g. a link target. For plain span positions, the
+        // comparison thus only depends on the offsets and we do not need to build the positions.
+        if (adapter.getClass() == SpanDiffAdapter.class) {
+            return aFS1.getBegin() == aFS2.getBegin() && aFS1.getEnd() == aFS2.getEnd();
+        }
+        
         Position pos1 = adapter.getPosition(0, aFS1);
         Position pos2 = adapter.getPosition(0, aFS2);
         
@@ -1368,6 +1703,47 @@ public class CasDiff2
             typeDiffAdapters = aDiff.typeAdapters;
         }
         
+        private DiffResult(Map<Position, ConfigurationSet> aData, Set<String> aCasGroupIds,
+                boolean aHasDifferences, Map<String, DiffAdapter> aTypeDiffAdapters)
+        {
+            data = Collections.unmodifiableMap(aData);
+            casGroupIds = aCasGroupIds;
+            cachedHasDifferences = aHasDifferences;
+            typeDiffAdapters = aTypeDiffAdapters;
+        }
+        
+        /**
+         * Merge the diff results of different documents, e.g. as obtained from
+         * {@link CasDiff2#doDiffDocument}. The positions of the results must not overlap, i.e.
+         * each document (CAS ID) must be covered by only one of the results.
+         * 
+         * @param aResults
+         *            the results to merge.
+         * @return the merged result.
+         */
+        public static DiffResult merge(Collection<DiffResult> aResults)
+        {
+            Map<Position, ConfigurationSet> data = new TreeMap<>();
+            Set<String> casGroupIds = new LinkedHashSet<>();
+            Map<String, DiffAdapter> typeDiffAdapters = new HashMap<>();
+            boolean hasDifferences = false;
+            
+            for (DiffResult result : aResults) {
+                for (Entry<Position, ConfigurationSet> e : result.data.entrySet()) {
+                    ConfigurationSet previous = data.put(e.getKey(), e.getValue());
+                    if (previous != null) {
+                        throw new IllegalArgumentException(
+                                "Position [" + e.getKey() + "] is contained in multiple results");
+                    }
+                }
+                casGroupIds.addAll(result.casGroupIds);
+                typeDiffAdapters.putAll(result.typeDiffAdapters);
+                hasDifferences |= result.cachedHasDifferences;
+            }
+            
+            return new DiffResult(data, casGroupIds, hasDifferences, typeDiffAdapters);
+        }
+        
         public DiffAdapter getDiffAdapter(String aType)
         {
             return typeDiffAdapters.get(aType);
@@ -1408,13 +1784,7 @@ public class CasDiff2
          */
         public boolean isAgreement(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
-                throw new IllegalArgumentException("Configuration set does not belong to this diff");
-            }
-
-            if (data.get(aConfigurationSet.position) != aConfigurationSet) {
-                throw new IllegalArgumentException("Configuration set position mismatch");
-            }
+            checkConfigurationSet(aConfigurationSet);
             
             // If there is only a single configuration in the set, we call it an agreement
             if (aConfigurationSet.configurations.size() == 1) {
@@ -1444,13 +1814,7 @@ public class CasDiff2
          */
         public boolean isComplete(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
-                throw new IllegalArgumentException("Configuration set does not belong to this diff");
-            }
-
-            if (data.get(aConfigurationSet.position) != aConfigurationSet) {
-                throw new IllegalArgumentException("Configuration set position mismatch");
-            }
+            checkConfigurationSet(aConfigurationSet);
 
             Boolean complete = completenessCache.get(aConfigurationSet);
             if (complete == null) {
@@ -1465,6 +1829,21 @@ public class CasDiff2
             return complete;
         }
         
+        private void checkConfigurationSet(ConfigurationSet aConfigurationSet)
+        {
+            // Look the set up by its position instead of searching all values - diffs over whole
+            // documents can contain a very large number of sets.
+            ConfigurationSet set = data.get(aConfigurationSet.position);
+            
+            if (set == null) {
+                throw new IllegalArgumentException("Configuration set does not belong to this diff");
+            }
+
+            if (set != aConfigurationSet) {
+                throw new IllegalArgumentException("Configuration set position mismatch");
+            }
+        }
+        
         public Map<Position, ConfigurationSet> getDifferingConfigurationSets()
         {
             Map<Position, ConfigurationSet> diffs = new LinkedHashMap<>();
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.agreement;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.DiffUtils.read;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.SpanDiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+
+public class IncrementalPairwiseAgreementTest
+{
+    private static final String TYPE = POS.class.getName();
+    private static final String FEATURE = "PosValue";
+
+    @Test
+    public void thatIncrementalAgreementMatchesFullAgreement()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", new ArrayList<>(asList(
+                read("casdiff/someDifferences/user1.conll"),
+                read("casdiff/singleSpanDifference/user1.conll"),
+                null)));
+        casByUser.put("user2", new ArrayList<>(asList(
+                read("casdiff/someDifferences/user2.conll"),
+                read("casdiff/singleSpanDifference/user2.conll"),
+                read("casdiff/noDifferences/data.conll"))));
+        casByUser.put("user3", new ArrayList<>(asList(
+                read("casdiff/someDifferences/user2.conll"),
+                null,
+                read("casdiff/noDifferences/data.conll"))));
+
+        IncrementalPairwiseAgreement sut = new IncrementalPairwiseAgreement(TYPE,
+                asList(SpanDiffAdapter.POS), LinkCompareBehavior.LINK_TARGET_AS_LABEL);
+
+        assertSameAgreement(casByUser, sut, asList(1, 1, 1));
+
+        // Change a single document and make sure the result is updated
+        casByUser.get("user1").set(1, read("casdiff/singleSpanDifference/user2.conll"));
+
+        assertSameAgreement(casByUser, sut, asList(1, 2, 1));
+    }
+
+    private void assertSameAgreement(Map<String, List<JCas>> aCasByUser,
+            IncrementalPairwiseAgreement aIncremental, List<?> aVersions)
+    {
+        DiffResult diff = CasDiff2.doDiff(asList(TYPE), asList(SpanDiffAdapter.POS),
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, aCasByUser);
+
+        for (boolean excludeIncomplete : new boolean[] { true, false }) {
+            PairwiseAnnotationResult expected = AgreementUtils.getPairwiseAgreement(
+                    ConcreteAgreementMeasure.KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT,
+                    excludeIncomplete, diff, TYPE, FEATURE, aCasByUser);
+            PairwiseAnnotationResult actual = aIncremental.getPairwiseAgreement(
+                    ConcreteAgreementMeasure.KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT,
+                    excludeIncomplete, FEATURE, aCasByUser, aVersions);
+
+            assertEquals(diff.size(), aIncremental.getDiff(aCasByUser, aVersions).size());
+            assertEquals(expected.getRaters(), actual.getRaters());
+            for (String rater1 : expected.getRaters()) {
+                for (String rater2 : expected.getRaters()) {
+                    if (rater1.compareTo(rater2) >= 0) {
+                        continue;
+                    }
+
+                    AgreementResult e = expected.getStudy(rater1, rater2);
+                    AgreementResult a = actual.getStudy(rater1, rater2);
+                    assertEquals(e.getCasGroupIds(), a.getCasGroupIds());
+                    assertEquals(e.getAgreement(), a.getAgreement(), 0.000001d);
+                    assertEquals(e.getStudy().getItemCount(), a.getStudy().getItemCount());
+                    assertEquals(e.getCompleteSetCount(), a.getCompleteSetCount());
+                    assertEquals(e.getRelevantSetCount(), a.getRelevantSetCount());
+                    assertEquals(e.getDiffSetCount(), a.getDiffSetCount());
+                    assertEquals(e.getIncompleteSetsByPosition().size(),
+                            a.getIncompleteSetsByPosition().size());
+                    assertEquals(e.getIncompleteSetsByLabel().size(),
+                            a.getIncompleteSetsByLabel().size());
+                }
+            }
+        }
+    }
+}
@@ -22,11 +22,13 @@ import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.factory.JCasFactory;
@@ -34,7 +36,9 @@ import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
 import org.apache.uima.fit.testing.factory.TokenBuilder;
 import org.apache.uima.fit.util.FSUtil;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeDescription;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
 import org.apache.uima.util.CasCreationUtils;
 import org.junit.Rule;
 import org.junit.Test;
@@ -44,9 +48,12 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ArcDiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Position;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.SpanDiffAdapter;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
@@ -917,6 +924,179 @@ public class CasDiff2Test
 //        assertEquals(0.0, agreement.getAgreement(), 0.00001d);
     }
     
+    @Test
+    public void sweepMatchesCasByCasSpanTest()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(
+                DiffUtils.read("casdiff/someDifferences/user1.conll"),
+                DiffUtils.read("casdiff/singleSpanDifference/user1.conll"),
+                null));
+        casByUser.put("user2", asList(
+                DiffUtils.read("casdiff/someDifferences/user2.conll"),
+                DiffUtils.read("casdiff/singleSpanDifference/user2.conll"),
+                DiffUtils.read("casdiff/noDifferences/data.conll")));
+        casByUser.put("user3", asList(
+                DiffUtils.read("casdiff/someDifferences/user2.conll")));
+
+        assertSameDiff(asList(POS.class.getName(), Lemma.class.getName()),
+                asList(SpanDiffAdapter.POS, new SpanDiffAdapter(Lemma.class.getName(), "value")),
+                casByUser);
+    }
+
+    @Test
+    public void sweepMatchesCasByCasRelationTest()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = DiffUtils.load(
+                "casdiff/relationLabel/user1.conll",
+                "casdiff/relationLabel/user2.conll",
+                "casdiff/relationDistance/user2.conll");
+
+        assertSameDiff(asList(Token.class.getName(), Dependency.class.getName()),
+                asList(new SpanDiffAdapter(Token.class.getName()), ArcDiffAdapter.DEPENDENCY),
+                casByUser);
+    }
+
+    @Test
+    public void sweepMatchesCasByCasMultiLinkTest()
+        throws Exception
+    {
+        JCas jcasA = JCasFactory.createJCas(DiffUtils.createMultiLinkWithRoleTestTypeSytem());
+        DiffUtils.makeLinkHostFS(jcasA, 0, 0, 
+                DiffUtils.makeLinkFS(jcasA, "slot1", 0, 0),
+                DiffUtils.makeLinkFS(jcasA, "slot1", 10, 10));      
+        DiffUtils.makeLinkHostFS(jcasA, 0, 0, 
+                DiffUtils.makeLinkFS(jcasA, "slot2", 10, 10));      
+
+        JCas jcasB = JCasFactory.createJCas(DiffUtils.createMultiLinkWithRoleTestTypeSytem());
+        DiffUtils.makeLinkHostFS(jcasB, 0, 0, 
+                DiffUtils.makeLinkFS(jcasB, "slot2", 10, 10));
+
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(jcasA));
+        casByUser.put("user2", asList(jcasB));
+
+        SpanDiffAdapter adapter = new SpanDiffAdapter(DiffUtils.HOST_TYPE);
+        adapter.addLinkFeature("links", "role", "target");
+
+        assertSameDiff(asList(DiffUtils.HOST_TYPE), asList(adapter), casByUser);
+    }
+
+    @Test
+    public void sweepMatchesCasByCasLinkTargetTypeTest()
+        throws Exception
+    {
+        // Link targets of different types at the same offsets count as the same target
+        TypeSystemDescription tsd = createLinkToAnnotationTypeSystem();
+
+        JCas jcasA = JCasFactory.createJCas(tsd);
+        jcasA.setDocumentText("This is a test .");
+        DiffUtils.makeLinkHostFS(jcasA, 0, 4,
+                makeLinkFS(jcasA, "slot1", new Token(jcasA, 5, 7)),
+                makeLinkFS(jcasA, "slot2", new Token(jcasA, 10, 14)));
+
+        JCas jcasB = JCasFactory.createJCas(tsd);
+        jcasB.setDocumentText("This is a test .");
+        DiffUtils.makeLinkHostFS(jcasB, 0, 4,
+                makeLinkFS(jcasB, "slot1", new Lemma(jcasB, 5, 7)),
+                makeLinkFS(jcasB, "slot2", new Token(jcasB, 8, 9)));
+
+        JCas jcasC = JCasFactory.createJCas(tsd);
+        jcasC.setDocumentText("This is a test .");
+        DiffUtils.makeLinkHostFS(jcasC, 0, 4,
+                makeLinkFS(jcasC, "slot1", new Token(jcasC, 5, 7)));
+
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(jcasA));
+        casByUser.put("user2", asList(jcasB));
+        casByUser.put("user3", asList(jcasC));
+
+        SpanDiffAdapter adapter = new SpanDiffAdapter(DiffUtils.HOST_TYPE);
+        adapter.addLinkFeature("links", "role", "target");
+        List<SpanDiffAdapter> adapters = asList(adapter,
+                new SpanDiffAdapter(Token.class.getName()),
+                new SpanDiffAdapter(Lemma.class.getName()));
+
+        assertSameDiff(asList(DiffUtils.HOST_TYPE), adapters, casByUser);
+
+        DiffResult result = CasDiff2.doDiff(asList(DiffUtils.HOST_TYPE), adapters, casByUser, -1,
+                -1, LinkCompareBehavior.LINK_TARGET_AS_LABEL, true);
+        for (ConfigurationSet cfgSet : result.getConfigurationSets()) {
+            if ("slot1".equals(cfgSet.getPosition().getRole())) {
+                assertEquals(1, cfgSet.getConfigurations().size());
+                assertEquals(3, cfgSet.getConfigurations().get(0).getCasGroupIds().size());
+            }
+            if ("slot2".equals(cfgSet.getPosition().getRole())) {
+                assertEquals(2, cfgSet.getConfigurations().size());
+            }
+        }
+    }
+
+    private static TypeSystemDescription createLinkToAnnotationTypeSystem()
+        throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+
+        TypeDescription linkTD = tsd.addType(DiffUtils.LINK_TYPE, "", CAS.TYPE_NAME_TOP);
+        linkTD.addFeature("role", "", CAS.TYPE_NAME_STRING);
+        linkTD.addFeature("target", "", CAS.TYPE_NAME_ANNOTATION);
+
+        TypeDescription hostTD = tsd.addType(DiffUtils.HOST_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        hostTD.addFeature("links", "", CAS.TYPE_NAME_FS_ARRAY, linkTD.getName(), false);
+
+        return CasCreationUtils.mergeTypeSystems(asList(tsd,
+                TypeSystemDescriptionFactory.createTypeSystemDescription()));
+    }
+
+    private static FeatureStructure makeLinkFS(JCas aJCas, String aRole, AnnotationFS aTarget)
+    {
+        aJCas.getCas().addFsToIndexes(aTarget);
+
+        Type linkType = aJCas.getTypeSystem().getType(DiffUtils.LINK_TYPE);
+        FeatureStructure link = aJCas.getCas().createFS(linkType);
+        link.setStringValue(linkType.getFeatureByBaseName("role"), aRole);
+        link.setFeatureValue(linkType.getFeatureByBaseName("target"), aTarget);
+        aJCas.getCas().addFsToIndexes(link);
+
+        return link;
+    }
+
+    private void assertSameDiff(List<String> aEntryTypes,
+            List<? extends DiffAdapter> aAdapters, Map<String, List<JCas>> aCasByUser)
+    {
+        for (LinkCompareBehavior lcb : LinkCompareBehavior.values()) {
+            DiffResult expected = CasDiff2.doDiff(aEntryTypes, aAdapters, aCasByUser, -1, -1,
+                    lcb, false);
+            DiffResult actual = CasDiff2.doDiff(aEntryTypes, aAdapters, aCasByUser, -1, -1, lcb,
+                    true);
+
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.getDifferingConfigurationSets().size(),
+                    actual.getDifferingConfigurationSets().size());
+            assertEquals(expected.getIncompleteConfigurationSets().size(),
+                    actual.getIncompleteConfigurationSets().size());
+
+            Iterator<ConfigurationSet> i = actual.getConfigurationSets().iterator();
+            for (ConfigurationSet e : expected.getConfigurationSets()) {
+                ConfigurationSet a = i.next();
+                Position ep = e.getPosition();
+                Position ap = a.getPosition();
+                assertEquals(0, ep.compareTo(ap));
+                assertEquals(ep.toString(), ap.toString());
+                assertEquals(e.getCasGroupIds(), a.getCasGroupIds());
+                assertEquals(e.getConfigurations().size(), a.getConfigurations().size());
+                for (int n = 0; n < e.getConfigurations().size(); n++) {
+                    Configuration ec = e.getConfigurations().get(n);
+                    Configuration ac = a.getConfigurations().get(n);
+                    assertEquals(ec.getCasGroupIds(), ac.getCasGroupIds());
+                    assertEquals(ec.toString(), ac.toString());
+                }
+            }
+        }
+    }
+    
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
 }
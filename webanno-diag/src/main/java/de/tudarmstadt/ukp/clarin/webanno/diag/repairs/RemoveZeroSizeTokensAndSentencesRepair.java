@@ -26,6 +26,8 @@ import org.apache.uima.cas.CASException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.SentenceIndex;
+import de.tudarmstadt.ukp.clarin.webanno.api.cas.OffsetIndex;
 import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair.Safe;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogLevel;
@@ -53,6 +55,7 @@ public class RemoveZeroSizeTokensAndSentencesRepair
                             "Removed sentence with illegal span: %s", s));
                 }
             }
+            SentenceIndex.invalidate(aCas);
 
             for (Token t : select(aCas.getJCas(), Token.class)) {
                 if (t.getBegin() >= t.getEnd()) {
@@ -82,7 +85,7 @@ public class RemoveZeroSizeTokensAndSentencesRepair
                             "Removed token with illegal span: %s", t));
                 }
             }
-
+            OffsetIndex.invalidate(aCas);
         }
         catch (CASException e) {
             log.error("Unabled to access JCas", e);
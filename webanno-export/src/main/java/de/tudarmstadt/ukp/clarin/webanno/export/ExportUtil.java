@@ -29,6 +29,7 @@ import org.apache.uima.UIMAException;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportException;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.format.FormatSupport;
@@ -97,8 +98,10 @@ public class ExportUtil
                 File curationCasFile = documentService.getCasFile(sourceDocument,
                         WebAnnoConst.CURATION_USER);
                 if (curationCasFile.exists()) {
-                    // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
+                    // Copy CAS - this is used when importing the project again. CASes stored in
+                    // the compressed format are converted such that the copy is self-contained.
+                    CasPersistenceUtils.copySerializedCasToDirectory(curationCasFile,
+                            curationCasDir);
 
                     // Copy secondary export format for convenience - not used during import
                     try {
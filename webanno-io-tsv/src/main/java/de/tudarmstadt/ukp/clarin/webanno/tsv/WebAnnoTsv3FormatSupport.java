@@ -63,13 +63,15 @@ public class WebAnnoTsv3FormatSupport
     @Override
     public CollectionReaderDescription getReaderDescription() throws ResourceInitializationException
     {
-        return createReaderDescription(WebannoTsv3XReader.class);
+        return createReaderDescription(WebannoTsv3XReader.class,
+                WebannoTsv3XReader.PARAM_STREAMING, true);
     }
     
     @Override
     public AnalysisEngineDescription getWriterDescription(Project aProject, CAS aCAS)
         throws ResourceInitializationException
     {
-        return createEngineDescription(WebannoTsv3XWriter.class);
+        return createEngineDescription(WebannoTsv3XWriter.class,
+                WebannoTsv3XWriter.PARAM_STREAMING, true);
     }
 }
@@ -26,6 +26,7 @@ import org.apache.uima.fit.descriptor.ConfigurationParameter;
 import org.apache.uima.jcas.JCas;
 
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XDeserializer;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XStreamingDeserializer;
 import de.tudarmstadt.ukp.dkpro.core.api.io.JCasResourceCollectionReader_ImplBase;
 import de.tudarmstadt.ukp.dkpro.core.api.parameter.ComponentParameters;
 
@@ -36,6 +37,14 @@ public class WebannoTsv3XReader
     @ConfigurationParameter(name = PARAM_ENCODING, mandatory = true, defaultValue = "UTF-8")
     private String encoding;
 
+    /**
+     * Read the file line by line directly into the CAS instead of building a model of the whole
+     * file first. This needs considerably less memory for large files.
+     */
+    public static final String PARAM_STREAMING = "streaming";
+    @ConfigurationParameter(name = PARAM_STREAMING, mandatory = true, defaultValue = "false")
+    private boolean streaming;
+
     @Override
     public void getNext(JCas aJCas) throws IOException, CollectionException
     {
@@ -44,7 +53,12 @@ public class WebannoTsv3XReader
 
         try (LineNumberReader br = new LineNumberReader(
                 new InputStreamReader(res.getInputStream(), encoding))) {
-            new Tsv3XDeserializer().read(br, aJCas);
+            if (streaming) {
+                new Tsv3XStreamingDeserializer().read(br, aJCas);
+            }
+            else {
+                new Tsv3XDeserializer().read(br, aJCas);
+            }
         }
     }
 }
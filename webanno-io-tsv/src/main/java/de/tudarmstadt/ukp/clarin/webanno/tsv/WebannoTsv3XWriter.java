@@ -17,9 +17,11 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.tsv;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 
 import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.fit.descriptor.ConfigurationParameter;
@@ -28,6 +30,7 @@ import org.apache.uima.jcas.JCas;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XCasDocumentBuilder;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XCasSchemaAnalyzer;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XSerializer;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Tsv3XStreamingSerializer;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvDocument;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
 import de.tudarmstadt.ukp.dkpro.core.api.io.JCasFileWriter_ImplBase;
@@ -48,11 +51,30 @@ public class WebannoTsv3XWriter
     @ConfigurationParameter(name = PARAM_FILENAME_EXTENSION, mandatory = true, defaultValue = ".tsv")
     private String filenameSuffix;
 
+    /**
+     * Write the lines directly from the CAS instead of building a model of the whole document
+     * first. This needs considerably less memory for large documents. The output is the same.
+     */
+    public static final String PARAM_STREAMING = "streaming";
+    @ConfigurationParameter(name = PARAM_STREAMING, mandatory = true, defaultValue = "false")
+    private boolean streaming;
+
     @Override
     public void process(JCas aJCas) throws AnalysisEngineProcessException
     {
         TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(aJCas.getTypeSystem());
         
+        if (streaming) {
+            try (Writer docOS = new BufferedWriter(new OutputStreamWriter(
+                    getOutputStream(aJCas, filenameSuffix), encoding))) {
+                new Tsv3XStreamingSerializer().write(docOS, schema, aJCas);
+            }
+            catch (IOException e) {
+                throw new AnalysisEngineProcessException(e);
+            }
+            return;
+        }
+        
         TsvDocument doc = Tsv3XCasDocumentBuilder.of(schema, aJCas);
         
         try (PrintWriter docOS = new PrintWriter(new OutputStreamWriter(
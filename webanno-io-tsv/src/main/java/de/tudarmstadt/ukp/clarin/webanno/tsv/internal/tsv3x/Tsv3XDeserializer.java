@@ -167,7 +167,7 @@ public class Tsv3XDeserializer
         }
     }
 
-    private TsvFormatHeader readFormat(LineNumberReader aIn) throws IOException
+    TsvFormatHeader readFormat(LineNumberReader aIn) throws IOException
     {
         String line = aIn.readLine();
 
@@ -182,7 +182,7 @@ public class Tsv3XDeserializer
         return format;
     }
 
-    private TsvSchema readSchema(LineNumberReader aIn, JCas aJCas) throws IOException
+    TsvSchema readSchema(LineNumberReader aIn, JCas aJCas) throws IOException
     {
         TsvSchema schema = new TsvSchema();
         int columnIndex = 0;
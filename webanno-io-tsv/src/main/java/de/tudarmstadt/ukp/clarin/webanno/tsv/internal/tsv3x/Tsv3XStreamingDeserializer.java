@@ -0,0 +1,1024 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x;
+
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Escaping.unescapeText;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FeatureType.CHAIN_LINK_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FeatureType.RELATION_REF;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FeatureType.SLOT_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.FIELD_SEPARATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.LINE_BREAK;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.NULL_COLUMN;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.NULL_VALUE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.PREFIX_TEXT;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.SLOT_SEP;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.STACK_SEP;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.CHAIN_FIRST_FEAT;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.CHAIN_NEXT_FEAT;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_REL_SOURCE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_REL_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_SLOT_ROLE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_SLOT_TARGET;
+import static java.util.Collections.emptyList;
+import static org.apache.commons.lang3.StringUtils.isEmpty;
+import static org.apache.commons.lang3.StringUtils.removeEnd;
+import static org.apache.commons.lang3.StringUtils.repeat;
+import static org.apache.commons.lang3.StringUtils.startsWith;
+import static org.apache.commons.lang3.StringUtils.substringAfter;
+import static org.apache.commons.lang3.StringUtils.substringAfterLast;
+import static org.apache.commons.lang3.StringUtils.substringBefore;
+import static org.apache.commons.lang3.StringUtils.substringBeforeLast;
+import static org.apache.uima.fit.util.FSUtil.getFeature;
+import static org.apache.uima.fit.util.FSUtil.setFeature;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvColumn;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvDocument;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvFormatHeader;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.morph.MorphologicalFeatures;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Stem;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Reads a WebAnno TSV 3.x file into a CAS line by line. Unlike the {@link Tsv3XDeserializer}, it
+ * does not build a {@link TsvDocument} of the whole file before creating the annotations. The
+ * annotations of a token or sub-token are created as soon as its line has been read. Only the
+ * information needed to resolve references to other lines is kept until the end of the document:
+ * <ul>
+ * <li>the annotations carrying a disambiguation ID,</li>
+ * <li>the elements of chains,</li>
+ * <li>the address of the first annotation of every type which may be the target of a relation or
+ * slot for each token - in primitive arrays,</li>
+ * <li>the relation and slot references which are resolved at the end of the document.</li>
+ * </ul>
+ * The lines are split by hand instead of using regular expressions. An instance can read several
+ * documents one after the other, but it must not be used by multiple threads at the same time.
+ */
+public class Tsv3XStreamingDeserializer
+{
+    private static final char FIELD_SEP_CHAR = FIELD_SEPARATOR.charAt(0);
+    private static final char STACK_SEP_CHAR = STACK_SEP.charAt(0);
+    private static final char SLOT_SEP_CHAR = SLOT_SEP.charAt(0);
+    private static final char ESCAPE_CHAR = '\\';
+    private static final String CHAIN_SUFFIX_SEP = "->";
+
+    // Per document
+    private JCas jcas;
+    private CAS cas;
+    private LowLevelCAS llCas;
+    private TsvFormatHeader format;
+    private List<TsvColumn> columns;
+    private Map<Type, List<TsvColumn>> slotTargetColumns;
+    private Map<Type, Integer> referenceTypes;
+    private Map<Integer, AnnotationFS> disambiguatedAnnotations;
+    private Map<Integer, Chain> chains;
+    private List<Runnable> deferredActions;
+
+    /**
+     * Index of the first token of each sentence into {@link #tokenReferences}.
+     */
+    private int[] sentenceFirstToken;
+    private int sentenceCount;
+    private int tokenCount;
+
+    /**
+     * For every reference type and every token, the address of the first annotation of that type
+     * on the token or 0 if there is none.
+     */
+    private int[][] tokenReferences;
+
+    /**
+     * The same as {@link #tokenReferences} for sub-tokens, which are rare, by their ID.
+     */
+    private Map<String, int[]> subTokenReferences;
+
+    // Per line
+    private int[] fieldBegins = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+    private final List<String> stackedValues = new ArrayList<>();
+    private final Map<Type, List<AnnotationFS>> unitAnnotations = new LinkedHashMap<>();
+    private final List<Runnable> lineActions = new ArrayList<>();
+    private Token token;
+    private String unitId;
+    private int unitBegin;
+    private int unitEnd;
+
+    public void read(LineNumberReader aIn, JCas aJCas) throws IOException
+    {
+        Tsv3XDeserializer headerReader = new Tsv3XDeserializer();
+        format = headerReader.readFormat(aIn);
+        TsvSchema schema = headerReader.readSchema(aIn, aJCas);
+
+        // Read the extra blank line after the schema declaration
+        String emptyLine = aIn.readLine();
+        assert isEmpty(emptyLine);
+
+        init(schema, aJCas);
+        try {
+            readContent(aIn);
+
+            // Complete the addition of the chains
+            for (Chain chain : chains.values()) {
+                Iterator<AnnotationFS> linkIterator = chain.elements.values().iterator();
+                AnnotationFS link = linkIterator.next();
+
+                // Create the chain head
+                FeatureStructure head = cas.createFS(chain.headType);
+                setFeature(head, CHAIN_FIRST_FEAT, link);
+                cas.addFsToIndexes(head);
+
+                // Connect the links to each other
+                AnnotationFS prevLink = link;
+                while (linkIterator.hasNext()) {
+                    link = linkIterator.next();
+                    setFeature(prevLink, CHAIN_NEXT_FEAT, link);
+                    prevLink = link;
+                }
+            }
+
+            // Resolve the references which may point forward in the document
+            for (Runnable action : deferredActions) {
+                action.run();
+            }
+        }
+        finally {
+            // Do not hold on to the CAS or any of its annotations
+            init(null, null);
+        }
+    }
+
+    private void init(TsvSchema aSchema, JCas aJCas)
+    {
+        jcas = aJCas;
+        cas = aJCas != null ? aJCas.getCas() : null;
+        llCas = aJCas != null ? cas.getLowLevelCAS() : null;
+        disambiguatedAnnotations = new HashMap<>();
+        chains = new LinkedHashMap<>();
+        deferredActions = new ArrayList<>();
+        sentenceFirstToken = new int[64];
+        sentenceCount = 0;
+        tokenCount = 0;
+        subTokenReferences = new HashMap<>();
+        unitAnnotations.clear();
+        lineActions.clear();
+        token = null;
+        unitId = null;
+
+        columns = new ArrayList<>();
+        slotTargetColumns = new HashMap<>();
+        referenceTypes = new LinkedHashMap<>();
+        if (aSchema != null) {
+            columns.addAll(aSchema.getHeaderColumns(aSchema.getColumns()));
+            for (TsvColumn col : columns) {
+                slotTargetColumns.computeIfAbsent(col.uimaType, type -> {
+                    List<TsvColumn> slotCols = new ArrayList<>();
+                    for (TsvColumn c : aSchema.getColumns(type)) {
+                        if (SLOT_TARGET.equals(c.featureType)) {
+                            slotCols.add(c);
+                        }
+                    }
+                    return slotCols;
+                });
+
+                if (RELATION_REF.equals(col.featureType) || SLOT_TARGET.equals(col.featureType)) {
+                    referenceTypes.putIfAbsent(getReferenceType(col), referenceTypes.size());
+                }
+            }
+        }
+        tokenReferences = new int[referenceTypes.size()][1024];
+    }
+
+    private void readContent(LineNumberReader aIn) throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+
+        State prevState = State.INTER_SENTENCE_SPACE;
+        State state = State.INTER_SENTENCE_SPACE;
+
+        StringBuilder sentenceText = new StringBuilder();
+        Sentence sentence = null;
+
+        String line = aIn.readLine();
+        while (!State.END.equals(state)) {
+            // Determine the status of the current line
+            if (startsWith(line, PREFIX_TEXT)) {
+                state = State.SENTENCE;
+            }
+            else if (line == null) {
+                state = State.END;
+            }
+            else if (isEmpty(line)) {
+                state = State.INTER_SENTENCE_SPACE;
+            }
+            else {
+                splitFields(aIn, line);
+
+                // Get token metadata
+                unitId = line.substring(fieldBegins[0], fieldEnds[0]);
+                int sep = line.indexOf('-', fieldBegins[1]);
+                if (sep == -1 || sep >= fieldEnds[1]) {
+                    throw new IOException("Line " + aIn.getLineNumber() + ": Illegal offsets ["
+                            + line.substring(fieldBegins[1], fieldEnds[1]) + "]");
+                }
+                unitBegin = parseInt(line, fieldBegins[1], sep);
+                unitEnd = parseInt(line, sep + 1, fieldEnds[1]);
+
+                // TOKEN or SUBTOKEN?
+                if (unitId.indexOf('.') != -1) {
+                    state = State.SUBTOKEN;
+                }
+                else {
+                    state = State.TOKEN;
+                }
+            }
+
+            // Assert that the order of information in the file is correct
+            switch (prevState) {
+            case INTER_SENTENCE_SPACE:
+                if (!State.SENTENCE.equals(state)) {
+                    throw new IOException("Line " + aIn.getLineNumber()
+                            + ": Expected sentence header but got [" + state + "]");
+                }
+                break;
+            case SENTENCE:
+                if (!(State.SENTENCE.equals(state) || State.TOKEN.equals(state))) {
+                    throw new IOException("Line " + aIn.getLineNumber()
+                            + ": Expected sentence header or token but got [" + state + "]");
+                }
+                break;
+            case TOKEN:
+            case SUBTOKEN:
+                if (!(State.INTER_SENTENCE_SPACE.equals(state) || State.END.equals(state)
+                        || State.TOKEN.equals(state) || State.SUBTOKEN.equals(state))) {
+                    throw new IOException("Line " + aIn.getLineNumber()
+                            + ": Expected token, sub-token or sentence break but got [" + state
+                            + "]");
+                }
+                break;
+            default:
+                break;
+            }
+
+            // Do the actual parsing
+            switch (state) {
+            case END:
+            case INTER_SENTENCE_SPACE:
+                // End of sentence action
+                // The -1 here is to account for the tailing line break
+                sentence.setEnd(text.length() - 1);
+                sentence.addToIndexes();
+                sentence = null;
+                break;
+            case TOKEN:
+                // End of sentence header action
+                if (State.SENTENCE.equals(prevState)) {
+                    // If there is no space between the previous sentence and the current
+                    // sentence, then we have to strip off the trailing line break from the
+                    // last sentence!
+                    if (text.length() > unitBegin) {
+                        assert text.length() == unitBegin + 1;
+                        assert text.charAt(text.length() - 1) == LINE_BREAK;
+                        text.setLength(text.length() - 1);
+                    }
+
+                    // If there is a gap between the current end of the text buffer and the
+                    // offset of the first token in this sentence, then add whitespace to fill
+                    // the gap.
+                    if (text.length() < unitBegin) {
+                        text.append(repeat(' ', unitBegin - text.length()));
+                    }
+
+                    assert text.length() == unitBegin;
+                    assert sentence == null;
+
+                    sentence = new Sentence(jcas);
+                    sentence.setBegin(text.length());
+                    startSentence();
+                    text.append(sentenceText);
+                    sentenceText.setLength(0);
+                }
+
+                token = new Token(jcas, unitBegin, unitEnd);
+                token.addToIndexes();
+                unitAnnotations.clear();
+                addUnitAnnotation(token);
+                parseAnnotations(aIn, line);
+                recordReferences(false);
+                tokenCount++;
+                break;
+            case SUBTOKEN:
+                unitAnnotations.clear();
+                parseAnnotations(aIn, line);
+                recordReferences(true);
+                break;
+            case SENTENCE:
+                // Header parsing action
+                String textFragment = substringAfter(line, "=");
+                textFragment = unescapeText(format, textFragment);
+                sentenceText.append(textFragment);
+                sentenceText.append(LINE_BREAK);
+                break;
+            }
+
+            prevState = state;
+            line = aIn.readLine();
+        }
+
+        jcas.setDocumentText(text.toString());
+    }
+
+    private void startSentence()
+    {
+        if (sentenceCount == sentenceFirstToken.length) {
+            sentenceFirstToken = Arrays.copyOf(sentenceFirstToken, sentenceCount * 2);
+        }
+        sentenceFirstToken[sentenceCount] = tokenCount;
+        sentenceCount++;
+    }
+
+    /**
+     * Splits the line at the field separators. The fields are not extracted as strings but only
+     * recorded as offsets into the line.
+     */
+    private void splitFields(LineNumberReader aIn, String aLine) throws IOException
+    {
+        fieldCount = 0;
+        int begin = 0;
+        for (int i = 0; i <= aLine.length(); i++) {
+            if (i == aLine.length() || aLine.charAt(i) == FIELD_SEP_CHAR) {
+                if (fieldCount == fieldBegins.length) {
+                    fieldBegins = Arrays.copyOf(fieldBegins, fieldCount * 2);
+                    fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+                }
+                fieldBegins[fieldCount] = begin;
+                fieldEnds[fieldCount] = i;
+                fieldCount++;
+                begin = i + 1;
+            }
+        }
+
+        if (fieldCount < 3) {
+            throw new IOException("Line " + aIn.getLineNumber()
+                    + ": Expected at least 3 fields but got [" + fieldCount + "]");
+        }
+    }
+
+    private void parseAnnotations(LineNumberReader aIn, String aLine) throws IOException
+    {
+        for (TsvColumn col : columns) {
+            int field = col.index + 3;
+            if (field >= fieldCount) {
+                throw new IOException("Line " + aIn.getLineNumber() + ": Expected at least ["
+                        + (field + 1) + "] fields but got [" + fieldCount + "]");
+            }
+
+            int begin = fieldBegins[field];
+            int end = fieldEnds[field];
+            if (end - begin == NULL_COLUMN.length()
+                    && aLine.startsWith(NULL_COLUMN, begin)) {
+                continue;
+            }
+
+            splitUnescaped(aLine, begin, end, STACK_SEP_CHAR, stackedValues);
+
+            int index = 0;
+            for (String val : stackedValues) {
+                parseAnnotation(col, index, val);
+                index++;
+            }
+        }
+
+        // Run the actions which depend on other columns of the same line
+        for (Runnable action : lineActions) {
+            action.run();
+        }
+        lineActions.clear();
+    }
+
+    /**
+     * @param aCol
+     *            the column definition.
+     * @param aStackingIndex
+     *            the stack index within the column in case there are multiple stacked annotations
+     *            (0-based).
+     * @param aValue
+     *            the value.
+     */
+    private void parseAnnotation(TsvColumn aCol, int aStackingIndex, String aValue)
+    {
+        // Make a copy of the value argument since we may be modifying it below.
+        String value = aValue;
+
+        // Extract disambiguation/chain suffix if it exists.
+        // If it is a slot column, skip this step because disambiguation info is provided per
+        // slot value.
+        String disambiguationInfo = null;
+        if (!(SLOT_TARGET.equals(aCol.featureType))) {
+            if (aValue.endsWith("]") && !aValue.endsWith("\\]")) {
+                String buf = substringAfterLast(value, "[");
+                disambiguationInfo = substringBefore(buf, "]");
+                value = substringBeforeLast(value, "[");
+            }
+            else {
+                int chainBegin = chainSuffixBegin(value);
+                if (chainBegin != -1) {
+                    disambiguationInfo = value.substring(chainBegin);
+                    value = value.substring(0, chainBegin - CHAIN_SUFFIX_SEP.length());
+                }
+            }
+        }
+
+        assert disambiguationInfo == null || disambiguationInfo.length() > 0;
+
+        // Create the annotation of fetch an existing one
+        AnnotationFS annotation;
+        switch (aCol.layerType) {
+        case SPAN:
+            annotation = getOrCreateSpanAnnotation(aCol, aStackingIndex, disambiguationInfo);
+            break;
+        case RELATION:
+            annotation = getOrCreateRelationAnnotation(aCol, aStackingIndex);
+            break;
+        case CHAIN:
+            annotation = getOrCreateChainAnnotation(aCol, aStackingIndex, disambiguationInfo);
+            break;
+        default:
+            throw new IllegalStateException("Unknown layer type [" + aCol.layerType + "]");
+        }
+
+        // Set feature values including references such as relation source/target or slot targets.
+        setFeatures(aCol, annotation, disambiguationInfo, aStackingIndex, value);
+    }
+
+    private AnnotationFS getOrCreateSpanAnnotation(TsvColumn aCol, int aStackingIndex,
+            String aDisambiguationInfo)
+    {
+        int disambiguationId = aDisambiguationInfo != null ? Integer.valueOf(aDisambiguationInfo)
+                : -1;
+
+        // Check if we have seen the same annotation already in the current unit but in another
+        // column.
+        AnnotationFS annotation = getUnitAnnotation(aCol.uimaType, aStackingIndex);
+        // If not, check if we have seen the same annotation already in a previous unit
+        if (annotation == null && disambiguationId != -1) {
+            annotation = disambiguatedAnnotations.get(disambiguationId);
+            if (annotation != null) {
+                addUnitAnnotation(annotation);
+                extendToUnit(annotation);
+            }
+        }
+
+        // Still no annotation? Then we have to create one
+        if (annotation == null) {
+            annotation = createAnnotation(aCol.uimaType);
+
+            // Check if there are slot features that need to be initialized
+            for (TsvColumn col : slotTargetColumns.get(aCol.uimaType)) {
+                setFeature(annotation, col.uimaFeature.getShortName(), emptyList());
+            }
+
+            // Special handling of DKPro Core Token-attached annotations
+            String typeName = aCol.uimaType.getName();
+            if (Lemma.class.getName().equals(typeName)) {
+                token.setLemma((Lemma) annotation);
+            }
+            if (Stem.class.getName().equals(typeName)) {
+                token.setStem((Stem) annotation);
+            }
+            if (MorphologicalFeatures.class.getName().equals(typeName)) {
+                token.setMorph((MorphologicalFeatures) annotation);
+            }
+            if (POS.class.getName().equals(typeName)) {
+                token.setPos((POS) annotation);
+            }
+        }
+
+        // If the current annotation carries an disambiguation ID, then register it so we can look
+        // up the annotation via its ID later. This is necessary to extend the range of
+        // multi-token IDs.
+        if (disambiguationId != -1) {
+            AnnotationFS oldEntry = disambiguatedAnnotations.put(disambiguationId, annotation);
+            assert oldEntry == null || annotation.equals(oldEntry);
+        }
+
+        return annotation;
+    }
+
+    private AnnotationFS getOrCreateRelationAnnotation(TsvColumn aCol, int aStackingIndex)
+    {
+        // Check if we have seen the same annotation already in the current unit but in another
+        // column.
+        AnnotationFS annotation = getUnitAnnotation(aCol.uimaType, aStackingIndex);
+
+        // If not, then we have to create one
+        if (annotation == null) {
+            annotation = createAnnotation(aCol.uimaType);
+        }
+
+        return annotation;
+    }
+
+    private AnnotationFS getOrCreateChainAnnotation(TsvColumn aCol, int aStackingIndex,
+            String aDisambiguationInfo)
+    {
+        // Check if we have seen the same annotation already in the current unit but in
+        // another column.
+        AnnotationFS annotation = getUnitAnnotation(aCol.uimaType, aStackingIndex);
+
+        if (annotation == null && CHAIN_LINK_TYPE.equals(aCol.featureType)) {
+            // Check if there is already an element with the same index/chain ID
+            // No disambiguation info, only chain info: *-><chainId>-<elementIndex>
+            Chain chain = chains.get(chainId(aDisambiguationInfo));
+            if (chain != null) {
+                annotation = chain.elements.get(elementIndex(aDisambiguationInfo));
+            }
+
+            if (annotation != null) {
+                addUnitAnnotation(annotation);
+                extendToUnit(annotation);
+            }
+
+            // If not, then we have to create one - we do this only for link-type columns because
+            // these columns include the chain id and the element index which we both need to
+            // determine if there is already an existing annotation for this chain/element from
+            // an earlier unit (i.e. for multi-unit chain elements).
+            if (annotation == null) {
+                annotation = createAnnotation(aCol.uimaType);
+            }
+        }
+
+        return annotation;
+    }
+
+    private void setFeatures(TsvColumn aCol, AnnotationFS aAnnotation, String aDisambiguationInfo,
+            int aStackingIndex, String aValue)
+    {
+        // Set the feature value on the annotation
+        switch (aCol.featureType) {
+        case PLACEHOLDER:
+            // Nothing to do!
+            break;
+        case CHAIN_LINK_TYPE: {
+            // No disambiguation info, only chain info: *-><chainId>-<elementIndex>
+            int chainId = chainId(aDisambiguationInfo);
+            Chain chain = chains.get(chainId);
+            if (chain == null) {
+                // Guess the head type using naming conventions.
+                String headTypeName = removeEnd(aCol.uimaType.getName(), "Link");
+                headTypeName += "Chain";
+
+                Type headType = jcas.getTypeSystem().getType(headTypeName);
+                if (headType == null) {
+                    throw new IllegalStateException(
+                            "CAS type system does not contain a type named [" + headTypeName
+                                    + "]");
+                }
+
+                chain = new Chain(headType);
+                chains.put(chainId, chain);
+            }
+
+            chain.elements.put(elementIndex(aDisambiguationInfo), aAnnotation);
+            // fall-through (to set the relation type)
+        }
+        case CHAIN_ELEMENT_TYPE: {
+            lineActions.add(() -> {
+                // We need to do this after all columns of the line have been read because first
+                // we need to wait until all the elements have been created from the link-type
+                // columns. Then we have to look the annotations up via their stacking index.
+                AnnotationFS annotation = getUnitAnnotation(aCol.uimaType, aStackingIndex);
+                setPrimitiveValue(aCol, annotation, aValue);
+            });
+            break;
+        }
+        case PRIMITIVE: {
+            setPrimitiveValue(aCol, aAnnotation, aValue);
+            break;
+        }
+        case RELATION_REF: {
+            // Two disambiguation IDs in brackets after annotation value, e.g.: 1-1[0_2]
+            final int sourceDisambiguationId;
+            final int targetDisambiguationId;
+            if (aDisambiguationInfo != null) {
+                int sep = aDisambiguationInfo.indexOf('_');
+                sourceDisambiguationId = Integer.valueOf(aDisambiguationInfo.substring(0, sep));
+                targetDisambiguationId = Integer.valueOf(aDisambiguationInfo.substring(sep + 1));
+            }
+            else {
+                sourceDisambiguationId = -1;
+                targetDisambiguationId = -1;
+            }
+
+            // We cannot set the source and target features set because we may not yet have
+            // created the relevant annotations. So we defer setting these values until all
+            // annotations have been created.
+            Type attachType = getReferenceType(aCol);
+            String targetId = unitId;
+            deferredActions.add(() -> {
+                AnnotationFS sourceAnnotation = resolveReference(attachType, aValue,
+                        sourceDisambiguationId);
+
+                AnnotationFS targetAnnotation = resolveReference(attachType, targetId,
+                        targetDisambiguationId);
+
+                setFeature(aAnnotation, FEAT_REL_SOURCE, sourceAnnotation);
+                setFeature(aAnnotation, FEAT_REL_TARGET, targetAnnotation);
+            });
+            break;
+        }
+        case SLOT_ROLE: {
+            List<FeatureStructure> links = new ArrayList<>();
+            if (!NULL_COLUMN.equals(aValue)) {
+                List<String> values = new ArrayList<>();
+                splitUnescaped(aValue, 0, aValue.length(), SLOT_SEP_CHAR, values);
+                for (String value : values) {
+                    FeatureStructure linkFS = cas.createFS(aCol.getTargetTypeHint());
+                    if (!NULL_VALUE.equals(value)) {
+                        String role = Escaping.unescapeValue(value);
+                        setFeature(linkFS, FEAT_SLOT_ROLE, role);
+                    }
+                    // We index the link features here already so we do not have to track them
+                    // down later. They do not have offsets and no other index-relevant features
+                    // anyway.
+                    cas.addFsToIndexes(linkFS);
+                    links.add(linkFS);
+                }
+            }
+            setFeature(aAnnotation, aCol.uimaFeature.getShortName(), links);
+            break;
+        }
+        case SLOT_TARGET: {
+            // Setting the target feature has to be deferred until we have created all the
+            // annotations.
+            deferredActions.add(() -> {
+                List<String> values = new ArrayList<>();
+                if (!NULL_COLUMN.equals(aValue)) {
+                    splitUnescaped(aValue, 0, aValue.length(), SLOT_SEP_CHAR, values);
+                }
+
+                FeatureStructure[] links = getFeature(aAnnotation,
+                        aCol.uimaFeature.getShortName(), FeatureStructure[].class);
+
+                assert (links.length == 0 && values.size() == 1
+                        && NULL_VALUE.equals(values.get(0)))
+                        || (values.size() == links.length);
+
+                for (int i = 0; i < values.size(); i++) {
+                    String value = values.get(i);
+
+                    if (NULL_VALUE.equals(value) || NULL_COLUMN.equals(value)) {
+                        continue;
+                    }
+
+                    // Extract slot-local disambiguation info
+                    int disambiguationId = -1;
+                    if (value.endsWith("]") && !value.endsWith("\\]")) {
+                        String disambiguationInfo = substringAfterLast(value, "[");
+                        disambiguationId = Integer
+                                .valueOf(substringBefore(disambiguationInfo, "]"));
+                        value = substringBeforeLast(value, "[");
+                    }
+
+                    AnnotationFS targetAnnotation = resolveReference(aCol.getTargetTypeHint(),
+                            value, disambiguationId);
+
+                    setFeature(links[i], FEAT_SLOT_TARGET, targetAnnotation);
+                }
+            });
+            break;
+        }
+        }
+    }
+
+    private void setPrimitiveValue(TsvColumn aCol, AnnotationFS aAnnotation, String aValue)
+    {
+        // Unescape value - this needs to be done after extracting the disambiguation ID and
+        // after determining whether the values is a null value.
+        if (!NULL_VALUE.equals(aValue)) {
+            String value = Escaping.unescapeValue(aValue);
+            Feature feat = aAnnotation.getType()
+                    .getFeatureByBaseName(aCol.uimaFeature.getShortName());
+
+            if (feat == null) {
+                throw new IllegalArgumentException(
+                        "CAS type [" + aAnnotation.getType() + "] does not have a feature called ["
+                                + aCol.uimaFeature.getShortName() + "]");
+            }
+
+            aAnnotation.setFeatureValueFromString(feat, value);
+        }
+    }
+
+    /**
+     * Creates an annotation on the current unit. Annotations are indexed right away. If an
+     * annotation needs to be extended to a later unit, it is removed from the indexes and added
+     * again.
+     */
+    private AnnotationFS createAnnotation(Type aType)
+    {
+        AnnotationFS annotation = cas.createAnnotation(aType, unitBegin, unitEnd);
+        cas.addFsToIndexes(annotation);
+        addUnitAnnotation(annotation);
+        return annotation;
+    }
+
+    private void extendToUnit(AnnotationFS aAnnotation)
+    {
+        // Changing the offsets of an indexed annotation would corrupt the indexes.
+        // Unfortunately, the AnnotationFS interface does not define a setEnd() method.
+        cas.removeFsFromIndexes(aAnnotation);
+        setFeature(aAnnotation, CAS.FEATURE_BASE_NAME_END, unitEnd);
+        cas.addFsToIndexes(aAnnotation);
+    }
+
+    private void addUnitAnnotation(AnnotationFS aAnnotation)
+    {
+        List<AnnotationFS> annotations = unitAnnotations
+                .computeIfAbsent(aAnnotation.getType(), type -> new ArrayList<>());
+        if (!annotations.contains(aAnnotation)) {
+            annotations.add(aAnnotation);
+        }
+    }
+
+    private AnnotationFS getUnitAnnotation(Type aType, int aStackingIndex)
+    {
+        List<AnnotationFS> annotations = unitAnnotations.get(aType);
+        if (annotations != null && annotations.size() > aStackingIndex) {
+            return annotations.get(aStackingIndex);
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Remembers the first annotation of each reference type on the current unit so that relations
+     * and slots can refer to it by the ID of the unit.
+     */
+    private void recordReferences(boolean aSubToken)
+    {
+        if (referenceTypes.isEmpty()) {
+            return;
+        }
+
+        int[] addrs = null;
+        if (aSubToken) {
+            addrs = new int[referenceTypes.size()];
+            subTokenReferences.put(unitId, addrs);
+        }
+        else if (tokenCount == tokenReferences[0].length) {
+            for (int i = 0; i < tokenReferences.length; i++) {
+                tokenReferences[i] = Arrays.copyOf(tokenReferences[i], tokenCount * 2);
+            }
+        }
+
+        for (Map.Entry<Type, Integer> e : referenceTypes.entrySet()) {
+            List<AnnotationFS> annotations = unitAnnotations.get(e.getKey());
+            int addr = annotations != null ? llCas.ll_getFSRef(annotations.get(0)) : 0;
+            if (aSubToken) {
+                addrs[e.getValue()] = addr;
+            }
+            else {
+                tokenReferences[e.getValue()][tokenCount] = addr;
+            }
+        }
+    }
+
+    private AnnotationFS resolveReference(Type aType, String aId, int aDisambiguationId)
+    {
+        AnnotationFS annotation;
+        // If there is a disambiguation ID then we can easily look up the annotation via the ID.
+        // A disambiguation ID of 0 used when a relation refers to a non-ambiguous target and
+        // it is handled in the second case.
+        if (aDisambiguationId > 0) {
+            annotation = disambiguatedAnnotations.get(aDisambiguationId);
+            if (annotation == null) {
+                throw new IllegalStateException("Unable to resolve reference to disambiguation ID ["
+                        + aDisambiguationId + "]");
+            }
+        }
+        // Otherwise, we'll have to go through the source unit.
+        else {
+            int typeIndex = referenceTypes.get(aType);
+            int addr;
+            if (aId.indexOf('.') != -1) {
+                int[] addrs = subTokenReferences.get(aId);
+                if (addrs == null) {
+                    throw new IllegalArgumentException("Invalid unit ID: [" + aId + "]");
+                }
+                addr = addrs[typeIndex];
+            }
+            else {
+                addr = tokenReferences[typeIndex][tokenIndex(aId)];
+            }
+
+            if (addr == 0) {
+                throw new IllegalStateException(
+                        "Unable to resolve reference to unambiguous annotation of type ["
+                                + aType.getName() + "] in unit [" + aId + "]");
+            }
+            annotation = llCas.ll_getFSForRef(addr);
+        }
+
+        return annotation;
+    }
+
+    /**
+     * @return the index of the token with the given ID ({@code <sentence>-<token>}) into
+     *         {@link #tokenReferences}.
+     */
+    private int tokenIndex(String aId)
+    {
+        int sep = aId.indexOf('-');
+        int sentence;
+        int position;
+        try {
+            sentence = parseInt(aId, 0, sep);
+            position = parseInt(aId, sep + 1, aId.length());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid unit ID: [" + aId + "]");
+        }
+
+        if (sentence < 1 || sentence > sentenceCount || position < 1) {
+            throw new IllegalArgumentException("Invalid unit ID: [" + aId + "]");
+        }
+
+        int index = sentenceFirstToken[sentence - 1] + position - 1;
+        int sentenceEnd = sentence < sentenceCount ? sentenceFirstToken[sentence] : tokenCount;
+        if (index >= sentenceEnd) {
+            throw new IllegalArgumentException("Invalid unit ID: [" + aId + "]");
+        }
+        return index;
+    }
+
+    /**
+     * Attach type of relations and target type of slots. These are the types of annotations
+     * which are resolved via the ID of the unit they are on.
+     */
+    private Type getReferenceType(TsvColumn aCol)
+    {
+        // COMPATIBILITY NOTE:
+        // WebAnnoTsv3Writer hard-changes the target type for DKPro Core
+        // Dependency annotations from Token to POS - the reason is not really
+        // clear. Probably because the Dependency relations in the WebAnno UI
+        // attach to POS (Token's are not visible as annotations in the UI).
+        if (RELATION_REF.equals(aCol.featureType)
+                && aCol.uimaType.getName().equals(Dependency.class.getName())) {
+            return jcas.getTypeSystem().getType(Token.class.getName());
+        }
+
+        return aCol.getTargetTypeHint();
+    }
+
+    private static int chainId(String aChainInfo)
+    {
+        return Integer.valueOf(substringBefore(aChainInfo, "-"));
+    }
+
+    private static int elementIndex(String aChainInfo)
+    {
+        return Integer.valueOf(substringAfter(aChainInfo, "-"));
+    }
+
+    /**
+     * Finds a chain suffix ({@code -><chainId>-<elementIndex>}) at the end of the given value.
+     * The arrow must not be escaped.
+     *
+     * @return the begin of the chain information after the arrow or -1 if there is no suffix.
+     */
+    static int chainSuffixBegin(String aValue)
+    {
+        int i = skipDigitsBackwards(aValue, aValue.length());
+        if (i == aValue.length() || i == 0 || aValue.charAt(i - 1) != '-') {
+            return -1;
+        }
+
+        int end = i - 1;
+        i = skipDigitsBackwards(aValue, end);
+        if (i == end || !aValue.startsWith(CHAIN_SUFFIX_SEP, i - CHAIN_SUFFIX_SEP.length())) {
+            return -1;
+        }
+
+        int arrow = i - CHAIN_SUFFIX_SEP.length();
+        if (arrow > 0 && aValue.charAt(arrow - 1) == ESCAPE_CHAR) {
+            return -1;
+        }
+
+        return i;
+    }
+
+    private static int skipDigitsBackwards(String aValue, int aEnd)
+    {
+        int i = aEnd;
+        while (i > 0 && aValue.charAt(i - 1) >= '0' && aValue.charAt(i - 1) <= '9') {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Splits the given range of the string at each separator not preceded by a backslash. Like
+     * {@link java.util.regex.Pattern#split(CharSequence)}, trailing empty strings are dropped.
+     */
+    static void splitUnescaped(String aString, int aBegin, int aEnd, char aSeparator,
+            List<String> aResult)
+    {
+        aResult.clear();
+
+        int begin = aBegin;
+        for (int i = aBegin; i < aEnd; i++) {
+            if (aString.charAt(i) == aSeparator
+                    && (i == aBegin || aString.charAt(i - 1) != ESCAPE_CHAR)) {
+                aResult.add(aString.substring(begin, i));
+                begin = i + 1;
+            }
+        }
+
+        // No separator at all - the whole range is the only value.
+        if (aResult.isEmpty()) {
+            aResult.add(aString.substring(aBegin, aEnd));
+            return;
+        }
+
+        aResult.add(aString.substring(begin, aEnd));
+
+        while (!aResult.isEmpty() && aResult.get(aResult.size() - 1).isEmpty()) {
+            aResult.remove(aResult.size() - 1);
+        }
+    }
+
+    private static int parseInt(String aString, int aBegin, int aEnd)
+    {
+        if (aBegin >= aEnd) {
+            throw new NumberFormatException(
+                    "Expected a number at [" + aBegin + "] in [" + aString + "]");
+        }
+
+        int value = 0;
+        for (int i = aBegin; i < aEnd; i++) {
+            char c = aString.charAt(i);
+            if (c < '0' || c > '9' || value > (Integer.MAX_VALUE - (c - '0')) / 10) {
+                throw new NumberFormatException("Expected a number at [" + aBegin + "] in ["
+                        + aString + "]");
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static final class Chain
+    {
+        private final Type headType;
+        private final TreeMap<Integer, AnnotationFS> elements = new TreeMap<>();
+
+        private Chain(Type aHeadType)
+        {
+            headType = aHeadType;
+        }
+    }
+
+    private enum State
+    {
+        END, SENTENCE, TOKEN, SUBTOKEN, INTER_SENTENCE_SPACE;
+    }
+}
@@ -0,0 +1,955 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x;
+
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Escaping.escapeText;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.Escaping.escapeValue;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FeatureType.PLACEHOLDER;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FeatureType.RELATION_REF;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FeatureType.SLOT_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.FIELD_SEPARATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.LINE_BREAK;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.NULL_COLUMN;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.NULL_VALUE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.PREFIX_TEXT;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.SLOT_SEP;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.FormatConstants.STACK_SEP;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.LayerType.CHAIN;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.LayerType.RELATION;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.LayerType.SPAN;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.CHAIN_FIRST_FEAT;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.CHAIN_NEXT_FEAT;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.COREFERENCE_RELATION_FEATURE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.COREFERENCE_TYPE_FEATURE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_REL_SOURCE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_REL_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_SLOT_ROLE;
+import static de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema.FEAT_SLOT_TARGET;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.apache.commons.lang3.StringUtils.splitPreserveAllTokens;
+import static org.apache.uima.fit.util.FSUtil.getFeature;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.fit.util.JCasUtil.selectCovered;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.LayerType;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvColumn;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvDocument;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvFormatHeader;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Writes a CAS in the WebAnno TSV 3.x format without building a {@link TsvDocument} of the whole
+ * document first. The output is exactly the same as the one of the {@link Tsv3XSerializer} for
+ * the model built by the {@link Tsv3XCasDocumentBuilder}.
+ * <p>
+ * A first pass over the annotation indexes collects the information which the format needs
+ * across sentences: the active columns for the header, the disambiguation IDs, the chain IDs and
+ * the sub-token units. This pass only holds on to the units of the layer it is currently looking
+ * at. Then, the sentences are written one after the other. The annotations on the units of a
+ * sentence are collected when the sentence is written and dropped afterwards. Each line is built
+ * in a single reused {@link StringBuilder} and written as soon as it is complete.
+ * <p>
+ * If the CAS does not follow the conventions this relies on, e.g. if tokens overlap or a
+ * relation does not have the offsets of its target, the model is built and written as before.
+ * An instance must not be used by multiple threads at the same time.
+ */
+public class Tsv3XStreamingSerializer
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Tsv3XStreamingSerializer.class);
+
+    private JCas jcas;
+    private LowLevelCAS llCas;
+    private TsvSchema schema;
+    private String documentText;
+
+    // The tokens of all sentences in document order
+    private int[] tokenBegins;
+    private int[] tokenEnds;
+    private int[] tokenAddrs;
+    private int tokenCount;
+
+    private int[] sentenceBegins;
+    private int[] sentenceEnds;
+    private int[] sentenceFirstTokens;
+    private int sentenceCount;
+
+    /**
+     * Offsets of the sub-tokens of a token by token index in the order in which they were
+     * created. The position of a sub-token in its list defines its ID.
+     */
+    private Map<Integer, List<int[]>> subTokens;
+
+    // Annotation address mapped to its disambiguation ID
+    private Map<Integer, Integer> disambiguationIds;
+
+    // Chain element address mapped to the chain ID and the position of the element in the chain
+    private Map<Integer, int[]> chainElements;
+
+    private Map<Type, Type> schemaTypes;
+    private Set<TsvColumn> activeColumns;
+    private List<TsvColumn> headerColumns;
+
+    private final StringBuilder line = new StringBuilder();
+
+    // Why the last CAS was not streamed or null if it was
+    private String fallbackReason;
+
+    public void write(Writer aOut, TsvSchema aSchema, JCas aJCas) throws IOException
+    {
+        jcas = aJCas;
+        llCas = aJCas.getCas().getLowLevelCAS();
+        schema = aSchema;
+        documentText = aJCas.getDocumentText();
+        fallbackReason = null;
+
+        try {
+            if (!indexTokens() || !checkLayers()) {
+                LOG.info("Unable to stream CAS: {} - building the complete TSV document model",
+                        fallbackReason);
+                PrintWriter out = new PrintWriter(aOut);
+                new Tsv3XSerializer().write(out, Tsv3XCasDocumentBuilder.of(aSchema, aJCas));
+                flush(out);
+                return;
+            }
+
+            scanChains();
+            scanLayers();
+
+            PrintWriter out = new PrintWriter(aOut);
+            Tsv3XSerializer headerWriter = new Tsv3XSerializer();
+            headerWriter.write(out, new TsvFormatHeader("WebAnno TSV", "3.2"));
+            headerWriter.write(out, aSchema, activeColumns);
+            flush(out);
+
+            writeSentences(aOut);
+        }
+        finally {
+            // Do not hold on to the CAS or any of its annotations
+            jcas = null;
+            llCas = null;
+            schema = null;
+            documentText = null;
+            subTokens = null;
+            disambiguationIds = null;
+            chainElements = null;
+            schemaTypes = null;
+            line.setLength(0);
+        }
+    }
+
+    /**
+     * @return why the CAS passed to the last call of {@link #write} was not streamed but written
+     *         via the complete TSV document model or {@code null} if it was streamed.
+     */
+    /* package private */ String getFallbackReason()
+    {
+        return fallbackReason;
+    }
+
+    private void flush(PrintWriter aOut) throws IOException
+    {
+        aOut.flush();
+        if (aOut.checkError()) {
+            throw new IOException("Unable to write TSV header");
+        }
+    }
+
+    /**
+     * Collects the offsets of the tokens of all sentences. Streaming requires tokens which are
+     * ordered by their begin and end offsets without overlaps between the sentences.
+     */
+    private boolean indexTokens()
+    {
+        tokenBegins = new int[1024];
+        tokenEnds = new int[1024];
+        tokenAddrs = new int[1024];
+        tokenCount = 0;
+        sentenceBegins = new int[64];
+        sentenceEnds = new int[64];
+        sentenceFirstTokens = new int[64];
+        sentenceCount = 0;
+
+        for (Sentence sentence : select(jcas, Sentence.class)) {
+            if (sentenceCount == sentenceBegins.length) {
+                sentenceBegins = Arrays.copyOf(sentenceBegins, sentenceCount * 2);
+                sentenceEnds = Arrays.copyOf(sentenceEnds, sentenceCount * 2);
+                sentenceFirstTokens = Arrays.copyOf(sentenceFirstTokens, sentenceCount * 2);
+            }
+            sentenceBegins[sentenceCount] = sentence.getBegin();
+            sentenceEnds[sentenceCount] = sentence.getEnd();
+            sentenceFirstTokens[sentenceCount] = tokenCount;
+            sentenceCount++;
+
+            for (Token token : selectCovered(Token.class, sentence)) {
+                if (tokenCount > 0 && (token.getBegin() <= tokenBegins[tokenCount - 1]
+                        || token.getEnd() <= tokenEnds[tokenCount - 1])) {
+                    fallbackReason = "token at [" + token.getBegin() + "-" + token.getEnd()
+                            + "] overlaps with the previous token";
+                    return false;
+                }
+
+                if (tokenCount == tokenBegins.length) {
+                    tokenBegins = Arrays.copyOf(tokenBegins, tokenCount * 2);
+                    tokenEnds = Arrays.copyOf(tokenEnds, tokenCount * 2);
+                    tokenAddrs = Arrays.copyOf(tokenAddrs, tokenCount * 2);
+                }
+                tokenBegins[tokenCount] = token.getBegin();
+                tokenEnds[tokenCount] = token.getEnd();
+                tokenAddrs[tokenCount] = llCas.ll_getFSRef(token);
+                tokenCount++;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks that each annotation is handled by exactly one layer of the schema and that
+     * relations are located at their targets.
+     */
+    private boolean checkLayers()
+    {
+        TypeSystem ts = jcas.getTypeSystem();
+        schemaTypes = new HashMap<>();
+        Set<Type> layers = schema.getUimaTypes();
+        for (Type type : layers) {
+            if (type.getName().equals(Token.class.getName())
+                    || type.getName().equals(Sentence.class.getName())) {
+                fallbackReason = "[" + type.getName() + "] is used as a layer";
+                return false;
+            }
+
+            for (Type other : layers) {
+                if (!type.equals(other) && ts.subsumes(type, other)) {
+                    fallbackReason = "layer [" + other.getName() + "] is a subtype of layer ["
+                            + type.getName() + "]";
+                    return false;
+                }
+            }
+
+            if (RELATION.equals(schema.getLayerType(type))) {
+                for (AnnotationFS fs : CasUtil.select(jcas.getCas(), type)) {
+                    AnnotationFS target = getFeature(fs, FEAT_REL_TARGET, AnnotationFS.class);
+                    if (target == null || target.getBegin() != fs.getBegin()
+                            || target.getEnd() != fs.getEnd()) {
+                        fallbackReason = "relation [" + type.getName() + "] at ["
+                                + fs.getBegin() + "-" + fs.getEnd()
+                                + "] is not located at its target";
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void scanChains()
+    {
+        chainElements = new HashMap<>();
+        int chainId = 0;
+        for (Type headType : schema.getChainHeadTypes()) {
+            for (FeatureStructure chainHead : CasUtil.selectFS(jcas.getCas(), headType)) {
+                AnnotationFS link = getFeature(chainHead, CHAIN_FIRST_FEAT, AnnotationFS.class);
+                if (link == null) {
+                    continue;
+                }
+
+                chainId++;
+                int position = 1;
+                while (link != null) {
+                    // If an element occurs in multiple chains, the last chain wins. Within a
+                    // chain, the first position of the element counts.
+                    int addr = llCas.ll_getFSRef(link);
+                    int[] element = chainElements.get(addr);
+                    if (element == null || element[0] != chainId) {
+                        chainElements.put(addr, new int[] { chainId, position });
+                    }
+                    position++;
+                    link = getFeature(link, CHAIN_NEXT_FEAT, AnnotationFS.class);
+                }
+            }
+        }
+    }
+
+    /**
+     * Distributes the annotations of each layer over the units in the same way as the
+     * {@link Tsv3XCasDocumentBuilder} does to create the sub-tokens, assign the disambiguation IDs
+     * and determine the active columns.
+     */
+    private void scanLayers()
+    {
+        subTokens = new HashMap<>();
+        disambiguationIds = new HashMap<>();
+        activeColumns = new HashSet<>();
+        Set<Type> activeTypes = new HashSet<>();
+
+        // Units of the layers with slots which may point to any kind of annotation by unit
+        TreeMap<Long, Map<Type, List<Integer>>> slotHostUnits = new TreeMap<>();
+
+        for (Type type : schema.getUimaTypes()) {
+            LayerType layerType = schema.getLayerType(type);
+            boolean addDisambiguationIdIfStacked = SPAN.equals(layerType);
+
+            // The annotations on each unit by their type
+            Map<Type, Map<Long, List<Integer>>> layerUnits = new HashMap<>();
+
+            for (AnnotationFS annotation : CasUtil.select(jcas.getCas(), type)) {
+                activeTypes.add(annotation.getType());
+                schemaTypes.put(annotation.getType(), type);
+
+                int addr = llCas.ll_getFSRef(annotation);
+                Map<Long, List<Integer>> units = layerUnits
+                        .computeIfAbsent(annotation.getType(), t -> new HashMap<>());
+                boolean multiToken = distribute(annotation, layerType, new UnitVisitor()
+                {
+                    @Override
+                    public void add(int aToken, int aSubToken)
+                    {
+                        List<Integer> annotations = units.computeIfAbsent(
+                                unitKey(aToken, aSubToken), k -> new ArrayList<>());
+                        boolean alreadyHaveAnnotationsOfSameType = !annotations.isEmpty();
+                        if (!annotations.contains(addr)) {
+                            annotations.add(addr);
+                            if (addDisambiguationIdIfStacked
+                                    && alreadyHaveAnnotationsOfSameType) {
+                                annotations.forEach(a -> addDisambiguationId(a));
+                            }
+                        }
+                    }
+                });
+
+                // Multi-token span annotations must get a disambiguation ID
+                if (SPAN.equals(layerType) && multiToken) {
+                    addDisambiguationId(addr);
+                }
+            }
+
+            for (Map.Entry<Type, Map<Long, List<Integer>>> e : layerUnits.entrySet()) {
+                scanUnitsForActiveColumns(e.getKey(), new TreeMap<>(e.getValue()));
+
+                for (TsvColumn col : schema.getColumns()) {
+                    if (col.uimaType.equals(e.getKey()) && isAmbiguousSlotColumn(col)) {
+                        e.getValue().forEach((unit, annotations) -> slotHostUnits
+                                .computeIfAbsent(unit, k -> new HashMap<>())
+                                .put(e.getKey(), annotations));
+                        break;
+                    }
+                }
+            }
+        }
+
+        // If a slot feature has the target type Annotation, then any kind of annotation can be
+        // used as slot filler. In this case, the targets are ambiguous and require an
+        // disambiguation ID.
+        for (Map<Type, List<Integer>> unit : slotHostUnits.values()) {
+            for (TsvColumn col : schema.getColumns()) {
+                if (!isAmbiguousSlotColumn(col) || !unit.containsKey(col.uimaType)) {
+                    continue;
+                }
+
+                for (int addr : unit.get(col.uimaType)) {
+                    FeatureStructure[] links = getFeature(llCas.ll_getFSForRef(addr),
+                            col.uimaFeature, FeatureStructure[].class);
+                    if (links == null) {
+                        continue;
+                    }
+                    for (FeatureStructure link : links) {
+                        AnnotationFS targetFS = getFeature(link, FEAT_SLOT_TARGET,
+                                AnnotationFS.class);
+                        if (targetFS == null) {
+                            throw new IllegalStateException("Slot link has no target: " + link);
+                        }
+                        addDisambiguationId(llCas.ll_getFSRef(targetFS));
+                    }
+                }
+            }
+        }
+
+        // Activate the placeholder columns for any active types for which no other columns are
+        // active.
+        Set<Type> activeTypesNeedingPlaceholders = new HashSet<>(activeTypes);
+        for (TsvColumn col : activeColumns) {
+            activeTypesNeedingPlaceholders.remove(col.uimaType);
+        }
+        for (TsvColumn col : schema.getColumns()) {
+            if (PLACEHOLDER.equals(col.featureType)
+                    && activeTypesNeedingPlaceholders.contains(col.uimaType)) {
+                activeColumns.add(col);
+            }
+        }
+
+        headerColumns = schema.getHeaderColumns(activeColumns);
+    }
+
+    /**
+     * @param aUnits
+     *            the annotations of the given type on each unit in document order.
+     */
+    private void scanUnitsForActiveColumns(Type aType, TreeMap<Long, List<Integer>> aUnits)
+    {
+        for (TsvColumn col : schema.getColumns()) {
+            if (!col.uimaType.equals(aType)) {
+                continue;
+            }
+
+            if (!PLACEHOLDER.equals(col.featureType)) {
+                activeColumns.add(col);
+            }
+
+            // COMPATIBILITY NOTE:
+            // WebAnnoTsv3Writer obtains the type of a relation target column not from the
+            // type system definition but rather by looking at target used by the
+            // actual annotations - the model builder ends up using the last unit.
+            if (RELATION.equals(col.layerType) && RELATION_REF.equals(col.featureType)) {
+                for (List<Integer> annotations : aUnits.values()) {
+                    AnnotationFS annotation = llCas.ll_getFSForRef(annotations.get(0));
+                    FeatureStructure target = getFeature(annotation, FEAT_REL_SOURCE,
+                            FeatureStructure.class);
+
+                    if (target == null) {
+                        throw new IllegalStateException(
+                                "Relation does not have its source feature (" + FEAT_REL_SOURCE
+                                        + ") set: " + annotation);
+                    }
+
+                    if (col.uimaType.getName().equals(Dependency.class.getName())) {
+                        // COMPATIBILITY NOTE:
+                        // WebAnnoTsv3Writer hard-changes the target type for DKPro Core
+                        // Dependency annotations from Token to POS.
+                        col.setTargetTypeHint(
+                                jcas.getTypeSystem().getType(POS.class.getName()));
+                    }
+                    else {
+                        col.setTargetTypeHint(target.getType());
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isAmbiguousSlotColumn(TsvColumn aCol)
+    {
+        return SPAN.equals(aCol.layerType) && SLOT_TARGET.equals(aCol.featureType)
+                && CAS.TYPE_NAME_ANNOTATION.equals(aCol.getTargetTypeHint().getName());
+    }
+
+    private void addDisambiguationId(int aAddr)
+    {
+        disambiguationIds.putIfAbsent(aAddr, disambiguationIds.size() + 1);
+    }
+
+    private void writeSentences(Writer aOut) throws IOException
+    {
+        List<Sweep> sweeps = new ArrayList<>();
+        for (Type type : schema.getUimaTypes()) {
+            sweeps.add(new Sweep(schema.getLayerType(type),
+                    jcas.getCas().getAnnotationIndex(type).iterator()));
+        }
+
+        for (int s = 0; s < sentenceCount; s++) {
+            int firstToken = sentenceFirstTokens[s];
+            int lastToken = (s + 1 < sentenceCount ? sentenceFirstTokens[s + 1] : tokenCount) - 1;
+
+            // Annotations beginning before the first token of the next sentence may be located
+            // in this sentence - and so may those starting at the end of its last token if the
+            // tokens are directly adjacent
+            int limit = Integer.MAX_VALUE;
+            if (lastToken + 1 < tokenCount) {
+                limit = tokenBegins[lastToken + 1];
+                if (lastToken >= 0) {
+                    limit = max(limit, tokenEnds[lastToken] + 1);
+                }
+            }
+
+            // The annotations on the units of this sentence by unit and type
+            Map<Long, Map<Type, List<AnnotationFS>>> units = new HashMap<>();
+            for (Sweep sweep : sweeps) {
+                collectAnnotations(sweep, firstToken, lastToken, limit, units);
+            }
+
+            line.setLength(0);
+            line.append(LINE_BREAK);
+            String text = documentText.substring(sentenceBegins[s], sentenceEnds[s]);
+            for (String textLine : splitPreserveAllTokens(text, LINE_BREAK)) {
+                line.append(PREFIX_TEXT);
+                line.append(escapeText(textLine));
+                line.append(LINE_BREAK);
+            }
+            aOut.append(line);
+
+            for (int t = firstToken; t <= lastToken; t++) {
+                writeUnit(aOut, s, t, -1, units);
+                List<int[]> tokenSubTokens = subTokens.get(t);
+                if (tokenSubTokens != null) {
+                    for (int st = 0; st < tokenSubTokens.size(); st++) {
+                        writeUnit(aOut, s, t, st, units);
+                    }
+                }
+            }
+        }
+    }
+
+    private void collectAnnotations(Sweep aSweep, int aFirstToken, int aLastToken, int aLimit,
+            Map<Long, Map<Type, List<AnnotationFS>>> aUnits)
+    {
+        // Annotations from previous sentences come first because they come first in the index
+        List<AnnotationFS> candidates = aSweep.carried;
+        while (aSweep.iterator.hasNext()) {
+            AnnotationFS annotation = aSweep.iterator.get();
+            if (annotation.getBegin() >= aLimit) {
+                break;
+            }
+            candidates.add(annotation);
+            aSweep.iterator.moveToNext();
+        }
+
+        aSweep.carried = new ArrayList<>();
+        for (AnnotationFS annotation : candidates) {
+            int[] lastToken = { -1 };
+            distribute(annotation, aSweep.layerType, new UnitVisitor()
+            {
+                @Override
+                public void add(int aToken, int aSubToken)
+                {
+                    lastToken[0] = max(lastToken[0], aToken);
+                    if (aToken < aFirstToken || aToken > aLastToken) {
+                        return;
+                    }
+
+                    List<AnnotationFS> annotations = aUnits
+                            .computeIfAbsent(unitKey(aToken, aSubToken), k -> new HashMap<>())
+                            .computeIfAbsent(annotation.getType(), k -> new ArrayList<>());
+                    if (!annotations.contains(annotation)) {
+                        annotations.add(annotation);
+                    }
+                }
+            });
+
+            // Keep annotations which reach into the next sentence
+            if (lastToken[0] > aLastToken) {
+                aSweep.carried.add(annotation);
+            }
+        }
+    }
+
+    private void writeUnit(Writer aOut, int aSentence, int aToken, int aSubToken,
+            Map<Long, Map<Type, List<AnnotationFS>>> aUnits)
+        throws IOException
+    {
+        int begin = tokenBegins[aToken];
+        int end = tokenEnds[aToken];
+        if (aSubToken != -1) {
+            int[] offsets = subTokens.get(aToken).get(aSubToken);
+            begin = offsets[0];
+            end = offsets[1];
+        }
+
+        line.setLength(0);
+
+        // Write unit ID
+        appendUnitId(line, aSentence, aToken, aSubToken);
+        line.append(FIELD_SEPARATOR);
+
+        // Write unit offset
+        line.append(begin).append('-').append(end);
+        line.append(FIELD_SEPARATOR);
+
+        // Write unit text
+        line.append(documentText, begin, end);
+        line.append(FIELD_SEPARATOR);
+
+        // Write the remaining columns according to the schema definition
+        Map<Type, List<AnnotationFS>> unit = aUnits.get(unitKey(aToken, aSubToken));
+        for (TsvColumn col : headerColumns) {
+            List<AnnotationFS> columnAnnos = unit != null ? unit.get(col.uimaType) : null;
+
+            // Write all the values in this column - there could be multiple due to stacking
+            if (columnAnnos == null || columnAnnos.isEmpty()) {
+                line.append(NULL_COLUMN);
+            }
+            else {
+                for (int i = 0; i < columnAnnos.size(); i++) {
+                    if (i > 0) {
+                        line.append(STACK_SEP);
+                    }
+                    appendValue(col, columnAnnos.get(i));
+                }
+            }
+            line.append(FIELD_SEPARATOR);
+        }
+
+        line.append(LINE_BREAK);
+        aOut.append(line);
+    }
+
+    private void appendValue(TsvColumn aCol, AnnotationFS aFS)
+    {
+        // What kind of column is it? Depending on the type of column, the annotation value
+        // has to be encoded differently.
+        switch (aCol.featureType) {
+        case PLACEHOLDER: {
+            line.append(NULL_VALUE);
+            appendDisambiguationId(aFS);
+            break;
+        }
+        case PRIMITIVE: {
+            Object value = getFeature(aFS, aCol.uimaFeature, Object.class);
+            line.append(value == null ? NULL_VALUE : escapeValue(String.valueOf(value)));
+            appendDisambiguationId(aFS);
+            break;
+        }
+        case RELATION_REF: {
+            AnnotationFS targetFS = getFeature(aFS, FEAT_REL_TARGET, AnnotationFS.class);
+            AnnotationFS sourceFS = getFeature(aFS, FEAT_REL_SOURCE, AnnotationFS.class);
+
+            // The column contains the ID of the unit from which the relation is pointing to the
+            // current unit, i.e. the sourceUnit of the relation.
+            appendIdDefiningUnit(sourceFS);
+
+            // If the source/target is ambiguous, add the disambiguation IDs
+            Integer sourceId = disambiguationIds.get(llCas.ll_getFSRef(sourceFS));
+            Integer targetId = disambiguationIds.get(llCas.ll_getFSRef(targetFS));
+            if (sourceId != null || targetId != null) {
+                line.append('[').append(sourceId != null ? sourceId : 0).append('_')
+                        .append(targetId != null ? targetId : 0).append(']');
+            }
+            break;
+        }
+        case SLOT_ROLE: {
+            FeatureStructure[] links = getFeature(aFS, aCol.uimaFeature,
+                    FeatureStructure[].class);
+            if (links != null && links.length > 0) {
+                for (int i = 0; i < links.length; i++) {
+                    if (i > 0) {
+                        line.append(SLOT_SEP);
+                    }
+                    String value = getFeature(links[i], FEAT_SLOT_ROLE, String.class);
+                    line.append(value == null ? NULL_VALUE : escapeValue(value));
+                }
+            }
+            else {
+                line.append(NULL_COLUMN);
+            }
+            appendDisambiguationId(aFS);
+            break;
+        }
+        case SLOT_TARGET: {
+            FeatureStructure[] links = getFeature(aFS, aCol.uimaFeature,
+                    FeatureStructure[].class);
+            if (links != null && links.length > 0) {
+                for (int i = 0; i < links.length; i++) {
+                    if (i > 0) {
+                        line.append(SLOT_SEP);
+                    }
+                    AnnotationFS targetFS = getFeature(links[i], FEAT_SLOT_TARGET,
+                            AnnotationFS.class);
+                    if (targetFS == null) {
+                        throw new IllegalStateException("Slot link has no target: " + links[i]);
+                    }
+
+                    appendIdDefiningUnit(targetFS);
+                    appendDisambiguationId(targetFS);
+                }
+            }
+            else {
+                // If the slot hosts has no slots, we use this column as a placeholder so we know
+                // the span of the slot host
+                line.append(NULL_VALUE);
+            }
+            break;
+        }
+        case CHAIN_ELEMENT_TYPE: {
+            String value = getFeature(aFS, COREFERENCE_TYPE_FEATURE, String.class);
+            line.append(value == null ? NULL_VALUE : escapeValue(value));
+            line.append('[').append(getChainElement(aFS)[0]).append(']');
+            break;
+        }
+        case CHAIN_LINK_TYPE: {
+            String value = getFeature(aFS, COREFERENCE_RELATION_FEATURE, String.class);
+            int[] element = getChainElement(aFS);
+            line.append(value == null ? NULL_VALUE : escapeValue(value));
+            line.append("->").append(element[0]).append('-').append(element[1]);
+            break;
+        }
+        default:
+            throw new IllegalStateException("Unknown feature type: [" + aCol.featureType + "]");
+        }
+    }
+
+    private void appendDisambiguationId(AnnotationFS aFS)
+    {
+        Integer disambiguationId = disambiguationIds.get(llCas.ll_getFSRef(aFS));
+        if (disambiguationId != null) {
+            line.append('[').append(disambiguationId).append(']');
+        }
+    }
+
+    private int[] getChainElement(AnnotationFS aFS)
+    {
+        int[] element = chainElements.get(llCas.ll_getFSRef(aFS));
+        if (element == null) {
+            throw new IllegalStateException("Chain element is not part of any chain: " + aFS);
+        }
+        return element;
+    }
+
+    /**
+     * Appends the ID of the unit which defines the TSV ID of the given annotation. The unit is
+     * determined the same way as when the annotation was distributed over the units.
+     */
+    private void appendIdDefiningUnit(AnnotationFS aFS)
+    {
+        int[] unit = { -1, -1 };
+        Type layer = schemaTypes.get(aFS.getType());
+        if (layer != null) {
+            distribute(aFS, schema.getLayerType(layer), new UnitVisitor()
+            {
+                @Override
+                public void map(int aToken, int aSubToken)
+                {
+                    unit[0] = aToken;
+                    unit[1] = aSubToken;
+                }
+            });
+        }
+        else {
+            int token = Arrays.binarySearch(tokenBegins, 0, tokenCount, aFS.getBegin());
+            if (token >= 0 && tokenAddrs[token] == llCas.ll_getFSRef(aFS)) {
+                unit[0] = token;
+            }
+        }
+
+        if (unit[0] == -1) {
+            throw new IllegalStateException(
+                    "Unable to find ID-defining unit for annotation: " + aFS);
+        }
+
+        int sentence = Arrays.binarySearch(sentenceFirstTokens, 0, sentenceCount, unit[0]);
+        if (sentence < 0) {
+            sentence = -sentence - 2;
+        }
+        // Skip sentences without tokens
+        while (sentence + 1 < sentenceCount && sentenceFirstTokens[sentence + 1] == unit[0]) {
+            sentence++;
+        }
+        appendUnitId(line, sentence, unit[0], unit[1]);
+    }
+
+    private void appendUnitId(StringBuilder aBuffer, int aSentence, int aToken, int aSubToken)
+    {
+        aBuffer.append(aSentence + 1).append('-')
+                .append(aToken - sentenceFirstTokens[aSentence] + 1);
+        if (aSubToken != -1) {
+            aBuffer.append('.').append(aSubToken + 1);
+        }
+    }
+
+    /**
+     * Determines the units covered by the given annotation - mirroring the
+     * {@link Tsv3XCasDocumentBuilder}.
+     *
+     * @return whether the annotation spans multiple tokens.
+     */
+    private boolean distribute(AnnotationFS aFS, LayerType aLayerType, UnitVisitor aVisitor)
+    {
+        // Get the relevant begin and end offsets for the current annotation
+        int begin = aFS.getBegin();
+        int end = aFS.getEnd();
+
+        // According to DKPro Core conventions, the offsets of relations must match
+        // those of the target (i.e. the offsets of a Dependency relation must match
+        // those of the dependent). Thus, we obtain the offsets from the target, just
+        // to be sure.
+        if (RELATION.equals(aLayerType)) {
+            AnnotationFS targetFS = getFeature(aFS, FEAT_REL_TARGET, AnnotationFS.class);
+            begin = targetFS.getBegin();
+            end = targetFS.getEnd();
+        }
+
+        int beginToken = floorToken(begin);
+        int endToken = ceilingToken(end);
+
+        // For zero-width annotations, the begin token must match the end token.
+        if (begin == end) {
+            beginToken = endToken;
+        }
+
+        if (beginToken == -1 || endToken == -1) {
+            throw new IllegalStateException("Annotation is not located at any token: " + aFS);
+        }
+
+        boolean singleToken = beginToken == endToken;
+        boolean zeroWitdh = begin == end;
+        boolean multiTokenCapable = SPAN.equals(aLayerType) || CHAIN.equals(aLayerType);
+
+        if (tokenBegins[beginToken] == begin && tokenEnds[endToken] == end) {
+            aVisitor.map(beginToken, -1);
+            aVisitor.add(beginToken, -1);
+
+            if (multiTokenCapable) {
+                aVisitor.add(endToken, -1);
+            }
+        }
+        else if (zeroWitdh) {
+            int st = subToken(beginToken, begin, min(tokenEnds[beginToken], end));
+            aVisitor.map(beginToken, st);
+            aVisitor.add(beginToken, st);
+        }
+        else {
+            // Suffix of the begin token
+            if (tokenBegins[beginToken] < begin) {
+                int st = subToken(beginToken, begin, min(tokenEnds[beginToken], end));
+                aVisitor.map(beginToken, st);
+                aVisitor.add(beginToken, st);
+            }
+            else {
+                aVisitor.add(beginToken, -1);
+                aVisitor.map(beginToken, -1);
+            }
+
+            // Prefix of the end token
+            if (tokenEnds[endToken] > end) {
+                int st = subToken(endToken, max(tokenBegins[endToken], begin), end);
+                aVisitor.add(endToken, st);
+
+                if (!singleToken) {
+                    aVisitor.map(endToken, st);
+                }
+            }
+            else if (!singleToken && multiTokenCapable) {
+                aVisitor.add(endToken, -1);
+            }
+        }
+
+        // The annotation must also be added to all tokens between the begin token and
+        // the end token
+        if (multiTokenCapable && !singleToken) {
+            for (int t = beginToken + 1; t < endToken; t++) {
+                aVisitor.add(t, -1);
+            }
+        }
+
+        return !singleToken;
+    }
+
+    /**
+     * @return the index of the sub-token with the given offsets on the given token. The sub-token
+     *         is created if it does not exist yet.
+     */
+    private int subToken(int aToken, int aBegin, int aEnd)
+    {
+        List<int[]> tokenSubTokens = subTokens.computeIfAbsent(aToken, k -> new ArrayList<>());
+        for (int i = 0; i < tokenSubTokens.size(); i++) {
+            int[] offsets = tokenSubTokens.get(i);
+            if (offsets[0] == aBegin && offsets[1] == aEnd) {
+                return i;
+            }
+        }
+        tokenSubTokens.add(new int[] { aBegin, aEnd });
+        return tokenSubTokens.size() - 1;
+    }
+
+    /**
+     * @return the index of the last token beginning at or before the given offset or -1.
+     */
+    private int floorToken(int aOffset)
+    {
+        int i = Arrays.binarySearch(tokenBegins, 0, tokenCount, aOffset);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * @return the index of the first token ending at or after the given offset or -1.
+     */
+    private int ceilingToken(int aOffset)
+    {
+        int i = Arrays.binarySearch(tokenEnds, 0, tokenCount, aOffset);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < tokenCount ? i : -1;
+    }
+
+    private static long unitKey(int aToken, int aSubToken)
+    {
+        // Sorting by this key sorts the units in document order - a token before its sub-tokens
+        return ((long) aToken << 20) | (aSubToken + 1);
+    }
+
+    private abstract static class UnitVisitor
+    {
+        /**
+         * Called for the unit which defines the ID of the annotation.
+         */
+        public void map(int aToken, int aSubToken)
+        {
+            // Nothing to do by default
+        }
+
+        /**
+         * Called for each unit on which the annotation appears.
+         */
+        public void add(int aToken, int aSubToken)
+        {
+            // Nothing to do by default
+        }
+    }
+
+    private static final class Sweep
+    {
+        private final LayerType layerType;
+        private final FSIterator<AnnotationFS> iterator;
+        private List<AnnotationFS> carried = new ArrayList<>();
+
+        private Sweep(LayerType aLayerType, FSIterator<AnnotationFS> aIterator)
+        {
+            layerType = aLayerType;
+            iterator = aIterator;
+        }
+    }
+}
@@ -26,6 +26,8 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.PrefixFileFilter;
@@ -56,18 +58,33 @@ import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
 @RunWith(value = Parameterized.class)
 public class WebAnnoTsv3XReaderWriterRoundTripTest
 {
-    @Parameters(name = "{index}: running on file {0}")
-    public static Iterable<File> tsvFiles()
+    @Parameters(name = "{index}: running on file {0} (streaming reader: {1}, "
+            + "streaming writer: {2})")
+    public static Iterable<Object[]> tsvFiles()
     {
-        return asList(new File("src/test/resources/tsv3-suite/").listFiles(
-                (FilenameFilter) new PrefixFileFilter(asList("test", "issue", "sample"))));
+        List<Object[]> params = new ArrayList<>();
+        for (File folder : new File("src/test/resources/tsv3-suite/").listFiles(
+                (FilenameFilter) new PrefixFileFilter(asList("test", "issue", "sample")))) {
+            // The streaming and the legacy implementations must be interchangeable, so each
+            // reader is also combined with the other writer
+            params.add(new Object[] { folder, false, false });
+            params.add(new Object[] { folder, true, true });
+            params.add(new Object[] { folder, true, false });
+            params.add(new Object[] { folder, false, true });
+        }
+        return params;
     }
 
     private File referenceFolder;
+    private boolean streamingReader;
+    private boolean streamingWriter;
 
-    public WebAnnoTsv3XReaderWriterRoundTripTest(File aFolder)
+    public WebAnnoTsv3XReaderWriterRoundTripTest(File aFolder, boolean aStreamingReader,
+            boolean aStreamingWriter)
     {
         referenceFolder = aFolder;
+        streamingReader = aStreamingReader;
+        streamingWriter = aStreamingWriter;
     }
 
     @Test
@@ -87,12 +104,14 @@ public class WebAnnoTsv3XReaderWriterRoundTripTest
         TypeSystemDescription merged = CasCreationUtils.mergeTypeSystems(asList(global, local));
         
         String targetFolder = "target/test-output/WebAnnoTsv3XReaderWriterRoundTripTest/"
-                + referenceFolder.getName();
+                + referenceFolder.getName() + (streamingReader ? "-streaming-reader" : "")
+                + (streamingWriter ? "-streaming-writer" : "");
         
         CollectionReaderDescription reader = createReaderDescription(WebannoTsv3XReader.class,
                 merged,
                 WebannoTsv3XReader.PARAM_SOURCE_LOCATION, referenceFolder,
-                WebannoTsv3XReader.PARAM_PATTERNS, "reference.tsv");
+                WebannoTsv3XReader.PARAM_PATTERNS, "reference.tsv",
+                WebannoTsv3XReader.PARAM_STREAMING, streamingReader);
         
         AnalysisEngineDescription checker = createEngineDescription(
                 DKProCoreConventionsChecker.class);
@@ -100,7 +119,8 @@ public class WebAnnoTsv3XReaderWriterRoundTripTest
         AnalysisEngineDescription tsvWriter = createEngineDescription(WebannoTsv3XWriter.class,
                 merged,
                 WebannoTsv3XWriter.PARAM_TARGET_LOCATION, targetFolder,
-                WebannoTsv3XWriter.PARAM_STRIP_EXTENSION, true);
+                WebannoTsv3XWriter.PARAM_STRIP_EXTENSION, true,
+                WebannoTsv3XWriter.PARAM_STREAMING, streamingWriter);
 
         AnalysisEngineDescription xmiWriter = createEngineDescription(XmiWriter.class,
                 merged,
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvDocument;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class Tsv3XStreamingDeserializerTest
+{
+    @Test
+    public void thatSplitUnescapedMatchesPatternSplit()
+    {
+        Pattern stackSep = Pattern.compile("(?<!\\\\)" + Pattern.quote("|"));
+
+        for (String value : asList("", "a", "a|b", "a\\|b|c", "|a", "a|", "a||", "|", "||",
+                "a\\\\|b", "PER[1]|ORG[2]")) {
+            List<String> actual = new ArrayList<>();
+            Tsv3XStreamingDeserializer.splitUnescaped("x" + value + "y", 1, value.length() + 1,
+                    '|', actual);
+
+            assertEquals("Splitting [" + value + "]", asList(stackSep.split(value)), actual);
+        }
+    }
+
+    @Test
+    public void thatChainSuffixMatchesPattern()
+    {
+        Pattern chainSuffix = Pattern.compile("^.*(?<!\\\\)->" + "(?<CHAIN>\\d+-\\d+)$");
+
+        for (String value : asList("", "*->1-1", "NAM->12-3", "a->b->1-2", "a\\->1-2", "->1-2",
+                "*->1-", "*->-1", "*-1-2", "*->1-2x", "1-2", "*->a1-2", "x->1-2-3")) {
+            Matcher m = chainSuffix.matcher(value);
+            int expected = m.matches() ? m.start("CHAIN") : -1;
+
+            assertEquals("Chain suffix in [" + value + "]", expected,
+                    Tsv3XStreamingDeserializer.chainSuffixBegin(value));
+        }
+    }
+
+    @Test
+    public void thatStreamingReaderMatchesModelReader() throws Exception
+    {
+        String tsv = generateDocument(100);
+
+        JCas model = read(tsv, false);
+        JCas streaming = read(tsv, true);
+
+        assertEquals(model.getDocumentText(), streaming.getDocumentText());
+        for (Class<? extends Annotation> type : asList(Sentence.class, Token.class, POS.class,
+                Lemma.class, Dependency.class, NamedEntity.class)) {
+            assertEquals(type.getSimpleName(), select(model, type).size(),
+                    select(streaming, type).size());
+        }
+        assertEquals(1000, select(streaming, Token.class).size());
+        assertEquals(write(model), write(streaming));
+    }
+
+    private JCas read(String aTsv, boolean aStreaming) throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        try (LineNumberReader in = new LineNumberReader(new StringReader(aTsv))) {
+            if (aStreaming) {
+                new Tsv3XStreamingDeserializer().read(in, jcas);
+            }
+            else {
+                new Tsv3XDeserializer().read(in, jcas);
+            }
+        }
+        return jcas;
+    }
+
+    private String write(JCas aJCas)
+    {
+        TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(aJCas.getTypeSystem());
+        TsvDocument doc = Tsv3XCasDocumentBuilder.of(schema, aJCas);
+        StringWriter buf = new StringWriter();
+        try (PrintWriter out = new PrintWriter(buf)) {
+            new Tsv3XSerializer().write(out, doc);
+        }
+        return buf.toString();
+    }
+
+    private String generateDocument(int aSentences) throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        StringBuilder text = new StringBuilder();
+        String[] words = { "The", "quick", "brown", "fox", "jumps", "over", "the", "lazy", "dog",
+                "." };
+        for (int s = 0; s < aSentences; s++) {
+            int sentenceBegin = text.length();
+            Token prev = null;
+            for (int w = 0; w < words.length; w++) {
+                int begin = text.length();
+                text.append(words[w]);
+                Token token = new Token(jcas, begin, text.length());
+                token.addToIndexes();
+                text.append(' ');
+
+                POS pos = new POS(jcas, token.getBegin(), token.getEnd());
+                pos.setPosValue("POS" + w);
+                pos.addToIndexes();
+                token.setPos(pos);
+
+                Lemma lemma = new Lemma(jcas, token.getBegin(), token.getEnd());
+                lemma.setValue(words[w].toLowerCase());
+                lemma.addToIndexes();
+                token.setLemma(lemma);
+
+                if (prev != null) {
+                    Dependency dep = new Dependency(jcas, token.getBegin(), token.getEnd());
+                    dep.setGovernor(prev);
+                    dep.setDependent(token);
+                    dep.setDependencyType("dep");
+                    dep.addToIndexes();
+                }
+                prev = token;
+            }
+            new Sentence(jcas, sentenceBegin, text.length() - 1).addToIndexes();
+
+            // A multi-token named entity in every sentence
+            NamedEntity ne = new NamedEntity(jcas, sentenceBegin + 4, sentenceBegin + 19);
+            ne.setValue("ANIMAL");
+            ne.addToIndexes();
+        }
+        jcas.setDocumentText(text.toString());
+
+        return write(jcas);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.testing.factory.TokenBuilder;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.tsv.internal.tsv3x.model.TsvSchema;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class Tsv3XStreamingSerializerTest
+{
+    @Test
+    public void thatConventionalCasIsStreamed() throws Exception
+    {
+        JCas jcas = makeJCas();
+        addDependency(jcas, 0, 1, false);
+
+        Tsv3XStreamingSerializer sut = new Tsv3XStreamingSerializer();
+        String streamed = writeStreaming(sut, jcas);
+
+        assertNull(sut.getFallbackReason());
+        assertEquals(writeModel(jcas), streamed);
+    }
+
+    @Test
+    public void thatRelationNotAtItsTargetFallsBackToModel() throws Exception
+    {
+        JCas jcas = makeJCas();
+        addDependency(jcas, 0, 1, true);
+
+        Tsv3XStreamingSerializer sut = new Tsv3XStreamingSerializer();
+        String streamed = writeStreaming(sut, jcas);
+
+        assertNotNull(sut.getFallbackReason());
+        assertTrue(sut.getFallbackReason(), sut.getFallbackReason().startsWith("relation"));
+        assertEquals(writeModel(jcas), streamed);
+    }
+
+    @Test
+    public void thatFallbackIsResetForNextCas() throws Exception
+    {
+        JCas fallback = makeJCas();
+        addDependency(fallback, 0, 1, true);
+        JCas conventional = makeJCas();
+
+        Tsv3XStreamingSerializer sut = new Tsv3XStreamingSerializer();
+        writeStreaming(sut, fallback);
+        writeStreaming(sut, conventional);
+
+        assertNull(sut.getFallbackReason());
+    }
+
+    private static JCas makeJCas() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        TokenBuilder<Token, Sentence> tb = new TokenBuilder<>(Token.class, Sentence.class);
+        tb.buildTokens(jcas, "John loves Mary .");
+
+        NamedEntity ne = new NamedEntity(jcas, 0, 4);
+        ne.setValue("PER");
+        ne.addToIndexes();
+
+        return jcas;
+    }
+
+    private static void addDependency(JCas aJCas, int aGovernor, int aDependent,
+            boolean aAtGovernor)
+    {
+        List<Token> tokens = new ArrayList<>(select(aJCas, Token.class));
+        Token governor = tokens.get(aGovernor);
+        Token dependent = tokens.get(aDependent);
+        Token location = aAtGovernor ? governor : dependent;
+
+        Dependency dep = new Dependency(aJCas, location.getBegin(), location.getEnd());
+        dep.setGovernor(governor);
+        dep.setDependent(dependent);
+        dep.setDependencyType("nsubj");
+        dep.addToIndexes();
+    }
+
+    private static String writeStreaming(Tsv3XStreamingSerializer aSerializer, JCas aJCas)
+        throws Exception
+    {
+        TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(aJCas.getTypeSystem());
+        StringWriter buf = new StringWriter();
+        aSerializer.write(buf, schema, aJCas);
+        return buf.toString();
+    }
+
+    private static String writeModel(JCas aJCas)
+    {
+        TsvSchema schema = Tsv3XCasSchemaAnalyzer.analyze(aJCas.getTypeSystem());
+        StringWriter buf = new StringWriter();
+        try (PrintWriter out = new PrintWriter(buf)) {
+            new Tsv3XSerializer().write(out, Tsv3XCasDocumentBuilder.of(schema, aJCas));
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
+import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * A persistence object for the preferences of a user in a project, e.g. the annotation page
+ * settings. All settings of the user in the project are kept together in a single properties
+ * string.
+ */
+@Entity
+@Table(name = "user_project_settings", uniqueConstraints = { @UniqueConstraint(columnNames = {
+        "user", "project" }) })
+public class UserProjectSettings
+    implements Serializable
+{
+    private static final long serialVersionUID = 4394474262738011342L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String user;
+
+    @ManyToOne
+    @JoinColumn(name = "project", nullable = false)
+    private Project project;
+
+    @Lob
+    @Column(length = 64000)
+    private String settings;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = true)
+    private Date updated;
+
+    public UserProjectSettings()
+    {
+        // Required for JPA
+    }
+
+    public UserProjectSettings(Project aProject, String aUser)
+    {
+        project = aProject;
+        user = aUser;
+    }
+
+    @PrePersist
+    @PreUpdate
+    protected void onUpdate()
+    {
+        updated = new Date();
+    }
+
+    public Long getId()
+    {
+        return id;
+    }
+
+    public void setId(Long aId)
+    {
+        id = aId;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    public void setUser(String aUser)
+    {
+        user = aUser;
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    public void setProject(Project aProject)
+    {
+        project = aProject;
+    }
+
+    /**
+     * @return the settings in the {@link java.util.Properties} text format.
+     */
+    public String getSettings()
+    {
+        return settings;
+    }
+
+    public void setSettings(String aSettings)
+    {
+        settings = aSettings;
+    }
+
+    public Date getUpdated()
+    {
+        return updated;
+    }
+}
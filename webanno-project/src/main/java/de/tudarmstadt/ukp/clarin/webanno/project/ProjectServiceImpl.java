@@ -22,6 +22,9 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTA
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_FINISHED;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.NEW;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
 import static java.util.Comparator.comparingInt;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.apache.commons.io.IOUtils.copyLarge;
@@ -34,18 +37,30 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -56,7 +71,6 @@ import javax.persistence.Query;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -70,8 +84,14 @@ import org.springframework.context.SmartLifecycle;
 import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
 import org.springframework.core.type.filter.AnnotationTypeFilter;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectType;
@@ -86,6 +106,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
 import de.tudarmstadt.ukp.clarin.webanno.model.ProjectState;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.UserProjectSettings;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.Authority;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
@@ -101,10 +122,19 @@ public class ProjectServiceImpl
     private @PersistenceContext EntityManager entityManager;
     private @Autowired UserDao userRepository;
     private @Autowired ApplicationEventPublisher applicationEventPublisher;
+    private @Autowired PlatformTransactionManager txManager;
 
     @Value(value = "${repository.path}")
     private File dir;
 
+    /**
+     * Time in milliseconds to wait before recalculating the state of a project after a change.
+     * Each further change within this time restarts the wait, so a burst of changes causes only a
+     * single recalculation.
+     */
+    @Value(value = "${project.stateRecalculationDelay:1000}")
+    private long stateRecalculationDelay = 1000;
+
     // The annotation preference properties File name
     private static final String annotationPreferencePropertiesFileName = "annotation.properties";
 
@@ -112,6 +142,45 @@ public class ProjectServiceImpl
 
     private List<ProjectType> projectTypes;
     
+    /**
+     * Permission levels per project ID by user name. Used by the permission checks which are
+     * performed very often, e.g. for every project when listing the accessible projects.
+     */
+    private final Map<String, Map<Long, Set<PermissionLevel>>> permissionLevelCache =
+            new ConcurrentHashMap<>();
+    private final AtomicLong permissionLevelCacheGeneration = new AtomicLong();
+    
+    /**
+     * The state recalculations which have been scheduled but not started yet by project ID.
+     */
+    private final Map<Long, ScheduledFuture<?>> pendingStateRecalculations =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * Runs the state recalculations and writes the user settings. There is only a single thread,
+     * so there are never two recalculations of the same project at the same time.
+     */
+    private volatile ScheduledExecutorService backgroundExecutor;
+    
+    /**
+     * Time in milliseconds to wait before writing changed user settings to the database. Further
+     * changes within this time are written together.
+     */
+    @Value(value = "${project.settingsWriteDelay:2000}")
+    private long settingsWriteDelay = 2000;
+    
+    /**
+     * The settings of users in projects. Read through from the database or from the legacy
+     * properties file which is imported into the database on first access. Cached values are
+     * never modified - changed settings replace them.
+     */
+    private final Map<SettingsKey, Properties> userSettingsCache = new ConcurrentHashMap<>();
+    
+    /**
+     * Settings which have been changed but not been written to the database yet.
+     */
+    private final Set<SettingsKey> pendingSettingsWrites = ConcurrentHashMap.newKeySet();
+    
     public ProjectServiceImpl()
     {
         // Nothing to do
@@ -237,12 +306,105 @@ public class ProjectServiceImpl
         
         updateProject(project);
     }
+    
+    @Override
+    public void scheduleProjectStateRecalculation(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+        
+        long projectId = aProject.getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCommit()
+                        {
+                            enqueueProjectStateRecalculation(projectId);
+                        }
+                    });
+        }
+        else {
+            enqueueProjectStateRecalculation(projectId);
+        }
+    }
+    
+    private void enqueueProjectStateRecalculation(long aProjectId)
+    {
+        ScheduledExecutorService executor = backgroundExecutor;
+        if (executor == null) {
+            // Service has not been started or has already been stopped, e.g. in tests
+            runProjectStateRecalculation(aProjectId);
+            return;
+        }
+        
+        try {
+            // Replace a pending recalculation by one which waits the full delay again. If the
+            // pending one has already started, it may miss this change, so the new one is
+            // needed anyway.
+            pendingStateRecalculations.compute(aProjectId, (id, pending) -> {
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                return executor.schedule(() -> runProjectStateRecalculation(id),
+                        stateRecalculationDelay, TimeUnit.MILLISECONDS);
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // The service is being stopped - do not lose the change
+            pendingStateRecalculations.remove(aProjectId);
+            runProjectStateRecalculation(aProjectId);
+        }
+    }
+    
+    private void runProjectStateRecalculation(long aProjectId)
+    {
+        // Remove the project from the pending recalculations before recalculating so that
+        // changes committed while the recalculation is running schedule another recalculation.
+        // A recalculation scheduled in the meantime still has to wait and is kept.
+        pendingStateRecalculations.computeIfPresent(aProjectId,
+                (id, pending) -> pending.getDelay(TimeUnit.MILLISECONDS) > 0 ? pending : null);
+        
+        DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+        def.setName("recalculateProjectState");
+        def.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+        
+        TransactionStatus status = null;
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(aProjectId))) {
+            status = txManager.getTransaction(def);
+            
+            Project project;
+            try {
+                project = getProject(aProjectId);
+            }
+            catch (NoResultException e) {
+                // Project has been removed in the meantime
+                project = null;
+            }
+            
+            if (project != null) {
+                recalculateProjectState(project);
+            }
+            
+            txManager.commit(status);
+        }
+        catch (Exception e) {
+            if (status != null && !status.isCompleted()) {
+                txManager.rollback(status);
+            }
+            log.error("Unable to recalculate state of project [{}]", aProjectId, e);
+        }
+    }
 
     @Override
     @Transactional
     public void createProjectPermission(ProjectPermission aPermission)
     {
         entityManager.persist(aPermission);
+        invalidatePermissionLevels(aPermission.getUser());
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aPermission.getProject().getId()))) {
@@ -274,44 +436,15 @@ public class ProjectServiceImpl
     @Override
     public boolean existsProjectPermission(User aUser, Project aProject)
     {
-        String query =
-                "FROM ProjectPermission " + 
-                "WHERE user = :user AND project = :project";
-        List<ProjectPermission> projectPermissions = entityManager
-                .createQuery(query, ProjectPermission.class)
-                .setParameter("user", aUser.getUsername())
-                .setParameter("project", aProject)
-                .getResultList();
-        
         // if at least one permission level exist
-        if (projectPermissions.size() > 0) {
-            return true;
-        }
-        else {
-            return false;
-        }
+        return !getCachedPermissionLevels(aUser, aProject).isEmpty();
     }
 
     @Override
-    @Transactional
     public boolean existsProjectPermissionLevel(User aUser, Project aProject,
             PermissionLevel aLevel)
     {
-        String query =
-                "FROM ProjectPermission " + 
-                "WHERE user = :user AND project = :project AND level = :level";
-        try {
-            entityManager
-                    .createQuery(query, ProjectPermission.class)
-                    .setParameter("user", aUser.getUsername())
-                    .setParameter("project", aProject)
-                    .setParameter("level", aLevel)
-                    .getSingleResult();
-            return true;
-        }
-        catch (NoResultException ex) {
-            return false;
-        }
+        return getCachedPermissionLevels(aUser, aProject).contains(aLevel);
     }
 
     @Override
@@ -624,14 +757,193 @@ public class ProjectServiceImpl
     }
 
     @Override
+    @Transactional
     public Properties loadUserSettings(String aUsername, Project aProject)
         throws IOException
     {
-        Properties property = new Properties();
-        property.load(new FileInputStream(new File(dir.getAbsolutePath() + "/" + PROJECT_FOLDER
-                + "/" + aProject.getId() + "/" + SETTINGS_FOLDER + "/" + aUsername + "/"
-                + annotationPreferencePropertiesFileName)));
-        return property;
+        SettingsKey key = new SettingsKey(aProject.getId(), aUsername);
+        Properties settings = userSettingsCache.get(key);
+        if (settings == null) {
+            settings = readUserSettings(aUsername, aProject);
+            // Do not replace settings which have been saved concurrently
+            Properties existing = userSettingsCache.putIfAbsent(key, settings);
+            if (existing != null) {
+                settings = existing;
+            }
+        }
+        
+        // The cached settings must not be modified by the caller
+        Properties copy = new Properties();
+        copy.putAll(settings);
+        return copy;
+    }
+    
+    private Properties readUserSettings(String aUsername, Project aProject)
+        throws IOException
+    {
+        String query = 
+                "FROM UserProjectSettings " +
+                "WHERE project = :project AND user = :user";
+        List<UserProjectSettings> rows = entityManager
+                .createQuery(query, UserProjectSettings.class)
+                .setParameter("project", aProject)
+                .setParameter("user", aUsername)
+                .getResultList();
+        
+        Properties settings = new Properties();
+        if (!rows.isEmpty()) {
+            String text = rows.get(0).getSettings();
+            if (text != null) {
+                settings.load(new StringReader(text));
+            }
+            return settings;
+        }
+        
+        // Import the settings from the properties file used by previous versions
+        File legacyFile = new File(dir.getAbsolutePath() + "/" + PROJECT_FOLDER + "/"
+                + aProject.getId() + "/" + SETTINGS_FOLDER + "/" + aUsername + "/"
+                + annotationPreferencePropertiesFileName);
+        if (legacyFile.exists()) {
+            try (InputStream is = new FileInputStream(legacyFile)) {
+                settings.load(is);
+            }
+            writeUserSettings(aProject, aUsername, settings);
+            
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aProject.getId()))) {
+                log.info("Imported preferences file for user [{}] in project [{}]({})",
+                        aUsername, aProject.getName(), aProject.getId());
+            }
+        }
+        
+        return settings;
+    }
+    
+    private void writeUserSettings(Project aProject, String aUsername, Properties aSettings)
+        throws IOException
+    {
+        String query = 
+                "FROM UserProjectSettings " +
+                "WHERE project = :project AND user = :user";
+        List<UserProjectSettings> rows = entityManager
+                .createQuery(query, UserProjectSettings.class)
+                .setParameter("project", aProject)
+                .setParameter("user", aUsername)
+                .getResultList();
+        
+        StringWriter text = new StringWriter();
+        aSettings.store(text, null);
+        
+        if (rows.isEmpty()) {
+            UserProjectSettings entity = new UserProjectSettings(aProject, aUsername);
+            entity.setSettings(text.toString());
+            entityManager.persist(entity);
+        }
+        else {
+            rows.get(0).setSettings(text.toString());
+        }
+    }
+    
+    private void scheduleUserSettingsWrite(SettingsKey aKey)
+    {
+        boolean added = pendingSettingsWrites.add(aKey);
+        
+        ScheduledExecutorService executor = backgroundExecutor;
+        if (executor == null) {
+            // Service has not been started, e.g. in tests
+            flushUserSettings();
+            return;
+        }
+        
+        // If a write is already pending, it picks up these settings as well
+        if (!added) {
+            return;
+        }
+        
+        try {
+            executor.schedule(this::flushUserSettings, settingsWriteDelay,
+                    TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            flushUserSettings();
+        }
+    }
+    
+    /**
+     * Write all changed settings to the database. The settings of each user are written in a
+     * separate transaction. Settings which could not be written remain pending and are written
+     * again later.
+     */
+    private void flushUserSettings()
+    {
+        List<SettingsKey> failed = new ArrayList<>();
+        int written = 0;
+        for (SettingsKey key : new ArrayList<>(pendingSettingsWrites)) {
+            // Remove the key before writing so that settings saved while writing are written
+            // again.
+            if (!pendingSettingsWrites.remove(key)) {
+                continue;
+            }
+            
+            if (writePendingUserSettings(key)) {
+                written++;
+            }
+            else {
+                failed.add(key);
+            }
+        }
+        
+        if (written > 0) {
+            log.debug("Wrote settings of [{}] users", written);
+        }
+        
+        if (!failed.isEmpty()) {
+            pendingSettingsWrites.addAll(failed);
+            
+            // Try again later. If the service is not running, the settings are written along
+            // with the next change or when the service is stopped.
+            ScheduledExecutorService executor = backgroundExecutor;
+            if (running && executor != null) {
+                try {
+                    executor.schedule(this::flushUserSettings, settingsWriteDelay,
+                            TimeUnit.MILLISECONDS);
+                }
+                catch (RejectedExecutionException e) {
+                    log.warn("Unable to schedule writing of user settings: {}",
+                            e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private boolean writePendingUserSettings(SettingsKey aKey)
+    {
+        DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+        def.setName("flushUserSettings");
+        def.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        
+        TransactionStatus status = null;
+        try {
+            status = txManager.getTransaction(def);
+            
+            Properties settings = userSettingsCache.get(aKey);
+            Project project = entityManager.find(Project.class, aKey.projectId);
+            // The project may have been removed in the meantime
+            if (settings != null && project != null) {
+                writeUserSettings(project, aKey.username, settings);
+            }
+            
+            txManager.commit(status);
+            return true;
+        }
+        catch (Exception e) {
+            if (status != null && !status.isCompleted()) {
+                txManager.rollback(status);
+            }
+            log.error("Unable to write settings of user [{}] in project [{}]", aKey.username,
+                    aKey.projectId, e);
+            return false;
+        }
     }
 
     @Override
@@ -650,6 +962,14 @@ public class ProjectServiceImpl
         for (ProjectPermission permissions : getProjectPermissions(aProject)) {
             entityManager.remove(permissions);
         }
+        invalidatePermissionLevels(null);
+        
+        entityManager
+                .createQuery("DELETE FROM UserProjectSettings WHERE project = :project")
+                .setParameter("project", project)
+                .executeUpdate();
+        userSettingsCache.keySet().removeIf(key -> key.projectId == aProject.getId());
+        pendingSettingsWrites.removeIf(key -> key.projectId == aProject.getId());
                 
         entityManager.remove(project);
         
@@ -690,6 +1010,7 @@ public class ProjectServiceImpl
     public void removeProjectPermission(ProjectPermission aPermission)
     {
         entityManager.remove(aPermission);
+        invalidatePermissionLevels(aPermission.getUser());
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aPermission.getProject().getId()))) {
@@ -733,26 +1054,19 @@ public class ProjectServiceImpl
             props.setProperty(aSubject + "." + value.getName(),
                     wrapper.getPropertyValue(value.getName()).toString());
         }
-        String propertiesPath = dir.getAbsolutePath() + "/" + PROJECT_FOLDER + "/"
-                + aProject.getId() + "/" + SETTINGS_FOLDER + "/" + aUsername;
+        
         // append existing preferences for the other mode
-        if (new File(propertiesPath, annotationPreferencePropertiesFileName).exists()) {
-            for (Entry<Object, Object> entry : loadUserSettings(aUsername, aProject).entrySet()) {
-                String key = entry.getKey().toString();
-                // Maintain other Modes of annotations confs than this one
-                if (!key.substring(0, key.indexOf(".")).equals(aSubject.toString())) {
-                    props.put(entry.getKey(), entry.getValue());
-                }
+        for (Entry<Object, Object> entry : loadUserSettings(aUsername, aProject).entrySet()) {
+            String key = entry.getKey().toString();
+            // Maintain other Modes of annotations confs than this one
+            if (!key.substring(0, key.indexOf(".")).equals(aSubject.toString())) {
+                props.put(entry.getKey(), entry.getValue());
             }
         }
         
-//        for (String name : props.stringPropertyNames()) {
-//            log.info("{} = {}", name, props.getProperty(name));
-//        }
-        
-        FileUtils.forceMkdir(new File(propertiesPath));
-        props.store(new FileOutputStream(new File(propertiesPath,
-                annotationPreferencePropertiesFileName)), null);
+        SettingsKey key = new SettingsKey(aProject.getId(), aUsername);
+        userSettingsCache.put(key, props);
+        scheduleUserSettingsWrite(key);
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aProject.getId()))) {
@@ -773,10 +1087,12 @@ public class ProjectServiceImpl
         }
 
         // else only list projects where she is admin / user / curator
+        Map<Long, Set<PermissionLevel>> levels = getCachedPermissionLevels(user);
         for (Project project : allProjects) {
-            if (this.isManager(project, user)
-                    || this.isAnnotator(project, user)
-                    || this.isCurator(project, user)) {
+            Set<PermissionLevel> projectLevels = levels.getOrDefault(project.getId(), emptySet());
+            if (projectLevels.contains(PermissionLevel.MANAGER)
+                    || projectLevels.contains(PermissionLevel.ANNOTATOR)
+                    || projectLevels.contains(PermissionLevel.CURATOR)) {
                 allowedProject.add(project);
             }
         }
@@ -795,8 +1111,10 @@ public class ProjectServiceImpl
         }
 
         // else only projects she is admin of
+        Map<Long, Set<PermissionLevel>> levels = getCachedPermissionLevels(user);
         for (Project project : allProjects) {
-            if (this.isManager(project, user)) {
+            if (levels.getOrDefault(project.getId(), emptySet())
+                    .contains(PermissionLevel.MANAGER)) {
                 allowedProject.add(project);
             }
         }
@@ -951,12 +1269,51 @@ public class ProjectServiceImpl
     {
         running = true;
         scanProjectTypes();
+        
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, aRunnable -> {
+            Thread thread = new Thread(aRunnable, "project-service-background");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Pending work is done by stop() right away instead of waiting for its delay
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        backgroundExecutor = executor;
     }
 
     @Override
     public void stop()
     {
         running = false;
+        
+        // Changes arriving from now on are handled right away
+        ScheduledExecutorService executor = backgroundExecutor;
+        backgroundExecutor = null;
+        
+        // Do not lose pending state recalculations
+        for (Long projectId : new ArrayList<>(pendingStateRecalculations.keySet())) {
+            ScheduledFuture<?> pending = pendingStateRecalculations.remove(projectId);
+            if (pending != null && pending.cancel(false)) {
+                runProjectStateRecalculation(projectId);
+            }
+        }
+        
+        // Do not lose changed settings
+        flushUserSettings();
+        
+        if (executor != null) {
+            // Let a recalculation or settings write which is already running finish
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.warn("Background tasks did not finish in time");
+                    executor.shutdownNow();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+            }
+        }
     }
 
     @Override
@@ -1024,8 +1381,8 @@ public class ProjectServiceImpl
             return true;
         }
 
-        for (Project project : listProjects()) {
-            if (isManager(project, user)) {
+        for (Set<PermissionLevel> levels : getCachedPermissionLevels(user).values()) {
+            if (levels.contains(PermissionLevel.MANAGER)) {
                 return true;
             }
         }
@@ -1036,86 +1393,134 @@ public class ProjectServiceImpl
     @Override
     public boolean isManager(Project aProject, User aUser)
     {
-        boolean projectAdmin = false;
-        try {
-            List<ProjectPermission> permissionLevels = listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.MANAGER.getName())) {
-                    projectAdmin = true;
-                    break;
-                }
-            }
-        }
-        catch (NoResultException ex) {
-            log.info("No permision is given to this user " + ex);
-        }
-
-        return projectAdmin;
+        return getCachedPermissionLevels(aUser, aProject).contains(PermissionLevel.MANAGER);
     }
 
     @Override
     public boolean isAdmin(Project aProject, User aUser)
     {
-        boolean user = false;
-        try {
-            List<ProjectPermission> permissionLevels = listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.MANAGER.getName())) {
-                    user = true;
-                    break;
-                }
-            }
-        }
-    
-        catch (NoResultException ex) {
-            log.info("No permision is given to this user " + ex);
-        }
-    
-        return user;
+        return getCachedPermissionLevels(aUser, aProject).contains(PermissionLevel.MANAGER);
     }
 
     @Override
     public boolean isCurator(Project aProject, User aUser)
     {
-        boolean curator = false;
-        try {
-            List<ProjectPermission> permissionLevels = listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.CURATOR.getName())) {
-                    curator = true;
-                    break;
-                }
-            }
-        }
-        catch (NoResultException ex) {
-            log.info("No permision is given to this user " + ex);
-        }
-
-        return curator;
+        return getCachedPermissionLevels(aUser, aProject).contains(PermissionLevel.CURATOR);
     }
 
     @Override
     public boolean isAnnotator(Project aProject, User aUser)
     {
-        boolean user = false;
-        try {
-            List<ProjectPermission> permissionLevels = listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.ANNOTATOR.getName())) {
-                    user = true;
-                    break;
-                }
+        return getCachedPermissionLevels(aUser, aProject).contains(PermissionLevel.ANNOTATOR);
+    }
+    
+    private Set<PermissionLevel> getCachedPermissionLevels(User aUser, Project aProject)
+    {
+        if (aProject.getId() == null) {
+            return emptySet();
+        }
+        
+        return getCachedPermissionLevels(aUser).getOrDefault(aProject.getId(), emptySet());
+    }
+    
+    /**
+     * @return the permission levels of the user per project ID. Obtained using a single query and
+     *         then cached until the permissions of the user change.
+     */
+    private Map<Long, Set<PermissionLevel>> getCachedPermissionLevels(User aUser)
+    {
+        String username = aUser.getUsername();
+        Map<Long, Set<PermissionLevel>> cached = permissionLevelCache.get(username);
+        if (cached != null) {
+            return cached;
+        }
+        
+        long generation = permissionLevelCacheGeneration.get();
+        
+        String query = 
+                "SELECT project.id, level " +
+                "FROM ProjectPermission " +
+                "WHERE user = :user";
+        List<Object[]> rows = entityManager
+                .createQuery(query, Object[].class)
+                .setParameter("user", username)
+                .getResultList();
+        
+        Map<Long, Set<PermissionLevel>> levels = new HashMap<>();
+        for (Object[] row : rows) {
+            levels.computeIfAbsent((Long) row[0], k -> EnumSet.noneOf(PermissionLevel.class))
+                    .add((PermissionLevel) row[1]);
+        }
+        for (Entry<Long, Set<PermissionLevel>> e : levels.entrySet()) {
+            e.setValue(unmodifiableSet(e.getValue()));
+        }
+        levels = unmodifiableMap(levels);
+        
+        if (generation == permissionLevelCacheGeneration.get()) {
+            permissionLevelCache.put(username, levels);
+        }
+        
+        return levels;
+    }
+    
+    /**
+     * Drop the cached permission levels of the given user or of all users if the user is
+     * {@code null}. If a transaction is active, the levels are dropped again after the commit so
+     * that levels obtained by a concurrent request from the not-yet-committed state do not stick.
+     */
+    private void invalidatePermissionLevels(String aUsername)
+    {
+        dropPermissionLevels(aUsername);
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            dropPermissionLevels(aUsername);
+                        }
+                    });
+        }
+    }
+    
+    private void dropPermissionLevels(String aUsername)
+    {
+        permissionLevelCacheGeneration.incrementAndGet();
+        if (aUsername != null) {
+            permissionLevelCache.remove(aUsername);
+        }
+        else {
+            permissionLevelCache.clear();
+        }
+    }
+    
+    private static final class SettingsKey
+    {
+        private final long projectId;
+        private final String username;
+        
+        public SettingsKey(long aProjectId, String aUsername)
+        {
+            projectId = aProjectId;
+            username = aUsername;
+        }
+        
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof SettingsKey)) {
+                return false;
             }
+            SettingsKey other = (SettingsKey) aOther;
+            return projectId == other.projectId && username.equals(other.username);
         }
-
-        catch (NoResultException ex) {
-            log.info("No permision is given to this user " + ex);
+        
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(projectId, username);
         }
-
-        return user;
     }
 }
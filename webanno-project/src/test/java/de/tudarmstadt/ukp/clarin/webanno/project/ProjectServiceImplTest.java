@@ -0,0 +1,515 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.project;
+
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.CURATOR;
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.MANAGER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
+import de.tudarmstadt.ukp.clarin.webanno.model.ProjectState;
+import de.tudarmstadt.ukp.clarin.webanno.model.UserProjectSettings;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+
+public class ProjectServiceImplTest
+{
+    private static final String PERMISSION_LEVELS_QUERY = "SELECT project.id, level";
+
+    private ProjectServiceImpl sut;
+
+    private @Mock UserDao userRepository;
+    private @Mock ApplicationEventPublisher applicationEventPublisher;
+    private @Mock EntityManager entityManager;
+    private @Mock PlatformTransactionManager txManager;
+    private @Mock ScheduledExecutorService backgroundExecutor;
+
+    private Project project1;
+    private Project project2;
+    private Map<String, List<Object[]>> permissionRows;
+    private String queriedUser;
+    private List<UserProjectSettings> settingsRows;
+    private File repositoryDir;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        project1 = makeProject(1l, "project1");
+        project2 = makeProject(2l, "project2");
+
+        // Answer the permission level query from the rows configured per user
+        permissionRows = new HashMap<>();
+        @SuppressWarnings("unchecked")
+        TypedQuery<Object[]> permissionLevelsQuery = mock(TypedQuery.class);
+        when(permissionLevelsQuery.setParameter(eq("user"), anyString())).thenAnswer(inv -> {
+            queriedUser = inv.getArgument(1);
+            return permissionLevelsQuery;
+        });
+        when(permissionLevelsQuery.getResultList()).thenAnswer(
+                inv -> permissionRows.getOrDefault(queriedUser, new ArrayList<>()));
+        when(entityManager.createQuery(startsWith(PERMISSION_LEVELS_QUERY), eq(Object[].class)))
+                .thenReturn(permissionLevelsQuery);
+
+        @SuppressWarnings("unchecked")
+        TypedQuery<Project> projectQuery = mock(TypedQuery.class);
+        when(projectQuery.setParameter(anyString(), any())).thenReturn(projectQuery);
+        when(projectQuery.getResultList()).thenReturn(asList(project1, project2));
+        when(projectQuery.getSingleResult()).thenReturn(project1);
+        when(entityManager.createQuery(startsWith("FROM Project "), eq(Project.class)))
+                .thenReturn(projectQuery);
+
+        @SuppressWarnings("unchecked")
+        TypedQuery<ProjectPermission> projectPermissionQuery = mock(TypedQuery.class);
+        when(projectPermissionQuery.setParameter(anyString(), any()))
+                .thenReturn(projectPermissionQuery);
+        when(projectPermissionQuery.getResultList()).thenReturn(new ArrayList<>());
+        when(entityManager.createQuery(startsWith("FROM ProjectPermission "),
+                eq(ProjectPermission.class))).thenReturn(projectPermissionQuery);
+
+        @SuppressWarnings("unchecked")
+        TypedQuery<SourceDocumentStateStats> statsQuery = mock(TypedQuery.class);
+        when(statsQuery.setParameter(anyString(), any())).thenReturn(statsQuery);
+        when(statsQuery.getSingleResult())
+                .thenReturn(new SourceDocumentStateStats(1l, 0l, 0l, 1l, 0l, 0l));
+        when(entityManager.createQuery(startsWith("SELECT new "),
+                eq(SourceDocumentStateStats.class))).thenReturn(statsQuery);
+
+        settingsRows = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        TypedQuery<UserProjectSettings> settingsQuery = mock(TypedQuery.class);
+        when(settingsQuery.setParameter(anyString(), any())).thenReturn(settingsQuery);
+        when(settingsQuery.getResultList()).thenAnswer(inv -> new ArrayList<>(settingsRows));
+        when(entityManager.createQuery(startsWith("FROM UserProjectSettings "),
+                eq(UserProjectSettings.class))).thenReturn(settingsQuery);
+        doAnswer(inv -> settingsRows.add(inv.getArgument(0))).when(entityManager)
+                .persist(any(UserProjectSettings.class));
+        when(entityManager.find(Project.class, 1l)).thenReturn(project1);
+        when(entityManager.find(Project.class, 2l)).thenReturn(project2);
+
+        when(txManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+
+        Query deleteQuery = mock(Query.class);
+        when(deleteQuery.setParameter(anyString(), any())).thenReturn(deleteQuery);
+        when(entityManager.createQuery(startsWith("DELETE "))).thenReturn(deleteQuery);
+        when(entityManager.merge(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        sut = new ProjectServiceImpl();
+        setField(sut, "entityManager", entityManager);
+        setField(sut, "userRepository", userRepository);
+        setField(sut, "applicationEventPublisher", applicationEventPublisher);
+        setField(sut, "txManager", txManager);
+        repositoryDir = testFolder.newFolder();
+        setField(sut, "dir", repositoryDir);
+    }
+
+    @Test
+    public void thatPermissionLevelsAreQueriedOncePerUser()
+    {
+        User user = new User("user");
+        permissionRows.put("user", asList(new Object[] { 1l, MANAGER },
+                new Object[] { 1l, CURATOR }, new Object[] { 2l, ANNOTATOR }));
+
+        assertThat(sut.isManager(project1, user)).isTrue();
+        assertThat(sut.isCurator(project1, user)).isTrue();
+        assertThat(sut.isAnnotator(project1, user)).isFalse();
+        assertThat(sut.isAnnotator(project2, user)).isTrue();
+        assertThat(sut.existsProjectPermissionLevel(user, project2, MANAGER)).isFalse();
+        assertThat(sut.existsProjectPermission(user, project2)).isTrue();
+        assertThat(sut.listAccessibleProjects(user)).containsExactly(project1, project2);
+        assertThat(sut.listManageableProjects(user)).containsExactly(project1);
+        assertThat(sut.managesAnyProject(user)).isTrue();
+
+        verifyPermissionLevelQueries(1);
+    }
+
+    @Test
+    public void thatCreatingPermissionInvalidatesCache()
+    {
+        User user = new User("user");
+        User other = new User("other");
+        permissionRows.put("user", asList(new Object[] { 1l, ANNOTATOR }));
+        permissionRows.put("other", asList(new Object[] { 1l, MANAGER }));
+
+        assertThat(sut.isCurator(project1, user)).isFalse();
+        assertThat(sut.isManager(project1, other)).isTrue();
+        verifyPermissionLevelQueries(2);
+
+        permissionRows.put("user", asList(new Object[] { 1l, ANNOTATOR },
+                new Object[] { 1l, CURATOR }));
+        sut.createProjectPermission(new ProjectPermission(project1, "user", CURATOR));
+
+        assertThat(sut.isCurator(project1, user)).isTrue();
+        // The levels of other users are still cached
+        assertThat(sut.isManager(project1, other)).isTrue();
+        verifyPermissionLevelQueries(3);
+    }
+
+    @Test
+    public void thatRemovingPermissionInvalidatesCache()
+    {
+        User user = new User("user");
+        permissionRows.put("user", asList(new Object[] { 1l, ANNOTATOR }));
+
+        assertThat(sut.listAccessibleProjects(user)).containsExactly(project1);
+        verifyPermissionLevelQueries(1);
+
+        permissionRows.put("user", new ArrayList<>());
+        sut.removeProjectPermission(new ProjectPermission(project1, "user", ANNOTATOR));
+
+        assertThat(sut.listAccessibleProjects(user)).isEmpty();
+        verifyPermissionLevelQueries(2);
+    }
+
+    @Test
+    public void thatRemovingProjectInvalidatesCache() throws Exception
+    {
+        User user = new User("user");
+        User other = new User("other");
+        permissionRows.put("user", asList(new Object[] { 1l, ANNOTATOR }));
+        permissionRows.put("other", asList(new Object[] { 1l, MANAGER },
+                new Object[] { 2l, MANAGER }));
+
+        assertThat(sut.isAnnotator(project1, user)).isTrue();
+        assertThat(sut.isManager(project1, other)).isTrue();
+        verifyPermissionLevelQueries(2);
+
+        permissionRows.put("user", new ArrayList<>());
+        permissionRows.put("other", asList(new Object[] { 2l, MANAGER }));
+        sut.removeProject(project1);
+
+        assertThat(sut.isAnnotator(project1, user)).isFalse();
+        assertThat(sut.isManager(project1, other)).isFalse();
+        assertThat(sut.isManager(project2, other)).isTrue();
+        verifyPermissionLevelQueries(4);
+    }
+
+    @Test
+    public void thatProjectStateIsRecalculatedAfterCommit() throws Exception
+    {
+        setField(sut, "backgroundExecutor", backgroundExecutor);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            sut.scheduleProjectStateRecalculation(project1);
+
+            // Nothing is scheduled before the transaction has been committed
+            verify(backgroundExecutor, never()).schedule(any(Runnable.class), anyLong(),
+                    any(TimeUnit.class));
+
+            for (TransactionSynchronization sync : TransactionSynchronizationManager
+                    .getSynchronizations()) {
+                sync.afterCommit();
+            }
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        ArgumentCaptor<Runnable> recalculation = ArgumentCaptor.forClass(Runnable.class);
+        verify(backgroundExecutor).schedule(recalculation.capture(), anyLong(),
+                any(TimeUnit.class));
+        assertThat(project1.getState()).isNull();
+
+        recalculation.getValue().run();
+
+        assertThat(project1.getState()).isEqualTo(ProjectState.ANNOTATION_FINISHED);
+        verify(txManager).commit(any());
+    }
+
+    @Test
+    public void thatRepeatedStateRecalculationsAreDebounced() throws Exception
+    {
+        setField(sut, "backgroundExecutor", backgroundExecutor);
+        List<ScheduledFuture<?>> futures = recordScheduledFutures();
+
+        sut.scheduleProjectStateRecalculation(project1);
+        sut.scheduleProjectStateRecalculation(project1);
+        sut.scheduleProjectStateRecalculation(project2);
+        sut.scheduleProjectStateRecalculation(project1);
+
+        // Each change restarts the delay of the pending recalculation of its project
+        ArgumentCaptor<Runnable> recalculations = ArgumentCaptor.forClass(Runnable.class);
+        verify(backgroundExecutor, times(4)).schedule(recalculations.capture(), anyLong(),
+                any(TimeUnit.class));
+        verify(futures.get(0)).cancel(false);
+        verify(futures.get(1)).cancel(false);
+        verify(futures.get(2), never()).cancel(false);
+        verify(futures.get(3), never()).cancel(false);
+
+        // Once a recalculation has run, the next change does not cancel it anymore
+        recalculations.getAllValues().get(3).run();
+        sut.scheduleProjectStateRecalculation(project1);
+        verify(backgroundExecutor, times(5)).schedule(any(Runnable.class), anyLong(),
+                any(TimeUnit.class));
+        verify(futures.get(3), never()).cancel(false);
+    }
+
+    @Test
+    public void thatPendingStateRecalculationsAreRunOnShutdown() throws Exception
+    {
+        startBackgroundExecutor();
+        List<ScheduledFuture<?>> futures = recordScheduledFutures();
+        when(backgroundExecutor.awaitTermination(anyLong(), any(TimeUnit.class)))
+                .thenReturn(true);
+
+        sut.scheduleProjectStateRecalculation(project1);
+        assertThat(project1.getState()).isNull();
+
+        sut.stop();
+
+        verify(futures.get(0)).cancel(false);
+        assertThat(project1.getState()).isEqualTo(ProjectState.ANNOTATION_FINISHED);
+        verify(backgroundExecutor).shutdown();
+        verify(backgroundExecutor, never()).shutdownNow();
+    }
+
+    @Test
+    public void thatLegacySettingsFileIsImported() throws Exception
+    {
+        File legacyFile = new File(repositoryDir, "project/1/settings/user/annotation.properties");
+        FileUtils.write(legacyFile, "ANNOTATION.windowSize=20\n", UTF_8);
+
+        assertThat(sut.loadUserSettings("user", project1))
+                .containsEntry("ANNOTATION.windowSize", "20");
+        assertThat(settingsRows).hasSize(1);
+        assertThat(settingsRows.get(0).getSettings()).contains("ANNOTATION.windowSize=20");
+
+        // Further reads are served from the cache
+        sut.loadUserSettings("user", project1);
+        verify(entityManager, times(2)).createQuery(startsWith("FROM UserProjectSettings "),
+                eq(UserProjectSettings.class));
+    }
+
+    @Test
+    public void thatSettingsAreReadFromDatabaseBeforeLegacyFile() throws Exception
+    {
+        File legacyFile = new File(repositoryDir, "project/1/settings/user/annotation.properties");
+        FileUtils.write(legacyFile, "ANNOTATION.windowSize=20\n", UTF_8);
+        UserProjectSettings row = new UserProjectSettings(project1, "user");
+        row.setSettings("ANNOTATION.windowSize=30\n");
+        settingsRows.add(row);
+
+        assertThat(sut.loadUserSettings("user", project1))
+                .containsEntry("ANNOTATION.windowSize", "30");
+        verify(entityManager, never()).persist(any());
+    }
+
+    @Test
+    public void thatSettingsWritesAreCoalesced() throws Exception
+    {
+        startBackgroundExecutor();
+
+        sut.saveUserSettings("user", project1, Mode.ANNOTATION, new Preferences(10));
+        sut.saveUserSettings("user", project1, Mode.ANNOTATION, new Preferences(20));
+        sut.saveUserSettings("user", project1, Mode.ANNOTATION, new Preferences(30));
+
+        // Saved settings are visible immediately, but not written yet
+        assertThat(sut.loadUserSettings("user", project1))
+                .containsEntry("ANNOTATION.windowSize", "30");
+        assertThat(settingsRows).isEmpty();
+
+        ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(backgroundExecutor).schedule(flush.capture(), anyLong(), any(TimeUnit.class));
+
+        flush.getValue().run();
+
+        assertThat(settingsRows).hasSize(1);
+        assertThat(settingsRows.get(0).getSettings()).contains("ANNOTATION.windowSize=30");
+        verify(txManager, times(1)).commit(any());
+    }
+
+    @Test
+    public void thatPendingSettingsAreWrittenOnShutdown() throws Exception
+    {
+        startBackgroundExecutor();
+
+        sut.saveUserSettings("user", project1, Mode.ANNOTATION, new Preferences(10));
+        assertThat(settingsRows).isEmpty();
+
+        sut.stop();
+
+        assertThat(settingsRows).hasSize(1);
+        assertThat(settingsRows.get(0).getSettings()).contains("ANNOTATION.windowSize=10");
+        verify(backgroundExecutor).shutdown();
+    }
+
+    @Test
+    public void thatRemovingProjectDiscardsPendingSettings() throws Exception
+    {
+        startBackgroundExecutor();
+
+        sut.saveUserSettings("user", project1, Mode.ANNOTATION, new Preferences(10));
+        sut.saveUserSettings("user", project2, Mode.ANNOTATION, new Preferences(20));
+
+        ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(backgroundExecutor, times(2)).schedule(flush.capture(), anyLong(),
+                any(TimeUnit.class));
+
+        sut.removeProject(project1);
+        flush.getValue().run();
+
+        // Only the settings of the remaining project are written
+        assertThat(settingsRows).hasSize(1);
+        assertThat(settingsRows.get(0).getProject()).isSameAs(project2);
+    }
+
+    @Test
+    public void thatFailedSettingsWriteIsRetried() throws Exception
+    {
+        startBackgroundExecutor();
+        doThrow(new TransactionSystemException("Database unavailable")).doNothing()
+                .when(txManager).commit(any());
+
+        sut.saveUserSettings("user", project1, Mode.ANNOTATION, new Preferences(10));
+
+        ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(backgroundExecutor).schedule(flush.capture(), anyLong(), any(TimeUnit.class));
+        flush.getValue().run();
+
+        // The write failed, so it is rolled back and scheduled again
+        verify(txManager).rollback(any());
+        verify(backgroundExecutor, times(2)).schedule(flush.capture(), anyLong(),
+                any(TimeUnit.class));
+        settingsRows.clear();
+
+        flush.getValue().run();
+
+        assertThat(settingsRows).hasSize(1);
+        assertThat(settingsRows.get(0).getSettings()).contains("ANNOTATION.windowSize=10");
+        verify(txManager, times(2)).commit(any());
+
+        // Nothing is pending anymore
+        flush.getValue().run();
+        verify(txManager, times(2)).commit(any());
+    }
+
+    /**
+     * Makes the background executor return a new future for every scheduled task which can be
+     * cancelled until the task is run.
+     */
+    private List<ScheduledFuture<?>> recordScheduledFutures()
+    {
+        List<ScheduledFuture<?>> futures = new ArrayList<>();
+        when(backgroundExecutor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+                .thenAnswer(aInvocation -> {
+                    ScheduledFuture<?> future = mock(ScheduledFuture.class);
+                    when(future.cancel(false)).thenReturn(true);
+                    futures.add(future);
+                    return future;
+                });
+        return futures;
+    }
+
+    private void startBackgroundExecutor() throws Exception
+    {
+        setField(sut, "backgroundExecutor", backgroundExecutor);
+        setField(sut, "running", true);
+    }
+
+    private void verifyPermissionLevelQueries(int aCount)
+    {
+        verify(entityManager, times(aCount)).createQuery(startsWith(PERMISSION_LEVELS_QUERY),
+                eq(Object[].class));
+    }
+
+    private static Project makeProject(long aId, String aName)
+    {
+        Project project = new Project();
+        project.setId(aId);
+        project.setName(aName);
+        return project;
+    }
+
+    public static class Preferences
+    {
+        private int windowSize;
+
+        public Preferences(int aWindowSize)
+        {
+            windowSize = aWindowSize;
+        }
+
+        public int getWindowSize()
+        {
+            return windowSize;
+        }
+
+        public void setWindowSize(int aWindowSize)
+        {
+            windowSize = aWindowSize;
+        }
+    }
+
+    private static void setField(Object aTarget, String aName, Object aValue) throws Exception
+    {
+        Field field = ProjectServiceImpl.class.getDeclaredField(aName);
+        field.setAccessible(true);
+        field.set(aTarget, aValue);
+    }
+}
@@ -28,6 +28,7 @@ import static org.springframework.http.MediaType.APPLICATION_OCTET_STREAM_VALUE;
 import static org.springframework.http.MediaType.MULTIPART_FORM_DATA_VALUE;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -78,6 +79,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
@@ -104,16 +106,21 @@ import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.clarin.webanno.support.ZipUtils;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.tsv.WebAnnoTsv3FormatSupport;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.ProjectExportJobManager.ProjectExportJob;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.AccessForbiddenException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.IllegalObjectStateException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.IncompatibleDocumentException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.ObjectExistsException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.ObjectNotFoundException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.RemoteApiException;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.TooManyRequestsException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception.UnsupportedFormatException;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RAnnotation;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RDocument;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RExportJob;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RMessageLevel;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RProject;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.model.RResponse;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
@@ -133,6 +140,10 @@ public class AeroRemoteApiController
     private static final String CURATION = "curation";
     private static final String IMPORT = "import";
     private static final String EXPORT = "export.zip";
+    private static final String EXPORT_STREAM = "export-stream.zip";
+    private static final String EXPORTS = "exports";
+    
+    private static final int EXPORT_STREAM_BUFFER_SIZE = 64 * 1024;
     
     private static final String PARAM_FILE = "file";
     private static final String PARAM_CONTENT = "content";
@@ -143,6 +154,7 @@ public class AeroRemoteApiController
     private static final String PARAM_PROJECT_ID = "projectId";
     private static final String PARAM_ANNOTATOR_ID = "userId";
     private static final String PARAM_DOCUMENT_ID = "documentId";
+    private static final String PARAM_JOB_ID = "jobId";
     
     private static final String VAL_ORIGINAL = "ORIGINAL";
     
@@ -163,6 +175,7 @@ public class AeroRemoteApiController
     private @Autowired AnnotationSchemaService annotationService;
     private @Autowired UserDao userRepository;
     private @Autowired ProjectExportService exportService;
+    private @Autowired ProjectExportJobManager exportJobManager;
 
     @ExceptionHandler(value = RemoteApiException.class)
     public ResponseEntity<RResponse<Void>> handleException(RemoteApiException aException)
@@ -440,22 +453,183 @@ public class AeroRemoteApiController
         //File exportedFile = exportService.generateZipFile(per);
         File exportedFile = exportService.exportProject(request);
         
+        return serveExportedFile(exportedFile);
+    }
+    
+    @ApiOperation(value = "Export a project, streaming the ZIP file while it is being created")
+    @RequestMapping(
+            value = ("/" + PROJECTS + "/{" + PARAM_PROJECT_ID + "}/" + EXPORT_STREAM), 
+            method = RequestMethod.GET,
+            produces = { "application/zip", APPLICATION_JSON_UTF8_VALUE })
+    public ResponseEntity<ResponseBodyEmitter> projectExportStream(
+            @PathVariable(PARAM_PROJECT_ID) long aProjectId)
+        throws Exception
+    {
+        // Get project (this also ensures that it exists and that the current user can access it
+        Project project = getProject(aProjectId);
+        
+        ProjectExportRequest request = new ProjectExportRequest(project, "UIMA binary CAS", true);
+        
+        // The export runs on the threads of the export job manager and counts towards its job
+        // limit. It writes to the response while the client receives it, so any errors after
+        // this point can only abort the transfer. Since the length is not known in advance, the
+        // response is sent using chunked transfer encoding.
+        MediaType zip = MediaType.valueOf("application/zip");
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(
+                exportJobManager.getStreamTimeout());
+        OutputStream out = new BufferedOutputStream(
+                new ResponseBodyEmitterOutputStream(emitter, zip), EXPORT_STREAM_BUFFER_SIZE);
+        ProjectExportJob job = exportJobManager
+                .submit(request, getCurrentUser().getUsername(), out, failure -> {
+                    if (failure == null) {
+                        emitter.complete();
+                    }
+                    else {
+                        emitter.completeWithError(failure);
+                    }
+                })
+                .orElseThrow(() -> new TooManyRequestsException(
+                        "Too many project exports are pending. Download or delete finished "
+                                + "exports or try again later."));
+        
+        // Stop the export if the client is too slow or has gone away
+        emitter.onTimeout(() -> exportJobManager.remove(job));
+        emitter.onError(e -> exportJobManager.remove(job));
+        
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setContentType(zip);
+        httpHeaders.set("Content-Disposition",
+                "attachment; filename=\"project-" + aProjectId + ".zip\"");
+        
+        return new ResponseEntity<>(emitter, httpHeaders, HttpStatus.OK);
+    }
+    
+    @ApiOperation(value = "Start exporting a project in the background")
+    @RequestMapping(
+            value = ("/" + PROJECTS + "/{" + PARAM_PROJECT_ID + "}/" + EXPORTS), 
+            method = RequestMethod.POST,
+            produces = APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<RResponse<RExportJob>> projectExportJobCreate(
+            @PathVariable(PARAM_PROJECT_ID) long aProjectId,
+            UriComponentsBuilder aUcb)
+        throws Exception
+    {
+        // Get project (this also ensures that it exists and that the current user can access it
+        Project project = getProject(aProjectId);
+        
+        ProjectExportRequest request = new ProjectExportRequest(project, "UIMA binary CAS", true);
+        ProjectExportJob job = exportJobManager
+                .submit(request, getCurrentUser().getUsername())
+                .orElseThrow(() -> new TooManyRequestsException(
+                        "Too many project exports are pending. Download or delete finished "
+                                + "exports or try again later."));
+        
+        return ResponseEntity
+                .accepted()
+                .location(aUcb.path(API_BASE + "/" + PROJECTS + "/{pid}/" + EXPORTS + "/{jid}")
+                        .buildAndExpand(project.getId(), job.getId()).toUri())
+                .contentType(APPLICATION_JSON_UTF8)
+                .body(new RResponse<>(new RExportJob(job)));
+    }
+    
+    @ApiOperation(value = "Get the status of a background project export")
+    @RequestMapping(
+            value = ("/" + PROJECTS + "/{" + PARAM_PROJECT_ID + "}/" + EXPORTS + "/{"
+                    + PARAM_JOB_ID + "}"), 
+            method = RequestMethod.GET,
+            produces = APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<RResponse<RExportJob>> projectExportJobRead(
+            @PathVariable(PARAM_PROJECT_ID) long aProjectId,
+            @PathVariable(PARAM_JOB_ID) String aJobId)
+        throws Exception
+    {
+        // Get project (this also ensures that it exists and that the current user can access it
+        Project project = getProject(aProjectId);
+        
+        ProjectExportJob job = getExportJob(project, aJobId);
+        
+        RResponse<RExportJob> response = new RResponse<>(new RExportJob(job));
+        for (LogMessage msg : job.getRequest().getMessages()) {
+            response.addMessage(RMessageLevel.valueOf(msg.getLevel().name()), msg.getMessage());
+        }
+        
+        return ResponseEntity.ok(response);
+    }
+    
+    @ApiOperation(value = "Download the ZIP file of a completed background project export")
+    @RequestMapping(
+            value = ("/" + PROJECTS + "/{" + PARAM_PROJECT_ID + "}/" + EXPORTS + "/{"
+                    + PARAM_JOB_ID + "}/" + EXPORT), 
+            method = RequestMethod.GET,
+            produces = { "application/zip", APPLICATION_JSON_UTF8_VALUE })
+    public ResponseEntity<InputStreamResource> projectExportJobDownload(
+            @PathVariable(PARAM_PROJECT_ID) long aProjectId,
+            @PathVariable(PARAM_JOB_ID) String aJobId)
+        throws Exception
+    {
+        // Get project (this also ensures that it exists and that the current user can access it
+        Project project = getProject(aProjectId);
+        
+        ProjectExportJob job = getExportJob(project, aJobId);
+        
+        // The file can only be downloaded once - afterwards the job is gone
+        File exportedFile = exportJobManager.take(job);
+        if (exportedFile == null) {
+            throw new IllegalObjectStateException("Export [%s] of project [%d] is %s.", aJobId,
+                    aProjectId, job.getState());
+        }
+        
+        return serveExportedFile(exportedFile);
+    }
+    
+    @ApiOperation(value = "Cancel a background project export or delete its result")
+    @RequestMapping(
+            value = ("/" + PROJECTS + "/{" + PARAM_PROJECT_ID + "}/" + EXPORTS + "/{"
+                    + PARAM_JOB_ID + "}"), 
+            method = RequestMethod.DELETE,
+            produces = APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<RResponse<Void>> projectExportJobDelete(
+            @PathVariable(PARAM_PROJECT_ID) long aProjectId,
+            @PathVariable(PARAM_JOB_ID) String aJobId)
+        throws Exception
+    {
+        // Get project (this also ensures that it exists and that the current user can access it
+        Project project = getProject(aProjectId);
+        
+        exportJobManager.remove(getExportJob(project, aJobId));
+        
+        return ResponseEntity.ok(new RResponse<>(INFO,
+                "Export [" + aJobId + "] of project [" + aProjectId + "] deleted."));
+    }
+    
+    private ProjectExportJob getExportJob(Project aProject, String aJobId)
+        throws ObjectNotFoundException
+    {
+        return exportJobManager.getJob(aJobId)
+                .filter(job -> job.getRequest().getProject().getId().equals(aProject.getId()))
+                .orElseThrow(() -> new ObjectNotFoundException("Export [" + aJobId
+                        + "] of project [" + aProject.getId() + "] not found."));
+    }
+    
+    private ResponseEntity<InputStreamResource> serveExportedFile(File aFile)
+        throws IOException
+    {
         // Turn the file into a resource and auto-delete the file when the resource closes the
         // stream.
-        InputStreamResource result = new InputStreamResource(new FileInputStream(exportedFile) {
+        InputStreamResource result = new InputStreamResource(new FileInputStream(aFile) {
             @Override
             public void close() throws IOException
             {
                 super.close();
-                FileUtils.forceDelete(exportedFile);
+                FileUtils.forceDelete(aFile);
             } 
         });
 
         HttpHeaders httpHeaders = new HttpHeaders();
         httpHeaders.setContentType(MediaType.valueOf("application/zip"));
-        httpHeaders.setContentLength(exportedFile.length());
+        httpHeaders.setContentLength(aFile.length());
         httpHeaders.set("Content-Disposition",
-                "attachment; filename=\"" + exportedFile.getName() + "\"");
+                "attachment; filename=\"" + aFile.getName() + "\"");
 
         return new ResponseEntity<>(result, httpHeaders, HttpStatus.OK);
     }
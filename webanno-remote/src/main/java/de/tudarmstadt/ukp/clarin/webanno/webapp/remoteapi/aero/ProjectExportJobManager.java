@@ -0,0 +1,402 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportService;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
+
+/**
+ * Runs project exports requested through the remote API in the background. The exported files
+ * are kept until they have been downloaded or until they expire. Exports which are streamed to
+ * the client run on the same threads and count towards the same job limit.
+ */
+public class ProjectExportJobManager
+    implements SmartLifecycle
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private @Autowired ProjectExportService exportService;
+
+    @Value(value = "${remote-api.export.threads:2}")
+    private int threads = 2;
+
+    @Value(value = "${remote-api.export.max-jobs:10}")
+    private int maxJobs = 10;
+
+    @Value(value = "${remote-api.export.retention:60}")
+    private long retentionMinutes = 60;
+
+    @Value(value = "${remote-api.export.stream-timeout:60}")
+    private long streamTimeoutMinutes = 60;
+
+    private final Map<String, ProjectExportJob> jobs = new ConcurrentHashMap<>();
+
+    private boolean running = false;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Queues the given export.
+     *
+     * @return the job or {@link Optional#empty()} if too many jobs are queued, running or waiting
+     *         to be downloaded.
+     */
+    public Optional<ProjectExportJob> submit(ProjectExportRequest aRequest, String aUsername)
+    {
+        return enqueue(aRequest, aUsername, this::run);
+    }
+
+    /**
+     * Queues an export which writes the ZIP file to the given stream instead of a file. The job
+     * is removed as soon as it has finished.
+     *
+     * @param aOut
+     *            the stream to write to. It is flushed but not closed.
+     * @param aOnFinished
+     *            called when the export has finished - with the failure if it has failed or with
+     *            {@code null} if it has succeeded.
+     * @return the job or {@link Optional#empty()} if too many jobs are queued, running or waiting
+     *         to be downloaded.
+     */
+    public Optional<ProjectExportJob> submit(ProjectExportRequest aRequest, String aUsername,
+            OutputStream aOut, Consumer<Throwable> aOnFinished)
+    {
+        return enqueue(aRequest, aUsername, job -> stream(job, aOut, aOnFinished));
+    }
+
+    private synchronized Optional<ProjectExportJob> enqueue(ProjectExportRequest aRequest,
+            String aUsername, Consumer<ProjectExportJob> aTask)
+    {
+        if (jobs.size() >= maxJobs) {
+            return Optional.empty();
+        }
+
+        ProjectExportJob job = new ProjectExportJob(UUID.randomUUID().toString(), aRequest,
+                aUsername);
+        jobs.put(job.getId(), job);
+        job.submitted(executor.submit(() -> aTask.accept(job)));
+        return Optional.of(job);
+    }
+
+    /**
+     * @return the time in milliseconds after which a streamed export is aborted.
+     */
+    public long getStreamTimeout()
+    {
+        return TimeUnit.MINUTES.toMillis(streamTimeoutMinutes);
+    }
+
+    public Optional<ProjectExportJob> getJob(String aId)
+    {
+        return Optional.ofNullable(jobs.get(aId));
+    }
+
+    /**
+     * Removes a completed job and hands its exported file over to the caller, who is then
+     * responsible for deleting it.
+     *
+     * @return the exported file or {@code null} if the job has not completed.
+     */
+    public File take(ProjectExportJob aJob)
+    {
+        File file = aJob.take();
+        if (file != null) {
+            jobs.remove(aJob.getId());
+        }
+        return file;
+    }
+
+    /**
+     * Cancels the job if it is still running and removes its exported file.
+     */
+    public void remove(ProjectExportJob aJob)
+    {
+        jobs.remove(aJob.getId());
+        aJob.cancel();
+    }
+
+    private void run(ProjectExportJob aJob)
+    {
+        // We are in a new thread. Set up thread-specific MDC
+        MDC.put(Logging.KEY_USERNAME, aJob.getUsername());
+        MDC.put(Logging.KEY_PROJECT_ID,
+                String.valueOf(aJob.getRequest().getProject().getId()));
+        try {
+            aJob.started();
+            aJob.completed(exportService.exportProject(aJob.getRequest()));
+        }
+        catch (Throwable e) {
+            failed(aJob, e);
+        }
+        finally {
+            MDC.remove(Logging.KEY_USERNAME);
+            MDC.remove(Logging.KEY_PROJECT_ID);
+        }
+    }
+
+    private void stream(ProjectExportJob aJob, OutputStream aOut,
+            Consumer<Throwable> aOnFinished)
+    {
+        // We are in a new thread. Set up thread-specific MDC
+        MDC.put(Logging.KEY_USERNAME, aJob.getUsername());
+        MDC.put(Logging.KEY_PROJECT_ID,
+                String.valueOf(aJob.getRequest().getProject().getId()));
+        Throwable failure = null;
+        try {
+            aJob.started();
+            exportService.exportProject(aJob.getRequest(), aOut);
+            aOut.flush();
+            aJob.completed(null);
+        }
+        catch (Throwable e) {
+            failure = e;
+            failed(aJob, e);
+        }
+        finally {
+            // There is no file to be downloaded later, so the job is done
+            jobs.remove(aJob.getId());
+            MDC.remove(Logging.KEY_USERNAME);
+            MDC.remove(Logging.KEY_PROJECT_ID);
+            aOnFinished.accept(failure);
+        }
+    }
+
+    private void failed(ProjectExportJob aJob, Throwable aException)
+    {
+        if (aJob.getState() == State.CANCELLED) {
+            log.info("Project export job [{}] cancelled", aJob.getId());
+        }
+        else {
+            log.error("Project export job [{}] failed", aJob.getId(), aException);
+            aJob.getRequest().addMessage(LogMessage.error(this,
+                    "Unexpected error during project export: %s",
+                    ExceptionUtils.getRootCauseMessage(aException)));
+            aJob.failed();
+        }
+    }
+
+    /**
+     * Removes the jobs which have finished longer than the retention time before the given time.
+     */
+    /* package private */ void expireJobs(long aTime)
+    {
+        long cutoff = aTime - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        for (ProjectExportJob job : jobs.values()) {
+            if (job.getFinished() > 0 && job.getFinished() < cutoff) {
+                log.info("Project export job [{}] expired", job.getId());
+                remove(job);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newScheduledThreadPool(Math.max(1, threads), aRunnable -> {
+            Thread thread = new Thread(aRunnable,
+                    "remote-api-export-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> expireJobs(System.currentTimeMillis()), 1, 1,
+                TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        for (ProjectExportJob job : jobs.values()) {
+            remove(job);
+        }
+    }
+
+    @Override
+    public int getPhase()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+
+    public enum State
+    {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED;
+    }
+
+    public static class ProjectExportJob
+    {
+        private final String id;
+        private final ProjectExportRequest request;
+        private final String username;
+
+        private volatile State state = State.QUEUED;
+        private volatile File file;
+        private volatile long finished;
+        private Future<?> future;
+
+        private ProjectExportJob(String aId, ProjectExportRequest aRequest, String aUsername)
+        {
+            id = aId;
+            request = aRequest;
+            username = aUsername;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public ProjectExportRequest getRequest()
+        {
+            return request;
+        }
+
+        public String getUsername()
+        {
+            return username;
+        }
+
+        public State getState()
+        {
+            return state;
+        }
+
+        /**
+         * @return the exported file once the job has completed.
+         */
+        public File getFile()
+        {
+            return file;
+        }
+
+        /**
+         * @return the time at which the job has finished or {@code 0} if it is still queued or
+         *         running.
+         */
+        public long getFinished()
+        {
+            return finished;
+        }
+
+        private synchronized void submitted(Future<?> aFuture)
+        {
+            future = aFuture;
+            if (state == State.CANCELLED) {
+                future.cancel(true);
+            }
+        }
+
+        private synchronized File take()
+        {
+            File result = file;
+            file = null;
+            return result;
+        }
+
+        private synchronized void started()
+        {
+            if (state == State.QUEUED) {
+                state = State.RUNNING;
+            }
+        }
+
+        private synchronized void completed(File aFile)
+        {
+            if (state == State.CANCELLED) {
+                FileUtils.deleteQuietly(aFile);
+                return;
+            }
+
+            file = aFile;
+            state = State.COMPLETED;
+            finished = System.currentTimeMillis();
+        }
+
+        private synchronized void failed()
+        {
+            state = State.FAILED;
+            finished = System.currentTimeMillis();
+        }
+
+        private synchronized void cancel()
+        {
+            if (state == State.QUEUED || state == State.RUNNING) {
+                state = State.CANCELLED;
+                finished = System.currentTimeMillis();
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+
+            if (file != null) {
+                FileUtils.deleteQuietly(file);
+                file = null;
+            }
+        }
+    }
+}
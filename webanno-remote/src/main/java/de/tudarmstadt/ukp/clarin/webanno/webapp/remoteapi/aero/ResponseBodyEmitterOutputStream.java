@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * Sends everything written to this stream as a chunk of the response of the given emitter. The
+ * stream should be buffered since every write is sent separately.
+ */
+class ResponseBodyEmitterOutputStream
+    extends OutputStream
+{
+    private final ResponseBodyEmitter emitter;
+    private final MediaType mediaType;
+
+    public ResponseBodyEmitterOutputStream(ResponseBodyEmitter aEmitter, MediaType aMediaType)
+    {
+        emitter = aEmitter;
+        mediaType = aMediaType;
+    }
+
+    @Override
+    public void write(int aByte) throws IOException
+    {
+        write(new byte[] { (byte) aByte }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] aBytes, int aOffset, int aLength) throws IOException
+    {
+        if (aLength == 0) {
+            return;
+        }
+        
+        // The emitter may hold on to the data until the response has been set up, so the buffer
+        // of the caller cannot be passed on
+        emitter.send(Arrays.copyOfRange(aBytes, aOffset, aOffset + aLength), mediaType);
+    }
+}
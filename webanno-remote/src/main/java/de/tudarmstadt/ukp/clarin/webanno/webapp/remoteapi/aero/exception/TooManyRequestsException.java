@@ -0,0 +1,31 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.exception;
+
+import org.springframework.http.HttpStatus;
+
+public class TooManyRequestsException
+    extends RemoteApiException
+{
+    private static final long serialVersionUID = -2911652305829134752L;
+
+    public TooManyRequestsException(String aFormat, Object... aArgs)
+    {
+        super(String.format(aFormat, aArgs), HttpStatus.TOO_MANY_REQUESTS);
+    }
+}
@@ -23,6 +23,8 @@ import org.springframework.context.annotation.Configuration;
 
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.LegacyRemoteApiController;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.AeroRemoteApiController;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.ProjectExportJobManager;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.metrics.RenderingMetricsController;
 
 @Configuration
 public class RemoteApiConfig
@@ -37,10 +39,24 @@ public class RemoteApiConfig
         return new AeroRemoteApiController();
     }
 
+    @ConditionalOnExpression(REMOTE_API_ENABLED_CONDITION)
+    @Bean
+    public ProjectExportJobManager projectExportJobManager()
+    {
+        return new ProjectExportJobManager();
+    }
+
     @ConditionalOnExpression(REMOTE_API_ENABLED_CONDITION)
     @Bean
     public LegacyRemoteApiController legacyRemoteApiController()
     {
         return new LegacyRemoteApiController();
     }
+
+    @ConditionalOnExpression(REMOTE_API_ENABLED_CONDITION)
+    @Bean
+    public RenderingMetricsController renderingMetricsController()
+    {
+        return new RenderingMetricsController();
+    }
 }
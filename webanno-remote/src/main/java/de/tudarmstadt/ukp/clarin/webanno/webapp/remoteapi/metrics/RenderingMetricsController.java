@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics.LatencyHistogram;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.metrics.RenderingMetrics;
+
+/**
+ * Exposes the rendering latency histograms in the Prometheus text format so they can be scraped
+ * by a monitoring system.
+ */
+@RequestMapping(RenderingMetricsController.API_BASE)
+public class RenderingMetricsController
+{
+    public static final String API_BASE = "/api/metrics";
+
+    private static final String RENDERING = "rendering";
+
+    private static final String TEXT_FORMAT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private @Autowired RenderingMetrics renderingMetrics;
+
+    @RequestMapping(
+            value = ("/" + RENDERING), 
+            method = RequestMethod.GET, 
+            produces = TEXT_FORMAT)
+    public ResponseEntity<String> rendering()
+    {
+        StringBuilder out = new StringBuilder();
+        
+        appendSummary(out, "webanno_rendering_phase_seconds",
+                "Duration of the phases of rendering a document", "phase",
+                renderingMetrics.getPhaseHistograms());
+        appendSummary(out, "webanno_rendering_layer_seconds",
+                "Duration of rendering the annotations of a layer", "layer",
+                renderingMetrics.getLayerHistograms());
+        
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(TEXT_FORMAT))
+                .body(out.toString());
+    }
+
+    private static void appendSummary(StringBuilder aOut, String aName, String aHelp,
+            String aLabel, Map<String, LatencyHistogram> aHistograms)
+    {
+        aOut.append("# HELP ").append(aName).append(' ').append(aHelp).append('\n');
+        aOut.append("# TYPE ").append(aName).append(" summary\n");
+        
+        for (Entry<String, LatencyHistogram> e : aHistograms.entrySet()) {
+            String label = aLabel + "=\"" + escape(e.getKey()) + "\"";
+            LatencyHistogram histogram = e.getValue();
+            for (double quantile : QUANTILES) {
+                aOut.append(aName).append('{').append(label).append(",quantile=\"")
+                        .append(quantile).append("\"} ")
+                        .append(seconds(histogram.getPercentile(quantile))).append('\n');
+            }
+            aOut.append(aName).append("_sum{").append(label).append("} ")
+                    .append(seconds(histogram.getTotal())).append('\n');
+            aOut.append(aName).append("_count{").append(label).append("} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+    }
+    
+    private static String seconds(long aMicros)
+    {
+        return String.format(Locale.US, "%.6f", aMicros / 1_000_000.0);
+    }
+    
+    private static String escape(String aValue)
+    {
+        return aValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.export.exporters;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest.FORMAT_AUTO;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.FileSystemUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.ChainLayerSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.RelationLayerSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.SpanLayerSupport;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.AnnotationSchemaServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.BackupProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.DocumentServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.ImportExportServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectImportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.export.model.ExportedProject;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.project.ProjectServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDaoImpl;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.Role;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.text.TextFormatSupport;
+
+/**
+ * Counts the SQL statements issued by the {@link AnnotationDocumentExporter} against the test
+ * database. Unlike the {@link DocumentService} calls counted by the unit test, this also covers
+ * the statements that Hibernate issues for the associations of the loaded entities.
+ */
+@RunWith(SpringRunner.class)
+@EnableAutoConfiguration
+@SpringBootTest(webEnvironment = WebEnvironment.NONE)
+@EntityScan({
+    "de.tudarmstadt.ukp.clarin.webanno.model",
+    "de.tudarmstadt.ukp.clarin.webanno.security.model" })
+@TestPropertySource(properties = {
+        "repository.path=" + AnnotationDocumentExporterDatabaseTest.TEST_OUTPUT_FOLDER,
+        "spring.jpa.properties.hibernate.generate_statistics=true" })
+public class AnnotationDocumentExporterDatabaseTest
+{
+    static final String TEST_OUTPUT_FOLDER = "target/AnnotationDocumentExporterDatabaseTest";
+
+    private static final String[] USERS = { "user1", "user2" };
+
+    private @Autowired EntityManagerFactory entityManagerFactory;
+    private @Autowired UserDao userRepository;
+    private @Autowired ProjectService projectService;
+    private @Autowired DocumentService documentService;
+    private @Autowired AnnotationDocumentExporter sut;
+
+    private Statistics statistics;
+
+    @BeforeClass
+    public static void setupClass()
+    {
+        FileSystemUtils.deleteRecursively(new File(TEST_OUTPUT_FOLDER));
+    }
+
+    @Before
+    public void setup()
+    {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        for (String user : USERS) {
+            if (!userRepository.exists(user)) {
+                userRepository.create(new User(user, Role.ROLE_USER));
+            }
+        }
+    }
+
+    @Test
+    public void thatExportStatementCountIsIndependentOfDocumentCount() throws Exception
+    {
+        long statements = export(makeProject("export1", 1), 1);
+
+        assertThat(export(makeProject("export10", 10), 10)).isEqualTo(statements);
+    }
+
+    @Test
+    public void thatImportStatementCountIsIndependentOfDocumentCount() throws Exception
+    {
+        long statements = importAnnotationDocuments("import1", 1);
+
+        assertThat(importAnnotationDocuments("import10", 10)).isEqualTo(statements);
+    }
+
+    private long export(Project aProject, int aDocumentCount) throws Exception
+    {
+        ExportedProject exProject = new ExportedProject();
+        File zipFile = new File(TEST_OUTPUT_FOLDER, aProject.getName() + ".zip");
+
+        statistics.clear();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            sut.exportData(new ProjectExportRequest(aProject, FORMAT_AUTO, true), exProject,
+                    zip);
+        }
+        long statements = statistics.getPrepareStatementCount();
+
+        assertThat(exProject.getAnnotationDocuments()).hasSize(aDocumentCount * USERS.length);
+
+        return statements;
+    }
+
+    private long importAnnotationDocuments(String aName, int aDocumentCount) throws Exception
+    {
+        Project source = makeProject(aName + "-source", aDocumentCount);
+        ExportedProject exProject = new ExportedProject();
+        File zipFile = new File(TEST_OUTPUT_FOLDER, source.getName() + ".zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            sut.exportData(new ProjectExportRequest(source, FORMAT_AUTO, true), exProject, zip);
+        }
+
+        // The source documents are imported by the SourceDocumentExporter before
+        Project target = makeProject(aName + "-target", 0);
+        for (int i = 0; i < aDocumentCount; i++) {
+            makeSourceDocument(target, i);
+        }
+
+        statistics.clear();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            sut.importData(new ProjectImportRequest(false), target, exProject, zip);
+        }
+        long inserts = statistics.getEntityInsertCount();
+        long statements = statistics.getPrepareStatementCount();
+
+        // Creating the annotation documents naturally requires one statement per document
+        assertThat(inserts).isEqualTo(aDocumentCount * USERS.length);
+
+        return statements - inserts;
+    }
+
+    private Project makeProject(String aName, int aDocumentCount) throws Exception
+    {
+        Project project = new Project();
+        project.setName(aName);
+        project.setMode(WebAnnoConst.PROJECT_TYPE_ANNOTATION);
+        projectService.createProject(project);
+
+        for (String user : USERS) {
+            projectService.createProjectPermission(
+                    new ProjectPermission(project, user, PermissionLevel.ANNOTATOR));
+        }
+
+        for (int i = 0; i < aDocumentCount; i++) {
+            SourceDocument document = makeSourceDocument(project, i);
+
+            CasPersistenceUtils.writeSerializedCas(JCasFactory.createText("Test"),
+                    documentService.getCasFile(document, INITIAL_CAS_PSEUDO_USER));
+
+            for (String user : USERS) {
+                AnnotationDocument annotationDocument = new AnnotationDocument();
+                annotationDocument.setName(document.getName());
+                annotationDocument.setDocument(document);
+                annotationDocument.setProject(project);
+                annotationDocument.setUser(user);
+                annotationDocument.setState(AnnotationDocumentState.IN_PROGRESS);
+                documentService.createAnnotationDocument(annotationDocument);
+            }
+        }
+
+        return project;
+    }
+
+    private SourceDocument makeSourceDocument(Project aProject, int aIndex)
+    {
+        SourceDocument document = new SourceDocument();
+        document.setName("doc" + aIndex + ".txt");
+        document.setProject(aProject);
+        document.setFormat(TextFormatSupport.ID);
+        documentService.createSourceDocument(document);
+        return document;
+    }
+
+    @Configuration
+    public static class TestContext
+    {
+        private @Autowired ApplicationEventPublisher applicationEventPublisher;
+
+        @Bean
+        public AnnotationDocumentExporter annotationDocumentExporter()
+        {
+            return new AnnotationDocumentExporter();
+        }
+
+        @Bean
+        public ProjectService projectService()
+        {
+            return new ProjectServiceImpl();
+        }
+
+        @Bean
+        public UserDao userRepository()
+        {
+            return new UserDaoImpl();
+        }
+
+        @Bean
+        public DocumentService documentService()
+        {
+            return new DocumentServiceImpl(repositoryProperties(), userRepository(),
+                    casStorageService(), importExportService(), projectService(),
+                    applicationEventPublisher);
+        }
+
+        @Bean
+        public AnnotationSchemaService annotationService()
+        {
+            return new AnnotationSchemaServiceImpl();
+        }
+
+        @Bean
+        public FeatureSupportRegistry featureSupportRegistry()
+        {
+            return new FeatureSupportRegistryImpl(Collections.emptyList());
+        }
+
+        @Bean
+        public CasStorageService casStorageService()
+        {
+            return new CasStorageServiceImpl(null, repositoryProperties(), backupProperties());
+        }
+
+        @Bean
+        public ImportExportService importExportService()
+        {
+            return new ImportExportServiceImpl(repositoryProperties(),
+                    asList(new TextFormatSupport()), casStorageService(), annotationService());
+        }
+
+        @Bean
+        public RepositoryProperties repositoryProperties()
+        {
+            return new RepositoryProperties();
+        }
+
+        @Bean
+        public BackupProperties backupProperties()
+        {
+            return new BackupProperties();
+        }
+
+        @Bean
+        public LayerSupportRegistry layerSupportRegistry()
+        {
+            return new LayerSupportRegistryImpl(asList(
+                    new SpanLayerSupport(featureSupportRegistry(), null, annotationService()),
+                    new RelationLayerSupport(featureSupportRegistry(), null, annotationService()),
+                    new ChainLayerSupport(featureSupportRegistry(), null, annotationService())));
+        }
+    }
+}
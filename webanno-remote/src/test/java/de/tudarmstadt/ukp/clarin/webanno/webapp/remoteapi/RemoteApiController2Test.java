@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi;
 
 import static de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.AeroRemoteApiController.API_BASE;
 import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
@@ -28,10 +29,18 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.junit.Before;
 import org.junit.FixMethodOrder;
@@ -52,10 +61,13 @@ import org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfig
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.util.FileSystemUtils;
 import org.springframework.web.context.WebApplicationContext;
 
+import com.jayway.jsonpath.JsonPath;
+
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
@@ -86,6 +98,7 @@ import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.clarin.webanno.support.ApplicationContextProvider;
 import de.tudarmstadt.ukp.clarin.webanno.text.TextFormatSupport;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.AeroRemoteApiController;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.ProjectExportJobManager;
 
 @RunWith(SpringRunner.class) 
 @EnableAutoConfiguration
@@ -273,6 +286,122 @@ public class RemoteApiController2Test
             .andExpect(jsonPath("$.body[0].state").value("ANNOTATION-IN-PROGRESS"));
     }
 
+    @Test
+    public void t006_testExportJobNotFound() throws Exception
+    {
+        mvc.perform(get(API_BASE + "/projects/1/exports/unknown")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isNotFound())
+            .andExpect(content().contentType("application/json;charset=UTF-8"))
+            .andExpect(jsonPath("$.messages[0].level").value("ERROR"));
+        
+        mvc.perform(get(API_BASE + "/projects/1/exports/unknown/export.zip")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void t007_testProjectExportStream() throws Exception
+    {
+        MvcResult result = mvc.perform(get(API_BASE + "/projects/1/export-stream.zip")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        
+        // Returns once the export has been written completely
+        result.getAsyncResult(TimeUnit.SECONDS.toMillis(10));
+        
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentType()).isEqualTo("application/zip");
+        assertThat(listZipEntries(result.getResponse().getContentAsByteArray()))
+                .contains("exportedproject.json");
+    }
+
+    @Test
+    public void t008_testExportJobLifecycle() throws Exception
+    {
+        // Create, poll and download - the result can only be downloaded once
+        String jobId = createExportJob();
+        awaitExportJob(jobId);
+        
+        MvcResult download = mvc.perform(get(API_BASE + "/projects/1/exports/" + jobId
+                + "/export.zip")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType("application/zip"))
+            .andReturn();
+        assertThat(listZipEntries(download.getResponse().getContentAsByteArray()))
+                .contains("exportedproject.json");
+        
+        mvc.perform(get(API_BASE + "/projects/1/exports/" + jobId)
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isNotFound());
+        
+        // Create and delete without downloading
+        jobId = createExportJob();
+        awaitExportJob(jobId);
+        
+        mvc.perform(delete(API_BASE + "/projects/1/exports/" + jobId)
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.messages[0].level").value("INFO"));
+        
+        mvc.perform(get(API_BASE + "/projects/1/exports/" + jobId + "/export.zip")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isNotFound());
+    }
+
+    private String createExportJob() throws Exception
+    {
+        MvcResult result = mvc.perform(post(API_BASE + "/projects/1/exports")
+                .with(csrf().asHeader())
+                .with(user("admin").roles("ADMIN")))
+            .andExpect(status().isAccepted())
+            .andExpect(jsonPath("$.body.project").value("1"))
+            .andReturn();
+        
+        return JsonPath.read(result.getResponse().getContentAsString(), "$.body.id");
+    }
+    
+    private void awaitExportJob(String aJobId) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        String state;
+        do {
+            MvcResult result = mvc.perform(get(API_BASE + "/projects/1/exports/" + aJobId)
+                    .with(csrf().asHeader())
+                    .with(user("admin").roles("ADMIN")))
+                .andExpect(status().isOk())
+                .andReturn();
+            state = JsonPath.read(result.getResponse().getContentAsString(), "$.body.state");
+            if (!"COMPLETED".equals(state)) {
+                Thread.sleep(50);
+            }
+        }
+        while (!"COMPLETED".equals(state) && System.currentTimeMillis() < deadline);
+        
+        assertThat(state).isEqualTo("COMPLETED");
+    }
+    
+    private static List<String> listZipEntries(byte[] aZip) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(aZip))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
     @Configuration
     public static class TestContext {
         @Autowired ApplicationEventPublisher applicationEventPublisher;
@@ -283,6 +412,12 @@ public class RemoteApiController2Test
             return new AeroRemoteApiController();
         }
         
+        @Bean
+        public ProjectExportJobManager projectExportJobManager()
+        {
+            return new ProjectExportJobManager();
+        }
+        
         @Bean
         public ProjectService projectService()
         {
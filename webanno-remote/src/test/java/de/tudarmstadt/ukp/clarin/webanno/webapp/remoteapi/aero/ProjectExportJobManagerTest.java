@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportException;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
+import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportService;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.ProjectExportJobManager.ProjectExportJob;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.remoteapi.aero.ProjectExportJobManager.State;
+
+public class ProjectExportJobManagerTest
+{
+    private @Mock ProjectExportService exportService;
+    private @InjectMocks ProjectExportJobManager sut;
+
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    private CountDownLatch release;
+
+    @Before
+    public void setup() throws Exception
+    {
+        initMocks(this);
+
+        setField(sut, "maxJobs", 2);
+        setField(sut, "retentionMinutes", 60l);
+
+        // Exports block until the test releases them
+        release = new CountDownLatch(1);
+        when(exportService.exportProject(any(ProjectExportRequest.class))).thenAnswer(call -> {
+            release.await();
+            return testFolder.newFile();
+        });
+        doAnswer(call -> {
+            release.await();
+            call.<OutputStream>getArgument(1).write("ZIP".getBytes("UTF-8"));
+            return null;
+        }).when(exportService).exportProject(any(ProjectExportRequest.class),
+                any(OutputStream.class));
+
+        sut.start();
+    }
+
+    @After
+    public void teardown()
+    {
+        sut.stop();
+    }
+
+    @Test
+    public void thatCompletedExportCanBeDownloadedOnce() throws Exception
+    {
+        ProjectExportJob job = sut.submit(makeRequest(), "user").get();
+        assertThat(sut.getJob(job.getId())).contains(job);
+        assertThat(sut.take(job)).isNull();
+
+        release.countDown();
+        awaitFinished(job);
+
+        assertThat(job.getState()).isEqualTo(State.COMPLETED);
+        File file = sut.take(job);
+        assertThat(file).exists();
+        assertThat(sut.getJob(job.getId())).isEmpty();
+        assertThat(sut.take(job)).isNull();
+    }
+
+    @Test
+    public void thatRemovingJobsCancelsThemOrDeletesTheirResult() throws Exception
+    {
+        ProjectExportJob running = sut.submit(makeRequest(), "user").get();
+        sut.remove(running);
+
+        assertThat(running.getState()).isEqualTo(State.CANCELLED);
+        assertThat(sut.getJob(running.getId())).isEmpty();
+
+        ProjectExportJob completed = sut.submit(makeRequest(), "user").get();
+        release.countDown();
+        awaitFinished(completed);
+        File file = completed.getFile();
+        sut.remove(completed);
+
+        assertThat(file).doesNotExist();
+        assertThat(sut.getJob(completed.getId())).isEmpty();
+    }
+
+    @Test
+    public void thatFinishedJobsExpire() throws Exception
+    {
+        ProjectExportJob job = sut.submit(makeRequest(), "user").get();
+        release.countDown();
+        awaitFinished(job);
+        File file = job.getFile();
+
+        sut.expireJobs(System.currentTimeMillis());
+        assertThat(sut.getJob(job.getId())).contains(job);
+
+        sut.expireJobs(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(61));
+        assertThat(sut.getJob(job.getId())).isEmpty();
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    public void thatNoMoreJobsAreAcceptedAtTheLimit() throws Exception
+    {
+        ProjectExportJob job1 = sut.submit(makeRequest(), "user").get();
+        ProjectExportJob job2 = sut.submit(makeRequest(), "user").get();
+
+        assertThat(sut.submit(makeRequest(), "user")).isEmpty();
+        assertThat(sut.submit(makeRequest(), "user", new ByteArrayOutputStream(), e -> { }))
+                .isEmpty();
+
+        // Completed jobs count until they have been downloaded
+        release.countDown();
+        awaitFinished(job1);
+        awaitFinished(job2);
+        assertThat(sut.submit(makeRequest(), "user")).isEmpty();
+
+        sut.take(job1);
+        assertThat(sut.submit(makeRequest(), "user")).isPresent();
+    }
+
+    @Test
+    public void thatStreamedExportCountsTowardsTheLimitWhileRunning() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<Throwable> finished = new CompletableFuture<>();
+        ProjectExportJob job = sut
+                .submit(makeRequest(), "user", out, e -> finished.complete(e)).get();
+        sut.submit(makeRequest(), "user").get();
+
+        assertThat(sut.submit(makeRequest(), "user")).isEmpty();
+
+        release.countDown();
+        assertThat(finished.get(10, TimeUnit.SECONDS)).isNull();
+
+        assertThat(out.toString("UTF-8")).isEqualTo("ZIP");
+        assertThat(job.getState()).isEqualTo(State.COMPLETED);
+        // Nothing is kept for a streamed export
+        assertThat(sut.getJob(job.getId())).isEmpty();
+        assertThat(sut.submit(makeRequest(), "user")).isPresent();
+    }
+
+    @Test
+    public void thatStreamedExportReportsFailure() throws Exception
+    {
+        ProjectExportException failure = new ProjectExportException("test");
+        doThrow(failure).when(exportService).exportProject(any(ProjectExportRequest.class),
+                any(OutputStream.class));
+
+        CompletableFuture<Throwable> finished = new CompletableFuture<>();
+        ProjectExportJob job = sut.submit(makeRequest(), "user", new ByteArrayOutputStream(),
+                e -> finished.complete(e)).get();
+
+        assertThat(finished.get(10, TimeUnit.SECONDS)).isSameAs(failure);
+        assertThat(job.getState()).isEqualTo(State.FAILED);
+        assertThat(job.getRequest().getMessages()).isNotEmpty();
+        assertThat(sut.getJob(job.getId())).isEmpty();
+    }
+
+    private static ProjectExportRequest makeRequest()
+    {
+        Project project = new Project();
+        project.setId(1l);
+        project.setName("test");
+        return new ProjectExportRequest(project, "UIMA binary CAS", true);
+    }
+
+    private static void awaitFinished(ProjectExportJob aJob) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (aJob.getFinished() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(aJob.getFinished()).isGreaterThan(0);
+    }
+
+    private static void setField(Object aTarget, String aName, Object aValue) throws Exception
+    {
+        Field field = ProjectExportJobManager.class.getDeclaredField(aName);
+        field.setAccessible(true);
+        field.set(aTarget, aValue);
+    }
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.io.Writer;
 
 import org.apache.commons.io.FileUtils;
 
@@ -29,9 +30,22 @@ import com.fasterxml.jackson.core.SerializableString;
 import com.fasterxml.jackson.core.io.CharacterEscapes;
 import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 public class JSONUtil
 {
+    /**
+     * Shared mapper used by the conversion methods of this class. It must not be configured any
+     * further. Callers which need to configure a mapper should use {@link #getObjectMapper()}.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final ObjectWriter WRITER = OBJECT_MAPPER.writer()
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final ObjectWriter INTERPRETABLE_WRITER = WRITER
+            .with(JavaScriptCharacterEscapes.get());
+
     /**
      * Convert Java objects into JSON format and write it to a file
      *
@@ -63,7 +77,7 @@ public class JSONUtil
     public static String toJsonString(Object aObject)
         throws IOException
     {
-        return toJsonString(getObjectMapper(), false, aObject);
+        return WRITER.writeValueAsString(aObject);
     }
     
     public static String toJsonString(ObjectMapper aMapper, boolean aPretty, Object aObject)
@@ -87,14 +101,14 @@ public class JSONUtil
             return null;
         }
         else {
-            return getObjectMapper().readValue(aJSON, aClass);
+            return OBJECT_MAPPER.readValue(aJSON, aClass);
         }
     }
 
     public static <T> T fromJsonStream(Class<T> aClass, InputStream aSrc)
             throws IOException
     {
-        return getObjectMapper().readValue(aSrc, aClass);
+        return OBJECT_MAPPER.readValue(aSrc, aClass);
     }
 
     public static String toPrettyJsonString(Object aObject)
@@ -108,14 +122,26 @@ public class JSONUtil
         return new ObjectMapper();
     }
     
+    /**
+     * Convert the given object to JSON which can be embedded into JavaScript code, i.e. line and
+     * paragraph separators are escaped as well.
+     */
     public static String toInterpretableJsonString(Object aObject)
         throws IOException
     {
-        StringWriter out = new StringWriter();
-        JsonGenerator jsonGenerator = JSONUtil.getObjectMapper().getFactory().createGenerator(out);
-        jsonGenerator.setCharacterEscapes(JavaScriptCharacterEscapes.get());
-        jsonGenerator.writeObject(aObject);
-        return out.toString();
+        return INTERPRETABLE_WRITER.writeValueAsString(aObject);
+    }
+
+    /**
+     * Write the given object as JSON which can be embedded into JavaScript code to the given
+     * writer. The writer is not closed.
+     * 
+     * @see #toInterpretableJsonString(Object)
+     */
+    public static void writeInterpretableJson(Object aObject, Writer aOut)
+        throws IOException
+    {
+        INTERPRETABLE_WRITER.writeValue(aOut, aObject);
     }
     
     private static class JavaScriptCharacterEscapes extends CharacterEscapes {
@@ -83,10 +83,7 @@ public class ZipUtils
         ZipOutputStream zip = null;
         try {
             zip = new ZipOutputStream(new FileOutputStream(destZipFile));
-
-            for (File file : srcFolder.getAbsoluteFile().listFiles()) {
-                addToZip(zip, srcFolder.getAbsoluteFile(), file);
-            }
+            zipFolder(srcFolder, zip);
             zip.flush();
         }
         finally {
@@ -94,6 +91,22 @@ public class ZipUtils
         }
     }
 
+    /**
+     * Adds all files in the given folder and its sub-folders to an open ZIP stream. The entries
+     * are named by their path relative to the folder. The stream is not closed.
+     * 
+     * @param srcFolder source folder.
+     * @param aZip target ZIP stream.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void zipFolder(File srcFolder, ZipOutputStream aZip)
+        throws IOException
+    {
+        for (File file : srcFolder.getAbsoluteFile().listFiles()) {
+            addToZip(aZip, srcFolder.getAbsoluteFile(), file);
+        }
+    }
+
     private static void addToZip(ZipOutputStream zip, File aBasePath, File aPath)
         throws IOException
     {
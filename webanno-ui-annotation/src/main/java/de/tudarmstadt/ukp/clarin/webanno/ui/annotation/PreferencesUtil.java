@@ -85,6 +85,14 @@ public class PreferencesUtil
         // get annotation preference from file system
         try {
             Properties props = aRepositoryService.loadUserSettings(aUsername, aBModel.getProject());
+            if (props.isEmpty()) {
+                // no preference found
+                applyDefaultPreferences(aDefaultPreferences, aAnnotationService, aBModel,
+                        preference);
+                aBModel.setPreferences(preference);
+                return;
+            }
+            
             for (Entry<Object, Object> entry : props.entrySet()) {
                 String property = entry.getKey().toString();
                 int index = property.indexOf(".");
@@ -140,31 +148,37 @@ public class PreferencesUtil
         }
         // no preference found
         catch (Exception e) {
-            // If no layer preferences are defined, 
-            // then just assume all enabled layers are preferred
-            List<AnnotationLayer> enabledLayers = aAnnotationService
-                    .listAnnotationLayer(aBModel.getProject()).stream()
-                    .filter(l -> l.isEnabled())// only allow enabled layers
-                    .collect(Collectors.toList()); 
-            aBModel.setAnnotationLayers(enabledLayers);
-            
-            preference.setWindowSize(aDefaultPreferences.getPageSize());
-            preference.setScrollPage(aDefaultPreferences.isAutoScroll());
-            preference.setRememberLayer(aDefaultPreferences.isRememberLayer());
-            
-            // add default coloring strategy
-            Map<Long, ColoringStrategyType> colorPerLayer = new HashMap<>();
-            for (AnnotationLayer layer : aBModel.getAnnotationLayers()) {
-                colorPerLayer.put(layer.getId(), ColoringStrategy
-                        .getBestInitialStrategy(aAnnotationService, layer, preference));
-            }
-            preference.setColorPerLayer(colorPerLayer);
-
+            applyDefaultPreferences(aDefaultPreferences, aAnnotationService, aBModel, preference);
         }
         
         aBModel.setPreferences(preference);
     }
 
+    private static void applyDefaultPreferences(BratProperties aDefaultPreferences,
+            AnnotationSchemaService aAnnotationService, AnnotatorState aBModel,
+            AnnotationPreference aPreference)
+    {
+        // If no layer preferences are defined, 
+        // then just assume all enabled layers are preferred
+        List<AnnotationLayer> enabledLayers = aAnnotationService
+                .listAnnotationLayer(aBModel.getProject()).stream()
+                .filter(l -> l.isEnabled())// only allow enabled layers
+                .collect(Collectors.toList()); 
+        aBModel.setAnnotationLayers(enabledLayers);
+        
+        aPreference.setWindowSize(aDefaultPreferences.getPageSize());
+        aPreference.setScrollPage(aDefaultPreferences.isAutoScroll());
+        aPreference.setRememberLayer(aDefaultPreferences.isRememberLayer());
+        
+        // add default coloring strategy
+        Map<Long, ColoringStrategyType> colorPerLayer = new HashMap<>();
+        for (AnnotationLayer layer : aBModel.getAnnotationLayers()) {
+            colorPerLayer.put(layer.getId(), ColoringStrategy
+                    .getBestInitialStrategy(aAnnotationService, layer, aPreference));
+        }
+        aPreference.setColorPerLayer(colorPerLayer);
+    }
+
     public static void savePreference(AnnotatorState aBModel, ProjectService aRepository)
         throws IOException
     {
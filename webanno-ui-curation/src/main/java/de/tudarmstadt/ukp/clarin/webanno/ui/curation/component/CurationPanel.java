@@ -69,9 +69,9 @@ import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.ui.annotation.AnnotationPageBase;
 import de.tudarmstadt.ukp.clarin.webanno.ui.annotation.detail.AnnotationDetailEditorPanel;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.AnnotationSelection;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.CrossSentenceIndex;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.CurationContainer;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SourceListView;
-import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SuggestionBuilder;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.UserAnnotationSegment;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 
@@ -291,19 +291,18 @@ public class CurationPanel
         int lSN = state.getLastVisibleUnitIndex();
 
         List<String> crossSentAnnos = new ArrayList<>();
-        if (SuggestionBuilder.crossSentenceLists != null) {
-            for (int sn : SuggestionBuilder.crossSentenceLists.keySet()) {
-                if (sn >= fSN && sn <= lSN) {
-                    List<Integer> cr = new ArrayList<>();
-                    for (int c : SuggestionBuilder.crossSentenceLists.get(sn)) {
-                        if (c < fSN || c > lSN) {
-                            cr.add(c);
-                        }
-                    }
-                    if (!cr.isEmpty()) {
-                        crossSentAnnos.add(sn + "-->" + cr);
+        CrossSentenceIndex index = getModelObject().getCrossSentenceIndex();
+        if (index != null) {
+            for (int sn = fSN; sn <= lSN; sn++) {
+                List<Integer> cr = new ArrayList<>();
+                for (int c : index.getCrossSentences(sn)) {
+                    if (c < fSN || c > lSN) {
+                        cr.add(c);
                     }
                 }
+                if (!cr.isEmpty()) {
+                    crossSentAnnos.add(sn + "-->" + cr);
+                }
             }
         }
 
@@ -64,9 +64,9 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
-import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratResponseCache;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.BratAnnotatorUtility;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Configuration;
@@ -124,6 +124,7 @@ public class SuggestionViewPanel
     private @SpringBean CorrectionDocumentService correctionDocumentService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean BratResponseCache bratResponseCache;
 
     public SuggestionViewPanel(String id,
             IModel<List<UserAnnotationSegment>> aModel)
@@ -396,15 +397,12 @@ public class SuggestionViewPanel
         return JSONUtil.toInterpretableJsonString(response);
     }
 
-    private String getCollectionInformation(AnnotationSchemaService aAnnotationService,
-            CurationContainer aCurationContainer)
+    private String getCollectionInformation(CurationContainer aCurationContainer)
         throws IOException
     {
-        GetCollectionInformationResponse info = new GetCollectionInformationResponse();
-        info.setEntityTypes(BratRenderer.buildEntityTypes(aCurationContainer
-                .getAnnotatorState().getAnnotationLayers(), aAnnotationService));
-
-        return JSONUtil.toInterpretableJsonString(info);
+        AnnotatorState state = aCurationContainer.getAnnotatorState();
+        return bratResponseCache.getCollectionInformation(state.getProject(),
+                state.getAnnotationLayers());
     }
     
     /**
@@ -455,7 +453,7 @@ public class SuggestionViewPanel
                 seg.setUsername(username);
                 seg.setAnnotatorState(state);
                 seg.setCollectionData(
-                        getCollectionInformation(annotationService, aCurationContainer));
+                        getCollectionInformation(aCurationContainer));
                 seg.setDocumentResponse(
                         render(jCas, state, curationColoringStrategy));
                 seg.setSelectionByUsernameAndAddress(aAnnotationSelectionByUsernameAndAddress);
@@ -522,7 +520,7 @@ public class SuggestionViewPanel
             // Create curation view for the current user
             try {
                 seg.setCollectionData(
-                        getCollectionInformation(annotationService, aCurationContainer));
+                        getCollectionInformation(aCurationContainer));
                 seg.setDocumentResponse(
                         render(jCas, state, curationColoringStrategy));
                 seg.setAnnotatorState(state);
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static java.util.Collections.emptySet;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+import static org.apache.uima.fit.util.JCasUtil.select;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Index of the annotations which cross sentence boundaries in the CASes compared during curation.
+ * For each segment, it records the numbers of the sentences which annotations beginning or ending
+ * in the segment reach into. It also records how far a segment needs to be extended so that it
+ * covers all annotations beginning in it.
+ * <p>
+ * The index is built in a single pass over the annotations of each CAS. It does not change
+ * afterwards, so it can be shared between curation sessions working on the same document.
+ */
+public class CrossSentenceIndex
+    implements Serializable
+{
+    private static final long serialVersionUID = 1842931558238730641L;
+
+    /**
+     * Sentence number of each segment mapped to the numbers of the sentences reached by
+     * annotations crossing the segment boundaries.
+     */
+    private final Map<Integer, Set<Integer>> crossSentences;
+
+    /**
+     * Segment begin mapped to the new end of segments which need to be extended.
+     */
+    private final Map<Integer, Integer> segmentEnds;
+
+    private CrossSentenceIndex(Map<Integer, Set<Integer>> aCrossSentences,
+            Map<Integer, Integer> aSegmentEnds)
+    {
+        crossSentences = aCrossSentences;
+        segmentEnds = aSegmentEnds;
+    }
+
+    /**
+     * @param aSegmentBeginEnd
+     *            the segments (sentences) as begin mapped to end. Segments must not overlap.
+     * @param aSegmentNumber
+     *            the sentence number of each segment by its begin.
+     * @param aCasses
+     *            the CASes to index.
+     * @param aTypes
+     *            the annotation types to index.
+     * @param aRangeBegin
+     *            the begin of the range containing the annotations to index.
+     * @param aRangeEnd
+     *            the end of the range containing the annotations to index.
+     * @return the index.
+     */
+    public static CrossSentenceIndex build(Map<Integer, Integer> aSegmentBeginEnd,
+            Map<Integer, Integer> aSegmentNumber, Collection<JCas> aCasses, List<Type> aTypes,
+            int aRangeBegin, int aRangeEnd)
+    {
+        int[] segBegins = aSegmentBeginEnd.keySet().stream().mapToInt(i -> i).sorted().toArray();
+        int[] segEnds = new int[segBegins.length];
+        Map<Integer, Set<Integer>> crossSentences = new HashMap<>();
+        for (int i = 0; i < segBegins.length; i++) {
+            segEnds[i] = aSegmentBeginEnd.get(segBegins[i]);
+            crossSentences.put(aSegmentNumber.get(segBegins[i]), new TreeSet<>());
+        }
+
+        Map<Integer, Integer> segmentEnds = new HashMap<>();
+        for (JCas cas : aCasses) {
+            Collection<Sentence> sentences = select(cas, Sentence.class);
+            if (sentences.isEmpty()) {
+                continue;
+            }
+
+            int[] sentBegins = new int[sentences.size()];
+            int[] sentEnds = new int[sentences.size()];
+            int n = 0;
+            for (Sentence s : sentences) {
+                sentBegins[n] = s.getBegin();
+                sentEnds[n] = s.getEnd();
+                n++;
+            }
+
+            for (Type type : aTypes) {
+                for (AnnotationFS fs : selectCovered(cas.getCas(), type, aRangeBegin, aRangeEnd)) {
+                    int begin = fs.getBegin();
+                    int end = fs.getEnd();
+
+                    // Segments in which the annotation begins
+                    for (int i = lastSegmentAt(segBegins, begin); i >= 0
+                            && segEnds[i] >= begin; i--) {
+                        if (end < segBegins[i] || segEnds[i] < end) {
+                            int endSentence = sentenceByEnd(sentEnds, end);
+                            crossSentences.get(aSegmentNumber.get(segBegins[i]))
+                                    .add(endSentence + 1);
+                            if (segEnds[i] < end) {
+                                segmentEnds.merge(segBegins[i], sentEnds[endSentence],
+                                        Math::max);
+                            }
+                        }
+                    }
+
+                    // Segments in which the annotation ends but does not begin
+                    for (int i = lastSegmentAt(segBegins, end); i >= 0
+                            && segEnds[i] >= end; i--) {
+                        if (begin < segBegins[i] || segEnds[i] < begin) {
+                            crossSentences.get(aSegmentNumber.get(segBegins[i]))
+                                    .add(sentenceNumber(sentBegins, sentEnds, begin));
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Entry<Integer, Set<Integer>> e : crossSentences.entrySet()) {
+            e.setValue(unmodifiableSet(e.getValue()));
+        }
+
+        return new CrossSentenceIndex(unmodifiableMap(crossSentences),
+                unmodifiableMap(segmentEnds));
+    }
+
+    /**
+     * @return the numbers of the sentences reached by annotations crossing the boundaries of the
+     *         given sentence.
+     */
+    public Set<Integer> getCrossSentences(int aSentenceNumber)
+    {
+        return crossSentences.getOrDefault(aSentenceNumber, emptySet());
+    }
+
+    /**
+     * @return the new end of each segment which needs to be extended by its begin.
+     */
+    public Map<Integer, Integer> getSegmentEnds()
+    {
+        return segmentEnds;
+    }
+
+    /**
+     * @return the index of the last segment beginning at or before the given offset or -1.
+     */
+    private static int lastSegmentAt(int[] aSegBegins, int aOffset)
+    {
+        int i = Arrays.binarySearch(aSegBegins, aOffset);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * @return the index of the first sentence ending at or after the given offset or the index of
+     *         the last sentence if there is no such sentence.
+     */
+    private static int sentenceByEnd(int[] aSentEnds, int aEnd)
+    {
+        int low = 0;
+        int high = aSentEnds.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (aSentEnds[mid] < aEnd) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of the sentence containing the given offset or the number of sentences
+     *         if there is no such sentence - like {@code WebAnnoCasUtil.getSentenceNumber}.
+     */
+    private static int sentenceNumber(int[] aSentBegins, int[] aSentEnds, int aOffset)
+    {
+        int i = sentenceByEnd(aSentEnds, aOffset);
+        if (aSentBegins[i] <= aOffset && aOffset <= aSentEnds[i]) {
+            return i + 1;
+        }
+        return aSentBegins.length;
+    }
+}
@@ -41,6 +41,8 @@ public class CurationContainer
 
     private AnnotatorState state;
 
+    private CrossSentenceIndex crossSentenceIndex;
+
     public List<SourceListView> getCurationViews()
     {
         LinkedList<Integer> viewsBegin = new LinkedList<>(curationViewByBegin.keySet());
@@ -80,4 +82,14 @@ public class CurationContainer
         this.state = bratAnnotatorModel;
     }
 
+    public CrossSentenceIndex getCrossSentenceIndex()
+    {
+        return crossSentenceIndex;
+    }
+
+    public void setCrossSentenceIndex(CrossSentenceIndex aCrossSentenceIndex)
+    {
+        crossSentenceIndex = aCrossSentenceIndex;
+    }
+
 }
@@ -20,18 +20,22 @@ package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateUtils.updateDocumentTimestampAfterWrite;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
-import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.Type;
@@ -88,9 +92,31 @@ public class SuggestionBuilder
     private final UserDao userRepository;
     private final CasStorageService casStorageService;
 
+    /**
+     * Number of documents for which the sentence states are cached.
+     */
+    private static final int SEGMENT_STATES_CACHE_SIZE = 32;
+
+    /**
+     * Sentence states of recently opened documents. Keyed by the document, the diff range, the
+     * entry types and the timestamps of the compared CASes, so an entry is only used as long as
+     * none of the CASes has changed.
+     */
+    private static final Map<List<Object>, SegmentStates> SEGMENT_STATES_CACHE =
+            new LinkedHashMap<List<Object>, SegmentStates>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = -3598372574738596440L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<List<Object>, SegmentStates> aEldest)
+                {
+                    return size() > SEGMENT_STATES_CACHE_SIZE;
+                }
+            };
+
     int diffRangeBegin, diffRangeEnd;
     boolean firstload = true;
-    public static Map<Integer, Set<Integer>> crossSentenceLists;
     //
     Map<Integer, Integer> segmentBeginEnd = new HashMap<>();
 
@@ -170,64 +196,54 @@ public class SuggestionBuilder
             entryTypes = getEntryTypes(mergeJCas, aBModel.getAnnotationLayers(), annotationService);
         }
 
-        // for cross-sentences annotation, update the end of the segment
-        if (firstload) {
-            long start = System.currentTimeMillis();
-            log.debug("Updating cross sentence annotation list...");
-            updateCrossSentAnnoList(segmentBeginEnd, segmentNumber, jCases, entryTypes);
+        // The sentence states only depend on the compared CASes - if none of them has changed
+        // since the last time, we can re-use the states calculated back then.
+        List<Object> cacheKey = getSegmentStatesCacheKey(sourceDocument, aBModel.getMode(),
+                jCases.keySet(), entryTypes);
+        SegmentStates segmentStates = getCachedSegmentStates(cacheKey);
+
+        if (segmentStates != null) {
+            log.debug("Re-using sentence states from previous differences calculation");
+            segmentBeginEnd.putAll(segmentStates.segmentEnds);
+            curationContainer.setCrossSentenceIndex(segmentStates.crossSentenceIndex);
             firstload = false;
-            log.debug("Cross sentence annotation list complete in {}ms",
-                    (System.currentTimeMillis() - start));
         }
+        else {
+            // for cross-sentences annotation, update the end of the segment
+            if (firstload) {
+                long start = System.currentTimeMillis();
+                log.debug("Updating cross sentence annotation list...");
+                CrossSentenceIndex crossSentenceIndex = CrossSentenceIndex.build(segmentBeginEnd,
+                        segmentNumber, jCases.values(), entryTypes, diffRangeBegin, diffRangeEnd);
+                segmentBeginEnd.putAll(crossSentenceIndex.getSegmentEnds());
+                curationContainer.setCrossSentenceIndex(crossSentenceIndex);
+                firstload = false;
+                log.debug("Cross sentence annotation list complete in {}ms",
+                        (System.currentTimeMillis() - start));
+            }
 
-        List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService, aBModel.getProject());
+            List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService,
+                    aBModel.getProject());
 
-        long diffStart = System.currentTimeMillis();
-        log.debug("Calculating differences...");
-        int count = 0;
-        for (Integer begin : segmentBeginEnd.keySet()) {
-            Integer end = segmentBeginEnd.get(begin);
+            long diffStart = System.currentTimeMillis();
+            log.debug("Calculating differences...");
+            segmentStates = new SegmentStates(new HashMap<>(segmentBeginEnd),
+                    curationContainer.getCrossSentenceIndex(),
+                    calculateSentenceStates(segmentBeginEnd, entryTypes, adapters, jCases));
+            log.debug("Difference calculation completed in {}ms",
+                    (System.currentTimeMillis() - diffStart));
 
-            count++;
-            if (count % 100 == 0) {
-                log.debug("Processing differences: {} of {} sentences...", count,
-                        segmentBeginEnd.size());
-            }
+            cacheSegmentStates(cacheKey, segmentStates);
+        }
 
-            DiffResult diff = CasDiff2.doDiffSingle(entryTypes, adapters, LINK_ROLE_AS_LABEL,
-                    jCases, begin, end);
+        for (Integer begin : segmentBeginEnd.keySet()) {
+            Integer end = segmentBeginEnd.get(begin);
 
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
             curationSegment.setEnd(end);
             curationSegment.setSentenceNumber(segmentNumber.get(begin));
-            if (diff.hasDifferences() || !diff.getIncompleteConfigurationSets().isEmpty()) {
-                // Is this confSet a diff due to stacked annotations (with same configuration)?
-                boolean stackedDiff = false;
-
-                stackedDiffSet: for (ConfigurationSet d : diff.getDifferingConfigurationSets()
-                        .values()) {
-                    for (Configuration c : d.getConfigurations()) {
-                        if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
-                            stackedDiff = true;
-                            break stackedDiffSet;
-                        }
-                    }
-                }
-
-                if (stackedDiff) {
-                    curationSegment.setSentenceState(SentenceState.DISAGREE);
-                }
-                else if (!diff.getIncompleteConfigurationSets().isEmpty()) {
-                    curationSegment.setSentenceState(SentenceState.DISAGREE);
-                }
-                else {
-                    curationSegment.setSentenceState(SentenceState.AGREE);
-                }
-            }
-            else {
-                curationSegment.setSentenceState(SentenceState.AGREE);
-            }
+            curationSegment.setSentenceState(segmentStates.sentenceStates.get(begin));
 
             for (String username : segmentAdress.keySet()) {
                 curationSegment.getSentenceAddress().put(username,
@@ -235,95 +251,171 @@ public class SuggestionBuilder
             }
             curationContainer.getCurationViewByBegin().put(begin, curationSegment);
         }
-        log.debug("Difference calculation completed in {}ms",
-                (System.currentTimeMillis() - diffStart));
 
         return curationContainer;
     }
 
-    private void updateCrossSentAnnoList(Map<Integer, Integer> aSegmentBeginEnd,
-            Map<Integer, Integer> aSegmentNumber, Map<String, JCas> aJCases, List<Type> aEntryTypes)
+    /**
+     * Calculate the differences over all segments at once and determine the state of each
+     * segment from the configuration sets falling into it. This yields the same states as
+     * calculating the differences for each segment separately, but the annotations are only
+     * selected and compared once.
+     * 
+     * @return the state of each segment by the segment begin.
+     */
+    Map<Integer, SentenceState> calculateSentenceStates(
+            Map<Integer, Integer> aSegmentBeginEnd, List<Type> aEntryTypes,
+            List<DiffAdapter> aAdapters, Map<String, JCas> aJCases)
     {
-        // FIXME Remove this side-effect and instead return this hashmap
-        crossSentenceLists = new HashMap<>();
+        Map<Integer, SentenceState> sentenceStates = new HashMap<>();
+        if (aSegmentBeginEnd.isEmpty()) {
+            return sentenceStates;
+        }
 
-        // Extract the sentences for all the CASes
-        Map<JCas, List<Sentence>> idxSentences = new HashMap<>();
-        for (JCas c : aJCases.values()) {
-            idxSentences.put(c, new ArrayList<>(select(c, Sentence.class)));
+        int rangeBegin = Collections.min(aSegmentBeginEnd.keySet());
+        int rangeEnd = Collections.max(aSegmentBeginEnd.values());
+        DiffResult diff = CasDiff2.doDiffSingle(aEntryTypes, aAdapters, LINK_ROLE_AS_LABEL,
+                aJCases, rangeBegin, rangeEnd);
+
+        // All annotations in a configuration set share their offsets, so we can sort the sets
+        // by the offsets of a representative annotation. A set falls into a segment if the
+        // segment covers these offsets - just like the annotations would have been selected
+        // when calculating the differences for the segment alone.
+        List<ConfigurationSet> sets = new ArrayList<>(diff.getConfigurationSets());
+        int[] begins = new int[sets.size()];
+        int[] ends = new int[sets.size()];
+        for (int i = 0; i < sets.size(); i++) {
+            Configuration cfg = sets.get(i).getConfigurations().get(0);
+            AnnotationFS fs = (AnnotationFS) cfg.getFs(cfg.getCasGroupIds().iterator().next(),
+                    aJCases);
+            begins[i] = fs.getBegin();
+            ends[i] = fs.getEnd();
         }
+        Integer[] order = new Integer[sets.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> begins[i]));
 
-        Set<Integer> sentenceBegins = aSegmentBeginEnd.keySet();
         int count = 0;
-        for (int sentBegin : sentenceBegins) {
-            count++;
+        for (Entry<Integer, Integer> segment : aSegmentBeginEnd.entrySet()) {
+            int begin = segment.getKey();
+            int end = segment.getValue();
 
+            count++;
             if (count % 100 == 0) {
-                log.debug("Updating cross-sentence annoations: {} of {} sentences...", count,
-                        sentenceBegins.size());
+                log.debug("Processing differences: {} of {} sentences...", count,
+                        aSegmentBeginEnd.size());
             }
 
-            int sentEnd = aSegmentBeginEnd.get(sentBegin);
-            int currentSentenceNumber = -1;
-
-            Set<Integer> crossSents = new HashSet<>();
+            // Find the first set beginning in the segment
+            int low = 0;
+            int high = order.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (begins[order[mid]] < begin) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
 
-            for (Type t : aEntryTypes) {
-                for (JCas c : aJCases.values()) {
-                    // Determine sentence number for the current segment begin. This takes quite
-                    // a while, so we only do it for the first CAS in the batch. Will be the
-                    // same for all others anyway.
-                    if (currentSentenceNumber == -1) {
-                        currentSentenceNumber = aSegmentNumber.get(sentBegin);
-                    }
+            boolean incomplete = false;
+            // Is this confSet a diff due to stacked annotations (with same configuration)?
+            boolean stackedDiff = false;
+            for (int n = low; n < order.length && begins[order[n]] <= end; n++) {
+                if (ends[order[n]] > end) {
+                    continue;
+                }
 
-                    // update cross-sentence annotation lists
-                    for (AnnotationFS fs : selectCovered(c.getCas(), t, diffRangeBegin,
-                            diffRangeEnd)) {
-                        // CASE 1. annotation begins here
-                        if (sentBegin <= fs.getBegin() && fs.getBegin() <= sentEnd) {
-                            if (fs.getEnd() < sentBegin || sentEnd < fs.getEnd()) {
-                                Sentence s = getSentenceByAnnoEnd(idxSentences.get(c), fs.getEnd());
-                                int thatSent = idxSentences.get(c).indexOf(s) + 1;
-                                crossSents.add(thatSent);
-                            }
-                        }
-                        // CASE 2. Annotation ends here
-                        else if (sentBegin <= fs.getEnd() && fs.getEnd() <= sentEnd) {
-                            if (fs.getBegin() < sentBegin || sentEnd < fs.getBegin()) {
-                                int thatSent = WebAnnoCasUtil.getSentenceNumber(c, fs.getBegin());
-                                crossSents.add(thatSent);
-                            }
-                        }
-                    }
+                ConfigurationSet d = sets.get(order[n]);
+                if (!diff.isComplete(d)) {
+                    incomplete = true;
+                }
 
-                    for (AnnotationFS fs : selectCovered(c.getCas(), t, sentBegin, diffRangeEnd)) {
-                        if (fs.getBegin() <= sentEnd && fs.getEnd() > sentEnd) {
-                            Sentence s = getSentenceByAnnoEnd(idxSentences.get(c), fs.getEnd());
-                            aSegmentBeginEnd.put(sentBegin, s.getEnd());
+                if (!diff.isAgreement(d)) {
+                    for (Configuration c : d.getConfigurations()) {
+                        if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
+                            stackedDiff = true;
+                            break;
                         }
                     }
                 }
             }
-            crossSentenceLists.put(currentSentenceNumber, crossSents);
+
+            if (stackedDiff || incomplete) {
+                sentenceStates.put(begin, SentenceState.DISAGREE);
+            }
+            else {
+                sentenceStates.put(begin, SentenceState.AGREE);
+            }
         }
+
+        return sentenceStates;
     }
 
     /**
-     * Get a sentence at the end of an annotation
+     * @return the key under which the segment states are cached or {@code null} if the states
+     *         cannot be cached because the timestamp of a CAS is not known.
      */
-    private static Sentence getSentenceByAnnoEnd(List<Sentence> aSentences, int aEnd)
+    List<Object> getSegmentStatesCacheKey(SourceDocument aDocument, Mode aMode,
+            Set<String> aUsers, List<Type> aEntryTypes)
     {
-        int prevEnd = 0;
-        Sentence sent = null;
-        for (Sentence sentence : aSentences) {
-            if (prevEnd >= aEnd) {
-                return sent;
+        Map<String, Long> timestamps = new TreeMap<>();
+        for (String user : aUsers) {
+            Optional<Long> timestamp = documentService.getAnnotationCasTimestamp(aDocument, user);
+            if (!timestamp.isPresent()) {
+                return null;
             }
-            sent = sentence;
-            prevEnd = sent.getEnd();
+            timestamps.put(user, timestamp.get());
+        }
+
+        List<String> entryTypes = new ArrayList<>();
+        for (Type type : aEntryTypes) {
+            entryTypes.add(type.getName());
+        }
+
+        return Arrays.asList(aDocument.getId(), aMode, diffRangeBegin, diffRangeEnd, entryTypes,
+                timestamps);
+    }
+
+    static SegmentStates getCachedSegmentStates(List<Object> aKey)
+    {
+        if (aKey == null) {
+            return null;
+        }
+
+        synchronized (SEGMENT_STATES_CACHE) {
+            return SEGMENT_STATES_CACHE.get(aKey);
+        }
+    }
+
+    static void cacheSegmentStates(List<Object> aKey, SegmentStates aSegmentStates)
+    {
+        if (aKey == null) {
+            return;
+        }
+
+        synchronized (SEGMENT_STATES_CACHE) {
+            SEGMENT_STATES_CACHE.put(aKey, aSegmentStates);
+        }
+    }
+
+    static class SegmentStates
+    {
+        private final Map<Integer, Integer> segmentEnds;
+        private final CrossSentenceIndex crossSentenceIndex;
+        private final Map<Integer, SentenceState> sentenceStates;
+
+        public SegmentStates(Map<Integer, Integer> aSegmentEnds,
+                CrossSentenceIndex aCrossSentenceIndex,
+                Map<Integer, SentenceState> aSentenceStates)
+        {
+            segmentEnds = aSegmentEnds;
+            crossSentenceIndex = aCrossSentenceIndex;
+            sentenceStates = aSentenceStates;
         }
-        return sent;
     }
 
     private Map<String, JCas> listJcasesforCorrection(AnnotationDocument randomAnnotationDocument,
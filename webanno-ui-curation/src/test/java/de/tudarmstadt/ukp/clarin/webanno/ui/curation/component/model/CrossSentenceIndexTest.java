@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+public class CrossSentenceIndexTest
+{
+    @Test
+    public void thatCrossSentenceAnnotationsAreIndexed() throws Exception
+    {
+        JCas user1 = createCas();
+        new NamedEntity(user1, 5, 15).addToIndexes();
+        new NamedEntity(user1, 23, 26).addToIndexes();
+
+        JCas user2 = createCas();
+        new NamedEntity(user2, 16, 26).addToIndexes();
+
+        Map<Integer, Integer> segmentBeginEnd = new HashMap<>();
+        Map<Integer, Integer> segmentNumber = new HashMap<>();
+        int n = 1;
+        for (Sentence s : select(user1, Sentence.class)) {
+            segmentBeginEnd.put(s.getBegin(), s.getEnd());
+            segmentNumber.put(s.getBegin(), n++);
+        }
+
+        CrossSentenceIndex sut = CrossSentenceIndex.build(segmentBeginEnd, segmentNumber,
+                asList(user1, user2), asList(getType(user1.getCas(), NamedEntity.class)), 0,
+                27);
+
+        assertEquals(new HashSet<>(asList(2)), sut.getCrossSentences(1));
+        assertEquals(new HashSet<>(asList(1, 3)), sut.getCrossSentences(2));
+        assertEquals(new HashSet<>(asList(2)), sut.getCrossSentences(3));
+        assertEquals(emptySet(), sut.getCrossSentences(4));
+
+        // Segments are extended to the end of the sentence in which a crossing annotation ends
+        Map<Integer, Integer> expectedEnds = new HashMap<>();
+        expectedEnds.put(0, 21);
+        expectedEnds.put(11, 27);
+        assertEquals(expectedEnds, sut.getSegmentEnds());
+    }
+
+    private JCas createCas() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("aaaa bbbb. cccc dddd. eeee.");
+        new Sentence(jcas, 0, 10).addToIndexes();
+        new Sentence(jcas, 11, 21).addToIndexes();
+        new Sentence(jcas, 22, 27).addToIndexes();
+        return jcas;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.fit.util.selectCovered;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ArcDiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.SpanDiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+import mockit.Mock;
+import mockit.MockUp;
+
+public class SuggestionBuilderTest
+{
+    private static final String TEXT = "aaaa bbbb. cccc dddd. eeee ffff. gggg hhhh.";
+
+    private Map<String, Long> timestamps;
+    private SourceDocument document;
+    private SuggestionBuilder sut;
+
+    @Before
+    public void setup()
+    {
+        timestamps = new HashMap<>();
+
+        document = new SourceDocument();
+        document.setId(1L);
+
+        DocumentService documentService = new MockUp<DocumentService>()
+        {
+            @Mock
+            Optional<Long> getAnnotationCasTimestamp(SourceDocument aDocument, String aUsername)
+            {
+                return Optional.ofNullable(timestamps.get(aUsername));
+            }
+        }.getMockInstance();
+
+        sut = new SuggestionBuilder(null, documentService, null, null, null, null);
+    }
+
+    @Test
+    public void thatDocumentStatesEqualSentenceStates() throws Exception
+    {
+        Map<String, JCas> jcases = new LinkedHashMap<>();
+        jcases.put("user1", createCas());
+        jcases.put("user2", createCas());
+        jcases.put("user3", createCas());
+
+        // Sentence 1: all users agree on a POS tag, a named entity and a dependency
+        for (JCas jcas : jcases.values()) {
+            makePos(jcas, 0, 4, "NN");
+            makeNamedEntity(jcas, 5, 9, "PER");
+            makeDependency(jcas, 0, 5, "nsubj");
+        }
+
+        // Sentence 2: one user uses a different POS tag
+        makePos(jcases.get("user1"), 11, 15, "NN");
+        makePos(jcases.get("user2"), 11, 15, "VB");
+        makePos(jcases.get("user3"), 11, 15, "NN");
+
+        // Sentence 3: one user did not annotate the named entity
+        makeNamedEntity(jcases.get("user1"), 22, 26, "LOC");
+        makeNamedEntity(jcases.get("user2"), 22, 26, "LOC");
+
+        // Sentence 4: one user has stacked named entities
+        makeNamedEntity(jcases.get("user1"), 33, 37, "LOC");
+        makeNamedEntity(jcases.get("user1"), 33, 37, "ORG");
+        makeNamedEntity(jcases.get("user2"), 33, 37, "LOC");
+        makeNamedEntity(jcases.get("user3"), 33, 37, "LOC");
+        // ... and all users agree on the label of the last token
+        for (JCas jcas : jcases.values()) {
+            makePos(jcas, 38, 42, "NN");
+        }
+
+        JCas jcas = jcases.get("user1");
+        List<Type> entryTypes = asList(getType(jcas.getCas(), POS.class),
+                getType(jcas.getCas(), NamedEntity.class),
+                getType(jcas.getCas(), Dependency.class));
+        List<DiffAdapter> adapters = asList(SpanDiffAdapter.POS, SpanDiffAdapter.NER,
+                ArcDiffAdapter.DEPENDENCY);
+
+        Map<Integer, Integer> segmentBeginEnd = new LinkedHashMap<>();
+        for (Sentence s : select(jcas, Sentence.class)) {
+            segmentBeginEnd.put(s.getBegin(), s.getEnd());
+        }
+
+        Map<Integer, SentenceState> expected = calculateSentenceStatesPerSentence(
+                segmentBeginEnd, entryTypes, adapters, jcases);
+        Map<Integer, SentenceState> actual = sut.calculateSentenceStates(segmentBeginEnd,
+                entryTypes, adapters, jcases);
+
+        assertEquals(expected, actual);
+
+        // Make sure the fixture actually covers both states
+        assertEquals(SentenceState.AGREE, actual.get(0));
+        assertEquals(SentenceState.DISAGREE, actual.get(11));
+        assertEquals(SentenceState.DISAGREE, actual.get(22));
+        assertEquals(SentenceState.DISAGREE, actual.get(33));
+    }
+
+    @Test
+    public void thatCacheMissesAfterCasTimestampChange() throws Exception
+    {
+        timestamps.put("user1", 1000L);
+        timestamps.put("user2", 2000L);
+
+        JCas jcas = createCas();
+        List<Type> entryTypes = asList(getType(jcas.getCas(), POS.class));
+        SuggestionBuilder.SegmentStates states = new SuggestionBuilder.SegmentStates(
+                new HashMap<>(), null, new HashMap<>());
+
+        List<Object> key = sut.getSegmentStatesCacheKey(document, Mode.CURATION,
+                timestamps.keySet(), entryTypes);
+        SuggestionBuilder.cacheSegmentStates(key, states);
+
+        assertSame(states, SuggestionBuilder.getCachedSegmentStates(
+                sut.getSegmentStatesCacheKey(document, Mode.CURATION, timestamps.keySet(),
+                        entryTypes)));
+
+        // Saving the CAS of one user invalidates the states
+        timestamps.put("user2", 3000L);
+
+        assertNull(SuggestionBuilder.getCachedSegmentStates(
+                sut.getSegmentStatesCacheKey(document, Mode.CURATION, timestamps.keySet(),
+                        entryTypes)));
+    }
+
+    /**
+     * Calculates the sentence states by running a separate diff for each sentence - this is how
+     * the states were calculated before the whole document was diffed at once.
+     */
+    private Map<Integer, SentenceState> calculateSentenceStatesPerSentence(
+            Map<Integer, Integer> aSegmentBeginEnd, List<Type> aEntryTypes,
+            List<DiffAdapter> aAdapters, Map<String, JCas> aJCases)
+    {
+        Map<Integer, SentenceState> sentenceStates = new HashMap<>();
+        for (Integer begin : aSegmentBeginEnd.keySet()) {
+            Integer end = aSegmentBeginEnd.get(begin);
+
+            DiffResult diff = CasDiff2.doDiffSingle(aEntryTypes, aAdapters, LINK_ROLE_AS_LABEL,
+                    aJCases, begin, end);
+
+            if (diff.hasDifferences() || !diff.getIncompleteConfigurationSets().isEmpty()) {
+                boolean stackedDiff = false;
+
+                stackedDiffSet: for (ConfigurationSet d : diff.getDifferingConfigurationSets()
+                        .values()) {
+                    for (Configuration c : d.getConfigurations()) {
+                        if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
+                            stackedDiff = true;
+                            break stackedDiffSet;
+                        }
+                    }
+                }
+
+                if (stackedDiff || !diff.getIncompleteConfigurationSets().isEmpty()) {
+                    sentenceStates.put(begin, SentenceState.DISAGREE);
+                }
+                else {
+                    sentenceStates.put(begin, SentenceState.AGREE);
+                }
+            }
+            else {
+                sentenceStates.put(begin, SentenceState.AGREE);
+            }
+        }
+        return sentenceStates;
+    }
+
+    private JCas createCas() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(TEXT);
+        new Sentence(jcas, 0, 10).addToIndexes();
+        new Sentence(jcas, 11, 21).addToIndexes();
+        new Sentence(jcas, 22, 32).addToIndexes();
+        new Sentence(jcas, 33, 43).addToIndexes();
+        Matcher m = Pattern.compile("\\w+").matcher(TEXT);
+        while (m.find()) {
+            new Token(jcas, m.start(), m.end()).addToIndexes();
+        }
+        return jcas;
+    }
+
+    private void makePos(JCas aJCas, int aBegin, int aEnd, String aValue)
+    {
+        POS pos = new POS(aJCas, aBegin, aEnd);
+        pos.setPosValue(aValue);
+        pos.addToIndexes();
+    }
+
+    private void makeNamedEntity(JCas aJCas, int aBegin, int aEnd, String aValue)
+    {
+        NamedEntity ne = new NamedEntity(aJCas, aBegin, aEnd);
+        ne.setValue(aValue);
+        ne.addToIndexes();
+    }
+
+    private void makeDependency(JCas aJCas, int aGovernorBegin, int aDependentBegin,
+            String aType)
+    {
+        Token governor = selectCovered(aJCas, Token.class, aGovernorBegin,
+                aGovernorBegin + 4).get(0);
+        Token dependent = selectCovered(aJCas, Token.class, aDependentBegin,
+                aDependentBegin + 4).get(0);
+        Dependency dep = new Dependency(aJCas, dependent.getBegin(), dependent.getEnd());
+        dep.setGovernor(governor);
+        dep.setDependent(dependent);
+        dep.setDependencyType(aType);
+        dep.addToIndexes();
+    }
+}
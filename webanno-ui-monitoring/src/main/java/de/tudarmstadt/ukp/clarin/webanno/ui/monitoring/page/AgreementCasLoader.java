@@ -0,0 +1,378 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.page;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+/**
+ * Loads the finished CASes of all annotators in a project in the background on the shared
+ * {@link AgreementCasLoaderExecutor}. The annotation documents are looked up in a single query up
+ * front. The progress can be polled while loading, e.g. to drive a progress bar.
+ * <p>
+ * If the result of a previous loader is passed in, CASes whose timestamp has not changed since are
+ * taken over from it instead of being loaded again. The timestamps also serve to derive a version
+ * for each document which changes whenever any of the document's CASes changes.
+ * <p>
+ * The CASes are read outside of a request cycle and therefore never come from or go into the
+ * CAS cache. This matters because the CASes are upgraded and their metadata is modified for the
+ * agreement calculation - changes which must not leak to annotators currently working on the
+ * same documents.
+ */
+class AgreementCasLoader
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AgreementCasLoader.class);
+
+    private final List<User> users;
+    private final List<SourceDocument> documents;
+    private final JCas[][] casses;
+    private final Long[][] timestamps;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+    private final AgreementCasLoaderExecutor executor;
+    private final List<LoadTask> tasks = new ArrayList<>();
+    private final CountDownLatch remaining;
+    private final int total;
+    
+    /**
+     * Time at which the page using this loader was detached or {@code 0} if the loader has been
+     * accessed since.
+     */
+    private volatile long detachedSince;
+    
+    private volatile boolean cancelled;
+
+    /**
+     * @param aPrevious
+     *            a previous loader for the same project from which unchanged CASes are taken
+     *            over. May be {@code null}. Must be {@link #isDone() done}.
+     */
+    public AgreementCasLoader(AgreementCasLoaderExecutor aExecutor,
+            DocumentService aDocumentService, AnnotationSchemaService aAnnotationService,
+            List<User> aUsers, List<SourceDocument> aDocuments,
+            List<AnnotationDocument> aFinishedDocuments, AgreementCasLoader aPrevious)
+    {
+        executor = aExecutor;
+        users = aUsers;
+        documents = aDocuments;
+        casses = new JCas[aUsers.size()][aDocuments.size()];
+        timestamps = new Long[aUsers.size()][aDocuments.size()];
+
+        Map<String, JCas> previousCasses = new HashMap<>();
+        Map<String, Long> previousTimestamps = new HashMap<>();
+        if (aPrevious != null) {
+            for (int u = 0; u < aPrevious.users.size(); u++) {
+                for (int d = 0; d < aPrevious.documents.size(); d++) {
+                    if (aPrevious.casses[u][d] != null) {
+                        String key = casKey(aPrevious.users.get(u), aPrevious.documents.get(d));
+                        previousCasses.put(key, aPrevious.casses[u][d]);
+                        previousTimestamps.put(key, aPrevious.timestamps[u][d]);
+                    }
+                }
+            }
+        }
+
+        // Index the finished annotation documents by user and source document so we do not have
+        // to go to the database for every user/document combination.
+        Map<String, Map<Long, AnnotationDocument>> index = new HashMap<>();
+        for (AnnotationDocument annDoc : aFinishedDocuments) {
+            index.computeIfAbsent(annDoc.getUser(), user -> new HashMap<>())
+                    .put(annDoc.getDocument().getId(), annDoc);
+        }
+
+        for (int u = 0; u < aUsers.size(); u++) {
+            Map<Long, AnnotationDocument> userDocs = index.get(aUsers.get(u).getUsername());
+            if (userDocs == null) {
+                continue;
+            }
+
+            for (int d = 0; d < aDocuments.size(); d++) {
+                AnnotationDocument annDoc = userDocs.get(aDocuments.get(d).getId());
+                if (annDoc == null) {
+                    continue;
+                }
+
+                final int userIndex = u;
+                final int docIndex = d;
+                final String key = casKey(aUsers.get(u), aDocuments.get(d));
+                tasks.add(new LoadTask(() -> {
+                    try {
+                        Long timestamp = aDocumentService
+                                .getAnnotationCasTimestamp(annDoc.getDocument(), annDoc.getUser())
+                                .orElse(null);
+                        JCas jcas = previousCasses.get(key);
+                        if (jcas == null || timestamp == null
+                                || !timestamp.equals(previousTimestamps.get(key))) {
+                            jcas = loadCas(aDocumentService, aAnnotationService, annDoc);
+                        }
+                        timestamps[userIndex][docIndex] = timestamp;
+                        casses[userIndex][docIndex] = jcas;
+                    }
+                    catch (Exception e) {
+                        LOG.error("Unable to load data", e);
+                        errors.add("Unable to load data: "
+                                + ExceptionUtils.getRootCauseMessage(e));
+                    }
+                    finally {
+                        completed.incrementAndGet();
+                    }
+                }));
+            }
+        }
+        total = tasks.size();
+        remaining = new CountDownLatch(total);
+
+        if (total > 0) {
+            executor.register(this);
+            for (LoadTask task : tasks) {
+                task.future = executor.submit(task);
+            }
+        }
+    }
+
+    private static JCas loadCas(DocumentService aDocumentService,
+            AnnotationSchemaService aAnnotationService, AnnotationDocument aAnnotationDocument)
+        throws Exception
+    {
+        JCas jCas = aDocumentService.readAnnotationCas(aAnnotationDocument);
+        aAnnotationService.upgradeCasIfRequired(jCas.getCas(), aAnnotationDocument);
+        // REC: I think there is no need to write the CASes here. We would not
+        // want to interfere with currently active annotator users
+
+        // Set the CAS name in the DocumentMetaData so that we can pick it
+        // up in the Diff position for the purpose of debugging / transparency.
+        DocumentMetaData documentMetadata = DocumentMetaData.get(jCas);
+        documentMetadata.setDocumentId(aAnnotationDocument.getDocument().getName());
+        documentMetadata.setCollectionId(aAnnotationDocument.getProject().getName());
+        return jCas;
+    }
+
+    private static String casKey(User aUser, SourceDocument aDocument)
+    {
+        return aUser.getUsername() + "/" + aDocument.getId();
+    }
+
+    /**
+     * Marks a task as finished, either because it has run or because it has been cancelled
+     * before it could run.
+     */
+    private void finished()
+    {
+        remaining.countDown();
+        if (remaining.getCount() == 0) {
+            executor.unregister(this);
+        }
+    }
+
+    /**
+     * Called when the page using this loader is detached. If the loader is not accessed again
+     * within a timeout, the {@link AgreementCasLoaderExecutor} cancels it.
+     */
+    public void detached()
+    {
+        detachedSince = System.currentTimeMillis();
+    }
+
+    boolean isDetachedBefore(long aCutoff)
+    {
+        long since = detachedSince;
+        return since != 0 && since < aCutoff;
+    }
+
+    private void accessed()
+    {
+        detachedSince = 0;
+    }
+
+    /**
+     * @return whether loading has been cancelled. The result of a cancelled loader is incomplete
+     *         and must not be used.
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public boolean isDone()
+    {
+        accessed();
+        return remaining.getCount() == 0;
+    }
+
+    /**
+     * @return the loading progress in percent.
+     */
+    public int getProgress()
+    {
+        accessed();
+        if (total == 0) {
+            return 100;
+        }
+        return (int) (100L * completed.get() / total);
+    }
+
+    public int getCompleted()
+    {
+        return completed.get();
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * Stop loading. CASes which are already being loaded are still completed.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        for (LoadTask task : tasks) {
+            if (task.claim()) {
+                // The task has not started yet and now never will
+                task.future.cancel(false);
+                finished();
+            }
+        }
+    }
+
+    /**
+     * Wait until all CASes have been loaded or the timeout has elapsed.
+     * 
+     * @return whether all CASes have been loaded.
+     */
+    public boolean await(long aTimeout, TimeUnit aUnit) throws InterruptedException
+    {
+        accessed();
+        return remaining.await(aTimeout, aUnit);
+    }
+
+    /**
+     * Wait until all CASes have been loaded.
+     */
+    public void await() throws InterruptedException
+    {
+        accessed();
+        remaining.await();
+    }
+
+    /**
+     * @return messages about CASes which could not be loaded. Each message is returned only once.
+     */
+    public List<String> drainErrors()
+    {
+        List<String> messages = new ArrayList<>();
+        String msg;
+        while ((msg = errors.poll()) != null) {
+            messages.add(msg);
+        }
+        return messages;
+    }
+
+    /**
+     * @return a version key per document which changes if any of the CASes of the document
+     *         change. Only valid once loading is {@link #isDone() done}.
+     */
+    public List<Object> getDocumentVersions()
+    {
+        List<Object> versions = new ArrayList<>();
+        for (int d = 0; d < documents.size(); d++) {
+            List<Object> version = new ArrayList<>();
+            version.add(documents.get(d).getId());
+            for (int u = 0; u < users.size(); u++) {
+                version.add(users.get(u).getUsername());
+                version.add(timestamps[u][d]);
+            }
+            versions.add(version);
+        }
+        return versions;
+    }
+
+    /**
+     * @return the CASes per user. The lists are in the order of the source documents and contain
+     *         {@code null} for documents the user has not finished. Only valid once loading is
+     *         {@link #isDone() done}.
+     */
+    public Map<String, List<JCas>> getResult()
+    {
+        Map<String, List<JCas>> result = new LinkedHashMap<>();
+        for (int u = 0; u < users.size(); u++) {
+            result.put(users.get(u).getUsername(), new ArrayList<>(Arrays.asList(casses[u])));
+        }
+        return result;
+    }
+
+    /**
+     * A task which either runs or is cancelled, but never both.
+     */
+    private class LoadTask
+        implements Runnable
+    {
+        private final Runnable delegate;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile Future<?> future;
+
+        private LoadTask(Runnable aDelegate)
+        {
+            delegate = aDelegate;
+        }
+
+        private boolean claim()
+        {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run()
+        {
+            if (!claim()) {
+                return;
+            }
+
+            try {
+                delegate.run();
+            }
+            finally {
+                finished();
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.page;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+/**
+ * Application-wide thread pool which loads the CASes for the agreement page. All
+ * {@link AgreementCasLoader loaders} share the same bounded number of threads, no matter how many
+ * users open the agreement page at the same time.
+ * <p>
+ * A loader whose page has been detached and is not accessed again within the configured timeout
+ * is considered abandoned, e.g. because the user navigated away while the CASes were still
+ * loading. The remaining tasks of such a loader are cancelled.
+ */
+@Component
+public class AgreementCasLoaderExecutor
+    implements SmartLifecycle
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Number of threads loading CASes. If this is {@code 0} or less, one thread per processor
+     * is used.
+     */
+    @Value(value = "${monitoring.agreement.threads:0}")
+    private int threads = 0;
+
+    /**
+     * Seconds after which a detached loader is cancelled if its page has not accessed it again.
+     */
+    @Value(value = "${monitoring.agreement.abandon-timeout:30}")
+    private long abandonTimeoutSeconds = 30;
+
+    private final Set<AgreementCasLoader> loaders = ConcurrentHashMap.newKeySet();
+
+    private boolean running = false;
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService sweeper;
+
+    Future<?> submit(Runnable aTask)
+    {
+        return executor.submit(aTask);
+    }
+
+    void register(AgreementCasLoader aLoader)
+    {
+        loaders.add(aLoader);
+    }
+
+    void unregister(AgreementCasLoader aLoader)
+    {
+        loaders.remove(aLoader);
+    }
+
+    int getLoaderCount()
+    {
+        return loaders.size();
+    }
+
+    private void cancelAbandonedLoaders()
+    {
+        cancelLoadersDetachedBefore(
+                System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(abandonTimeoutSeconds));
+    }
+
+    void cancelLoadersDetachedBefore(long aCutoff)
+    {
+        for (AgreementCasLoader loader : loaders) {
+            if (loader.isDetachedBefore(aCutoff)) {
+                log.info("Cancelling abandoned agreement CAS loader");
+                loader.cancel();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), aRunnable -> {
+                    Thread thread = new Thread(aRunnable,
+                            "agreement-cas-loader-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Do not keep threads around while nobody is looking at the agreement page
+        executor.allowCoreThreadTimeOut(true);
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(aRunnable -> {
+            Thread thread = new Thread(aRunnable, "agreement-cas-loader-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::cancelAbandonedLoaders, 10, 10, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+
+        for (AgreementCasLoader loader : loaders) {
+            loader.cancel();
+        }
+
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public int getPhase()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+}
@@ -24,11 +24,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.NoResultException;
 
@@ -63,6 +64,9 @@ import org.apache.wicket.util.string.StringValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wicketstuff.annotation.mount.MountPath;
+import org.wicketstuff.progressbar.ProgressBar;
+import org.wicketstuff.progressbar.Progression;
+import org.wicketstuff.progressbar.ProgressionModel;
 
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.PopoverBehavior;
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.PopoverConfig;
@@ -75,13 +79,12 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementReportExportFormat;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.IncrementalPairwiseAgreement;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
-import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
 import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
@@ -93,7 +96,6 @@ import de.tudarmstadt.ukp.clarin.webanno.support.AJAXDownload;
 import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaAjaxFormComponentUpdatingBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.support.wicket.OverviewListChoice;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.page.ApplicationPageBase;
-import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 @MountPath("/agreement.html")
@@ -108,6 +110,7 @@ public class AgreementPage
     private @SpringBean ProjectService projectService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean AgreementCasLoaderExecutor casLoaderExecutor;
 
     private ProjectSelectionForm projectSelectionForm;
     private AgreementForm agreementForm;
@@ -160,6 +163,12 @@ public class AgreementPage
         try {
             if (aClearCache) {
                 cachedCASes = null;
+                loadedCASes = null;
+                agreements = null;
+                if (casLoader != null) {
+                    casLoader.cancel();
+                    casLoader = null;
+                }
             }
             agreementForm.agreementTable2.getDefaultModel().detach();
             if (aTarget != null && agreementForm.agreementTable2.isVisibleInHierarchy()) {
@@ -181,16 +190,20 @@ public class AgreementPage
     // persisted state.
     private transient Map<String, List<JCas>> cachedCASes;
 
-    /**
-     * Get the finished CASes used to compute agreement.
-     */
-    private Map<String, List<JCas>> getJCases()
-    {
-        // Avoid reloading the CASes when switching features.
-        if (cachedCASes != null) {
-            return cachedCASes;
-        }
+    // The loader which produced the cached CASes. Knows the versions of the loaded documents.
+    private transient AgreementCasLoader loadedCASes;
+
+    // Background loader for the CASes. Also transient - if it is lost, getJCases() simply loads
+    // the CASes again.
+    private transient AgreementCasLoader casLoader;
+
+    // Incremental agreement calculations per layer and link compare behavior. These remember
+    // the diffs of the individual documents such that only changed documents need to be diffed
+    // again when the agreement table is refreshed.
+    private transient Map<String, IncrementalPairwiseAgreement> agreements;
 
+    private AgreementCasLoader createCasLoader()
+    {
         Project project = projectSelectionForm.getModelObject().project;
 
         List<User> users = projectService.listProjectUsersWithPermissions(project,
@@ -198,51 +211,124 @@ public class AgreementPage
 
         List<SourceDocument> sourceDocuments = documentService.listSourceDocuments(project);
 
-        cachedCASes = new LinkedHashMap<>();
-        for (User user : users) {
-            List<JCas> cases = new ArrayList<>();
-
-            for (SourceDocument document : sourceDocuments) {
-                JCas jCas = null;
-
-                // Load the CAS if there is a finished one.
-                if (documentService.existsAnnotationDocument(document, user)) {
-                    AnnotationDocument annotationDocument = documentService
-                            .getAnnotationDocument(document, user);
-                    if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
-                        try {
-                            jCas = documentService.readAnnotationCas(annotationDocument);
-                            annotationService.upgradeCasIfRequired(jCas.getCas(),
-                                    annotationDocument);
-                            // REC: I think there is no need to write the CASes here. We would not
-                            // want to interfere with currently active annotator users
-
-                            // Set the CAS name in the DocumentMetaData so that we can pick it
-                            // up in the Diff position for the purpose of debugging / transparency.
-                            DocumentMetaData documentMetadata = DocumentMetaData.get(jCas);
-                            documentMetadata
-                                    .setDocumentId(annotationDocument.getDocument().getName());
-                            documentMetadata
-                                    .setCollectionId(annotationDocument.getProject().getName());
-                        }
-                        catch (Exception e) {
-                            LOG.error("Unable to load data", e);
-                            error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
-                        }
-                    }
-                }
+        List<AnnotationDocument> finishedDocuments = documentService
+                .listFinishedAnnotationDocuments(project);
+
+        return new AgreementCasLoader(casLoaderExecutor, documentService, annotationService,
+                users, sourceDocuments, finishedDocuments, loadedCASes);
+    }
+
+    /**
+     * Drops the background loader if it has been cancelled because the page was abandoned for
+     * too long. Its result is incomplete, so the CASes need to be loaded again.
+     */
+    private void discardCancelledCasLoader()
+    {
+        if (casLoader != null && casLoader.isCancelled()) {
+            casLoader = null;
+        }
+    }
 
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(jCas);
+    @Override
+    protected void onDetach()
+    {
+        // If the page is not accessed again, e.g. because the user navigated away while the
+        // CASes are still loading, the remaining loading tasks are cancelled.
+        if (casLoader != null) {
+            casLoader.detached();
+        }
+
+        super.onDetach();
+    }
+
+    /**
+     * Start (re-)loading the finished CASes in the background unless they are already being
+     * loaded. CASes which have not changed since they were last loaded are re-used. If loading
+     * does not complete quickly, the progress is shown in a progress bar and the agreement table
+     * is updated once loading is complete.
+     */
+    private void startLoadingJCases(AjaxRequestTarget aTarget)
+    {
+        discardCancelledCasLoader();
+        if (casLoader != null) {
+            return;
+        }
+
+        casLoader = createCasLoader();
+
+        try {
+            if (casLoader.await(500, TimeUnit.MILLISECONDS)) {
+                finishLoadingJCases();
+                return;
             }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        agreementForm.casLoadingProgress.start(aTarget);
+    }
+
+    private boolean isLoadingJCases()
+    {
+        discardCancelledCasLoader();
+        return casLoader != null && casLoader.getProgress() < 100;
+    }
+
+    private void finishLoadingJCases()
+    {
+        casLoader.drainErrors().forEach(this::error);
+        cachedCASes = casLoader.getResult();
+        loadedCASes = casLoader;
+        casLoader = null;
+    }
+
+    /**
+     * Get the finished CASes used to compute agreement. If the CASes are still being loaded in the
+     * background, this waits until loading is complete.
+     */
+    private Map<String, List<JCas>> getJCases()
+    {
+        discardCancelledCasLoader();
+        
+        // Avoid reloading the CASes when switching features.
+        if (cachedCASes != null && casLoader == null) {
+            return cachedCASes;
+        }
 
-            cachedCASes.put(user.getUsername(), cases);
+        if (casLoader == null) {
+            casLoader = createCasLoader();
         }
 
+        try {
+            casLoader.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            casLoader.cancel();
+            casLoader = null;
+            throw new IllegalStateException("Interrupted while loading data", e);
+        }
+
+        finishLoadingJCases();
+
         return cachedCASes;
     }
 
+    private IncrementalPairwiseAgreement getAgreement(AnnotationFeature aFeature,
+            LinkCompareBehavior aLinkCompareBehavior)
+    {
+        if (agreements == null) {
+            agreements = new HashMap<>();
+        }
+
+        String layer = aFeature.getLayer().getName();
+        return agreements.computeIfAbsent(layer + "|" + aLinkCompareBehavior,
+                key -> new IncrementalPairwiseAgreement(layer,
+                        CasDiff2.getAdapters(annotationService, aFeature.getProject()),
+                        aLinkCompareBehavior));
+    }
+
     private class AgreementForm
         extends Form<AgreementFormModel>
     {
@@ -260,6 +346,8 @@ public class AgreementPage
 
         private CheckBox excludeIncomplete;
 
+        private ProgressBar casLoadingProgress;
+
         public AgreementForm(String id)
         {
             super(id, new CompoundPropertyModel<>(new AgreementFormModel()));
@@ -403,23 +491,60 @@ public class AgreementPage
                                 return null;
                             }
 
-                            Map<String, List<JCas>> casMap = getJCases();
+                            // The table is updated again once the CASes have been loaded.
+                            if (isLoadingJCases()) {
+                                return null;
+                            }
 
-                            Project project = projectSelectionForm.getModelObject().project;
-                            List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService,
-                                    project);
+                            Map<String, List<JCas>> casMap = getJCases();
 
                             AgreementFormModel pref = AgreementForm.this.getModelObject();
 
-                            DiffResult diff = CasDiff2.doDiff(asList(feature.getLayer().getName()),
-                                    adapters, pref.linkCompareBehavior, casMap);
-                            return AgreementUtils.getPairwiseAgreement(
-                                    AgreementForm.this.getModelObject().measure,
-                                    pref.excludeIncomplete, diff, feature.getLayer().getName(),
-                                    feature.getName(), casMap);
+                            // Only documents changed since the last calculation are diffed again
+                            return getAgreement(feature, pref.linkCompareBehavior)
+                                    .getPairwiseAgreement(pref.measure, pref.excludeIncomplete,
+                                            feature.getName(), casMap,
+                                            loadedCASes.getDocumentVersions());
                         }
                     }));
 
+            casLoadingProgress = new ProgressBar("casLoadingProgress", new ProgressionModel()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Progression getProgression()
+                {
+                    if (casLoader == null) {
+                        return new Progression(100);
+                    }
+
+                    return new Progression(casLoader.getProgress(), String.format(
+                            "Loading documents: %d / %d", casLoader.getCompleted(),
+                            casLoader.getTotal()));
+                }
+            })
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void onConfigure()
+                {
+                    super.onConfigure();
+
+                    setVisible(isLoadingJCases());
+                }
+
+                @Override
+                protected void onFinished(AjaxRequestTarget aTarget)
+                {
+                    aTarget.add(getFeedbackPanel());
+                    updateAgreementTable(aTarget, false);
+                    aTarget.add(agreementForm);
+                }
+            };
+            agreementResults.add(casLoadingProgress);
+
             exportAll = new AjaxButton("exportAll")
             {
                 private static final long serialVersionUID = 3908727116180563330L;
@@ -451,15 +576,11 @@ public class AgreementPage
 
                                     Map<String, List<JCas>> casMap = getJCases();
 
-                                    Project project = projectSelectionForm.getModelObject().project;
-                                    List<DiffAdapter> adapters = CasDiff2
-                                            .getAdapters(annotationService, project);
-
                                     AgreementFormModel pref = AgreementForm.this.getModelObject();
 
-                                    DiffResult diff = CasDiff2.doDiff(
-                                            asList(feature.getLayer().getName()), adapters,
-                                            pref.linkCompareBehavior, casMap);
+                                    DiffResult diff = getAgreement(feature,
+                                            pref.linkCompareBehavior).getDiff(casMap,
+                                                    loadedCASes.getDocumentVersions());
 
                                     AgreementResult agreementResult = AgreementUtils.makeStudy(diff,
                                             feature.getLayer().getName(), feature.getName(),
@@ -528,6 +649,11 @@ public class AgreementPage
                     // add the feedback panel to the cycle, so let's do it here.
                     aTarget.add(getFeedbackPanel());
 
+                    // Load the CASes in the background so we can show the progress
+                    if (featureList.getModelObject() != null) {
+                        startLoadingJCases(aTarget);
+                    }
+
                     updateAgreementTable(aTarget, false);
                     // // Adding this as well because when choosing a different measure, it may
                     // affect
@@ -510,22 +510,12 @@ public class MonitoringPage
     {
         Map<String, Integer> annotatorsProgress = new HashMap<>();
         if (aProject != null) {
+            Map<String, Map<AnnotationDocumentState, Integer>> stateCounts = documentService
+                    .countAnnotationDocumentStatesPerUser(aProject);
             for (User user : projectService.listProjectUsersWithPermissions(aProject,
                     PermissionLevel.ANNOTATOR)) {
-                for (SourceDocument document : documentService.listSourceDocuments(aProject)) {
-                    if (documentService.isAnnotationFinished(document, user)) {
-                        if (annotatorsProgress.get(user.getUsername()) == null) {
-                            annotatorsProgress.put(user.getUsername(), 1);
-                        }
-                        else {
-                            int previousValue = annotatorsProgress.get(user.getUsername());
-                            annotatorsProgress.put(user.getUsername(), previousValue + 1);
-                        }
-                    }
-                }
-                if (annotatorsProgress.get(user.getUsername()) == null) {
-                    annotatorsProgress.put(user.getUsername(), 0);
-                }
+                annotatorsProgress.put(user.getUsername(),
+                        getStateCount(stateCounts, user, AnnotationDocumentState.FINISHED));
             }
         }
         return annotatorsProgress;
@@ -535,31 +525,29 @@ public class MonitoringPage
     {
         Map<String, Integer> annotatorsProgress = new HashMap<>();
         if (aProject != null) {
+            Map<String, Map<AnnotationDocumentState, Integer>> stateCounts = documentService
+                    .countAnnotationDocumentStatesPerUser(aProject);
+            int totalDocs = documentService.listSourceDocuments(aProject).size();
             for (User user : projectService.listProjectUsersWithPermissions(aProject,
                     PermissionLevel.ANNOTATOR)) {
-                int finished = 0;
-                int ignored = 0;
-                int totalDocs = 0;
-                List<SourceDocument> documents = documentService.listSourceDocuments(aProject);
-                for (SourceDocument document : documents) {
-                    totalDocs++;
-                    if (documentService.isAnnotationFinished(document, user)) {
-                        finished++;
-                    }
-                    else if (documentService.existsAnnotationDocument(document, user)) {
-                        AnnotationDocument annotationDocument = documentService
-                                .getAnnotationDocument(document, user);
-                        if (annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)) {
-                            ignored++;
-                        }
-                    }
-                }
+                int finished = getStateCount(stateCounts, user, AnnotationDocumentState.FINISHED);
+                int ignored = getStateCount(stateCounts, user, AnnotationDocumentState.IGNORE);
                 annotatorsProgress.put(user.getUsername(),
                         (int) Math.round((double) (finished * 100) / (totalDocs - ignored)));
             }
         }
         return annotatorsProgress;
     }
+    
+    private int getStateCount(Map<String, Map<AnnotationDocumentState, Integer>> aStateCounts,
+            User aUser, AnnotationDocumentState aState)
+    {
+        Map<AnnotationDocumentState, Integer> userCounts = aStateCounts.get(aUser.getUsername());
+        if (userCounts == null) {
+            return 0;
+        }
+        return userCounts.getOrDefault(aState, 0);
+    }
 
     private Map<String, Integer> getOverallProjectProgress()
     {